@@ -0,0 +1,99 @@
+package com.abc.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 整个评分批处理作业：旧的DataSet实现与DataStream（BATCH模式）实现在同一份ratings.csv上对比
+ * 每次迭代完整执行一次作业（读取、解析、按电影聚合、三种排行榜、写入本地结果存储），
+ * 结果写到临时目录，不影响data/result-store。
+ * 数据文件默认 data/ml-latest/ratings.csv（约3千万行），可用 -Dbenchmark.ratings=路径 指定。
+ * 除墙钟时间和GC分配外，每次迭代结束时把堆内存峰值打印到标准错误输出。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BatchJobBenchmark {
+
+    @Param({"dataset", "datastream"})
+    private String api;
+
+    private String ratingsPath;
+    private Path storeDir;
+    private MovieRatingFlinkService service;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ratingsPath = System.getProperty("benchmark.ratings", "data/ml-latest/ratings.csv");
+        if (!new File(ratingsPath).isFile()) {
+            throw new IllegalStateException("评分数据文件不存在: " + new File(ratingsPath).getAbsolutePath());
+        }
+        storeDir = Files.createTempDirectory("batch-job-benchmark");
+
+        LocalRatingResultStore store = new LocalRatingResultStore();
+        BenchmarkSupport.setField(store, "storeDir", storeDir.toString());
+        BenchmarkSupport.setField(store, "maxMovieId", 1000000L);
+
+        service = new MovieRatingFlinkService();
+        BenchmarkSupport.setField(service, "resultStore", store);
+        BenchmarkSupport.setField(service, "rankingTopN", 100);
+        BenchmarkSupport.setField(service, "rankingMinCount", 50L);
+        BenchmarkSupport.setField(service, "bayesianPriorCount", 100L);
+        BenchmarkSupport.setField(service, "flinkParallelism", Runtime.getRuntime().availableProcessors());
+        BenchmarkSupport.setField(service, "progressInterval", Integer.MAX_VALUE);
+        BenchmarkSupport.setField(service, "flinkApi", api);
+        BenchmarkSupport.setField(service, "executionMode", "batch");
+        // -Dbenchmark.skew=false 关闭热门键加盐，对比倾斜处理的效果
+        BenchmarkSupport.setField(service, "skewEnabled", Boolean.parseBoolean(System.getProperty("benchmark.skew", "true")));
+        BenchmarkSupport.setField(service, "skewSampleSize", 100000);
+        BenchmarkSupport.setField(service, "heavyKeyFraction", 0.1);
+        BenchmarkSupport.setField(service, "maxHeavyKeys", 1000);
+        BenchmarkSupport.muteStdout();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakUsage() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.err.printf("[%s] 堆内存峰值: %dMB%n", api, peak / (1024 * 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.restoreStdout();
+        try (Stream<Path> files = Files.walk(storeDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void runJob() throws Exception {
+        // 与/process接口相同的入口，按flinkApi选择实现；不传进度跟踪，不做行数估计
+        service.processMovieRatings(ratingsPath, null, null);
+    }
+}
@@ -0,0 +1,40 @@
+package com.abc.service;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 基准测试入口
+ * 默认运行全部基准，可传入正则只运行部分，例如：HotMovieRanking
+ * 开启GC分配分析（gc.alloc.rate.norm即每次操作分配的字节数），结果以JSON写入 benchmark-results/ 便于做趋势对比
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : "com\\.abc\\.service\\..*Benchmark";
+
+        File resultDir = new File("benchmark-results");
+        if (!resultDir.exists() && !resultDir.mkdirs()) {
+            throw new IllegalStateException("无法创建结果目录: " + resultDir.getAbsolutePath());
+        }
+        String resultFile = new File(resultDir,
+                "jmh-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json").getPath();
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+
+        new Runner(options).run();
+        System.out.println("基准测试结果已写入: " + resultFile);
+    }
+}
@@ -0,0 +1,64 @@
+package com.abc.service;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+
+/**
+ * 基准测试公共工具
+ * 服务类依赖Spring的字段注入和私有状态，这里用反射完成装配和重置
+ */
+final class BenchmarkSupport {
+
+    private static final PrintStream ORIGINAL_OUT = System.out;
+
+    private BenchmarkSupport() {}
+
+    /**
+     * 屏蔽服务内部逐条打印的日志，避免控制台IO淹没被测代码本身的开销
+     */
+    static void muteStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    static void restoreStdout() {
+        System.setOut(ORIGINAL_OUT);
+    }
+
+    static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法设置字段 " + name, e);
+        }
+    }
+
+    static Object getField(Object target, String name) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法读取字段 " + name, e);
+        }
+    }
+
+    /**
+     * 清空HotMovieStreamService的窗口数据、上升趋势计数和排行榜缓存
+     */
+    static void resetHotMovieState(HotMovieStreamService service) {
+        ((HotMovieWindow) getField(service, "window")).clear();
+        ((TrendingTracker) getField(service, "trendingTracker")).clear();
+        service.clearHotMoviesCache();
+    }
+}
@@ -0,0 +1,61 @@
+package com.abc.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HotMovieStreamService.addRatingData 写入吞吐
+ * 单线程与多线程并发写入各一组，窗口在每轮迭代前清空，避免窗口持续变大导致各轮结果不可比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotMovieIngestBenchmark {
+
+    @Param({"100", "10000"})
+    public int movieCount;
+
+    private HotMovieStreamService service;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        BenchmarkSupport.muteStdout();
+        service = new HotMovieStreamService();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetWindow() {
+        BenchmarkSupport.resetHotMovieState(service);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        BenchmarkSupport.resetHotMovieState(service);
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void ingestSingleThread() {
+        ingestOne();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void ingestFourThreads() {
+        ingestOne();
+    }
+
+    private void ingestOne() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        service.addRatingData(
+                (long) random.nextInt(1000) + 1,
+                (long) random.nextInt(movieCount) + 1,
+                random.nextInt(1, 11) / 2.0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.abc.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HotMovieStreamService.calculateHotMovies 排行计算耗时，按窗口内事件数和电影基数组合测量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotMovieRankingBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int windowSize;
+
+    @Param({"100", "10000", "100000"})
+    public int movieCount;
+
+    private HotMovieStreamService service;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.muteStdout();
+        service = new HotMovieStreamService();
+        BenchmarkSupport.resetHotMovieState(service);
+
+        long timestamp = System.currentTimeMillis();
+        Random random = new Random(42);
+        List<HotMovieStreamService.RatingData> window = new ArrayList<>(windowSize);
+        for (int i = 0; i < windowSize; i++) {
+            window.add(new HotMovieStreamService.RatingData(
+                    (long) random.nextInt(100000) + 1,
+                    (long) random.nextInt(movieCount) + 1,
+                    (random.nextInt(10) + 1) / 2.0,
+                    // 分散到最近一分钟内的各个桶，测量期间始终在窗口内
+                    timestamp - random.nextInt(60000)));
+        }
+        service.addRatingDataBatch(window);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.resetHotMovieState(service);
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public List<HotMovieStreamService.HotMovie> calculateHotMovies() {
+        service.calculateHotMovies();
+        return service.getCurrentHotMovies();
+    }
+}
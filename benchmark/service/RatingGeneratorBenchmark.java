@@ -0,0 +1,51 @@
+package com.abc.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RatingDataGeneratorService单条事件的生成开销（含写入热门电影计算服务）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingGeneratorBenchmark {
+
+    private HotMovieStreamService hotMovieStreamService;
+    private RatingDataGeneratorService generator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.muteStdout();
+        hotMovieStreamService = new HotMovieStreamService();
+
+        // 与application配置中的默认值保持一致
+        generator = new RatingDataGeneratorService();
+        BenchmarkSupport.setField(generator, "hotMovieStreamService", hotMovieStreamService);
+        BenchmarkSupport.setField(generator, "movieCount", 100);
+        BenchmarkSupport.setField(generator, "userCount", 1000);
+        BenchmarkSupport.setField(generator, "hotMovieRatio", 0.3);
+        BenchmarkSupport.setField(generator, "minRating", 1.0);
+        BenchmarkSupport.setField(generator, "maxRating", 5.0);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetWindow() {
+        BenchmarkSupport.resetHotMovieState(hotMovieStreamService);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.resetHotMovieState(hotMovieStreamService);
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public void generateEvent() {
+        generator.generateAndSendRating();
+    }
+}
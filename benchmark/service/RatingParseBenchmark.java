@@ -0,0 +1,62 @@
+package com.abc.service;
+
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple4;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批处理作业中逐行执行的函数：CSV行解析（ParseRatingFunction）和平均分计算（CalculateAverageFunction）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingParseBenchmark {
+
+    private static final int LINE_COUNT = 4096;
+
+    private String[] lines;
+    private Tuple3<Long, Double, Long>[] sums;
+    private MovieRatingFlinkService.ParseRatingFunction parseFunction;
+    private MovieRatingFlinkService.CalculateAverageFunction averageFunction;
+    private int index;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        BenchmarkSupport.muteStdout();
+        Random random = new Random(42);
+        lines = new String[LINE_COUNT];
+        sums = new Tuple3[LINE_COUNT];
+        for (int i = 0; i < LINE_COUNT; i++) {
+            // 与ml-latest/ratings.csv相同的格式：userId,movieId,rating,timestamp
+            lines[i] = (random.nextInt(280000) + 1) + "," + (random.nextInt(190000) + 1) + ","
+                    + ((random.nextInt(10) + 1) / 2.0) + "," + (1100000000L + random.nextInt(400000000));
+            long count = random.nextInt(50000) + 1;
+            sums[i] = new Tuple3<>((long) i, count * 3.5, count);
+        }
+        // 进度间隔取最大值，只测解析本身
+        parseFunction = new MovieRatingFlinkService.ParseRatingFunction(Integer.MAX_VALUE);
+        averageFunction = new MovieRatingFlinkService.CalculateAverageFunction();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.restoreStdout();
+    }
+
+    @Benchmark
+    public Tuple4<Long, Long, Double, Long> parseLine() {
+        return parseFunction.map(lines[index++ & (LINE_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public Tuple3<Long, Double, Long> calculateAverage() throws Exception {
+        return averageFunction.map(sums[index++ & (LINE_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,288 @@
+package com.abc.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 应用内所有后台线程的统一来源
+ *
+ * 各服务不再自行new Thread或创建线程池，而是在这里按名称申请：
+ *   newScheduler       定时任务
+ *   newBoundedPool     固定线程数、有界队列的线程池，队列满时拒绝（RejectedExecutionException）
+ *   newBlockingExecutor 阻塞的HBase/REST调用；运行在支持虚拟线程的JVM上且开启executor.virtual-threads.enabled时
+ *                      每个任务一个虚拟线程，用信号量限制同时执行的任务数，否则退化为有界线程池
+ * 线程均按“名称-序号”命名；getMetrics返回每个执行器的线程数、活跃数、排队数、完成数和拒绝数；
+ * 应用关闭时统一停止，先等待正在执行的任务，超时后中断。
+ */
+@Component
+public class ExecutorRegistry {
+
+    @Value("${executor.virtual-threads.enabled:true}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${executor.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    private final Map<String, ManagedExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * 已登记的执行器及其指标来源
+     */
+    private static class ManagedExecutor {
+        final String name;
+        final String type;
+        final ExecutorService executor;
+        final AtomicLong rejected;
+
+        ManagedExecutor(String name, String type, ExecutorService executor, AtomicLong rejected) {
+            this.name = name;
+            this.type = type;
+            this.executor = executor;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * 定时任务执行器
+     */
+    public ScheduledExecutorService newScheduler(String name, int threads) {
+        AtomicLong rejected = new AtomicLong();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, namedThreadFactory(name),
+                countingAbortPolicy(name, rejected));
+        // 取消的定时任务立即移出队列，避免反复启停后堆积
+        scheduler.setRemoveOnCancelPolicy(true);
+        register(new ManagedExecutor(name, "scheduled", scheduler, rejected));
+        return scheduler;
+    }
+
+    /**
+     * 固定线程数、有界队列的线程池
+     */
+    public ExecutorService newBoundedPool(String name, int threads, int queueCapacity) {
+        AtomicLong rejected = new AtomicLong();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), namedThreadFactory(name),
+                countingAbortPolicy(name, rejected));
+        pool.allowCoreThreadTimeOut(true);
+        register(new ManagedExecutor(name, "bounded", pool, rejected));
+        return pool;
+    }
+
+    /**
+     * 阻塞IO执行器：优先使用虚拟线程
+     *
+     * @param maxConcurrency 同时执行的任务数上限
+     * @param queueCapacity  等待执行的任务数上限，超出时拒绝
+     */
+    public ExecutorService newBlockingExecutor(String name, int maxConcurrency, int queueCapacity) {
+        ThreadFactory virtualFactory = virtualThreadsEnabled ? virtualThreadFactory(name) : null;
+        if (virtualFactory == null) {
+            return newBoundedPool(name, maxConcurrency, queueCapacity);
+        }
+        AtomicLong rejected = new AtomicLong();
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(name, virtualFactory, maxConcurrency, queueCapacity, rejected);
+        register(new ManagedExecutor(name, "virtual", executor, rejected));
+        return executor;
+    }
+
+    /**
+     * 各执行器的运行指标
+     */
+    public List<Map<String, Object>> getMetrics() {
+        List<Map<String, Object>> metrics = new ArrayList<>();
+        List<String> names = new ArrayList<>(executors.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            ManagedExecutor managed = executors.get(name);
+            Map<String, Object> metric = new LinkedHashMap<>();
+            metric.put("name", managed.name);
+            metric.put("type", managed.type);
+            if (managed.executor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) managed.executor;
+                metric.put("poolSize", pool.getPoolSize());
+                metric.put("maxPoolSize", pool.getMaximumPoolSize());
+                metric.put("largestPoolSize", pool.getLargestPoolSize());
+                metric.put("activeCount", pool.getActiveCount());
+                metric.put("queueSize", pool.getQueue().size());
+                metric.put("queueRemainingCapacity", pool.getQueue().remainingCapacity());
+                metric.put("completedTasks", pool.getCompletedTaskCount());
+            } else if (managed.executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor executor = (VirtualThreadExecutor) managed.executor;
+                metric.put("maxConcurrency", executor.maxConcurrency);
+                metric.put("activeCount", executor.active.get());
+                metric.put("queueSize", executor.waiting.get());
+                metric.put("queueCapacity", executor.queueCapacity);
+                metric.put("completedTasks", executor.completed.get());
+            }
+            metric.put("rejectedTasks", managed.rejected.get());
+            metric.put("shutdown", managed.executor.isShutdown());
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+
+    /**
+     * 关闭所有执行器：先不再接收新任务并等待已有任务结束，超时后中断
+     */
+    @PreDestroy
+    public void shutdownAll() {
+        for (ManagedExecutor managed : executors.values()) {
+            managed.executor.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        for (ManagedExecutor managed : executors.values()) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !managed.executor.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    List<Runnable> dropped = managed.executor.shutdownNow();
+                    System.err.println("执行器 " + managed.name + " 未能按时结束，已中断，丢弃排队任务 " + dropped.size() + " 个");
+                }
+            } catch (InterruptedException e) {
+                managed.executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("所有后台执行器已关闭");
+    }
+
+    private void register(ManagedExecutor managed) {
+        ManagedExecutor previous = executors.putIfAbsent(managed.name, managed);
+        if (previous != null) {
+            managed.executor.shutdownNow();
+            throw new IllegalStateException("执行器名称重复: " + managed.name);
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String name) {
+        AtomicInteger sequence = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static RejectedExecutionHandler countingAbortPolicy(String name, AtomicLong rejected) {
+        return (r, executor) -> {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("执行器 " + name + " 已满或已关闭");
+        };
+    }
+
+    /**
+     * 通过反射获取虚拟线程工厂（Java 21+），当前JVM不支持时返回null
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程，用信号量限制并发；排队中的任务就是在信号量上等待的虚拟线程，几乎不占资源
+     */
+    private static class VirtualThreadExecutor extends AbstractExecutorService {
+        final String name;
+        final int maxConcurrency;
+        final int queueCapacity;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected;
+        private final ThreadFactory factory;
+        private final Semaphore permits;
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile boolean shutdown;
+
+        VirtualThreadExecutor(String name, ThreadFactory factory, int maxConcurrency, int queueCapacity, AtomicLong rejected) {
+            this.name = name;
+            this.factory = factory;
+            this.maxConcurrency = maxConcurrency;
+            this.queueCapacity = queueCapacity;
+            this.permits = new Semaphore(maxConcurrency);
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown || waiting.get() >= queueCapacity) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("执行器 " + name + " 已满或已关闭");
+            }
+            waiting.incrementAndGet();
+            Thread thread = factory.newThread(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // 关闭时被中断，任务未执行
+                    waiting.decrementAndGet();
+                    threads.remove(Thread.currentThread());
+                    checkTerminated();
+                    return;
+                }
+                waiting.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                    permits.release();
+                    threads.remove(Thread.currentThread());
+                    checkTerminated();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            checkTerminated();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            checkTerminated();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return terminated.getCount() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+
+        private void checkTerminated() {
+            if (shutdown && active.get() == 0 && waiting.get() == 0) {
+                terminated.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.abc.config;
+
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.configuration.HeartbeatManagerOptions;
+import org.apache.flink.configuration.MemorySize;
+import org.apache.flink.configuration.RestOptions;
+import org.apache.flink.configuration.TaskManagerOptions;
+import org.apache.flink.runtime.minicluster.MiniCluster;
+import org.apache.flink.runtime.minicluster.MiniClusterConfiguration;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 随Spring应用常驻的本地Flink会话集群
+ *
+ * getExecutionEnvironment在内嵌模式下每个作业都要启动并关闭一个MiniCluster（RPC服务、Dispatcher、TaskManager、内存池），
+ * 小作业的大部分时间花在这上面。这里在应用启动时启动一个MiniCluster，配置好TaskManager数、每个TaskManager的槽位数和托管内存，
+ * 作业通过它的REST地址提交；作业代码与集群在同一JVM中，不需要上传jar。
+ * 会话未开启或启动失败时，streamEnvironment/batchEnvironment退回到每个作业独立的本地环境。
+ * 每次提交从调用executeAsync到作业被Dispatcher接受的耗时按会话/本地分别统计，见getMetrics。
+ */
+@Component
+public class FlinkSessionCluster {
+
+    public static final String MODE_SESSION = "session";
+    public static final String MODE_LOCAL = "local";
+
+    @Value("${flink.session.enabled:true}")
+    private boolean enabled;
+
+    @Value("${flink.session.task-managers:1}")
+    private int taskManagers;
+
+    // 槽位总数应不小于flink.parallelism，否则作业要等待槽位
+    @Value("${flink.session.slots-per-task-manager:4}")
+    private int slotsPerTaskManager;
+
+    @Value("${flink.session.managed-memory:512m}")
+    private String managedMemory;
+
+    private volatile MiniCluster miniCluster;
+    private volatile URI restAddress;
+    private volatile long startedAt;
+    private volatile long startupMillis;
+
+    private final Map<String, SubmissionStats> submissionStats = new LinkedHashMap<>();
+
+    /**
+     * 提交耗时统计
+     */
+    private static class SubmissionStats {
+        long count;
+        long totalMillis;
+        long maxMillis;
+        long lastMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            System.out.println("Flink会话集群未开启，每个作业使用独立的本地环境");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            Configuration configuration = new Configuration();
+            configuration.set(TaskManagerOptions.MANAGED_MEMORY_SIZE, MemorySize.parse(managedMemory));
+            configuration.set(TaskManagerOptions.NUM_TASK_SLOTS, slotsPerTaskManager);
+            configuration.set(RestOptions.BIND_ADDRESS, "localhost");
+            configuration.set(RestOptions.ADDRESS, "localhost");
+            // 随机端口，避免与其他实例冲突
+            configuration.set(RestOptions.BIND_PORT, "0");
+            // 运行中作业的累加器随心跳上报，缩短心跳间隔使批处理进度（已处理记录数）更新更及时
+            configuration.set(HeartbeatManagerOptions.HEARTBEAT_INTERVAL, 2000L);
+
+            MiniClusterConfiguration clusterConfiguration = new MiniClusterConfiguration.Builder()
+                    .setConfiguration(configuration)
+                    .setNumTaskManagers(taskManagers)
+                    .setNumSlotsPerTaskManager(slotsPerTaskManager)
+                    .build();
+            MiniCluster cluster = new MiniCluster(clusterConfiguration);
+            cluster.start();
+            restAddress = cluster.getRestAddress().get();
+            miniCluster = cluster;
+            startedAt = System.currentTimeMillis();
+            startupMillis = startedAt - startTime;
+            System.out.printf("Flink会话集群已启动: %s, %d个TaskManager x %d个槽位, 托管内存%s, 耗时%dms%n",
+                    restAddress, taskManagers, slotsPerTaskManager, managedMemory, startupMillis);
+        } catch (Exception e) {
+            System.err.println("启动Flink会话集群失败，退回到每个作业独立的本地环境: " + e.getMessage());
+            miniCluster = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        MiniCluster cluster = miniCluster;
+        miniCluster = null;
+        if (cluster == null) {
+            return;
+        }
+        try {
+            cluster.close();
+            System.out.println("Flink会话集群已关闭");
+        } catch (Exception e) {
+            System.err.println("关闭Flink会话集群失败: " + e.getMessage());
+        }
+    }
+
+    public boolean isRunning() {
+        MiniCluster cluster = miniCluster;
+        return cluster != null && cluster.isRunning();
+    }
+
+    /**
+     * 提交到会话集群的DataStream环境；会话不可用时返回独立的本地环境
+     */
+    public StreamExecutionEnvironment streamEnvironment() {
+        if (isRunning()) {
+            return StreamExecutionEnvironment.createRemoteEnvironment(restAddress.getHost(), restAddress.getPort());
+        }
+        return StreamExecutionEnvironment.getExecutionEnvironment();
+    }
+
+    /**
+     * 提交到会话集群的DataSet环境；会话不可用时返回独立的本地环境
+     */
+    public ExecutionEnvironment batchEnvironment() {
+        if (isRunning()) {
+            return ExecutionEnvironment.createRemoteEnvironment(restAddress.getHost(), restAddress.getPort());
+        }
+        return ExecutionEnvironment.getExecutionEnvironment();
+    }
+
+    /**
+     * 当前环境对应的提交方式，用于区分统计
+     */
+    public String currentMode() {
+        return isRunning() ? MODE_SESSION : MODE_LOCAL;
+    }
+
+    /**
+     * 记录一次作业提交耗时
+     */
+    public synchronized void recordSubmission(String mode, long millis) {
+        SubmissionStats stats = submissionStats.computeIfAbsent(mode, k -> new SubmissionStats());
+        stats.count++;
+        stats.totalMillis += millis;
+        stats.maxMillis = Math.max(stats.maxMillis, millis);
+        stats.lastMillis = millis;
+    }
+
+    /**
+     * 会话集群状态和各提交方式的提交耗时（次数、平均、最大、最近一次，单位毫秒）
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("running", isRunning());
+        metrics.put("restAddress", restAddress != null ? restAddress.toString() : null);
+        metrics.put("taskManagers", taskManagers);
+        metrics.put("slotsPerTaskManager", slotsPerTaskManager);
+        metrics.put("managedMemory", managedMemory);
+        metrics.put("startedAt", startedAt);
+        metrics.put("startupMillis", startupMillis);
+
+        Map<String, Object> submissions = new LinkedHashMap<>();
+        for (Map.Entry<String, SubmissionStats> entry : submissionStats.entrySet()) {
+            SubmissionStats stats = entry.getValue();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("count", stats.count);
+            item.put("avgMillis", stats.count > 0 ? (double) stats.totalMillis / stats.count : 0.0);
+            item.put("maxMillis", stats.maxMillis);
+            item.put("lastMillis", stats.lastMillis);
+            submissions.put(entry.getKey(), item);
+        }
+        metrics.put("submissionLatency", submissions);
+        return metrics;
+    }
+}
@@ -0,0 +1,159 @@
+package com.abc.config;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 进程级HBase连接注册表
+ * 同一个JVM（Spring应用或Flink TaskManager）对同一集群只建立一个Connection和一个AsyncConnection，
+ * Spring的连接Bean和Flink作业的各个并行子任务共用这些连接；表的存在性检查/创建也只做一次。
+ */
+public final class HBaseConnections {
+
+    private static final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private static final Map<String, AsyncConnection> asyncConnections = new ConcurrentHashMap<>();
+    private static final Set<String> bootstrappedTables = ConcurrentHashMap.newKeySet();
+
+    static {
+        // Flink TaskManager中没有Spring生命周期，JVM退出时统一关闭
+        Runtime.getRuntime().addShutdownHook(new Thread(HBaseConnections::closeAll, "hbase-connections-shutdown"));
+    }
+
+    private HBaseConnections() {}
+
+    /**
+     * 创建HBase客户端配置
+     */
+    public static org.apache.hadoop.conf.Configuration createConfiguration(String zookeeperQuorum, String zookeeperPort) {
+        org.apache.hadoop.conf.Configuration config = HBaseConfiguration.create();
+        config.set("hbase.zookeeper.quorum", zookeeperQuorum);
+        config.set("hbase.zookeeper.property.clientPort", zookeeperPort);
+
+        // 设置HBase客户端配置
+        config.set("hbase.client.write.buffer", "2097152");
+        config.set("hbase.client.pause", "200");
+        config.set("hbase.client.retries.number", "3");
+        config.set("hbase.rpc.timeout", "60000");
+        config.set("hbase.client.operation.timeout", "60000");
+        config.set("hbase.client.scanner.timeout.period", "60000");
+
+        return config;
+    }
+
+    /**
+     * 获取共享的同步连接，首次调用时创建
+     */
+    public static Connection getConnection(String zookeeperQuorum, String zookeeperPort) throws IOException {
+        String key = clusterKey(zookeeperQuorum, zookeeperPort);
+        Connection connection = connections.get(key);
+        if (connection != null && !connection.isClosed()) {
+            return connection;
+        }
+        synchronized (HBaseConnections.class) {
+            connection = connections.get(key);
+            if (connection == null || connection.isClosed()) {
+                connection = ConnectionFactory.createConnection(createConfiguration(zookeeperQuorum, zookeeperPort));
+                connections.put(key, connection);
+                System.out.println("建立共享HBase连接: " + key);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * 获取共享的异步连接，首次调用时创建
+     */
+    public static AsyncConnection getAsyncConnection(String zookeeperQuorum, String zookeeperPort) throws IOException {
+        String key = clusterKey(zookeeperQuorum, zookeeperPort);
+        AsyncConnection connection = asyncConnections.get(key);
+        if (connection != null && !connection.isClosed()) {
+            return connection;
+        }
+        synchronized (HBaseConnections.class) {
+            connection = asyncConnections.get(key);
+            if (connection == null || connection.isClosed()) {
+                try {
+                    connection = ConnectionFactory.createAsyncConnection(createConfiguration(zookeeperQuorum, zookeeperPort)).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while creating HBase async connection", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to create HBase async connection", e.getCause());
+                }
+                asyncConnections.put(key, connection);
+                System.out.println("建立共享HBase异步连接: " + key);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * 确保HBase表存在，每个JVM对每张表只检查一次
+     */
+    public static void ensureTable(String zookeeperQuorum, String zookeeperPort, String tableName, String columnFamily) throws IOException {
+        String key = clusterKey(zookeeperQuorum, zookeeperPort) + "/" + tableName;
+        if (bootstrappedTables.contains(key)) {
+            return;
+        }
+        synchronized (HBaseConnections.class) {
+            if (bootstrappedTables.contains(key)) {
+                return;
+            }
+            try (Admin admin = getConnection(zookeeperQuorum, zookeeperPort).getAdmin()) {
+                TableName hbaseTableName = TableName.valueOf(tableName);
+                if (!admin.tableExists(hbaseTableName)) {
+                    try {
+                        TableDescriptorBuilder tableBuilder = TableDescriptorBuilder.newBuilder(hbaseTableName);
+                        ColumnFamilyDescriptorBuilder cfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(Bytes.toBytes(columnFamily));
+                        tableBuilder.setColumnFamily(cfBuilder.build());
+                        admin.createTable(tableBuilder.build());
+                        System.out.println("创建HBase表: " + tableName);
+                    } catch (org.apache.hadoop.hbase.TableExistsException e) {
+                        // 表已存在，忽略此异常（可能是其他进程并发创建导致的）
+                        System.out.println("HBase表已存在: " + tableName);
+                    }
+                }
+            }
+            bootstrappedTables.add(key);
+        }
+    }
+
+    /**
+     * 关闭所有共享连接
+     */
+    public static synchronized void closeAll() {
+        for (Connection connection : connections.values()) {
+            try {
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                System.err.println("关闭HBase连接时发生错误: " + e.getMessage());
+            }
+        }
+        for (AsyncConnection connection : asyncConnections.values()) {
+            try {
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                System.err.println("关闭HBase异步连接时发生错误: " + e.getMessage());
+            }
+        }
+        connections.clear();
+        asyncConnections.clear();
+        bootstrappedTables.clear();
+    }
+
+    private static String clusterKey(String zookeeperQuorum, String zookeeperPort) {
+        return zookeeperQuorum + ":" + zookeeperPort;
+    }
+}
@@ -1,14 +1,22 @@
 package com.abc.controller;
 
+import com.abc.service.HotMovieClusterService;
 import com.abc.service.HotMovieStreamService;
 import com.abc.service.RatingDataGeneratorService;
+import com.abc.service.TrendingTracker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 热门电影实时计算控制器
@@ -25,6 +33,15 @@ public class HotMovieController {
     @Autowired
     private RatingDataGeneratorService ratingDataGeneratorService;
 
+    @Autowired
+    private HotMovieClusterService hotMovieClusterService;
+
+    // 长轮询最长等待时间
+    private static final long MAX_LONG_POLL_MS = 60000;
+
+    // 摘要/全局排行榜单次最多返回的条数
+    private static final int MAX_SUMMARY_SIZE = 1000;
+
     /**
      * 启动热门电影流计算
      */
@@ -74,24 +91,242 @@ public class HotMovieController {
 
     /**
      * 获取当前热门电影列表
+     * 直接返回快照中预先编码好的JSON；请求带If-None-Match且与当前ETag一致时返回304。
+     * 指定waitForVersion时为长轮询：等到版本号大于该值的快照再返回，超时仍无新版本则返回304
+     * 指定genre时返回该类型的排行榜（如Comedy、Sci-Fi），与总榜同一版本号
      */
     @GetMapping("/current")
-    public ResponseEntity<Map<String, Object>> getCurrentHotMovies() {
+    public DeferredResult<ResponseEntity<byte[]>> getCurrentHotMovies(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestParam(value = "waitForVersion", required = false) Long waitForVersion,
+            @RequestParam(value = "timeoutMs", defaultValue = "30000") long timeoutMs,
+            @RequestParam(value = "genre", required = false) String genre) {
+        long timeout = Math.max(1000, Math.min(MAX_LONG_POLL_MS, timeoutMs));
+        DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>(timeout);
+        boolean byGenre = genre != null && !genre.trim().isEmpty();
+        
+        try {
+            if (byGenre && hotMovieStreamService.getGenreSnapshot(genre) == null) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("status", "error");
+                response.put("message", "未知的电影类型或排行榜尚未计算: " + genre);
+                response.put("genres", hotMovieStreamService.getRankedGenres());
+                result.setErrorResult(ResponseEntity.status(HttpStatus.NOT_FOUND).body(response));
+                return result;
+            }
+            if (waitForVersion == null) {
+                HotMovieStreamService.HotMovieSnapshot snapshot = byGenre
+                        ? hotMovieStreamService.getGenreSnapshot(genre)
+                        : hotMovieStreamService.getCurrentSnapshot();
+                result.setResult(snapshotResponse(snapshot, ifNoneMatch));
+                return result;
+            }
+            
+            CompletableFuture<HotMovieStreamService.HotMovieSnapshot> future =
+                    hotMovieStreamService.awaitSnapshotAfter(waitForVersion);
+            future.thenAccept(snapshot -> {
+                if (!byGenre) {
+                    result.setResult(snapshotResponse(snapshot, null));
+                    return;
+                }
+                // 类型榜先于总榜发布，这里取到的是同一版本；该类型在新版本中已不存在（字典重新加载）时返回404
+                HotMovieStreamService.HotMovieSnapshot genreSnapshot = hotMovieStreamService.getGenreSnapshot(genre);
+                result.setResult(genreSnapshot != null ? snapshotResponse(genreSnapshot, null)
+                        : ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+            });
+            result.onTimeout(() -> {
+                hotMovieStreamService.cancelWait(future);
+                HotMovieStreamService.HotMovieSnapshot current = hotMovieStreamService.getCurrentSnapshot();
+                result.setResult(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current.getEtag()).build());
+            });
+            result.onCompletion(() -> hotMovieStreamService.cancelWait(future));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "error");
+            response.put("message", "获取热门电影列表失败");
+            response.put("error", e.getMessage());
+            result.setErrorResult(ResponseEntity.internalServerError().body(response));
+        }
+        return result;
+    }
+    
+    private ResponseEntity<byte[]> snapshotResponse(HotMovieStreamService.HotMovieSnapshot snapshot, String ifNoneMatch) {
+        if (ifNoneMatch != null && ifNoneMatch.contains(snapshot.getEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(snapshot.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .body(snapshot.getJson());
+    }
+
+    /**
+     * 获取本节点窗口的Top-K摘要，供协调节点合并
+     */
+    @GetMapping("/partition/summary")
+    public ResponseEntity<Map<String, Object>> getPartitionSummary(@RequestParam(value = "k", defaultValue = "50") int k) {
         Map<String, Object> response = new HashMap<>();
         
+        if (k <= 0 || k > MAX_SUMMARY_SIZE) {
+            response.put("status", "error");
+            response.put("message", "k必须在1到" + MAX_SUMMARY_SIZE + "之间");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
         try {
-            List<HotMovieStreamService.HotMovie> hotMovies = hotMovieStreamService.getCurrentHotMovies();
+            response.put("status", "success");
+            response.put("data", hotMovieStreamService.getPartitionSummary(k));
+            response.put("misroutedEvents", hotMovieStreamService.getMisroutedEventCount());
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "获取分区摘要失败");
+            response.put("error", e.getMessage());
+            
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 获取上升趋势榜：按z分数排序，衡量最近的评分速率比基线高出多少个标准差
+     */
+    @GetMapping("/trending")
+    public ResponseEntity<Map<String, Object>> getTrendingMovies(@RequestParam(value = "k", defaultValue = "10") int k) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (k <= 0 || k > MAX_SUMMARY_SIZE) {
+            response.put("status", "error");
+            response.put("message", "k必须在1到" + MAX_SUMMARY_SIZE + "之间");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        try {
+            List<TrendingTracker.TrendingMovie> trending = hotMovieStreamService.getTrendingMovies(k);
             
             response.put("status", "success");
-            response.put("data", hotMovies);
-            response.put("count", hotMovies.size());
+            response.put("data", trending);
+            response.put("count", trending.size());
+            response.put("parameters", hotMovieStreamService.getTrendingStatus());
             response.put("timestamp", System.currentTimeMillis());
-            response.put("description", "最近10分钟评分次数最多的电影排行榜");
+            response.put("description", "评分速率上升最快的电影");
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             response.put("status", "error");
-            response.put("message", "获取热门电影列表失败");
+            response.put("message", "获取上升趋势榜失败");
+            response.put("error", e.getMessage());
+            
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 获取合并各节点摘要后的全局热门电影排行榜
+     * 每条结果带最大误差maxError；exact为true时与单机计算的结果完全一致
+     */
+    @GetMapping("/global")
+    public ResponseEntity<Map<String, Object>> getGlobalHotMovies(@RequestParam(value = "k", defaultValue = "10") int k) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (k <= 0 || k > MAX_SUMMARY_SIZE) {
+            response.put("status", "error");
+            response.put("message", "k必须在1到" + MAX_SUMMARY_SIZE + "之间");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        try {
+            HotMovieClusterService.GlobalRanking ranking = hotMovieClusterService.getGlobalRanking(k);
+            
+            response.put("status", "success");
+            response.put("data", ranking.getMovies());
+            response.put("count", ranking.getMovies().size());
+            response.put("exact", ranking.isExact());
+            response.put("unseenMaxCount", ranking.getUnseenMaxCount());
+            response.put("windowEventCount", ranking.getWindowEventCount());
+            response.put("nodes", ranking.getNodes());
+            response.put("timestamp", ranking.getGeneratedAt());
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "获取全局热门电影排行榜失败");
+            response.put("error", e.getMessage());
+            
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 切换排行榜排序依据：rating-count（评分次数）或 distinct-raters（不同评分用户数），下一次计算起生效
+     */
+    @PostMapping("/rank-by")
+    public ResponseEntity<Map<String, Object>> setRankBy(@RequestParam("mode") String mode) {
+        Map<String, Object> response = new HashMap<>();
+        
+        HotMovieStreamService.RankBy rankBy;
+        try {
+            rankBy = HotMovieStreamService.RankBy.parse(mode);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", "不支持的排序依据: " + mode + "，可选 rating-count、distinct-raters");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        hotMovieStreamService.setRankBy(rankBy);
+        response.put("status", "success");
+        response.put("message", "排行榜排序依据已切换为 " + rankBy.getName() + "，下一次计算起生效");
+        response.put("rankBy", rankBy.getName());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取写入准入统计（接受/丢弃/抽样略过的事件数和当前积压）
+     */
+    @GetMapping("/ingest/stats")
+    public ResponseEntity<Map<String, Object>> getIngestStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", hotMovieStreamService.getIngestStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取评分事件日志状态
+     */
+    @GetMapping("/event-log/status")
+    public ResponseEntity<Map<String, Object>> getEventLogStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", hotMovieStreamService.getEventLogStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 从评分事件日志重建热门电影窗口
+     */
+    @PostMapping("/event-log/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildFromEventLog(
+            @RequestParam(value = "fromOffset", required = false) Long fromOffset) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            Map<String, Object> status = hotMovieStreamService.rebuildFromEventLog(fromOffset);
+            
+            response.put("status", "success");
+            response.put("message", "已开始从评分事件日志重建窗口");
+            response.put("data", status);
+            
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "重建窗口失败");
             response.put("error", e.getMessage());
             
             return ResponseEntity.internalServerError().body(response);
@@ -253,6 +488,8 @@ public class HotMovieController {
             response.put("message", "热门电影实时计算系统运行中");
             response.put("hotMoviesCount", hotMovies.size());
             response.put("generatorStatus", generatorStatus);
+            response.put("ingestStats", hotMovieStreamService.getIngestStats());
+            response.put("rankBy", hotMovieStreamService.getRankBy().getName());
             response.put("features", new String[]{
                 "实时计算最近10分钟热门电影",
                 "支持模拟用户评分数据生成",
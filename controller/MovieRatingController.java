@@ -1,14 +1,40 @@
 package com.abc.controller;
 
+import com.abc.config.ExecutorRegistry;
+import com.abc.service.InputFingerprintService;
+import com.abc.service.MovieCatalogService;
 import com.abc.service.MovieRatingFlinkService;
+import com.abc.service.MovieRatingQueryService;
 import com.abc.service.ProgressTrackingService;
+import com.abc.service.RatingExportService;
+import com.abc.service.RatingFilter;
+import com.abc.service.RatingPreviewService;
+import com.abc.service.RatingResultStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/movie-rating")
@@ -20,17 +46,106 @@ public class MovieRatingController {
     @Autowired
     private ProgressTrackingService progressTrackingService;
     
+    @Autowired
+    private MovieRatingQueryService movieRatingQueryService;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    @Autowired
+    private InputFingerprintService inputFingerprintService;
+
+    @Autowired
+    private RatingExportService ratingExportService;
+
+    @Autowired
+    private RatingPreviewService ratingPreviewService;
+
+    // 单次导出的异步处理超时，0表示不限
+    @Value("${export.timeout-ms:0}")
+    private long exportTimeoutMs;
+
+    private static final Object EXPORT_INTERCEPTOR_KEY = new Object();
+
+    @Value("${executor.flink-job.pool-size:2}")
+    private int jobPoolSize;
+
+    @Value("${executor.flink-job.queue-capacity:8}")
+    private int jobQueueCapacity;
+
+    private ExecutorService jobExecutor;
+
+    @PostConstruct
+    public void initJobExecutor() {
+        jobExecutor = executorRegistry.newBoundedPool("flink-job", jobPoolSize, jobQueueCapacity);
+    }
+    
     /**
      * 处理电影评分数据并保存到HBase
+     * 输入文件和作业参数与结果存储中现有结果的来源作业相同时不再计算，作业直接以命中缓存完成
+     * 可选的过滤条件只统计部分评分（下推到解析阶段，并按块索引跳过不可能匹配的输入块）；
+     * 过滤作业只写入它统计到的电影，其他电影在结果存储中保留原值，排行榜整体替换
      * @param csvFilePath CSV文件路径（可选，默认使用项目中的数据文件）
+     * @param force 为true时忽略结果缓存，总是重新计算
+     * @param fromTimestamp 评分时间下限（秒，含）
+     * @param toTimestamp 评分时间上限（秒，含）
+     * @param movieIds 逗号分隔的movieId集合
+     * @param minMovieId 最小movieId（含）
+     * @param maxMovieId 最大movieId（含）
+     * @param minUserId 最小userId（含）
+     * @param maxUserId 最大userId（含）
+     * @param userSampleRate 用户抽样比例(0, 1]，按userId哈希确定性抽样
+     * @param preview 为true时作业运行期间生成近似预览，通过 /preview/{jobId} 查询
      * @return 处理结果
      */
     @PostMapping("/process")
     public ResponseEntity<Map<String, Object>> processMovieRatings(
-            @RequestParam(value = "csvFilePath", required = false) String csvFilePath) {
+            @RequestParam(value = "csvFilePath", required = false) String csvFilePath,
+            @RequestParam(value = "force", defaultValue = "false") boolean force,
+            @RequestParam(value = "fromTimestamp", required = false) Long fromTimestamp,
+            @RequestParam(value = "toTimestamp", required = false) Long toTimestamp,
+            @RequestParam(value = "movieIds", required = false) String movieIds,
+            @RequestParam(value = "minMovieId", required = false) Long minMovieId,
+            @RequestParam(value = "maxMovieId", required = false) Long maxMovieId,
+            @RequestParam(value = "minUserId", required = false) Long minUserId,
+            @RequestParam(value = "maxUserId", required = false) Long maxUserId,
+            @RequestParam(value = "userSampleRate", defaultValue = "1.0") double userSampleRate,
+            @RequestParam(value = "preview", defaultValue = "false") boolean preview) {
         
         Map<String, Object> response = new HashMap<>();
         
+        // 解析过滤条件
+        RatingFilter filter = new RatingFilter();
+        try {
+            if ((fromTimestamp != null && toTimestamp != null && fromTimestamp > toTimestamp)
+                    || (minMovieId != null && maxMovieId != null && minMovieId > maxMovieId)
+                    || (minUserId != null && maxUserId != null && minUserId > maxUserId)) {
+                throw new IllegalArgumentException("范围条件的下限不能大于上限");
+            }
+            filter.setFromTimestamp(fromTimestamp);
+            filter.setToTimestamp(toTimestamp);
+            filter.setMinMovieId(minMovieId);
+            filter.setMaxMovieId(maxMovieId);
+            filter.setMinUserId(minUserId);
+            filter.setMaxUserId(maxUserId);
+            filter.setUserSampleRate(userSampleRate);
+            if (movieIds != null && !movieIds.trim().isEmpty()) {
+                String[] parts = movieIds.split(",");
+                long[] ids = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    ids[i] = Long.parseLong(parts[i].trim());
+                }
+                filter.setMovieIds(ids);
+            }
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", "过滤条件无效: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        
         try {
             // 如果没有指定文件路径，使用默认路径
             if (csvFilePath == null || csvFilePath.trim().isEmpty()) {
@@ -41,28 +156,86 @@ public class MovieRatingController {
             String jobId = "movie-rating-" + UUID.randomUUID().toString().substring(0, 8);
             
             // 创建进度跟踪
-            progressTrackingService.createJob(jobId, 30000000L, "电影评分批处理作业 - " + csvFilePath);
+            progressTrackingService.createJob(jobId, 30000000L, "电影评分批处理作业 - " + csvFilePath
+                    + (filter.isEmpty() ? "" : "（过滤: " + filter + "）"));
+            
+            // 计算输入指纹，与结果存储中现有结果的来源一致时直接复用；过滤条件也是作业参数
+            InputFingerprintService.InputFingerprint fingerprint = null;
+            try {
+                Map<String, Object> jobParameters = movieRatingFlinkService.getJobParameters();
+                jobParameters.put("filter", filter.cacheKey());
+                fingerprint = inputFingerprintService.fingerprint(csvFilePath,
+                        movieRatingFlinkService.getResultStoreName(filter), jobParameters);
+            } catch (Exception e) {
+                System.err.println("计算输入指纹失败，不使用结果缓存: " + e.getMessage());
+            }
+            InputFingerprintService.CompletedRun cachedRun = force ? null : inputFingerprintService.findCompleted(fingerprint);
+            if (cachedRun != null) {
+                progressTrackingService.completeFromCache(jobId, cachedRun.getJobId(), cachedRun.getTotalRecords());
+                System.out.println("输入未变化，作业 " + jobId + " 复用作业 " + cachedRun.getJobId() + " 的结果");
+
+                response.put("status", "success");
+                response.put("message", "输入和参数与已完成的作业相同，直接复用已有结果");
+                response.put("jobId", jobId);
+                response.put("csvFilePath", csvFilePath);
+                response.put("cacheHit", true);
+                response.put("cachedFromJobId", cachedRun.getJobId());
+                response.put("fingerprint", fingerprint.getKey());
+                if (!filter.isEmpty()) {
+                    response.put("resultScope", filter.cacheKey());
+                }
+                return ResponseEntity.ok(response);
+            }
             
             System.out.println("开始处理电影评分数据，作业ID: " + jobId + "，文件路径: " + csvFilePath);
             
-            // 异步执行Flink作业
+            // 异步执行Flink作业，同时运行的作业数和排队数受作业执行器限制
             final String finalCsvFilePath = csvFilePath;
-            new Thread(() -> {
-                try {
-                    movieRatingFlinkService.processMovieRatings(finalCsvFilePath, jobId, progressTrackingService);
-                    progressTrackingService.completeJob(jobId, true, "电影评分处理作业成功完成");
-                } catch (Exception e) {
-                    System.err.println("Flink作业执行失败: " + e.getMessage());
-                    e.printStackTrace();
-                    progressTrackingService.completeJob(jobId, false, "作业执行失败: " + e.getMessage());
-                }
-            }).start();
+            final InputFingerprintService.InputFingerprint finalFingerprint = fingerprint;
+            try {
+                jobExecutor.execute(() -> {
+                    try {
+                        // 开始写入前清除该结果存储的缓存记录，作业失败时不会被误用
+                        long generation = inputFingerprintService.beginRun(movieRatingFlinkService.getResultStoreName(filter));
+                        movieRatingFlinkService.processMovieRatings(finalCsvFilePath, filter, preview, jobId,
+                                progressTrackingService);
+                        // 全量结果已更新，旧缓存失效；过滤作业写入独立结果集，查询缓存不受影响
+                        if (filter.isEmpty()) {
+                            movieRatingQueryService.invalidateCache();
+                        }
+                        ProgressTrackingService.JobProgress progress = progressTrackingService.getJobProgress(jobId);
+                        inputFingerprintService.recordCompleted(finalFingerprint, generation, jobId,
+                                progress != null ? progress.totalRecords : 0);
+                        progressTrackingService.completeJob(jobId, true, "电影评分处理作业成功完成");
+                    } catch (Exception e) {
+                        System.err.println("Flink作业执行失败: " + e.getMessage());
+                        e.printStackTrace();
+                        progressTrackingService.completeJob(jobId, false, "作业执行失败: " + e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                progressTrackingService.completeJob(jobId, false, "作业队列已满，未执行");
+                response.put("status", "error");
+                response.put("message", "当前排队的作业过多，请稍后再试");
+                response.put("jobId", jobId);
+                return ResponseEntity.status(429).body(response);
+            }
             
             response.put("status", "success");
             response.put("message", "电影评分处理作业已启动");
             response.put("jobId", jobId);
             response.put("csvFilePath", csvFilePath);
             response.put("description", "正在使用Flink批处理计算每部电影的平均评分并保存到HBase数据库");
+            response.put("cacheHit", false);
+            response.put("filter", filter.toString());
+            if (!filter.isEmpty()) {
+                // 过滤作业的结果不写入全量结果，通过 /movies、/rankings、/export 的scope参数查询
+                response.put("resultScope", filter.cacheKey());
+            }
+            response.put("preview", preview);
+            if (fingerprint != null) {
+                response.put("fingerprint", fingerprint.getKey());
+            }
             
             return ResponseEntity.ok(response);
             
@@ -100,8 +273,28 @@ public class MovieRatingController {
             response.put("savedRecords", progress.savedRecords.get());
             response.put("progressPercentage", String.format("%.2f%%", progress.progressPercentage));
             response.put("processingSpeed", String.format("%.0f 记录/秒", progress.getProcessingSpeed()));
+            response.put("instantSpeed", String.format("%.0f 记录/秒", progress.getInstantSpeed()));
+            response.put("speed10s", String.format("%.0f 记录/秒", progress.getSpeed10s()));
+            response.put("speed60s", String.format("%.0f 记录/秒", progress.getSpeed60s()));
             response.put("runningTime", progress.getRunningSeconds() + " 秒");
             response.put("lastMessage", progress.lastMessage);
+            response.put("cacheHit", progress.cacheHit);
+            if (progress.cachedFromJobId != null) {
+                response.put("cachedFromJobId", progress.cachedFromJobId);
+            }
+            if (progress.aggregateSubtaskRecords != null) {
+                response.put("aggregateSubtaskRecords", progress.aggregateSubtaskRecords);
+                response.put("aggregateImbalance", String.format("%.2f", progress.getAggregateImbalance()));
+                response.put("saltedMovies", progress.saltedMovies);
+            }
+            if (progress.previewState != null) {
+                Map<String, Object> preview = new LinkedHashMap<>();
+                preview.put("state", progress.previewState);
+                preview.put("sampledRecords", progress.previewSampledRecords);
+                preview.put("sampledFraction", String.format("%.2f%%", progress.previewSampledFraction * 100));
+                preview.put("movies", progress.previewMovies);
+                response.put("preview", preview);
+            }
             response.put("startTime", progress.getFormattedStartTime());
             response.put("endTime", progress.getFormattedEndTime());
             response.put("lastUpdateTime", progress.getFormattedLastUpdateTime());
@@ -127,19 +320,66 @@ public class MovieRatingController {
     }
     
     /**
-     * 查询所有作业的处理进度
-     * @return 所有作业进度信息
+     * 查询作业的吞吐采样历史（最近约一分钟），用于对比不同作业的处理速度曲线
+     * @param jobId 作业ID
+     * @return 按时间排序的(时间戳, 已处理记录数)样本
+     */
+    @GetMapping("/progress/{jobId}/history")
+    public ResponseEntity<Map<String, Object>> getJobThroughputHistory(@PathVariable String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        
+        ProgressTrackingService.JobProgress progress = progressTrackingService.getJobProgress(jobId);
+        if (progress == null) {
+            response.put("status", "error");
+            response.put("message", "未找到指定的作业ID: " + jobId);
+            return ResponseEntity.status(404).body(response);
+        }
+        
+        response.put("status", "success");
+        response.put("jobId", jobId);
+        response.put("samples", progress.getThroughputSamples());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 分页查询作业的处理进度，按开始时间倒序
+     * @param status 按状态过滤（RUNNING/COMPLETED/FAILED/CANCELLED），可选
+     * @param page 页码，从0开始
+     * @param size 每页条数
+     * @return 作业进度列表
      */
     @GetMapping("/progress")
-    public ResponseEntity<Map<String, Object>> getAllJobProgress() {
+    public ResponseEntity<Map<String, Object>> getAllJobProgress(
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "50") int size) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            Map<String, ProgressTrackingService.JobProgress> allProgress = progressTrackingService.getAllJobProgress();
+            if (page < 0 || size <= 0 || size > 500) {
+                response.put("status", "error");
+                response.put("message", "分页参数无效: page=" + page + ", size=" + size);
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+            ProgressTrackingService.JobStatus statusFilter = null;
+            if (status != null && !status.trim().isEmpty()) {
+                try {
+                    statusFilter = ProgressTrackingService.JobStatus.valueOf(status.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    response.put("status", "error");
+                    response.put("message", "不支持的作业状态: " + status);
+                    return ResponseEntity.badRequest().body(response);
+                }
+            }
+            
+            ProgressTrackingService.JobPage jobPage = progressTrackingService.listJobs(statusFilter, page, size);
             
             response.put("status", "success");
-            response.put("totalJobs", allProgress.size());
-            response.put("jobs", allProgress);
+            response.put("totalJobs", jobPage.total);
+            response.put("page", page);
+            response.put("size", size);
+            response.put("jobs", jobPage.jobs);
             
             return ResponseEntity.ok(response);
             
@@ -150,6 +390,402 @@ public class MovieRatingController {
         }
     }
     
+    /**
+     * 查询单部电影的平均评分（异步返回，等待HBase期间不占用servlet线程）
+     * @param movieId 电影ID
+     * @param scope 过滤作业的结果集标识（/process返回的resultScope），不指定时查询全量结果
+     * @return 评分信息
+     */
+    @GetMapping("/movies/{movieId}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getMovieRating(
+            @PathVariable Long movieId,
+            @RequestParam(value = "scope", required = false) String scope) {
+        try {
+            return movieRatingQueryService.getMovieRating(scope, movieId)
+                    .thenApply(rating -> {
+                        Map<String, Object> response = new HashMap<>();
+                        if (rating == null) {
+                            response.put("status", "error");
+                            response.put("message", "未找到电影的评分数据: " + movieId);
+                            return ResponseEntity.status(404).body(response);
+                        }
+                        response.put("status", "success");
+                        response.put("data", rating);
+                        return ResponseEntity.ok(response);
+                    })
+                    .exceptionally(e -> errorResponse("查询电影评分失败", e));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(errorResponse("查询电影评分失败", e));
+        }
+    }
+    
+    /**
+     * 批量查询电影的平均评分
+     * @param ids 电影ID列表，逗号分隔
+     * @param scope 过滤作业的结果集标识，不指定时查询全量结果
+     * @return 评分信息列表及未找到的电影ID
+     */
+    @GetMapping("/movies")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getMovieRatings(
+            @RequestParam("ids") List<Long> ids,
+            @RequestParam(value = "scope", required = false) String scope) {
+        try {
+            return movieRatingQueryService.getMovieRatings(scope, ids)
+                    .thenApply(ratings -> {
+                        List<Long> notFound = new ArrayList<>();
+                        for (Long id : ids) {
+                            if (!ratings.containsKey(id)) {
+                                notFound.add(id);
+                            }
+                        }
+                        
+                        Map<String, Object> response = new HashMap<>();
+                        response.put("status", "success");
+                        response.put("data", new ArrayList<>(ratings.values()));
+                        response.put("count", ratings.size());
+                        response.put("notFound", notFound);
+                        return ResponseEntity.ok(response);
+                    })
+                    .exceptionally(e -> errorResponse("批量查询电影评分失败", e));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(errorResponse("批量查询电影评分失败", e));
+        }
+    }
+    
+    /**
+     * 分页查询批处理作业生成的全量排行榜
+     * @param rankingType 排行榜类型：count（评分次数）、mean（平均分，需满足最少评分次数）、bayesian（贝叶斯加权平均）
+     * @param page 页码，从0开始
+     * @param size 每页条数
+     * @param scope 过滤作业的结果集标识，不指定时查询全量结果的排行榜
+     * @return 排行榜分页数据
+     */
+    @GetMapping("/rankings/{rankingType}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getRanking(
+            @PathVariable String rankingType,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "20") int size,
+            @RequestParam(value = "scope", required = false) String scope) {
+        try {
+            return movieRatingQueryService.getRankingPage(scope, rankingType, page, size)
+                    .thenApply(rankingPage -> {
+                        Map<String, Object> response = new HashMap<>();
+                        response.put("status", "success");
+                        response.put("data", rankingPage);
+                        return ResponseEntity.ok(response);
+                    })
+                    .exceptionally(e -> errorResponse("查询排行榜失败", e));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(errorResponse("查询排行榜失败", e));
+        }
+    }
+    
+    /**
+     * 构造异步查询的错误响应，参数错误返回400，其余返回500
+     */
+    private ResponseEntity<Map<String, Object>> errorResponse(String message, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        if (cause instanceof IllegalArgumentException) {
+            response.put("message", cause.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        response.put("message", message + ": " + cause.getMessage());
+        return ResponseEntity.status(500).body(response);
+    }
+    
+    /**
+     * 查询评分缓存统计信息
+     * @return 缓存命中率、大小等
+     */
+    @GetMapping("/movies/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", movieRatingQueryService.getCacheStats());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 手动清空评分缓存
+     * @return 操作结果
+     */
+    @DeleteMapping("/movies/cache")
+    public ResponseEntity<Map<String, Object>> invalidateCache() {
+        Map<String, Object> response = new HashMap<>();
+        movieRatingQueryService.invalidateCache();
+        response.put("status", "success");
+        response.put("message", "电影评分缓存已清空");
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 查询电影元数据字典状态
+     * @return 电影数、类型列表、占用内存和加载时间
+     */
+    @GetMapping("/catalog")
+    public ResponseEntity<Map<String, Object>> getCatalogStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", movieCatalogService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 重新加载movies.csv/links.csv，加载期间查询继续使用旧字典
+     * @return 新字典的状态
+     */
+    @PostMapping("/catalog/reload")
+    public ResponseEntity<Map<String, Object>> reloadCatalog() {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            Map<String, Object> status = movieCatalogService.reload();
+            // 缓存中的评分结果带着旧字典的标题和类型
+            movieRatingQueryService.invalidateCache();
+            
+            response.put("status", "success");
+            response.put("message", "电影元数据已重新加载");
+            response.put("data", status);
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "重新加载电影元数据失败");
+            response.put("error", e.getMessage());
+            
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+    
+    /**
+     * 流式导出全部电影评分（或movieId范围内的部分），边扫描边写入分块响应，不在内存中缓存整张表
+     * 导出在异步线程中执行，请求线程立即释放；Accept-Encoding接受gzip（q值大于0）或gzip=true时压缩输出
+     * 参数错误（400）和导出过多（429）在开始输出前以ExportRejectedException抛出，由exportRejected返回JSON错误
+     * @param format 输出格式：ndjson（默认）或 csv
+     * @param minMovieId 最小movieId（含），可选
+     * @param maxMovieId 最大movieId（含），可选
+     * @param metadata 是否包含标题和类型
+     * @param limit 最多导出的条数，0表示不限
+     * @param gzip 强制gzip压缩
+     * @param trailer 是否在末尾追加汇总行，客户端据此判断导出是否完整；不指定时NDJSON追加，CSV不追加（汇总行不是数据行）
+     * @param scope 过滤作业的结果集标识，不指定时导出全量结果
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRatings(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "minMovieId", required = false) Long minMovieId,
+            @RequestParam(value = "maxMovieId", required = false) Long maxMovieId,
+            @RequestParam(value = "metadata", defaultValue = "true") boolean metadata,
+            @RequestParam(value = "limit", defaultValue = "0") long limit,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+            @RequestParam(value = "trailer", required = false) Boolean trailer,
+            @RequestParam(value = "scope", required = false) String scope,
+            HttpServletRequest request) {
+        RatingExportService.Format exportFormat = RatingExportService.Format.parse(format);
+        if (exportFormat == null) {
+            throw new ExportRejectedException(400, "不支持的导出格式: " + format + "，可选 ndjson、csv");
+        }
+        if (limit < 0 || (minMovieId != null && maxMovieId != null && minMovieId > maxMovieId)) {
+            throw new ExportRejectedException(400, "limit不能为负数，minMovieId不能大于maxMovieId");
+        }
+        if (scope != null) {
+            try {
+                RatingResultStore.checkScope(scope);
+            } catch (IllegalArgumentException e) {
+                throw new ExportRejectedException(400, e.getMessage());
+            }
+        }
+        if (!ratingExportService.tryAcquire()) {
+            throw new ExportRejectedException(429, "当前进行中的导出过多，请稍后再试");
+        }
+        
+        // 返回响应体后名额交给异步处理，在处理结束（正常完成、出错或超时）时归还；在此之前的任何退出都在finally中归还
+        boolean handedOff = false;
+        try {
+            WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_INTERCEPTOR_KEY,
+                    new CallableProcessingInterceptor() {
+                        @Override
+                        public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                            // 导出时长与表的大小有关，不使用默认的异步请求超时；0表示不限
+                            ((AsyncWebRequest) webRequest).setTimeout(exportTimeoutMs);
+                        }
+
+                        @Override
+                        public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                            ratingExportService.release();
+                        }
+                    });
+
+            boolean compress = gzip || RatingExportService.acceptsGzip(request.getHeader("Accept-Encoding"));
+            boolean withTrailer = trailer != null ? trailer : exportFormat == RatingExportService.Format.NDJSON;
+            RatingExportService.ExportRequest exportRequest =
+                    new RatingExportService.ExportRequest(minMovieId, maxMovieId, metadata, limit, withTrailer, scope);
+            StreamingResponseBody body = out -> {
+                try {
+                    ratingExportService.export(exportRequest, exportFormat, compress, out);
+                } catch (IOException | RuntimeException e) {
+                    // 多数情况是客户端提前断开；没有汇总行，客户端可据此发现数据不完整
+                    System.err.println("评分结果导出中断: " + e.getMessage());
+                    throw e;
+                }
+            };
+            // 不设置Content-Length，响应以分块方式发送
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .header("Content-Type", exportFormat.getContentType() + ";charset=UTF-8")
+                    .header("Content-Disposition", "attachment; filename=\"movie-ratings." + exportFormat.getExtension() + "\"")
+                    .header("Vary", "Accept-Encoding");
+            if (compress) {
+                builder.header("Content-Encoding", "gzip");
+            }
+            ResponseEntity<StreamingResponseBody> response = builder.body(body);
+            handedOff = true;
+            return response;
+        } finally {
+            if (!handedOff) {
+                ratingExportService.release();
+            }
+        }
+    }
+
+    /**
+     * 导出在开始输出之前被拒绝
+     */
+    static class ExportRejectedException extends RuntimeException {
+        private final int status;
+
+        ExportRejectedException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * 导出被拒绝时的JSON错误响应；显式设置Content-Type，不受请求Accept（如text/csv）影响
+     */
+    @ExceptionHandler(ExportRejectedException.class)
+    public ResponseEntity<Map<String, Object>> exportRejected(ExportRejectedException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", e.getMessage());
+        return ResponseEntity.status(e.status).contentType(MediaType.APPLICATION_JSON).body(response);
+    }
+    
+    /**
+     * 查询作业的近似预览：各电影平均评分的估计值和95%置信区间，随作业读取更多数据逐步收窄；
+     * 作业成功结束后预览由精确结果替换，指定movieIds时直接返回结果存储中的精确值
+     * @param jobId 作业ID
+     * @param movieIds 逗号分隔的movieId列表，可选
+     * @param sortBy 未指定movieIds时的排序：count（抽样评分次数倒序）或 movieId
+     * @param limit 未指定movieIds时返回的电影数
+     * @return 预览状态和估计值
+     */
+    @GetMapping("/preview/{jobId}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getPreview(
+            @PathVariable String jobId,
+            @RequestParam(value = "movieIds", required = false) List<Long> movieIds,
+            @RequestParam(value = "sortBy", defaultValue = "count") String sortBy,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        RatingPreviewService.Preview preview = ratingPreviewService.getPreview(jobId);
+        if (preview == null) {
+            response.put("status", "error");
+            response.put("message", "未找到作业的预览（作业未开启预览或预览已被淘汰）: " + jobId);
+            return CompletableFuture.completedFuture(ResponseEntity.status(404).body(response));
+        }
+        if (!"count".equals(sortBy) && !"movieId".equals(sortBy)) {
+            return CompletableFuture.completedFuture(errorResponse("查询预览失败",
+                    new IllegalArgumentException("sortBy只能是count或movieId: " + sortBy)));
+        }
+        if (limit < 1 || limit > MovieRatingQueryService.MAX_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(errorResponse("查询预览失败",
+                    new IllegalArgumentException("limit必须在1到" + MovieRatingQueryService.MAX_BATCH_SIZE + "之间")));
+        }
+
+        RatingPreviewService.PreviewState state = preview.getState();
+        response.put("status", "success");
+        response.put("jobId", jobId);
+        response.put("state", state.name());
+        response.put("stateDescription", state.getDescription());
+        response.put("message", preview.getMessage());
+        response.put("filter", preview.getFilter());
+        response.put("exact", state == RatingPreviewService.PreviewState.EXACT);
+
+        if (state == RatingPreviewService.PreviewState.EXACT) {
+            if (preview.getResultScope() != null) {
+                response.put("resultScope", preview.getResultScope());
+            }
+            if (preview.getOverwrittenBy() != null) {
+                return CompletableFuture.completedFuture(exactResultGone(jobId, preview));
+            }
+            if (movieIds == null || movieIds.isEmpty()) {
+                response.put("message", preview.getResultScope() != null
+                        ? "精确结果已写入过滤作业的结果集，请通过 /movies、/rankings 或 /export 加上scope参数查询"
+                        : "精确结果已写入结果存储，请通过 /movies、/rankings 或 /export 查询");
+                return CompletableFuture.completedFuture(ResponseEntity.ok(response));
+            }
+            try {
+                return movieRatingQueryService.getMovieRatings(preview.getResultScope(), movieIds)
+                        .thenApply(ratings -> {
+                            // 读取期间另一个作业开始重写结果存储，读到的可能不是本作业的结果
+                            if (preview.getOverwrittenBy() != null) {
+                                return exactResultGone(jobId, preview);
+                            }
+                            response.put("data", new ArrayList<>(ratings.values()));
+                            response.put("count", ratings.size());
+                            return ResponseEntity.ok(response);
+                        })
+                        .exceptionally(e -> errorResponse("查询精确结果失败", e));
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.completedFuture(errorResponse("查询精确结果失败", e));
+            }
+        }
+
+        RatingPreviewService.PreviewSnapshot snapshot = preview.getSnapshot();
+        response.put("confidenceLevel", RatingPreviewService.CONFIDENCE_LEVEL);
+        if (snapshot != null) {
+            response.put("sampledBlocks", snapshot.getSampledBlocks());
+            response.put("totalBlocks", snapshot.getTotalBlocks());
+            response.put("sampledRecords", snapshot.getSampledRecords());
+            response.put("totalRecords", snapshot.getTotalRecords());
+            response.put("sampledFraction", snapshot.getSampledFraction());
+            response.put("movieCount", snapshot.getMovieCount());
+            response.put("updatedAt", snapshot.getUpdatedAt());
+        }
+        List<RatingPreviewService.MovieEstimate> estimates = movieIds != null && !movieIds.isEmpty()
+                ? preview.getEstimates(movieIds)
+                : preview.getTopEstimates(limit, "count".equals(sortBy));
+        response.put("data", estimates);
+        response.put("count", estimates.size());
+        return CompletableFuture.completedFuture(ResponseEntity.ok(response));
+    }
+    
+    /**
+     * 作业的精确结果已被之后的作业覆盖时的响应
+     */
+    private ResponseEntity<Map<String, Object>> exactResultGone(String jobId, RatingPreviewService.Preview preview) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("jobId", jobId);
+        response.put("state", preview.getState().name());
+        response.put("overwrittenBy", preview.getOverwrittenBy());
+        response.put("message", "结果存储已被作业 " + preview.getOverwrittenBy() + " 重写，作业 " + jobId + " 的精确结果不再可用");
+        return ResponseEntity.status(409).body(response);
+    }
+
+    /**
+     * 查询结果缓存：各结果存储中现有结果对应的作业和输入指纹
+     * @return 结果缓存状态
+     */
+    @GetMapping("/result-cache")
+    public ResponseEntity<Map<String, Object>> getResultCacheStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", inputFingerprintService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * 获取处理状态信息
      * @return 状态信息
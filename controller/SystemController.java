@@ -0,0 +1,73 @@
+package com.abc.controller;
+
+import com.abc.config.ExecutorRegistry;
+import com.abc.config.FlinkSessionCluster;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 系统运行状态控制器
+ */
+@RestController
+@RequestMapping("/api/system")
+@CrossOrigin(origins = "*")
+public class SystemController {
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private FlinkSessionCluster flinkSessionCluster;
+
+    /**
+     * 获取各后台执行器的线程数、活跃数、排队数和拒绝数
+     */
+    @GetMapping("/executors")
+    public ResponseEntity<Map<String, Object>> getExecutorMetrics() {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            List<Map<String, Object>> metrics = executorRegistry.getMetrics();
+
+            response.put("status", "success");
+            response.put("data", metrics);
+            response.put("count", metrics.size());
+            response.put("timestamp", System.currentTimeMillis());
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "获取执行器状态失败");
+            response.put("error", e.getMessage());
+
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 获取Flink会话集群状态和作业提交耗时
+     */
+    @GetMapping("/flink")
+    public ResponseEntity<Map<String, Object>> getFlinkMetrics() {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            response.put("status", "success");
+            response.put("data", flinkSessionCluster.getMetrics());
+            response.put("timestamp", System.currentTimeMillis());
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "获取Flink会话集群状态失败");
+            response.put("error", e.getMessage());
+
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+}
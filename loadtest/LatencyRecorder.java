@@ -0,0 +1,61 @@
+package com.abc.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * 延迟记录器（单线程使用，每个压测线程各持有一个，结束后合并）
+ * 记录全部样本（纳秒），合并后排序求分位数；压测规模在百万级以内，内存开销可以接受
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int size = 0;
+    private long errorCount = 0;
+
+    public void record(long latencyNanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = latencyNanos;
+    }
+
+    public void recordError() {
+        errorCount++;
+    }
+
+    public void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.size; i++) {
+            record(other.samples[i]);
+        }
+        errorCount += other.errorCount;
+    }
+
+    public int getCount() {
+        return size;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 计算分位数（毫秒），调用前需先sort()
+     *
+     * @param percentile 0-100
+     */
+    public double percentileMillis(double percentile) {
+        if (size == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return samples[Math.max(0, Math.min(size - 1, index))] / 1_000_000.0;
+    }
+
+    public double maxMillis() {
+        return size == 0 ? 0.0 : samples[size - 1] / 1_000_000.0;
+    }
+
+    public void sort() {
+        Arrays.sort(samples, 0, size);
+    }
+}
@@ -0,0 +1,235 @@
+package com.abc.loadtest;
+
+import com.abc.MovieRatingApplication;
+import com.abc.service.HotMovieStreamService;
+import com.abc.service.ProgressTrackingService;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * REST接口端到端压测工具
+ *
+ * 以本地结果存储（result-store.type=local）在随机端口启动整个应用，不需要HBase/ZooKeeper。
+ * 按ingestRates逐档提高HotMovieStreamService的写入速率，每一档内以固定目标QPS压测读接口，
+ * 输出各接口的吞吐和p50/p95/p99/p999延迟，观察读延迟随写入速率上升的变化。
+ *
+ * 压测为开环模型：每个线程按固定间隔排定请求的计划发出时间，延迟从计划时间起算。
+ * 服务端变慢导致请求排队时，排队等待的时间也计入延迟，即修正了协调遗漏（coordinated omission）。
+ *
+ * 参数（系统属性）：
+ *   loadtest.concurrency      压测线程数，默认8
+ *   loadtest.targetQps        每档读请求总目标QPS，默认200
+ *   loadtest.durationSeconds  每档持续时间，默认30
+ *   loadtest.ingestRates      写入速率档位（条/秒），默认0,1000,10000,50000
+ */
+public class LoadTestHarness {
+
+    private static final String[] READ_ENDPOINTS = {
+            "/api/hot-movies/current",
+            "/api/hot-movies/generator/status",
+            "/api/movie-rating/progress/%s"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 8);
+        int targetQps = Integer.getInteger("loadtest.targetQps", 200);
+        int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 30);
+        String[] ingestRates = System.getProperty("loadtest.ingestRates", "0,1000,10000,50000").split(",");
+
+        ConfigurableApplicationContext context = SpringApplication.run(MovieRatingApplication.class,
+                "--server.port=0",
+                "--result-store.type=local",
+                "--result-store.local.dir=target/loadtest-store");
+
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            String baseUrl = "http://localhost:" + port;
+            System.out.println("应用已启动: " + baseUrl);
+
+            // 进度接口需要一个存在的作业，直接在进度服务里登记一个作为替身
+            String jobId = "loadtest-job";
+            ProgressTrackingService progressTrackingService = context.getBean(ProgressTrackingService.class);
+            progressTrackingService.createJob(jobId, 30000000L, "压测用作业");
+
+            HotMovieStreamService hotMovieStreamService = context.getBean(HotMovieStreamService.class);
+
+            request(baseUrl + "/api/hot-movies/start", "POST");
+            request(baseUrl + "/api/hot-movies/generator/start", "POST");
+
+            List<String> report = new ArrayList<>();
+            report.add("ingestRate,endpoint,count,errors,throughput,p50Ms,p95Ms,p99Ms,p999Ms,maxMs");
+
+            for (String rateValue : ingestRates) {
+                int ingestRate = Integer.parseInt(rateValue.trim());
+                System.out.println("=== 写入速率 " + ingestRate + " 条/秒，读目标QPS " + targetQps + " ===");
+
+                AtomicBoolean ingesting = new AtomicBoolean(true);
+                Thread ingestThread = startIngest(hotMovieStreamService, ingestRate, ingesting, progressTrackingService, jobId);
+
+                Map<String, LatencyRecorder> results = runReadLoad(baseUrl, jobId, concurrency, targetQps, durationSeconds);
+
+                ingesting.set(false);
+                ingestThread.join();
+
+                for (Map.Entry<String, LatencyRecorder> entry : results.entrySet()) {
+                    LatencyRecorder recorder = entry.getValue();
+                    recorder.sort();
+                    report.add(String.format(Locale.ROOT, "%d,%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f",
+                            ingestRate, entry.getKey(), recorder.getCount(), recorder.getErrorCount(),
+                            (double) recorder.getCount() / durationSeconds,
+                            recorder.percentileMillis(50), recorder.percentileMillis(95),
+                            recorder.percentileMillis(99), recorder.percentileMillis(99.9),
+                            recorder.maxMillis()));
+                }
+            }
+
+            request(baseUrl + "/api/hot-movies/generator/stop", "POST");
+            request(baseUrl + "/api/hot-movies/stop", "POST");
+
+            Path resultFile = writeReport(report);
+            System.out.println("===== 压测结果 =====");
+            for (String line : report) {
+                System.out.println(line);
+            }
+            System.out.println("结果已写入: " + resultFile);
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * 按固定速率直接向热门电影计算服务写入评分，同时推进替身作业的进度
+     */
+    private static Thread startIngest(HotMovieStreamService service, int ratePerSecond, AtomicBoolean running,
+                                      ProgressTrackingService progressTrackingService, String jobId) {
+        Thread thread = new Thread(() -> {
+            if (ratePerSecond <= 0) {
+                return;
+            }
+            Random random = new Random();
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+            long next = System.nanoTime();
+            long sent = 0;
+            while (running.get()) {
+                service.addRatingData((long) random.nextInt(1000) + 1, (long) random.nextInt(10000) + 1,
+                        (random.nextInt(10) + 1) / 2.0);
+                sent++;
+                if (sent % 1000 == 0) {
+                    progressTrackingService.updateProgress(jobId, sent, "压测写入 " + sent + " 条");
+                }
+                next += intervalNanos;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(sleep);
+                }
+            }
+        }, "loadtest-ingest");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 开环读压测：每个线程以 concurrency/targetQps 的间隔轮流请求各个读接口
+     */
+    static Map<String, LatencyRecorder> runReadLoad(String baseUrl, String jobId, int concurrency,
+                                                           int targetQps, int durationSeconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "loadtest-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * concurrency / Math.max(1, targetQps);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        List<Future<Map<String, LatencyRecorder>>> futures = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            int worker = w;
+            futures.add(executor.submit(() -> {
+                Map<String, LatencyRecorder> recorders = new TreeMap<>();
+                // 各线程错开起始时间，使请求在时间上均匀分布
+                long intended = startNanos + intervalNanos * worker / concurrency;
+                int i = worker;
+                while (intended < endNanos) {
+                    long now = System.nanoTime();
+                    if (intended > now) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    String endpoint = READ_ENDPOINTS[i++ % READ_ENDPOINTS.length];
+                    LatencyRecorder recorder = recorders.computeIfAbsent(endpoint, k -> new LatencyRecorder());
+                    try {
+                        int status = request(baseUrl + String.format(endpoint, jobId), "GET");
+                        if (status >= 400) {
+                            recorder.recordError();
+                        }
+                    } catch (IOException e) {
+                        recorder.recordError();
+                    }
+                    // 从计划发出时间起算，而不是实际发出时间
+                    recorder.record(System.nanoTime() - intended);
+                    intended += intervalNanos;
+                }
+                return recorders;
+            }));
+        }
+
+        Map<String, LatencyRecorder> merged = new TreeMap<>();
+        for (Future<Map<String, LatencyRecorder>> future : futures) {
+            for (Map.Entry<String, LatencyRecorder> entry : future.get().entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new LatencyRecorder()).merge(entry.getValue());
+            }
+        }
+        executor.shutdown();
+        return merged;
+    }
+
+    /**
+     * 发送HTTP请求并读完响应体，返回状态码
+     */
+    private static int request(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        int status = connection.getResponseCode();
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // 读完响应体以复用keep-alive连接
+                }
+            }
+        }
+        return status;
+    }
+
+    private static Path writeReport(List<String> report) throws IOException {
+        Path dir = Paths.get("loadtest-results");
+        Files.createDirectories(dir);
+        Path file = dir.resolve("loadtest-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".csv");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (String line : report) {
+                writer.println(line);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,110 @@
+package com.abc.loadtest;
+
+import com.abc.service.HotMovieClusterService;
+import com.abc.service.HotMovieWindow;
+
+import java.util.*;
+
+/**
+ * 多节点排行榜合并的单进程校验工具
+ *
+ * 在同一进程内用多个HotMovieWindow模拟多个节点，按两种方式分配同一批评分事件：
+ *   hash    按HotMovieClusterService.partitionOf路由到各节点
+ *   random  随机分配到各节点
+ * 分别合并各节点摘要，与把全部事件写入单个窗口得到的精确排行榜逐名次对比，
+ * 输出每种方式下名次不一致的条数、实际最大误差和合并结果自报的最大误差。
+ *
+ * 参数（系统属性）：
+ *   check.nodes        节点数，默认4
+ *   check.events       事件总数，默认1000000
+ *   check.movies       电影数，默认10000
+ *   check.k            排行榜条数，默认10
+ *   check.summarySize  每个节点上报的摘要条数，默认50
+ */
+public class PartitionedRankingCheck {
+
+    private static final long WINDOW_SIZE_MS = 10 * 60 * 1000L;
+    private static final long BUCKET_SIZE_MS = 10 * 1000L;
+
+    public static void main(String[] args) {
+        int nodeCount = Integer.getInteger("check.nodes", 4);
+        int eventCount = Integer.getInteger("check.events", 1000000);
+        int movieCount = Integer.getInteger("check.movies", 10000);
+        int k = Integer.getInteger("check.k", 10);
+        int summarySize = Integer.getInteger("check.summarySize", 50);
+
+        long now = System.currentTimeMillis();
+        HotMovieWindow exactWindow = new HotMovieWindow(WINDOW_SIZE_MS, BUCKET_SIZE_MS);
+        HotMovieWindow[] hashNodes = newWindows(nodeCount);
+        HotMovieWindow[] randomNodes = newWindows(nodeCount);
+
+        // 评分次数近似Zipf分布，少数电影占大部分评分
+        Random random = new Random(42);
+        for (int i = 0; i < eventCount; i++) {
+            long movieId = zipf(random, movieCount);
+            double rating = (random.nextInt(10) + 1) / 2.0;
+            long timestamp = now - random.nextInt((int) (WINDOW_SIZE_MS - BUCKET_SIZE_MS));
+            exactWindow.add(movieId, rating, timestamp);
+            hashNodes[HotMovieClusterService.partitionOf(movieId, nodeCount)].add(movieId, rating, timestamp);
+            randomNodes[random.nextInt(nodeCount)].add(movieId, rating, timestamp);
+        }
+
+        Map<Long, HotMovieWindow.MovieTotals> exactTotals = exactWindow.aggregate(now, false);
+        List<Map.Entry<Long, HotMovieWindow.MovieTotals>> exact = HotMovieWindow.topK(exactTotals, k);
+
+        System.out.printf("节点数=%d, 事件数=%d, 电影数=%d, k=%d, 摘要条数=%d%n",
+                nodeCount, eventCount, movieCount, k, summarySize);
+        report("hash", merge(hashNodes, true, summarySize, k, now), exact, exactTotals);
+        report("random", merge(randomNodes, false, summarySize, k, now), exact, exactTotals);
+    }
+
+    private static HotMovieWindow[] newWindows(int count) {
+        HotMovieWindow[] windows = new HotMovieWindow[count];
+        for (int i = 0; i < count; i++) {
+            windows[i] = new HotMovieWindow(WINDOW_SIZE_MS, BUCKET_SIZE_MS);
+        }
+        return windows;
+    }
+
+    private static HotMovieClusterService.GlobalRanking merge(HotMovieWindow[] nodes, boolean hashPartitioned,
+                                                             int summarySize, int k, long now) {
+        List<HotMovieClusterService.PartitionSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            summaries.add(HotMovieClusterService.summarize("node-" + i, i, nodes.length, hashPartitioned,
+                    nodes[i].aggregate(now, false), summarySize, now));
+        }
+        return HotMovieClusterService.merge(summaries, k);
+    }
+
+    private static void report(String mode, HotMovieClusterService.GlobalRanking ranking,
+                               List<Map.Entry<Long, HotMovieWindow.MovieTotals>> exact,
+                               Map<Long, HotMovieWindow.MovieTotals> exactTotals) {
+        int mismatched = 0;
+        long actualMaxError = 0;
+        long reportedMaxError = 0;
+        boolean boundViolated = false;
+        List<HotMovieClusterService.GlobalHotMovie> movies = ranking.getMovies();
+        for (int i = 0; i < exact.size(); i++) {
+            if (i >= movies.size() || !movies.get(i).getMovieId().equals(exact.get(i).getKey())) {
+                mismatched++;
+            }
+        }
+        for (HotMovieClusterService.GlobalHotMovie movie : movies) {
+            long trueCount = exactTotals.get(movie.getMovieId()).count;
+            long error = trueCount - movie.getRatingCount();
+            actualMaxError = Math.max(actualMaxError, error);
+            reportedMaxError = Math.max(reportedMaxError, movie.getMaxError());
+            // 真实值必须落在 [下界, 下界 + maxError] 内
+            boundViolated |= error < 0 || error > movie.getMaxError();
+        }
+        System.out.printf("%-6s 名次不一致=%d, 实际最大误差=%d, 自报最大误差=%d, exact=%s, 未出现电影上界=%d, 误差界%s%n",
+                mode, mismatched, actualMaxError, reportedMaxError, ranking.isExact(),
+                ranking.getUnseenMaxCount(), boundViolated ? "被违反" : "成立");
+    }
+
+    private static long zipf(Random random, int movieCount) {
+        // 以幂律近似Zipf，避免预先计算累积分布
+        double u = random.nextDouble();
+        return (long) Math.min(movieCount, Math.floor(Math.pow(movieCount, u)));
+    }
+}
@@ -0,0 +1,584 @@
+package com.abc.service;
+
+import com.abc.config.HBaseConnections;
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple6;
+import org.apache.flink.configuration.Configuration;
+import org.apache.hadoop.hbase.CompareOperator;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于HBase的评分结果存储（默认实现）
+ * 评分结果表以movieId为行键；排行榜表以"类型|名次"为行键，另有"类型|meta"元信息行记录榜单长度和生成时间
+ * 两张表的行都带上电影元数据字典中的标题（评分结果表另有类型和外部ID），直接读表的下游不必再自行关联
+ * 带过滤条件的作业写入以"_<结果集标识>"为后缀的一对独立表，首次使用时创建
+ */
+@Component
+@ConditionalOnProperty(name = "result-store.type", havingValue = "hbase", matchIfMissing = true)
+public class HBaseRatingResultStore implements RatingResultStore {
+
+    @Autowired
+    private AsyncConnection hbaseAsyncConnection;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    @Value("${hbase.zookeeper.quorum:localhost}")
+    private String hbaseZookeeperQuorum;
+
+    @Value("${hbase.zookeeper.port:2181}")
+    private String hbaseZookeeperPort;
+
+    @Value("${hbase.table.name}")
+    private String tableName;
+
+    @Value("${hbase.table.column-family}")
+    private String columnFamily;
+
+    @Value("${hbase.ranking-table.name:movie_rankings}")
+    private String rankingTableName;
+
+    // 导出扫描每次RPC返回的行数
+    @Value("${export.hbase.scan-caching:1000}")
+    private int exportScanCaching;
+
+    // 导出扫描每次RPC返回的最大字节数，同时决定客户端预取缓冲的上限
+    @Value("${export.hbase.max-result-size:2097152}")
+    private long exportMaxResultSize;
+
+    // 排行榜表的元信息行后缀，记录榜单长度等
+    public static final String RANKING_META_SUFFIX = "meta";
+
+    private static final byte[] AVG_RATING_COLUMN = Bytes.toBytes("avg_rating");
+    private static final byte[] RATING_COUNT_COLUMN = Bytes.toBytes("rating_count");
+    private static final byte[] TITLE_COLUMN = Bytes.toBytes("title");
+    private static final byte[] GENRES_COLUMN = Bytes.toBytes("genres");
+    private static final byte[] IMDB_ID_COLUMN = Bytes.toBytes("imdb_id");
+    private static final byte[] TMDB_ID_COLUMN = Bytes.toBytes("tmdb_id");
+
+    // 过滤作业的结果集标识，全量结果为null
+    private String scope;
+
+    // 过滤作业的结果集，按标识复用实例
+    private final Map<String, HBaseRatingResultStore> scopedStores = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return scope == null ? "hbase" : "hbase(" + tableName + ")";
+    }
+
+    @Override
+    public RatingResultStore scoped(String scope) {
+        RatingResultStore.checkScope(scope);
+        return scopedStores.computeIfAbsent(scope, s -> {
+            HBaseRatingResultStore store = new HBaseRatingResultStore();
+            store.hbaseAsyncConnection = hbaseAsyncConnection;
+            store.movieCatalogService = movieCatalogService;
+            store.hbaseZookeeperQuorum = hbaseZookeeperQuorum;
+            store.hbaseZookeeperPort = hbaseZookeeperPort;
+            store.tableName = tableName + "_" + s;
+            store.columnFamily = columnFamily;
+            store.rankingTableName = rankingTableName + "_" + s;
+            store.exportScanCaching = exportScanCaching;
+            store.exportMaxResultSize = exportMaxResultSize;
+            store.scope = s;
+            return store;
+        });
+    }
+
+    /**
+     * 清空评分结果表：每次作业只写入本次输入中出现的电影，不清空时上一次作业独有的电影会一直留在表里，
+     * 与本地存储把评分文件清零的行为一致；清空后到作业写入前查询不到任何电影
+     * 全量结果的排行榜由元信息行给出榜单长度，整体替换，不清空；过滤作业的排行榜表一并清空
+     * 表不存在时创建（全量结果的表通常由部署时创建），清空时保留预分区
+     */
+    @Override
+    public void beginRun() throws IOException {
+        List<String> names = scope == null
+                ? Collections.singletonList(tableName)
+                : Arrays.asList(tableName, rankingTableName);
+        AsyncAdmin admin = hbaseAsyncConnection.getAdmin();
+        try {
+            for (String name : names) {
+                TableName table = TableName.valueOf(name);
+                if (admin.tableExists(table).get()) {
+                    if (admin.isTableEnabled(table).get()) {
+                        admin.disableTable(table).get();
+                    }
+                    admin.truncateTable(table, true).get();
+                    System.out.println("HBase结果表已清空: " + name);
+                } else {
+                    admin.createTable(TableDescriptorBuilder.newBuilder(table)
+                            .setColumnFamily(ColumnFamilyDescriptorBuilder.of(columnFamily))
+                            .build()).get();
+                    System.out.println("HBase结果表已创建: " + name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("准备HBase结果表被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("准备HBase结果表失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public OutputFormat<Tuple3<Long, Double, Long>> createRatingSink() {
+        return new HBaseSinkFunction(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily,
+                movieCatalogService.getMoviesPath(), movieCatalogService.getLinksPath());
+    }
+
+    @Override
+    public OutputFormat<Tuple6<String, Integer, Long, Double, Long, Double>> createRankingSink() {
+        return new RankingSinkFunction(hbaseZookeeperQuorum, hbaseZookeeperPort, rankingTableName, columnFamily,
+                movieCatalogService.getMoviesPath(), movieCatalogService.getLinksPath());
+    }
+
+    /**
+     * 通过共享异步连接发起一次批量Get
+     */
+    @Override
+    public CompletableFuture<Map<Long, MovieRatingQueryService.MovieRating>> getMovieRatings(List<Long> movieIds) {
+        byte[] family = Bytes.toBytes(columnFamily);
+        List<Get> gets = new ArrayList<>(movieIds.size());
+        for (Long movieId : movieIds) {
+            Get get = new Get(Bytes.toBytes(movieId.toString())); // movieId作为rowkey
+            get.addColumn(family, AVG_RATING_COLUMN);
+            get.addColumn(family, RATING_COUNT_COLUMN);
+            gets.add(get);
+        }
+
+        return hbaseAsyncConnection.getTable(TableName.valueOf(tableName)).getAll(gets).thenApply(results -> {
+            Map<Long, MovieRatingQueryService.MovieRating> loaded = new HashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                if (r == null || r.isEmpty()) {
+                    continue;
+                }
+                byte[] avg = r.getValue(family, AVG_RATING_COLUMN);
+                byte[] count = r.getValue(family, RATING_COUNT_COLUMN);
+                if (avg == null || count == null) {
+                    continue;
+                }
+                Long movieId = movieIds.get(i);
+                loaded.put(movieId, new MovieRatingQueryService.MovieRating(movieId,
+                        Double.parseDouble(Bytes.toString(avg)),
+                        Long.parseLong(Bytes.toString(count))));
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * 先读元信息行得到榜单长度，再在排行榜表上做一次有界短扫描
+     */
+    @Override
+    public CompletableFuture<MovieRatingQueryService.RankingPage> getRankingPage(String rankingType, int page, int size) {
+        byte[] family = Bytes.toBytes(columnFamily);
+        AsyncTable<AdvancedScanResultConsumer> table = hbaseAsyncConnection.getTable(TableName.valueOf(rankingTableName));
+
+        // 元信息行给出榜单长度，防止读到上一次作业遗留的更长榜单
+        Get metaGet = new Get(Bytes.toBytes(rankingType + "|" + RANKING_META_SUFFIX));
+        return table.get(metaGet).thenCompose(meta -> {
+            if (meta == null || meta.isEmpty()) {
+                return CompletableFuture.completedFuture(
+                        new MovieRatingQueryService.RankingPage(rankingType, page, size, 0, null, new ArrayList<>()));
+            }
+            int total = Integer.parseInt(Bytes.toString(meta.getValue(family, Bytes.toBytes("size"))));
+            Long generatedAt = Long.parseLong(Bytes.toString(meta.getValue(family, Bytes.toBytes("generated_at"))));
+
+            long first = (long) page * size + 1;
+            if (first > total) {
+                return CompletableFuture.completedFuture(
+                        new MovieRatingQueryService.RankingPage(rankingType, page, size, total, generatedAt, new ArrayList<>()));
+            }
+            int firstRank = (int) first;
+            int lastRank = (int) Math.min(total, first + size - 1);
+
+            Scan scan = new Scan()
+                    .withStartRow(Bytes.toBytes(rankingRowKey(rankingType, firstRank)))
+                    .withStopRow(Bytes.toBytes(rankingRowKey(rankingType, lastRank)), true)
+                    .addFamily(family)
+                    .setCaching(lastRank - firstRank + 1);
+
+            return table.scanAll(scan).thenApply(results -> {
+                List<MovieRatingQueryService.RankingEntry> entries = new ArrayList<>(results.size());
+                int rank = firstRank;
+                for (Result r : results) {
+                    entries.add(new MovieRatingQueryService.RankingEntry(rank++,
+                            Long.parseLong(Bytes.toString(r.getValue(family, Bytes.toBytes("movie_id")))),
+                            Double.parseDouble(Bytes.toString(r.getValue(family, AVG_RATING_COLUMN))),
+                            Long.parseLong(Bytes.toString(r.getValue(family, RATING_COUNT_COLUMN))),
+                            Double.parseDouble(Bytes.toString(r.getValue(family, Bytes.toBytes("score"))))));
+                }
+                return new MovieRatingQueryService.RankingPage(rankingType, page, size, total, generatedAt, entries);
+            });
+        });
+    }
+
+    /**
+     * 一次扫描导出评分结果表
+     * 只取需要的列；不填充块缓存，全表导出不会挤掉查询的热点数据；STREAM读取方式适合长时间的大范围顺序读；
+     * 扫描器按caching和maxResultSize分批拉取，客户端缓冲满时暂停，内存占用不随表的大小增长
+     */
+    @Override
+    public void exportRatings(RatingExportService.ExportRequest request, RatingExportService.RatingConsumer consumer)
+            throws IOException {
+        byte[] family = Bytes.toBytes(columnFamily);
+        Scan scan = exportScan(request)
+                .setCaching(exportScanCaching)
+                .setMaxResultSize(exportMaxResultSize)
+                .setCacheBlocks(false)
+                .setReadType(Scan.ReadType.STREAM);
+        scan.addColumn(family, AVG_RATING_COLUMN);
+        scan.addColumn(family, RATING_COUNT_COLUMN);
+        if (request.isIncludeMetadata()) {
+            scan.addColumn(family, TITLE_COLUMN);
+            scan.addColumn(family, GENRES_COLUMN);
+        }
+        if (request.getLimit() > 0 && request.getLimit() <= Integer.MAX_VALUE) {
+            scan.setLimit((int) request.getLimit());
+        }
+
+        AsyncTable<AdvancedScanResultConsumer> table = hbaseAsyncConnection.getTable(TableName.valueOf(tableName));
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result r : scanner) {
+                byte[] avg = r.getValue(family, AVG_RATING_COLUMN);
+                byte[] count = r.getValue(family, RATING_COUNT_COLUMN);
+                if (avg == null || count == null) {
+                    continue;
+                }
+                MovieRatingQueryService.MovieRating rating = new MovieRatingQueryService.MovieRating(
+                        Long.parseLong(Bytes.toString(r.getRow())),
+                        Double.parseDouble(Bytes.toString(avg)),
+                        Long.parseLong(Bytes.toString(count)));
+                if (request.isIncludeMetadata()) {
+                    byte[] title = r.getValue(family, TITLE_COLUMN);
+                    byte[] genres = r.getValue(family, GENRES_COLUMN);
+                    rating.setTitle(title != null ? Bytes.toString(title) : null);
+                    rating.setGenres(genres != null && genres.length > 0
+                            ? Arrays.asList(Bytes.toString(genres).split("\\|")) : Collections.emptyList());
+                }
+                if (!consumer.accept(rating)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按movieId范围构造扫描
+     * 行键是movieId的十进制字符串，字典序与数值序只在位数相同时一致，因此把范围按位数拆成若干段：
+     * 扫描的起止行取各段端点的字典序最小/最大值，再在服务端用过滤器只保留“位数为L且在第L段内”的行。
+     * 不指定范围时为全表扫描，结果按行键字典序返回。
+     */
+    static Scan exportScan(RatingExportService.ExportRequest request) {
+        Scan scan = new Scan();
+        if (!request.hasRange()) {
+            return scan;
+        }
+        long min = request.getMinMovieId() != null ? Math.max(0, request.getMinMovieId()) : 0;
+        long max = request.getMaxMovieId() != null ? request.getMaxMovieId() : Long.MAX_VALUE;
+        FilterList segments = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+        String startRow = null;
+        String stopRow = null;
+        for (int digits = Long.toString(min).length(); digits <= Long.toString(max).length(); digits++) {
+            long low = Math.max(min, digits == 1 ? 0 : pow10(digits - 1));
+            long high = digits >= 19 ? max : Math.min(max, pow10(digits) - 1);
+            if (low > high) {
+                continue;
+            }
+            String lowKey = Long.toString(low);
+            String highKey = Long.toString(high);
+            startRow = startRow == null || lowKey.compareTo(startRow) < 0 ? lowKey : startRow;
+            stopRow = stopRow == null || highKey.compareTo(stopRow) > 0 ? highKey : stopRow;
+            segments.addFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                    new RowFilter(CompareOperator.EQUAL, new RegexStringComparator("^[0-9]{" + digits + "}$")),
+                    new RowFilter(CompareOperator.GREATER_OR_EQUAL, new BinaryComparator(Bytes.toBytes(lowKey))),
+                    new RowFilter(CompareOperator.LESS_OR_EQUAL, new BinaryComparator(Bytes.toBytes(highKey)))));
+        }
+        if (startRow == null) {
+            // 空范围
+            return scan.withStartRow(Bytes.toBytes("0")).withStopRow(Bytes.toBytes("0"));
+        }
+        return scan.withStartRow(Bytes.toBytes(startRow))
+                .withStopRow(Bytes.toBytes(stopRow), true)
+                .setFilter(segments);
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    /**
+     * 排行榜行键：类型|六位补零的名次，保证同一榜单按名次顺序连续存储，分页读取只需一次短扫描
+     */
+    public static String rankingRowKey(String rankingType, int rank) {
+        return String.format("%s|%06d", rankingType, rank);
+    }
+
+    /**
+     * HBase输出基类
+     * 连接取自进程级共享的AsyncConnection（同一TaskManager内所有子任务共用），表只初始化一次，
+     * 写入走AsyncBufferedMutator，在途写入数由信号量限制，关闭时等待全部写入完成并抛出首个失败
+     * flush供DataStream作业在检查点前调用，同样等待在途写入全部完成
+     */
+    public abstract static class AsyncHBaseSink<T> implements OutputFormat<T>, Flushable {
+        // 最大在途写入数
+        private static final int MAX_IN_FLIGHT = 10000;
+
+        // 剩余许可低于该值时主动刷写缓冲区：小Put攒不满2MB写缓冲时不会自动发送，在途写入永远不会完成
+        private static final int LOW_WATER_PERMITS = MAX_IN_FLIGHT / 10;
+
+        // 写缓冲区的定时刷写间隔，兜底保证缓冲中的写入不会无限期停留
+        private static final long PERIODIC_FLUSH_MS = 1000;
+
+        protected final String hbaseZookeeperQuorum;
+        protected final String hbaseZookeeperPort;
+        protected final String tableName;
+        protected final String columnFamily;
+
+        private transient AsyncBufferedMutator mutator;
+        private transient Semaphore inFlight;
+        private transient volatile Throwable writeFailure;
+        private transient long openedAt;
+        private transient long writtenCount;
+
+        protected AsyncHBaseSink(String hbaseZookeeperQuorum, String hbaseZookeeperPort, String tableName, String columnFamily) {
+            this.hbaseZookeeperQuorum = hbaseZookeeperQuorum;
+            this.hbaseZookeeperPort = hbaseZookeeperPort;
+            this.tableName = tableName;
+            this.columnFamily = columnFamily;
+        }
+
+        @Override
+        public void configure(Configuration parameters) {
+            // 配置方法，可以为空
+        }
+
+        @Override
+        public void open(int taskNumber, int numTasks) throws IOException {
+            try {
+                HBaseConnections.ensureTable(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily);
+                mutator = HBaseConnections.getAsyncConnection(hbaseZookeeperQuorum, hbaseZookeeperPort)
+                        .getBufferedMutatorBuilder(TableName.valueOf(tableName))
+                        .setWriteBufferPeriodicFlush(PERIODIC_FLUSH_MS, TimeUnit.MILLISECONDS)
+                        .build();
+                inFlight = new Semaphore(MAX_IN_FLIGHT);
+                writeFailure = null;
+                openedAt = System.currentTimeMillis();
+                writtenCount = 0;
+            } catch (Exception e) {
+                throw new IOException("Failed to initialize HBase connection", e);
+            }
+        }
+
+        /**
+         * 异步提交一次写入
+         */
+        protected void mutate(Put put) throws IOException {
+            checkFailure();
+            if (inFlight.availablePermits() < LOW_WATER_PERMITS) {
+                mutator.flush();
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing to HBase", e);
+            }
+            writtenCount++;
+            mutator.mutate(put).whenComplete((ignored, error) -> {
+                if (error != null && writeFailure == null) {
+                    writeFailure = error;
+                }
+                inFlight.release();
+            });
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mutator == null) {
+                return;
+            }
+            try {
+                mutator.flush();
+                inFlight.acquire(MAX_IN_FLIGHT);
+                inFlight.release(MAX_IN_FLIGHT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing HBase writes", e);
+            }
+            checkFailure();
+        }
+
+        /**
+         * 关闭前的回调，子类可在此写入收尾数据
+         */
+        protected void beforeClose() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mutator == null) {
+                return;
+            }
+            try {
+                beforeClose();
+                mutator.flush();
+                inFlight.acquire(MAX_IN_FLIGHT);
+                inFlight.release(MAX_IN_FLIGHT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing HBase writes", e);
+            } finally {
+                // 只关闭本子任务的mutator，共享连接由HBaseConnections管理
+                mutator.close();
+                mutator = null;
+            }
+            checkFailure();
+            System.out.println("HBase表 " + tableName + " 写入 " + writtenCount + " 行，耗时 "
+                    + (System.currentTimeMillis() - openedAt) + " ms");
+        }
+
+        private void checkFailure() throws IOException {
+            if (writeFailure != null) {
+                throw new IOException("Failed to write record to HBase", writeFailure);
+            }
+        }
+    }
+
+    /**
+     * 带电影元数据的HBase输出基类，字典在open时从进程内共享的MovieCatalogService获取
+     */
+    public abstract static class EnrichedHBaseSink<T> extends AsyncHBaseSink<T> {
+        private final String moviesPath;
+        private final String linksPath;
+
+        protected transient MovieDictionary dictionary;
+
+        protected EnrichedHBaseSink(String hbaseZookeeperQuorum, String hbaseZookeeperPort, String tableName,
+                                    String columnFamily, String moviesPath, String linksPath) {
+            super(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily);
+            this.moviesPath = moviesPath;
+            this.linksPath = linksPath;
+        }
+
+        @Override
+        public void open(int taskNumber, int numTasks) throws IOException {
+            super.open(taskNumber, numTasks);
+            dictionary = MovieCatalogService.shared(moviesPath, linksPath);
+        }
+
+        /**
+         * 字典中有该电影时写入标题列
+         */
+        protected void addTitle(Put put, byte[] family, long movieId) {
+            String title = dictionary.getTitle(movieId);
+            if (title != null) {
+                put.addColumn(family, TITLE_COLUMN, Bytes.toBytes(title));
+            }
+        }
+    }
+
+    // HBase输出函数
+    public static class HBaseSinkFunction extends EnrichedHBaseSink<Tuple3<Long, Double, Long>> {
+        private final AtomicLong savedCount = new AtomicLong(0);
+
+        public HBaseSinkFunction(String hbaseZookeeperQuorum, String hbaseZookeeperPort, String tableName, String columnFamily,
+                                 String moviesPath, String linksPath) {
+            super(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily, moviesPath, linksPath);
+        }
+
+        @Override
+        public void writeRecord(Tuple3<Long, Double, Long> value) throws IOException {
+            byte[] family = Bytes.toBytes(columnFamily);
+            Put put = new Put(Bytes.toBytes(value.f0.toString())); // movieId作为rowkey
+            put.addColumn(family, Bytes.toBytes("avg_rating"), Bytes.toBytes(value.f1.toString()));
+            put.addColumn(family, Bytes.toBytes("rating_count"), Bytes.toBytes(value.f2.toString()));
+            addTitle(put, family, value.f0);
+            long genreMask = dictionary.getGenreMask(value.f0);
+            if (genreMask != 0) {
+                put.addColumn(family, GENRES_COLUMN, Bytes.toBytes(String.join("|", dictionary.genresOf(genreMask))));
+            }
+            Integer imdbId = dictionary.getImdbId(value.f0);
+            if (imdbId != null) {
+                put.addColumn(family, IMDB_ID_COLUMN, Bytes.toBytes(imdbId.toString()));
+            }
+            Integer tmdbId = dictionary.getTmdbId(value.f0);
+            if (tmdbId != null) {
+                put.addColumn(family, TMDB_ID_COLUMN, Bytes.toBytes(tmdbId.toString()));
+            }
+
+            mutate(put);
+
+            long count = savedCount.incrementAndGet();
+            if (count % 1000 == 0) {
+                System.out.println("已保存 " + count + " 部电影的评分数据到HBase");
+            }
+        }
+    }
+
+    // 排行榜输出函数，以并行度1运行，关闭时为每个榜单写入元信息行（榜单长度、生成时间）
+    public static class RankingSinkFunction extends EnrichedHBaseSink<Tuple6<String, Integer, Long, Double, Long, Double>> {
+        private final Map<String, Integer> rankingSizes = new HashMap<>();
+
+        public RankingSinkFunction(String hbaseZookeeperQuorum, String hbaseZookeeperPort, String tableName, String columnFamily,
+                                   String moviesPath, String linksPath) {
+            super(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily, moviesPath, linksPath);
+        }
+
+        @Override
+        public void writeRecord(Tuple6<String, Integer, Long, Double, Long, Double> value) throws IOException {
+            byte[] family = Bytes.toBytes(columnFamily);
+            Put put = new Put(Bytes.toBytes(rankingRowKey(value.f0, value.f1)));
+            put.addColumn(family, Bytes.toBytes("movie_id"), Bytes.toBytes(value.f2.toString()));
+            put.addColumn(family, Bytes.toBytes("avg_rating"), Bytes.toBytes(value.f3.toString()));
+            put.addColumn(family, Bytes.toBytes("rating_count"), Bytes.toBytes(value.f4.toString()));
+            put.addColumn(family, Bytes.toBytes("score"), Bytes.toBytes(value.f5.toString()));
+            addTitle(put, family, value.f2);
+            mutate(put);
+
+            rankingSizes.merge(value.f0, 1, Integer::sum);
+        }
+
+        @Override
+        protected void beforeClose() throws IOException {
+            byte[] family = Bytes.toBytes(columnFamily);
+            String generatedAt = String.valueOf(System.currentTimeMillis());
+            for (String rankingType : MovieRatingFlinkService.RANKING_TYPES) {
+                int size = rankingSizes.getOrDefault(rankingType, 0);
+                Put meta = new Put(Bytes.toBytes(rankingType + "|" + RANKING_META_SUFFIX));
+                meta.addColumn(family, Bytes.toBytes("size"), Bytes.toBytes(String.valueOf(size)));
+                meta.addColumn(family, Bytes.toBytes("generated_at"), Bytes.toBytes(generatedAt));
+                mutate(meta);
+                System.out.println("排行榜 " + rankingType + " 已写入 " + size + " 条记录");
+            }
+        }
+    }
+}
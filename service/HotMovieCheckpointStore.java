@@ -0,0 +1,205 @@
+package com.abc.service;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 热门电影窗口的本地检查点
+ *
+ * 目录中包含一个窗口快照 window.snapshot 和若干事件日志 events-<代>.log。
+ * 每次做检查点时先切换到新一代日志，再写快照（临时文件 + 原子替换），快照头部记录切换后的日志代号；
+ * 恢复时加载快照，只重放代号不小于快照记录值的日志，因此快照写到一半崩溃也不会重复计数或丢事件。
+ * 日志只在切换和定期flush时落盘，不逐条fsync，崩溃时最多丢失最近一次flush之后的少量事件。
+ */
+public class HotMovieCheckpointStore implements Closeable {
+
+    static final String SNAPSHOT_FILE = "window.snapshot";
+    private static final Pattern LOG_FILE_PATTERN = Pattern.compile("events-(\\d+)\\.log");
+
+    private final Path dir;
+    private final String snapshotFile;
+    private long logGeneration;
+    private DataOutputStream logOut;
+
+    public HotMovieCheckpointStore(String dir) throws IOException {
+        this(dir, SNAPSHOT_FILE);
+    }
+
+    /**
+     * @param snapshotFile 快照文件名；窗口改由外部日志（RatingEventLog）驱动时使用单独的快照，
+     *                     快照头部记录的是该日志的消费位置而不是本地日志代号
+     */
+    public HotMovieCheckpointStore(String dir, String snapshotFile) throws IOException {
+        this.dir = Paths.get(dir);
+        this.snapshotFile = snapshotFile;
+        Files.createDirectories(this.dir);
+    }
+
+    /**
+     * 只加载快照，不重放本地日志
+     *
+     * @return 快照头部记录的位置，没有快照时返回-1
+     */
+    public synchronized long restoreSnapshot(HotMovieWindow window, long now) throws IOException {
+        Path snapshot = dir.resolve(snapshotFile);
+        if (!Files.exists(snapshot)) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            long position = in.readLong();
+            window.readFrom(in, now);
+            return position;
+        }
+    }
+
+    /**
+     * 从快照和日志恢复窗口，并打开新一代日志用于后续写入
+     *
+     * @return 重放的事件数
+     */
+    public synchronized long restore(HotMovieWindow window, long now) throws IOException {
+        long snapshotGeneration = Math.max(0, restoreSnapshot(window, now));
+
+        long replayed = 0;
+        long maxGeneration = snapshotGeneration;
+        for (long generation : listLogGenerations()) {
+            if (generation < snapshotGeneration) {
+                Files.deleteIfExists(logPath(generation));
+                continue;
+            }
+            replayed += replayLog(logPath(generation), window);
+            maxGeneration = Math.max(maxGeneration, generation);
+        }
+
+        openLog(maxGeneration + 1);
+        return replayed;
+    }
+
+    /**
+     * 追加一条事件到当前日志
+     */
+    public synchronized void append(long userId, long movieId, double rating, long timestamp) throws IOException {
+        if (logOut == null) {
+            return;
+        }
+        logOut.writeLong(timestamp);
+        logOut.writeLong(userId);
+        logOut.writeLong(movieId);
+        logOut.writeDouble(rating);
+    }
+
+    /**
+     * 追加一条带权重的事件：日志记录没有权重字段，抽样保留的事件按权重重复写入，重放时与窗口计数一致
+     */
+    public synchronized void append(long userId, long movieId, double rating, int weight, long timestamp) throws IOException {
+        for (int i = 0; i < weight; i++) {
+            append(userId, movieId, rating, timestamp);
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (logOut != null) {
+            logOut.flush();
+        }
+    }
+
+    /**
+     * 切换到新一代日志并返回其代号；调用方需在没有并发写入窗口时调用，随后用该代号写快照
+     */
+    public synchronized long rotateLog() throws IOException {
+        openLog(logGeneration + 1);
+        return logGeneration;
+    }
+
+    /**
+     * 写入快照，成功后删除快照已覆盖的旧日志
+     *
+     * @param generation    rotateLog返回的日志代号
+     * @param windowContent 已序列化的窗口内容
+     */
+    public void writeSnapshot(long generation, byte[] windowContent) throws IOException {
+        Path tmp = dir.resolve(snapshotFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeLong(generation);
+            out.write(windowContent);
+        }
+        Files.move(tmp, dir.resolve(snapshotFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (!SNAPSHOT_FILE.equals(snapshotFile)) {
+            return;
+        }
+        for (long old : listLogGenerations()) {
+            if (old < generation) {
+                Files.deleteIfExists(logPath(old));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (logOut != null) {
+            logOut.close();
+            logOut = null;
+        }
+    }
+
+    private void openLog(long generation) throws IOException {
+        if (logOut != null) {
+            logOut.close();
+        }
+        logGeneration = generation;
+        logOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logPath(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024));
+    }
+
+    private long replayLog(Path log, HotMovieWindow window) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long userId;
+                long movieId;
+                double rating;
+                try {
+                    userId = in.readLong();
+                    movieId = in.readLong();
+                    rating = in.readDouble();
+                } catch (EOFException e) {
+                    // 崩溃时写了一半的尾部记录
+                    break;
+                }
+                if (window.add(movieId, userId, rating, 1, timestamp)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private List<Long> listLogGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "events-*.log")) {
+            for (Path path : stream) {
+                Matcher matcher = LOG_FILE_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path logPath(long generation) {
+        return dir.resolve("events-" + generation + ".log");
+    }
+}
@@ -0,0 +1,402 @@
+package com.abc.service;
+
+import com.abc.config.ExecutorRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 多节点热门电影排行榜合并
+ *
+ * 每个节点只维护自己收到的评分（通常按movieId哈希分区，见partitionOf），对外提供本节点的Top-K摘要；
+ * 协调节点拉取各节点摘要后合并出全局排行榜。
+ *
+ * 摘要除Top-K条目外还带一个阈值：本节点未列出的电影，其评分次数都不超过该阈值。
+ * 合并时某部电影的评分次数下界为各节点上报值之和，上界再加上未上报它、且可能持有它的节点的阈值，
+ * 上下界之差即该条目的最大误差。节点严格按哈希分区接收事件时，一部电影只可能出现在一个节点上，
+ * 合并结果是精确的；事件被任意分配到各节点时，误差不超过各节点阈值之和。
+ */
+@Service
+public class HotMovieClusterService {
+
+    @Autowired
+    private HotMovieStreamService hotMovieStreamService;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    // 其他节点的地址，逗号分隔，如 http://node1:8080,http://node2:8080
+    @Value("${hot-movie.cluster.nodes:}")
+    private String clusterNodes;
+
+    // 合并时是否包含本节点自己的窗口
+    @Value("${hot-movie.cluster.include-local:true}")
+    private boolean includeLocal;
+
+    // 向各节点索取的摘要条数，越大误差越小
+    @Value("${hot-movie.cluster.summary-size:50}")
+    private int summarySize;
+
+    @Value("${hot-movie.cluster.timeout-ms:2000}")
+    private int timeoutMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private RestTemplate restTemplate;
+    private ExecutorService fetchExecutor;
+    private List<String> remoteNodes = Collections.emptyList();
+
+    /**
+     * 单个节点的Top-K摘要
+     */
+    public static class PartitionSummary {
+        private String nodeId;
+        private int partitionIndex;
+        private int partitionCount;
+        // 为true时本节点只收到 partitionOf(movieId) == partitionIndex 的事件
+        private boolean hashPartitioned;
+        // 本节点未列出的电影，评分次数都不超过该值；列出了全部电影时为0
+        private long threshold;
+        private long windowEventCount;
+        private int movieCount;
+        private long generatedAt;
+        private List<SummaryEntry> entries = new ArrayList<>();
+
+        public PartitionSummary() {}
+
+        // Getters and Setters
+        public String getNodeId() { return nodeId; }
+        public void setNodeId(String nodeId) { this.nodeId = nodeId; }
+        public int getPartitionIndex() { return partitionIndex; }
+        public void setPartitionIndex(int partitionIndex) { this.partitionIndex = partitionIndex; }
+        public int getPartitionCount() { return partitionCount; }
+        public void setPartitionCount(int partitionCount) { this.partitionCount = partitionCount; }
+        public boolean isHashPartitioned() { return hashPartitioned; }
+        public void setHashPartitioned(boolean hashPartitioned) { this.hashPartitioned = hashPartitioned; }
+        public long getThreshold() { return threshold; }
+        public void setThreshold(long threshold) { this.threshold = threshold; }
+        public long getWindowEventCount() { return windowEventCount; }
+        public void setWindowEventCount(long windowEventCount) { this.windowEventCount = windowEventCount; }
+        public int getMovieCount() { return movieCount; }
+        public void setMovieCount(int movieCount) { this.movieCount = movieCount; }
+        public long getGeneratedAt() { return generatedAt; }
+        public void setGeneratedAt(long generatedAt) { this.generatedAt = generatedAt; }
+        public List<SummaryEntry> getEntries() { return entries; }
+        public void setEntries(List<SummaryEntry> entries) { this.entries = entries; }
+    }
+
+    /**
+     * 摘要中的一条电影统计
+     */
+    public static class SummaryEntry {
+        private long movieId;
+        private long count;
+        private double ratingSum;
+
+        public SummaryEntry() {}
+
+        public SummaryEntry(long movieId, long count, double ratingSum) {
+            this.movieId = movieId;
+            this.count = count;
+            this.ratingSum = ratingSum;
+        }
+
+        // Getters and Setters
+        public long getMovieId() { return movieId; }
+        public void setMovieId(long movieId) { this.movieId = movieId; }
+        public long getCount() { return count; }
+        public void setCount(long count) { this.count = count; }
+        public double getRatingSum() { return ratingSum; }
+        public void setRatingSum(double ratingSum) { this.ratingSum = ratingSum; }
+    }
+
+    /**
+     * 全局排行榜中的一部电影
+     */
+    public static class GlobalHotMovie {
+        private Long movieId;
+        // 评分次数下界（各节点上报值之和）
+        private Long ratingCount;
+        // 只按上报了该电影的节点计算
+        private Double avgRating;
+        // 真实评分次数不超过 ratingCount + maxError
+        private Long maxError;
+        // 为true时无论误差如何该电影都一定在全局Top-K内
+        private Boolean guaranteed;
+        private Integer reportingNodes;
+
+        public GlobalHotMovie() {}
+
+        // Getters and Setters
+        public Long getMovieId() { return movieId; }
+        public void setMovieId(Long movieId) { this.movieId = movieId; }
+        public Long getRatingCount() { return ratingCount; }
+        public void setRatingCount(Long ratingCount) { this.ratingCount = ratingCount; }
+        public Double getAvgRating() { return avgRating; }
+        public void setAvgRating(Double avgRating) { this.avgRating = avgRating; }
+        public Long getMaxError() { return maxError; }
+        public void setMaxError(Long maxError) { this.maxError = maxError; }
+        public Boolean getGuaranteed() { return guaranteed; }
+        public void setGuaranteed(Boolean guaranteed) { this.guaranteed = guaranteed; }
+        public Integer getReportingNodes() { return reportingNodes; }
+        public void setReportingNodes(Integer reportingNodes) { this.reportingNodes = reportingNodes; }
+    }
+
+    /**
+     * 合并结果
+     */
+    public static class GlobalRanking {
+        private List<GlobalHotMovie> movies = new ArrayList<>();
+        // 所有条目误差均为0且没有节点失败
+        private boolean exact;
+        // 没有出现在任何摘要中的电影，评分次数不超过该值
+        private long unseenMaxCount;
+        private long windowEventCount;
+        private List<Map<String, Object>> nodes = new ArrayList<>();
+        private long generatedAt;
+
+        // Getters and Setters
+        public List<GlobalHotMovie> getMovies() { return movies; }
+        public void setMovies(List<GlobalHotMovie> movies) { this.movies = movies; }
+        public boolean isExact() { return exact; }
+        public void setExact(boolean exact) { this.exact = exact; }
+        public long getUnseenMaxCount() { return unseenMaxCount; }
+        public void setUnseenMaxCount(long unseenMaxCount) { this.unseenMaxCount = unseenMaxCount; }
+        public long getWindowEventCount() { return windowEventCount; }
+        public void setWindowEventCount(long windowEventCount) { this.windowEventCount = windowEventCount; }
+        public List<Map<String, Object>> getNodes() { return nodes; }
+        public void setNodes(List<Map<String, Object>> nodes) { this.nodes = nodes; }
+        public long getGeneratedAt() { return generatedAt; }
+        public void setGeneratedAt(long generatedAt) { this.generatedAt = generatedAt; }
+    }
+
+    private static class Candidate {
+        final long movieId;
+        long count;
+        double ratingSum;
+        long maxError;
+        int reportingNodes;
+
+        Candidate(long movieId) {
+            this.movieId = movieId;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        restTemplate = new RestTemplate(requestFactory);
+
+        List<String> nodes = new ArrayList<>();
+        for (String node : clusterNodes.split(",")) {
+            if (!node.trim().isEmpty()) {
+                nodes.add(node.trim().replaceAll("/+$", ""));
+            }
+        }
+        remoteNodes = nodes;
+        if (!remoteNodes.isEmpty()) {
+            // 拉取摘要是阻塞的HTTP调用，运行在虚拟线程（可用时）上
+            fetchExecutor = executorRegistry.newBlockingExecutor("hot-movie-cluster-fetch", 16, 256);
+            System.out.println("热门电影集群节点: " + remoteNodes);
+        }
+    }
+
+    /**
+     * movieId所属的分区，生成器或网关按此把事件路由到对应节点
+     */
+    public static int partitionOf(long movieId, int partitionCount) {
+        // 先打散再取模，避免连续的movieId集中到同一分区
+        return Math.floorMod(Long.hashCode(movieId * 0x9E3779B97F4A7C15L), partitionCount);
+    }
+
+    /**
+     * 由窗口聚合结果生成摘要
+     */
+    public static PartitionSummary summarize(String nodeId, int partitionIndex, int partitionCount,
+                                             boolean hashPartitioned, Map<Long, HotMovieWindow.MovieTotals> totals,
+                                             int k, long now) {
+        PartitionSummary summary = new PartitionSummary();
+        summary.setNodeId(nodeId);
+        summary.setPartitionIndex(partitionIndex);
+        summary.setPartitionCount(partitionCount);
+        summary.setHashPartitioned(hashPartitioned);
+        summary.setMovieCount(totals.size());
+        summary.setGeneratedAt(now);
+
+        long windowEventCount = 0;
+        for (HotMovieWindow.MovieTotals movie : totals.values()) {
+            windowEventCount += movie.count;
+        }
+        summary.setWindowEventCount(windowEventCount);
+
+        List<Map.Entry<Long, HotMovieWindow.MovieTotals>> top = HotMovieWindow.topK(totals, k);
+        List<SummaryEntry> entries = new ArrayList<>(top.size());
+        for (Map.Entry<Long, HotMovieWindow.MovieTotals> entry : top) {
+            entries.add(new SummaryEntry(entry.getKey(), entry.getValue().count, entry.getValue().ratingSum));
+        }
+        summary.setEntries(entries);
+        // 未列出的电影次数不会超过列出的最后一名
+        summary.setThreshold(totals.size() > top.size() && !top.isEmpty() ? top.get(top.size() - 1).getValue().count : 0);
+        return summary;
+    }
+
+    /**
+     * 合并各节点摘要，返回全局Top-K
+     */
+    public static GlobalRanking merge(List<PartitionSummary> summaries, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0: " + k);
+        }
+        Map<Long, Candidate> candidates = new HashMap<>();
+        long windowEventCount = 0;
+        for (PartitionSummary summary : summaries) {
+            windowEventCount += summary.getWindowEventCount();
+            for (SummaryEntry entry : summary.getEntries()) {
+                Candidate candidate = candidates.computeIfAbsent(entry.getMovieId(), Candidate::new);
+                candidate.count += entry.getCount();
+                candidate.ratingSum += entry.getRatingSum();
+                candidate.reportingNodes++;
+            }
+        }
+
+        // 某节点没有上报某部电影时，它在该节点上的次数至多为该节点的阈值；
+        // 按哈希分区的节点不可能持有不属于自己分区的电影
+        long unseenMaxCount = 0;
+        long maxHashPartitionedThreshold = 0;
+        for (PartitionSummary summary : summaries) {
+            if (summary.getThreshold() == 0) {
+                continue;
+            }
+            Set<Long> reported = new HashSet<>();
+            for (SummaryEntry entry : summary.getEntries()) {
+                reported.add(entry.getMovieId());
+            }
+            for (Candidate candidate : candidates.values()) {
+                if (!reported.contains(candidate.movieId) && mayHold(summary, candidate.movieId)) {
+                    candidate.maxError += summary.getThreshold();
+                }
+            }
+            if (summary.isHashPartitioned() && summary.getPartitionCount() > 1) {
+                // 未出现的电影只属于某一个分区，按分区节点中最大的阈值计
+                maxHashPartitionedThreshold = Math.max(maxHashPartitionedThreshold, summary.getThreshold());
+            } else {
+                unseenMaxCount += summary.getThreshold();
+            }
+        }
+        unseenMaxCount += maxHashPartitionedThreshold;
+
+        List<Candidate> sorted = new ArrayList<>(candidates.values());
+        sorted.sort((a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : Long.compare(a.movieId, b.movieId));
+
+        // 落选者（含未出现的电影）可能达到的最大次数，上榜者的下界不低于它时一定在真实Top-K内
+        long bestExcludedUpper = unseenMaxCount;
+        for (int i = k; i < sorted.size(); i++) {
+            Candidate candidate = sorted.get(i);
+            bestExcludedUpper = Math.max(bestExcludedUpper, candidate.count + candidate.maxError);
+        }
+
+        GlobalRanking ranking = new GlobalRanking();
+        boolean exact = true;
+        for (int i = 0; i < Math.min(k, sorted.size()); i++) {
+            Candidate candidate = sorted.get(i);
+            GlobalHotMovie movie = new GlobalHotMovie();
+            movie.setMovieId(candidate.movieId);
+            movie.setRatingCount(candidate.count);
+            movie.setAvgRating(candidate.count > 0 ? candidate.ratingSum / candidate.count : 0.0);
+            movie.setMaxError(candidate.maxError);
+            movie.setGuaranteed(candidate.count >= bestExcludedUpper);
+            movie.setReportingNodes(candidate.reportingNodes);
+            ranking.getMovies().add(movie);
+            exact &= candidate.maxError == 0;
+        }
+        ranking.setExact(exact && bestExcludedUpper <= (sorted.size() >= k ? sorted.get(k - 1).count : 0));
+        ranking.setUnseenMaxCount(unseenMaxCount);
+        ranking.setWindowEventCount(windowEventCount);
+        ranking.setGeneratedAt(System.currentTimeMillis());
+        return ranking;
+    }
+
+    private static boolean mayHold(PartitionSummary summary, long movieId) {
+        return !summary.isHashPartitioned() || summary.getPartitionCount() <= 1
+                || partitionOf(movieId, summary.getPartitionCount()) == summary.getPartitionIndex();
+    }
+
+    /**
+     * 拉取所有节点的摘要并合并；部分节点失败时用其余节点的结果，并在nodes中标出失败节点
+     */
+    public GlobalRanking getGlobalRanking(int k) {
+        int size = Math.max(k, summarySize);
+        List<CompletableFuture<PartitionSummary>> futures = new ArrayList<>();
+        for (String node : remoteNodes) {
+            futures.add(CompletableFuture.supplyAsync(() -> fetchSummary(node, size), fetchExecutor));
+        }
+
+        List<PartitionSummary> summaries = new ArrayList<>();
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        if (includeLocal) {
+            PartitionSummary local = hotMovieStreamService.getPartitionSummary(size);
+            summaries.add(local);
+            nodes.add(nodeStatus(local.getNodeId(), local, null));
+        }
+        boolean failed = false;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                PartitionSummary summary = futures.get(i).join();
+                summaries.add(summary);
+                nodes.add(nodeStatus(remoteNodes.get(i), summary, null));
+            } catch (Exception e) {
+                failed = true;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("获取节点 " + remoteNodes.get(i) + " 的热门电影摘要失败: " + cause.getMessage());
+                nodes.add(nodeStatus(remoteNodes.get(i), null, cause.getMessage()));
+            }
+        }
+
+        GlobalRanking ranking = merge(summaries, k);
+        ranking.setNodes(nodes);
+        if (failed) {
+            ranking.setExact(false);
+        }
+        return ranking;
+    }
+
+    private PartitionSummary fetchSummary(String node, int size) {
+        try {
+            String body = restTemplate.getForObject(node + "/api/hot-movies/partition/summary?k=" + size, String.class);
+            JsonNode data = objectMapper.readTree(body).get("data");
+            if (data == null) {
+                throw new IllegalStateException("响应中缺少data字段");
+            }
+            return objectMapper.treeToValue(data, PartitionSummary.class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, Object> nodeStatus(String node, PartitionSummary summary, String error) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("node", node);
+        if (summary != null) {
+            status.put("status", "success");
+            status.put("nodeId", summary.getNodeId());
+            status.put("partition", summary.getPartitionIndex() + "/" + summary.getPartitionCount());
+            status.put("hashPartitioned", summary.isHashPartitioned());
+            status.put("threshold", summary.getThreshold());
+            status.put("windowEventCount", summary.getWindowEventCount());
+        } else {
+            status.put("status", "error");
+            status.put("error", error);
+        }
+        return status;
+    }
+}
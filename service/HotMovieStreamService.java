@@ -1,32 +1,198 @@
 package com.abc.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.abc.config.ExecutorRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.EnableAsync;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 /**
  * 热门电影实时计算服务
  * 基于内存计算，处理前端传递的模拟数据，计算最近10分钟评分次数最多的10部电影
+ * 窗口状态定期做本地检查点（窗口聚合快照 + 之后的事件日志），重启后几秒内即可恢复排行榜
+ * 启用评分事件日志（RatingEventLog）时，写入只追加到日志，由单独的消费线程把日志应用到窗口，
+ * 检查点记录的是该消费线程在日志中的位置
+ * 窗口同时用HyperLogLog估计每部电影的不同评分用户数，排行榜可按评分次数或按不同评分用户数排序，
+ * 后者不受少数用户反复评分同一部电影的影响
+ * 计算总榜的同一次遍历中，按电影元数据字典中的类型位图为每个类型维护一个容量为10的堆，得到各类型的排行榜，
+ * 与总榜同一版本号发布；类型数受字典位图限制（至多64个），内存与电影数无关
+ * 另有上升趋势榜（TrendingTracker）：每部电影两个不同半衰期的衰减计数，随时可按z分数取出当前上升最快的电影
  */
 @Service
-@EnableAsync
 public class HotMovieStreamService {
 
-    // 存储热门电影数据，供前端查询
-    private static final Map<String, List<HotMovie>> hotMoviesCache = new ConcurrentHashMap<>();
-    private static final String HOT_MOVIES_KEY = "current_hot_movies";
-    
-    // 存储评分数据（最近10分钟）
-    private static final List<RatingData> ratingDataList = new CopyOnWriteArrayList<>();
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    // 当前发布的总榜和各类型榜快照，供前端查询；每次计算后整体替换
+    // 版本号在替换时由上一次发布的版本加一得到，分配版本号与替换快照是同一次CAS，
+    // 并发发布时后发布的版本一定更大，总榜和类型榜也总是来自同一次发布
+    private static final AtomicReference<PublishedSnapshots> published;
+
+    // ETag前缀，区分不同进程生命周期内的版本号
+    private static final String SNAPSHOT_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    // 等待新版本的长轮询请求
+    private static final Queue<VersionWaiter> versionWaiters = new ConcurrentLinkedQueue<>();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static {
+        published = new AtomicReference<>(new PublishedSnapshots(
+                buildSnapshot(1, Collections.emptyList(), null, RankBy.RATING_COUNT, System.currentTimeMillis()),
+                Collections.emptyMap()));
+    }
     
     // 窗口大小（毫秒）- 10分钟
     private static final long WINDOW_SIZE_MS = 10 * 60 * 1000L;
-    
+
+    // 窗口桶大小（毫秒）- 10秒
+    private static final long BUCKET_SIZE_MS = 10 * 1000L;
+
+    // 排行榜计算间隔
+    private static final long CALCULATE_INTERVAL_SECONDS = 30;
+
+    // 总榜和各类型排行榜的条数
+    private static final int TOP_N = 10;
+
+    // 不同评分用户数的HyperLogLog精度：1024个寄存器，标准误差约3.3%，每部电影每个桶至多1KB
+    private static final int DISTINCT_RATER_PRECISION = 10;
+
+    // 最近10分钟的评分聚合（按10秒分桶）
+    private final HotMovieWindow window = new HotMovieWindow(WINDOW_SIZE_MS, BUCKET_SIZE_MS, DISTINCT_RATER_PRECISION);
+
+    // 上升趋势：最近速率按5分钟半衰期、基线按1小时半衰期衰减
+    private static final long TRENDING_SHORT_HALF_LIFE_MS = 5 * 60 * 1000L;
+    private static final long TRENDING_LONG_HALF_LIFE_MS = 60 * 60 * 1000L;
+
+    // 基线速率下限（每分钟评分数）和参与上升趋势排名的最少短期计数
+    private static final double TRENDING_MIN_BASELINE_PER_MINUTE = 0.2;
+    private static final double TRENDING_MIN_RECENT_EVENTS = 5;
+
+    private final TrendingTracker trendingTracker = new TrendingTracker(TRENDING_SHORT_HALF_LIFE_MS,
+            TRENDING_LONG_HALF_LIFE_MS, TRENDING_MIN_BASELINE_PER_MINUTE, TRENDING_MIN_RECENT_EVENTS);
+
+    // 排行榜排序依据：rating-count（评分次数）或 distinct-raters（不同评分用户数）
+    @Value("${hot-movie.ranking.rank-by:rating-count}")
+    private String rankByName;
+
+    private volatile RankBy rankBy = RankBy.RATING_COUNT;
+
+    // 写入持读锁，做检查点时持写锁，保证快照与事件日志的切换点一致
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    @Value("${hot-movie.checkpoint.enabled:true}")
+    private boolean checkpointEnabled;
+
+    @Value("${hot-movie.checkpoint.dir:data/hot-movie-checkpoint}")
+    private String checkpointDir;
+
+    @Value("${hot-movie.checkpoint.interval-seconds:30}")
+    private long checkpointIntervalSeconds;
+
+    // 多节点部署时本节点负责的分区，事件按 HotMovieClusterService.partitionOf(movieId) 路由
+    @Value("${hot-movie.partition.index:0}")
+    private int partitionIndex;
+
+    @Value("${hot-movie.partition.count:1}")
+    private int partitionCount;
+
+    @Value("${hot-movie.node-id:}")
+    private String nodeId;
+
+    // 收到的不属于本分区的事件数；非0时合并方不能再假定本节点只持有本分区的电影
+    private final LongAdder misroutedEvents = new LongAdder();
+
+    @Value("${hot-movie.event-log.enabled:true}")
+    private boolean eventLogEnabled;
+
+    @Value("${hot-movie.event-log.dir:data/rating-event-log}")
+    private String eventLogDir;
+
+    @Value("${hot-movie.event-log.segment-mb:64}")
+    private long eventLogSegmentMb;
+
+    @Value("${hot-movie.event-log.flush-interval-ms:200}")
+    private long eventLogFlushIntervalMs;
+
+    // 写入队列容量：排行榜引擎落后超过该条数时按ingest.policy处理新事件
+    @Value("${hot-movie.event-log.max-lag:1000000}")
+    private long eventLogMaxLag;
+
+    // 写入队列满时的处理策略：block（等待，超时后丢弃）、drop-newest（直接丢弃新事件）、sample（抽样写入）
+    @Value("${hot-movie.ingest.policy:block}")
+    private String ingestPolicyName;
+
+    @Value("${hot-movie.ingest.block-timeout-ms:5000}")
+    private long ingestBlockTimeoutMs;
+
+    // sample策略下积压达到容量的该比例后开始抽样
+    @Value("${hot-movie.ingest.sample-watermark:0.5}")
+    private double ingestSampleWatermark;
+
+    // 抽样时每sample-every条保留1条，保留的一条按sample-every条计数
+    @Value("${hot-movie.ingest.sample-every:10}")
+    private int ingestSampleEvery;
+
+    // 不使用评分事件日志（直接写入窗口）时同时写入窗口的请求上限，超过时同样按ingest.policy处理；0表示不限制
+    @Value("${hot-movie.ingest.max-in-flight:256}")
+    private int ingestMaxInFlight;
+
+    private IngestPolicy ingestPolicy = IngestPolicy.BLOCK;
+    // 直接写入模式的准入许可，未初始化（如基准测试直接构造）时不做准入控制
+    private Semaphore directIngestPermits;
+    private final LongAdder acceptedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder sampledOutEvents = new LongAdder();
+    // 被窗口拒绝的事件（早于窗口或时间戳超前超过一个桶）；启用事件日志时在消费时计数，此前已计入acceptedEvents
+    private final LongAdder windowRejectedEvents = new LongAdder();
+
+    @Value("${hot-movie.event-log.retain-segments:4}")
+    private int eventLogRetainSegments;
+
+    // 启用事件日志时使用的快照文件，头部记录日志位置
+    private static final String EVENT_LOG_SNAPSHOT_FILE = "window-offset.snapshot";
+    private static final String EVENT_LOG_CONSUMER = "hot-movie-window";
+    private static final int EVENT_LOG_POLL_BATCH = 4096;
+
+    private HotMovieCheckpointStore checkpointStore;
+    private ScheduledExecutorService checkpointScheduler;
+
+    private volatile RatingEventLog eventLog;
+    private RatingEventLog.Consumer eventLogConsumer;
+    private ExecutorService eventLogConsumerExecutor;
+    private volatile boolean eventLogConsuming;
+    // 启动恢复或重建后还在追赶日志，追上（没有待消费的事件）时发布一次排行榜
+    private volatile boolean eventLogCatchingUp;
+
+    // 定时计算排行榜的任务，未启动时为null
+    private ScheduledExecutorService calculateScheduler;
+    private ScheduledFuture<?> calculateTask;
+
     // 计算服务运行状态
     private volatile boolean isRunning = false;
 
@@ -64,7 +230,12 @@ public class HotMovieStreamService {
      */
     public static class HotMovie {
         private Long movieId;
+        // 标题和类型来自电影元数据字典，字典中没有该电影时为空
+        private String title;
+        private List<String> genres;
         private Long ratingCount;
+        // 窗口内不同评分用户数（HyperLogLog估计值）
+        private Long distinctRaters;
         private Double avgRating;
         private Long timestamp;
 
@@ -77,53 +248,449 @@ public class HotMovieStreamService {
             this.timestamp = timestamp;
         }
 
+        public HotMovie(Long movieId, Long ratingCount, Long distinctRaters, Double avgRating, Long timestamp) {
+            this(movieId, ratingCount, avgRating, timestamp);
+            this.distinctRaters = distinctRaters;
+        }
+
         // Getters and Setters
         public Long getMovieId() { return movieId; }
         public void setMovieId(Long movieId) { this.movieId = movieId; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        public List<String> getGenres() { return genres; }
+        public void setGenres(List<String> genres) { this.genres = genres; }
         public Long getRatingCount() { return ratingCount; }
         public void setRatingCount(Long ratingCount) { this.ratingCount = ratingCount; }
+        public Long getDistinctRaters() { return distinctRaters; }
+        public void setDistinctRaters(Long distinctRaters) { this.distinctRaters = distinctRaters; }
         public Double getAvgRating() { return avgRating; }
         public void setAvgRating(Double avgRating) { this.avgRating = avgRating; }
         public Long getTimestamp() { return timestamp; }
         public void setTimestamp(Long timestamp) { this.timestamp = timestamp; }
     }
 
+    /**
+     * 排行榜快照（不可变）
+     * 计算时一次性编码好完整的JSON响应体和ETag，接口直接返回字节数组，两次计算之间的请求不再做任何序列化
+     */
+    public static class HotMovieSnapshot {
+        private final long version;
+        private final long generatedAt;
+        private final String genre;
+        private final List<HotMovie> movies;
+        private final byte[] json;
+        private final String etag;
+
+        HotMovieSnapshot(long version, long generatedAt, String genre, List<HotMovie> movies, byte[] json, String etag) {
+            this.version = version;
+            this.generatedAt = generatedAt;
+            this.genre = genre;
+            this.movies = movies;
+            this.json = json;
+            this.etag = etag;
+        }
+
+        public long getVersion() { return version; }
+        public long getGeneratedAt() { return generatedAt; }
+        // 类型榜的类型名，总榜为null
+        public String getGenre() { return genre; }
+        public List<HotMovie> getMovies() { return movies; }
+        public String getEtag() { return etag; }
+
+        // 返回共享的字节数组，调用方不得修改
+        public byte[] getJson() { return json; }
+    }
+
+    /**
+     * 排行榜排序依据
+     */
+    public enum RankBy {
+        RATING_COUNT("最近10分钟评分次数最多的电影排行榜"),
+        DISTINCT_RATERS("最近10分钟评分用户最多的电影排行榜（同一用户多次评分只计一次）");
+
+        private final String description;
+
+        RankBy(String description) {
+            this.description = description;
+        }
+
+        public static RankBy parse(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return RATING_COUNT;
+            }
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * 同一次发布的总榜和类型榜（键为小写的类型名），版本号相同
+     */
+    private static class PublishedSnapshots {
+        final HotMovieSnapshot current;
+        final Map<String, HotMovieSnapshot> genres;
+
+        PublishedSnapshots(HotMovieSnapshot current, Map<String, HotMovieSnapshot> genres) {
+            this.current = current;
+            this.genres = genres;
+        }
+    }
+
+    /**
+     * 写入队列满时的处理策略
+     */
+    public enum IngestPolicy {
+        BLOCK, DROP_NEWEST, SAMPLE;
+
+        static IngestPolicy parse(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return BLOCK;
+            }
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private static class VersionWaiter {
+        final long afterVersion;
+        final CompletableFuture<HotMovieSnapshot> future;
+
+        VersionWaiter(long afterVersion, CompletableFuture<HotMovieSnapshot> future) {
+            this.afterVersion = afterVersion;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 启动时从本地检查点恢复窗口，并开始定期做检查点
+     * 恢复后立即发布一次排行榜，计算服务启动前 /current 也能返回恢复的窗口；事件日志模式下追上日志后再发布一次
+     */
+    @PostConstruct
+    public void restoreFromCheckpoint() {
+        ingestPolicy = IngestPolicy.parse(ingestPolicyName);
+        rankBy = RankBy.parse(rankByName);
+        directIngestPermits = ingestMaxInFlight > 0 ? new Semaphore(ingestMaxInFlight) : null;
+        if (eventLogEnabled) {
+            startEventLog();
+            return;
+        }
+        if (!checkpointEnabled) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            checkpointStore = new HotMovieCheckpointStore(checkpointDir);
+            long replayed = checkpointStore.restore(window, startTime);
+            System.out.printf("热门电影窗口已从检查点恢复，重放%d条日志事件，耗时%dms%n",
+                    replayed, System.currentTimeMillis() - startTime);
+            calculateHotMovies();
+        } catch (IOException e) {
+            System.err.println("恢复热门电影窗口失败，从空窗口开始: " + e.getMessage());
+            window.clear();
+            checkpointStore = null;
+            return;
+        }
+
+        checkpointScheduler = executorRegistry.newScheduler("hot-movie-checkpoint", 1);
+        checkpointScheduler.scheduleWithFixedDelay(this::flushEventLog, 1, 1, TimeUnit.SECONDS);
+        checkpointScheduler.scheduleWithFixedDelay(this::checkpoint,
+                checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 打开评分事件日志：加载快照后从快照记录的位置继续消费；没有快照时从日志最早的位置重建窗口
+     */
+    private void startEventLog() {
+        long startTime = System.currentTimeMillis();
+        try {
+            RatingEventLog log = new RatingEventLog(eventLogDir, eventLogSegmentMb * 1024 * 1024,
+                    eventLogMaxLag, eventLogRetainSegments);
+            eventLogConsumer = log.consumer(EVENT_LOG_CONSUMER);
+
+            long resumeOffset = log.getStartOffset();
+            if (checkpointEnabled) {
+                checkpointStore = new HotMovieCheckpointStore(checkpointDir, EVENT_LOG_SNAPSHOT_FILE);
+                long snapshotOffset = checkpointStore.restoreSnapshot(window, startTime);
+                if (snapshotOffset >= log.getStartOffset() && snapshotOffset <= log.getEndOffset()) {
+                    resumeOffset = snapshotOffset;
+                } else if (snapshotOffset > log.getEndOffset()) {
+                    // 快照比日志新（日志尾部丢失）：快照已包含日志中的全部事件，保留窗口，从日志末尾继续
+                    System.err.printf("热门电影快照位置%d超出事件日志末尾%d，保留快照窗口，从日志末尾继续消费%n",
+                            snapshotOffset, log.getEndOffset());
+                    resumeOffset = log.getEndOffset();
+                } else if (snapshotOffset >= 0) {
+                    // 日志开头已被清理，快照与日志之间有缺口：丢弃快照，只用日志现有的事件重建窗口，
+                    // 避免快照窗口与重放的事件重叠重复计数
+                    System.err.printf("热门电影快照位置%d早于事件日志开头%d，丢弃快照，从日志开头重建窗口%n",
+                            snapshotOffset, log.getStartOffset());
+                    window.clear();
+                }
+            }
+            eventLogConsumer.seek(resumeOffset);
+            eventLog = log;
+            System.out.printf("热门电影窗口从事件日志偏移量%d开始消费，待消费%d条，准备耗时%dms%n",
+                    resumeOffset, eventLogConsumer.getLag(), System.currentTimeMillis() - startTime);
+            // 先发布快照窗口的排行榜，不必等计算服务启动；追上日志后再发布一次
+            calculateHotMovies();
+        } catch (IOException e) {
+            System.err.println("打开评分事件日志失败，改为直接写入窗口: " + e.getMessage());
+            window.clear();
+            checkpointStore = null;
+            return;
+        }
+
+        eventLogConsuming = true;
+        eventLogCatchingUp = true;
+        eventLogConsumerExecutor = executorRegistry.newBoundedPool("hot-movie-log-consumer", 1, 1);
+        eventLogConsumerExecutor.execute(this::consumeEventLog);
+
+        checkpointScheduler = executorRegistry.newScheduler("hot-movie-checkpoint", 1);
+        checkpointScheduler.scheduleWithFixedDelay(eventLog::flush,
+                eventLogFlushIntervalMs, eventLogFlushIntervalMs, TimeUnit.MILLISECONDS);
+        checkpointScheduler.scheduleWithFixedDelay(this::checkpoint,
+                checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 消费线程：持读锁把一批日志记录应用到窗口，做检查点时持写锁，两者的切换点因此一致
+     */
+    private void consumeEventLog() {
+        RatingEventLog.RecordHandler applyToWindow =
+                (offset, timestamp, userId, movieId, rating, weight) -> {
+                    if (window.add(movieId, userId, rating, weight, timestamp)) {
+                        trendingTracker.add(movieId, weight, timestamp);
+                    } else {
+                        windowRejectedEvents.increment();
+                    }
+                };
+        while (eventLogConsuming) {
+            try {
+                int polled;
+                checkpointLock.readLock().lock();
+                try {
+                    polled = eventLogConsumer.poll(EVENT_LOG_POLL_BATCH, applyToWindow);
+                } finally {
+                    checkpointLock.readLock().unlock();
+                }
+                if (polled == 0) {
+                    if (eventLogCatchingUp) {
+                        eventLogCatchingUp = false;
+                        System.out.println("热门电影窗口已追上事件日志，偏移量: " + eventLogConsumer.getPosition());
+                        calculateHotMovies();
+                    }
+                    eventLogConsumer.awaitData(100);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("消费评分事件日志出错: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空窗口并从指定偏移量（默认日志最早的位置）重新消费，早于窗口的事件在应用时自然被丢弃
+     */
+    public Map<String, Object> rebuildFromEventLog(Long fromOffset) {
+        RatingEventLog log = eventLog;
+        if (log == null) {
+            throw new IllegalStateException("评分事件日志未启用");
+        }
+        checkpointLock.writeLock().lock();
+        try {
+            window.clear();
+            trendingTracker.clear();
+            eventLogConsumer.seek(fromOffset != null ? fromOffset : log.getStartOffset());
+            eventLogCatchingUp = true;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        Map<String, Object> result = getEventLogStatus();
+        System.out.println("热门电影窗口开始从事件日志重建，起始偏移量: " + eventLogConsumer.getPosition());
+        return result;
+    }
+
+    /**
+     * 评分事件日志状态
+     */
+    public Map<String, Object> getEventLogStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        RatingEventLog log = eventLog;
+        status.put("enabled", log != null);
+        if (log != null) {
+            status.put("startOffset", log.getStartOffset());
+            status.put("endOffset", log.getEndOffset());
+            status.put("flushedOffset", log.getFlushedOffset());
+            status.put("segmentCount", log.getSegmentCount());
+            status.put("consumerPosition", eventLogConsumer.getPosition());
+            status.put("committedOffset", eventLogConsumer.getCommittedOffset());
+            status.put("lag", eventLogConsumer.getLag());
+        }
+        return status;
+    }
+
+    /**
+     * 关闭时做最后一次检查点
+     */
+    @PreDestroy
+    public void shutdownCheckpoint() {
+        stopHotMovieStream();
+        // 先停掉定时检查点和消费线程，再做最后一次检查点
+        if (checkpointScheduler != null) {
+            checkpointScheduler.shutdown();
+            awaitQuietly(checkpointScheduler);
+        }
+        if (eventLogConsumerExecutor != null) {
+            eventLogConsuming = false;
+            eventLogConsumerExecutor.shutdownNow();
+            awaitQuietly(eventLogConsumerExecutor);
+        }
+        if (eventLog != null) {
+            checkpoint();
+            eventLog.close();
+            return;
+        }
+        if (checkpointStore != null) {
+            checkpoint();
+            try {
+                checkpointStore.close();
+            } catch (IOException e) {
+                System.err.println("关闭热门电影事件日志失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 做一次检查点：持写锁切换日志并序列化窗口（内存操作，毫秒级），释放锁后再落盘
+     */
+    void checkpoint() {
+        if (eventLog != null) {
+            checkpointEventLogPosition();
+            return;
+        }
+        if (checkpointStore == null) {
+            return;
+        }
+        try {
+            long generation;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            checkpointLock.writeLock().lock();
+            try {
+                generation = checkpointStore.rotateLog();
+                try (DataOutputStream out = new DataOutputStream(buffer)) {
+                    window.writeTo(out, System.currentTimeMillis());
+                }
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+            checkpointStore.writeSnapshot(generation, buffer.toByteArray());
+        } catch (IOException e) {
+            System.err.println("热门电影窗口检查点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启用事件日志时的检查点：快照记录消费位置，快照落盘后提交该位置，日志随后可以清理之前的段
+     */
+    private void checkpointEventLogPosition() {
+        try {
+            long position;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            checkpointLock.writeLock().lock();
+            try {
+                position = eventLogConsumer.getPosition();
+                if (checkpointStore != null) {
+                    try (DataOutputStream out = new DataOutputStream(buffer)) {
+                        window.writeTo(out, System.currentTimeMillis());
+                    }
+                }
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+            if (checkpointStore != null) {
+                checkpointStore.writeSnapshot(position, buffer.toByteArray());
+                eventLogConsumer.commit(position);
+            } else {
+                // 不做快照时重启总是从保留的最早位置重建，提交位置只用于清理旧段
+                eventLogConsumer.commit(position);
+            }
+        } catch (IOException e) {
+            System.err.println("热门电影窗口检查点失败: " + e.getMessage());
+        }
+    }
+
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushEventLog() {
+        try {
+            checkpointStore.flush();
+        } catch (IOException e) {
+            System.err.println("刷新热门电影事件日志失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 启动热门电影实时计算服务
+     * 启停互斥，同一时刻最多只有一个定时计算任务
      */
-    @Async
-    public void startHotMovieStream() {
+    public synchronized void startHotMovieStream() {
         if (isRunning) {
             System.out.println("热门电影计算服务已在运行中...");
             return;
         }
-        
-        isRunning = true;
-        System.out.println("热门电影实时计算服务已启动...");
+        if (calculateScheduler == null) {
+            calculateScheduler = executorRegistry.newScheduler("hot-movie-calculate", 1);
+        }
         
         // 启动定时计算任务（每30秒计算一次）
-        new Thread(() -> {
-            while (isRunning) {
-                try {
-                    calculateHotMovies();
-                    Thread.sleep(30000); // 30秒计算一次
-                } catch (InterruptedException e) {
-                    System.out.println("热门电影计算服务已停止");
-                    break;
-                } catch (Exception e) {
-                    System.err.println("热门电影计算出错: " + e.getMessage());
-                    e.printStackTrace();
-                }
+        calculateTask = calculateScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                calculateHotMovies();
+            } catch (Exception e) {
+                // 异常不能抛出，否则后续的定时执行会被取消
+                System.err.println("热门电影计算出错: " + e.getMessage());
+                e.printStackTrace();
             }
-        }).start();
+        }, 0, CALCULATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        isRunning = true;
+        System.out.println("热门电影实时计算服务已启动...");
     }
     
     /**
      * 停止热门电影实时计算服务
      */
-    public void stopHotMovieStream() {
-        isRunning = false;
-        System.out.println("热门电影实时计算服务已停止");
+    public synchronized void stopHotMovieStream() {
+        if (calculateTask != null) {
+            calculateTask.cancel(false);
+            calculateTask = null;
+        }
+        if (isRunning) {
+            isRunning = false;
+            System.out.println("热门电影实时计算服务已停止");
+        }
     }
     
     /**
@@ -135,112 +702,469 @@ public class HotMovieStreamService {
     
     /**
      * 添加评分数据
+     *
+     * @return 写入队列已满被丢弃、被抽样略过或被窗口拒绝时返回false
      */
-    public void addRatingData(Long userId, Long movieId, Double rating) {
+    public boolean addRatingData(Long userId, Long movieId, Double rating) {
         long currentTime = System.currentTimeMillis();
-        RatingData ratingData = new RatingData(userId, movieId, rating, currentTime);
-        ratingDataList.add(ratingData);
-        
-        // 清理过期数据（超过10分钟的数据）
-        cleanExpiredData(currentTime);
+        boolean accepted = ingest(userId, movieId, rating, currentTime);
         
         System.out.printf("添加评分数据: 用户%d对电影%d评分%.1f%n", userId, movieId, rating);
+        return accepted;
     }
     
     /**
      * 批量添加评分数据
+     *
+     * @return 实际写入的条数
      */
-    public void addRatingDataBatch(List<RatingData> ratings) {
+    public int addRatingDataBatch(List<RatingData> ratings) {
         long currentTime = System.currentTimeMillis();
+        int accepted = 0;
         
         for (RatingData rating : ratings) {
             if (rating.getTimestamp() == null) {
                 rating.setTimestamp(currentTime);
             }
-            ratingDataList.add(rating);
+            if (ingest(rating.getUserId(), rating.getMovieId(), rating.getRating(), rating.getTimestamp())) {
+                accepted++;
+            }
         }
         
-        // 清理过期数据
-        cleanExpiredData(currentTime);
-        
-        System.out.printf("批量添加%d条评分数据%n", ratings.size());
+        System.out.printf("批量添加%d条评分数据，写入%d条%n", ratings.size(), accepted);
+        return accepted;
+    }
+
+    /**
+     * 写入压力，即排行榜引擎积压占写入队列容量的比例（0~1），数据生成器据此调整速率
+     * 直接写入窗口时为正在写入的请求数占max-in-flight的比例
+     */
+    public double getBackpressureLevel() {
+        RatingEventLog log = eventLog;
+        if (log == null) {
+            Semaphore permits = directIngestPermits;
+            if (permits == null) {
+                return 0.0;
+            }
+            return Math.min(1.0, (double) (ingestMaxInFlight - permits.availablePermits()) / ingestMaxInFlight);
+        }
+        if (log.getMaxLag() <= 0) {
+            return 0.0;
+        }
+        return Math.min(1.0, (double) log.getBacklog() / log.getMaxLag());
     }
 
     /**
-     * 清理过期数据
+     * 写入准入统计
      */
-    private void cleanExpiredData(long currentTime) {
-        long expireTime = currentTime - WINDOW_SIZE_MS;
-        ratingDataList.removeIf(rating -> rating.getTimestamp() < expireTime);
+    public Map<String, Object> getIngestStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        RatingEventLog log = eventLog;
+        stats.put("policy", ingestPolicy.getName());
+        stats.put("acceptedEvents", acceptedEvents.sum());
+        stats.put("droppedEvents", droppedEvents.sum());
+        stats.put("sampledOutEvents", sampledOutEvents.sum());
+        stats.put("windowRejectedEvents", windowRejectedEvents.sum());
+        Semaphore permits = directIngestPermits;
+        if (log != null) {
+            stats.put("backlog", log.getBacklog());
+            stats.put("capacity", log.getMaxLag());
+        } else if (permits != null) {
+            stats.put("backlog", (long) (ingestMaxInFlight - permits.availablePermits()));
+            stats.put("capacity", (long) ingestMaxInFlight);
+        } else {
+            stats.put("backlog", 0L);
+            stats.put("capacity", 0L);
+        }
+        stats.put("backpressureLevel", getBackpressureLevel());
+        if (ingestPolicy == IngestPolicy.SAMPLE) {
+            stats.put("sampleWatermark", ingestSampleWatermark);
+            stats.put("sampleEvery", ingestSampleEvery);
+        }
+        return stats;
+    }
+
+    /**
+     * 写入窗口并追加事件日志；窗口拒绝的事件（早于窗口或时间戳超前）直接丢弃
+     * 启用评分事件日志时只追加到该日志，日志积压即写入队列，队列满时按ingestPolicy决定等待、丢弃或抽样；
+     * 直接写入窗口时以同时写入的请求数作为队列，超过max-in-flight时按同样的策略处理
+     *
+     * @return 事件被丢弃、被抽样略过或（直接写入时）被窗口拒绝时返回false
+     */
+    private boolean ingest(Long userId, Long movieId, Double rating, long timestamp) {
+        if (partitionCount > 1 && HotMovieClusterService.partitionOf(movieId, partitionCount) != partitionIndex) {
+            misroutedEvents.increment();
+        }
+        RatingEventLog log = eventLog;
+        if (log != null) {
+            if (timestamp <= 0) {
+                droppedEvents.increment();
+                return false;
+            }
+            int weight = 1;
+            if (ingestPolicy == IngestPolicy.SAMPLE && ingestSampleEvery > 1 && log.getMaxLag() > 0
+                    && log.getBacklog() >= log.getMaxLag() * ingestSampleWatermark) {
+                // 保留的一条按sample-every条计数，窗口内的评分次数仍是无偏估计
+                if (ThreadLocalRandom.current().nextInt(ingestSampleEvery) != 0) {
+                    sampledOutEvents.increment();
+                    return false;
+                }
+                weight = ingestSampleEvery;
+            }
+            long maxWaitMs = ingestPolicy == IngestPolicy.BLOCK ? ingestBlockTimeoutMs : 0;
+            try {
+                if (log.append(userId != null ? userId : 0L, movieId, rating, weight, timestamp, maxWaitMs) < 0) {
+                    droppedEvents.increment();
+                    return false;
+                }
+                acceptedEvents.increment();
+                return true;
+            } catch (IOException e) {
+                System.err.println("写入评分事件日志失败: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            droppedEvents.increment();
+            return false;
+        }
+        Semaphore permits = directIngestPermits;
+        int weight = 1;
+        if (permits != null) {
+            int inFlight = ingestMaxInFlight - permits.availablePermits();
+            if (ingestPolicy == IngestPolicy.SAMPLE && ingestSampleEvery > 1
+                    && inFlight >= ingestMaxInFlight * ingestSampleWatermark) {
+                if (ThreadLocalRandom.current().nextInt(ingestSampleEvery) != 0) {
+                    sampledOutEvents.increment();
+                    return false;
+                }
+                weight = ingestSampleEvery;
+            }
+            boolean acquired;
+            try {
+                acquired = ingestPolicy == IngestPolicy.BLOCK
+                        ? permits.tryAcquire(ingestBlockTimeoutMs, TimeUnit.MILLISECONDS)
+                        : permits.tryAcquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                droppedEvents.increment();
+                return false;
+            }
+        }
+        boolean added = false;
+        checkpointLock.readLock().lock();
+        try {
+            added = window.add(movieId, userId, rating, weight, timestamp);
+            if (added) {
+                trendingTracker.add(movieId, weight, timestamp);
+                if (checkpointStore != null) {
+                    checkpointStore.append(userId != null ? userId : 0L, movieId, rating, weight, timestamp);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("写入热门电影事件日志失败: " + e.getMessage());
+        } finally {
+            checkpointLock.readLock().unlock();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+        if (added) {
+            acceptedEvents.increment();
+        } else {
+            windowRejectedEvents.increment();
+        }
+        return added;
     }
     
     /**
-     * 计算热门电影
+     * 计算热门电影（包级可见，供基准测试直接调用）
      */
-    private void calculateHotMovies() {
+    void calculateHotMovies() {
         long currentTime = System.currentTimeMillis();
-        long windowStart = currentTime - WINDOW_SIZE_MS;
         
-        // 获取窗口内的数据
-        List<RatingData> windowData = ratingDataList.stream()
-                .filter(rating -> rating.getTimestamp() >= windowStart)
-                .collect(Collectors.toList());
+        // 合并窗口内各桶的聚合结果；按评分次数排序时不合并评分用户的HyperLogLog
+        RankBy order = rankBy;
+        Map<Long, HotMovieWindow.MovieTotals> movieTotals = window.aggregate(currentTime, order == RankBy.DISTINCT_RATERS);
         
-        if (windowData.isEmpty()) {
+        if (movieTotals.isEmpty()) {
             System.out.println("窗口内无评分数据");
             return;
         }
         
-        // 按电影ID分组统计
-        Map<Long, List<RatingData>> movieRatings = windowData.stream()
-                .collect(Collectors.groupingBy(RatingData::getMovieId));
-        
-        // 计算每部电影的统计信息
-        List<HotMovie> hotMovies = new ArrayList<>();
-        for (Map.Entry<Long, List<RatingData>> entry : movieRatings.entrySet()) {
-            Long movieId = entry.getKey();
-            List<RatingData> ratings = entry.getValue();
-            
-            long ratingCount = ratings.size();
-            double avgRating = ratings.stream()
-                    .mapToDouble(RatingData::getRating)
-                    .average()
-                    .orElse(0.0);
-            
-            hotMovies.add(new HotMovie(movieId, ratingCount, avgRating, currentTime));
+        // 按排序依据降序排序；不同评分用户数相同时按评分次数
+        Comparator<HotMovie> byRatingCount = (a, b) -> Long.compare(b.getRatingCount(), a.getRatingCount());
+        Comparator<HotMovie> comparator = order == RankBy.DISTINCT_RATERS
+                ? Comparator.comparing((HotMovie movie) -> movie.getDistinctRaters() != null ? movie.getDistinctRaters() : 0L)
+                        .reversed().thenComparing(byRatingCount)
+                : byRatingCount;
+
+        // 计算每部电影的统计信息，同时放入其所属各类型的堆；按评分次数排序时只需估计上榜电影的不同评分用户数
+        MovieDictionary dictionary = movieCatalogService != null ? movieCatalogService.getDictionary() : null;
+        List<String> genreNames = dictionary != null ? dictionary.getGenreNames() : Collections.<String>emptyList();
+        List<PriorityQueue<HotMovie>> genreHeaps = new ArrayList<>(genreNames.size());
+        for (int i = 0; i < genreNames.size(); i++) {
+            // 堆顶是该类型当前Top-N中最靠后的一条
+            genreHeaps.add(new PriorityQueue<>(TOP_N + 1, comparator.reversed()));
+        }
+        List<HotMovie> hotMovies = new ArrayList<>(movieTotals.size());
+        long windowEventCount = 0;
+        for (Map.Entry<Long, HotMovieWindow.MovieTotals> entry : movieTotals.entrySet()) {
+            HotMovieWindow.MovieTotals totals = entry.getValue();
+            windowEventCount += totals.count;
+            HotMovie movie = new HotMovie(entry.getKey(), totals.count,
+                    order == RankBy.DISTINCT_RATERS ? totals.getDistinctRaters() : null,
+                    totals.getAvgRating(), currentTime);
+            hotMovies.add(movie);
+            if (dictionary != null) {
+                long genreMask = dictionary.getGenreMask(entry.getKey());
+                while (genreMask != 0) {
+                    offerTopN(genreHeaps.get(Long.numberOfTrailingZeros(genreMask)), movie, comparator);
+                    genreMask &= genreMask - 1;
+                }
+            }
         }
         
-        // 按评分次数降序排序，取前10名
         List<HotMovie> top10 = hotMovies.stream()
-                .sorted((a, b) -> Long.compare(b.getRatingCount(), a.getRatingCount()))
-                .limit(10)
+                .sorted(comparator)
+                .limit(TOP_N)
                 .collect(Collectors.toList());
+        completeRankedMovies(top10, order, currentTime, dictionary);
+
+        // 各类型排行榜，字典中的每个类型都发布一份（窗口内没有该类型的电影时为空榜）
+        Map<String, List<HotMovie>> genreTops = new LinkedHashMap<>();
+        for (int i = 0; i < genreNames.size(); i++) {
+            List<HotMovie> genreTop = new ArrayList<>(genreHeaps.get(i));
+            genreTop.sort(comparator);
+            completeRankedMovies(genreTop, order, currentTime, dictionary);
+            genreTops.put(genreNames.get(i), genreTop);
+        }
         
-        // 更新缓存
-        hotMoviesCache.put(HOT_MOVIES_KEY, new CopyOnWriteArrayList<>(top10));
+        // 发布新快照
+        publishSnapshot(top10, genreTops, order, currentTime);
         
         // 打印结果
-        System.out.println("=== 热门电影排行榜 (最近10分钟) ===");
-        System.out.printf("窗口数据: %d条评分, %d部电影%n", windowData.size(), movieRatings.size());
+        System.out.println("=== 热门电影排行榜 (最近10分钟, 按" + order.getName() + "排序) ===");
+        System.out.printf("窗口数据: %d条评分, %d部电影%n", windowEventCount, movieTotals.size());
         for (int i = 0; i < top10.size(); i++) {
             HotMovie movie = top10.get(i);
-            System.out.printf("第%d名: 电影ID=%d, 评分次数=%d, 平均评分=%.2f%n", 
-                i + 1, movie.getMovieId(), movie.getRatingCount(), movie.getAvgRating());
+            System.out.printf("第%d名: 电影ID=%d%s, 评分次数=%d, 评分用户数≈%d, 平均评分=%.2f%n", 
+                i + 1, movie.getMovieId(), movie.getTitle() != null ? " " + movie.getTitle() : "", movie.getRatingCount(),
+                movie.getDistinctRaters() != null ? movie.getDistinctRaters() : 0L, movie.getAvgRating());
         }
         System.out.println("==============================");
     }
 
+    private static void offerTopN(PriorityQueue<HotMovie> heap, HotMovie movie, Comparator<HotMovie> comparator) {
+        if (heap.size() < TOP_N) {
+            heap.add(movie);
+        } else if (comparator.compare(movie, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(movie);
+        }
+    }
+
+    /**
+     * 补全上榜电影的不同评分用户数、标题和类型；前端不必再逐部电影查询
+     */
+    private void completeRankedMovies(List<HotMovie> movies, RankBy order, long now, MovieDictionary dictionary) {
+        for (HotMovie movie : movies) {
+            // 同一部电影可能同时出现在总榜和多个类型榜中，只估计一次
+            if (order == RankBy.RATING_COUNT && movie.getDistinctRaters() == null) {
+                movie.setDistinctRaters(window.estimateDistinctRaters(movie.getMovieId(), now));
+            }
+            if (dictionary != null && movie.getTitle() == null) {
+                movie.setTitle(dictionary.getTitle(movie.getMovieId()));
+                movie.setGenres(dictionary.getGenres(movie.getMovieId()));
+            }
+        }
+    }
+
+    /**
+     * 本节点窗口的Top-K摘要，供协调节点合并全局排行榜
+     */
+    public HotMovieClusterService.PartitionSummary getPartitionSummary(int k) {
+        long currentTime = System.currentTimeMillis();
+        return HotMovieClusterService.summarize(
+                nodeId.isEmpty() ? "node-" + partitionIndex : nodeId,
+                partitionIndex, partitionCount, misroutedEvents.sum() == 0,
+                window.aggregate(currentTime, false), k, currentTime);
+    }
+
+    public long getMisroutedEventCount() {
+        return misroutedEvents.sum();
+    }
+
+    /**
+     * 当前上升最快的k部电影，只遍历各电影的衰减计数，不扫描窗口
+     */
+    public List<TrendingTracker.TrendingMovie> getTrendingMovies(int k) {
+        List<TrendingTracker.TrendingMovie> trending = trendingTracker.topTrending(k, System.currentTimeMillis());
+        MovieDictionary dictionary = movieCatalogService != null ? movieCatalogService.getDictionary() : null;
+        if (dictionary != null) {
+            for (TrendingTracker.TrendingMovie movie : trending) {
+                movie.setTitle(dictionary.getTitle(movie.getMovieId()));
+                movie.setGenres(dictionary.getGenres(movie.getMovieId()));
+            }
+        }
+        return trending;
+    }
+
+    /**
+     * 上升趋势榜的参数和跟踪的电影数
+     */
+    public Map<String, Object> getTrendingStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("shortHalfLifeSeconds", trendingTracker.getShortHalfLifeMs() / 1000);
+        status.put("longHalfLifeSeconds", trendingTracker.getLongHalfLifeMs() / 1000);
+        status.put("minBaselinePerMinute", TRENDING_MIN_BASELINE_PER_MINUTE);
+        status.put("minRecentEvents", TRENDING_MIN_RECENT_EVENTS);
+        status.put("trackedMovies", trendingTracker.getTrackedMovieCount());
+        return status;
+    }
+
+    public RankBy getRankBy() {
+        return rankBy;
+    }
+
+    /**
+     * 切换排行榜排序依据，下一次计算起生效
+     */
+    public void setRankBy(RankBy rankBy) {
+        this.rankBy = rankBy;
+        System.out.println("热门电影排行榜排序依据切换为: " + rankBy.getName());
+    }
+
     /**
      * 获取当前热门电影列表
      */
     public List<HotMovie> getCurrentHotMovies() {
-        return hotMoviesCache.getOrDefault(HOT_MOVIES_KEY, new ArrayList<>());
+        return published.get().current.getMovies();
+    }
+
+    /**
+     * 获取当前排行榜快照
+     */
+    public HotMovieSnapshot getCurrentSnapshot() {
+        return published.get().current;
+    }
+
+    /**
+     * 获取指定类型的排行榜快照（类型名不区分大小写），未知类型或尚未计算时返回null
+     */
+    public HotMovieSnapshot getGenreSnapshot(String genre) {
+        return published.get().genres.get(genre.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 已发布排行榜的类型
+     */
+    public List<String> getRankedGenres() {
+        List<String> genres = new ArrayList<>();
+        for (HotMovieSnapshot snapshot : published.get().genres.values()) {
+            genres.add(snapshot.getGenre());
+        }
+        return genres;
+    }
+
+    /**
+     * 等待版本号大于afterVersion的快照；当前快照已满足时立即完成
+     * 调用方超时放弃时应调用cancelWait，避免等待者堆积
+     */
+    public CompletableFuture<HotMovieSnapshot> awaitSnapshotAfter(long afterVersion) {
+        HotMovieSnapshot snapshot = published.get().current;
+        if (snapshot.getVersion() > afterVersion) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        CompletableFuture<HotMovieSnapshot> future = new CompletableFuture<>();
+        versionWaiters.add(new VersionWaiter(afterVersion, future));
+        // 注册期间可能恰好发布了新版本，再检查一次
+        snapshot = published.get().current;
+        if (snapshot.getVersion() > afterVersion) {
+            future.complete(snapshot);
+        }
+        return future;
+    }
+
+    /**
+     * 放弃等待
+     */
+    public void cancelWait(CompletableFuture<HotMovieSnapshot> future) {
+        future.cancel(false);
+        versionWaiters.removeIf(waiter -> waiter.future == future);
     }
 
     /**
      * 清空热门电影缓存
      */
     public void clearHotMoviesCache() {
-        hotMoviesCache.clear();
+        publishSnapshot(Collections.emptyList(), Collections.emptyMap(), rankBy, System.currentTimeMillis());
+    }
+
+    /**
+     * 生成并发布新快照，唤醒等待新版本的长轮询请求
+     */
+    private static void publishSnapshot(List<HotMovie> movies, Map<String, List<HotMovie>> genreMovies,
+                                        RankBy rankBy, long generatedAt) {
+        HotMovieSnapshot snapshot;
+        while (true) {
+            PublishedSnapshots previous = published.get();
+            long version = previous.current.getVersion() + 1;
+            Map<String, HotMovieSnapshot> genres = new LinkedHashMap<>();
+            for (Map.Entry<String, List<HotMovie>> entry : genreMovies.entrySet()) {
+                genres.put(entry.getKey().toLowerCase(Locale.ROOT),
+                        buildSnapshot(version, entry.getValue(), entry.getKey(), rankBy, generatedAt));
+            }
+            snapshot = buildSnapshot(version, movies, null, rankBy, generatedAt);
+            // 期间有其他发布者抢先替换时用新的版本号重建
+            if (published.compareAndSet(previous, new PublishedSnapshots(snapshot, Collections.unmodifiableMap(genres)))) {
+                break;
+            }
+        }
+
+        Iterator<VersionWaiter> iterator = versionWaiters.iterator();
+        while (iterator.hasNext()) {
+            VersionWaiter waiter = iterator.next();
+            if (waiter.future.isDone()) {
+                iterator.remove();
+            } else if (snapshot.getVersion() > waiter.afterVersion) {
+                waiter.future.complete(snapshot);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @param genre 类型榜的类型名，总榜为null
+     */
+    private static HotMovieSnapshot buildSnapshot(long version, List<HotMovie> movies, String genre,
+                                                  RankBy rankBy, long generatedAt) {
+        List<HotMovie> frozen = Collections.unmodifiableList(new ArrayList<>(movies));
+
+        // 与接口原有的响应结构保持一致
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", "success");
+        body.put("data", frozen);
+        body.put("count", frozen.size());
+        body.put("timestamp", generatedAt);
+        body.put("version", version);
+        body.put("rankBy", rankBy.getName());
+        if (genre != null) {
+            body.put("genre", genre);
+            body.put("description", rankBy.getDescription() + "（类型: " + genre + "）");
+        } else {
+            body.put("description", rankBy.getDescription());
+        }
+
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("排行榜快照序列化失败", e);
+        }
+        return new HotMovieSnapshot(version, generatedAt, genre, frozen, json,
+                "\"" + SNAPSHOT_EPOCH + "-" + version + "\"");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,352 @@
+package com.abc.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热门电影滑动窗口
+ * 把窗口按固定时长切成若干桶，每个桶内按电影累计评分次数和评分总和。
+ * 写入只更新事件所在的桶（O(1)），计算排行榜时合并窗口内的桶，不再保存和扫描原始评分事件；
+ * 桶按环形数组复用，过期的桶在被新时间段占用时自然丢弃。
+ * 窗口边界精确到桶：与窗口起点部分重叠的桶整体计入。
+ * 开启去重计数时，每个桶内的每部电影另有一个评分用户的HyperLogLog，合并桶时按电影合并，
+ * 得到窗口内不同评分用户数的估计，每部电影每个桶的内存有固定上限，不必保存用户ID集合。
+ */
+public class HotMovieWindow {
+
+    private static final int CHECKPOINT_MAGIC_V1 = 0x484D5731; // "HMW1"，不含去重计数
+    private static final int CHECKPOINT_MAGIC = 0x484D5732; // "HMW2"
+
+    private final long windowSizeMs;
+    private final long bucketSizeMs;
+    // 去重计数的HyperLogLog精度，0表示不统计
+    private final int raterPrecision;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * 单部电影在窗口内的合计
+     */
+    public static class MovieTotals {
+        public long count;
+        public double ratingSum;
+        // 窗口内评分用户的合并结果，未开启去重计数时为null
+        public HyperLogLog raters;
+
+        public double getAvgRating() {
+            return count > 0 ? ratingSum / count : 0.0;
+        }
+
+        /**
+         * 窗口内不同评分用户数的估计，未开启去重计数时返回null
+         */
+        public Long getDistinctRaters() {
+            return raters != null ? raters.estimate() : null;
+        }
+    }
+
+    private static class MovieAggregate {
+        final LongAdder count = new LongAdder();
+        final DoubleAdder ratingSum = new DoubleAdder();
+        final HyperLogLog raters;
+
+        MovieAggregate(int raterPrecision) {
+            this.raters = raterPrecision > 0 ? new HyperLogLog(raterPrecision) : null;
+        }
+    }
+
+    private static class Bucket {
+        final long start;
+        final ConcurrentHashMap<Long, MovieAggregate> movies = new ConcurrentHashMap<>();
+
+        Bucket(long start) {
+            this.start = start;
+        }
+    }
+
+    public HotMovieWindow(long windowSizeMs, long bucketSizeMs) {
+        this(windowSizeMs, bucketSizeMs, 0);
+    }
+
+    /**
+     * @param raterPrecision 去重计数的HyperLogLog精度，0表示不统计不同评分用户数
+     */
+    public HotMovieWindow(long windowSizeMs, long bucketSizeMs, int raterPrecision) {
+        if (bucketSizeMs <= 0 || windowSizeMs % bucketSizeMs != 0) {
+            throw new IllegalArgumentException("窗口大小必须是桶大小的整数倍: " + windowSizeMs + "/" + bucketSizeMs);
+        }
+        this.windowSizeMs = windowSizeMs;
+        this.bucketSizeMs = bucketSizeMs;
+        this.raterPrecision = raterPrecision;
+        // 多留一个桶，保证窗口起点所在的桶在被复用前仍可读
+        this.buckets = new AtomicReferenceArray<>((int) (windowSizeMs / bucketSizeMs) + 1);
+    }
+
+    public long getWindowSizeMs() {
+        return windowSizeMs;
+    }
+
+    public long getBucketSizeMs() {
+        return bucketSizeMs;
+    }
+
+    public boolean isDistinctRatersEnabled() {
+        return raterPrecision > 0;
+    }
+
+    /**
+     * 累加一条评分
+     *
+     * @return 事件早于窗口、已无对应的桶，或晚于当前时间超过一个桶时返回false
+     */
+    public boolean add(long movieId, double rating, long timestamp) {
+        return add(movieId, rating, 1, timestamp);
+    }
+
+    /**
+     * 累加一条代表weight次评分的事件（抽样写入时按抽样率放大）
+     *
+     * @return 事件早于窗口、已无对应的桶，或晚于当前时间超过一个桶时返回false
+     */
+    public boolean add(long movieId, double rating, int weight, long timestamp) {
+        return add(movieId, null, rating, weight, timestamp);
+    }
+
+    /**
+     * 累加一条评分，并把评分用户计入该电影的去重计数
+     * 抽样写入的事件只代表被保留的那一个用户，因此抽样期间不同评分用户数会偏低
+     *
+     * @param userId 评分用户，为null时不参与去重计数
+     * @return 事件早于窗口、已无对应的桶，或晚于当前时间超过一个桶时返回false
+     */
+    public boolean add(long movieId, Long userId, double rating, int weight, long timestamp) {
+        // 桶按时间段循环复用，远在未来的事件会占据一个槽位并把仍在窗口内的桶挤掉
+        if (timestamp > System.currentTimeMillis() + bucketSizeMs) {
+            return false;
+        }
+        Bucket bucket = bucketFor(timestamp);
+        if (bucket == null) {
+            return false;
+        }
+        MovieAggregate aggregate = bucket.movies.computeIfAbsent(movieId, k -> new MovieAggregate(raterPrecision));
+        if (aggregate.raters != null && userId != null) {
+            aggregate.raters.offer(userId);
+        }
+        if (weight == 1) {
+            aggregate.count.increment();
+            aggregate.ratingSum.add(rating);
+        } else {
+            aggregate.count.add(weight);
+            aggregate.ratingSum.add(rating * weight);
+        }
+        return true;
+    }
+
+    /**
+     * 合并窗口内所有桶，得到每部电影的评分次数、评分总和和评分用户
+     */
+    public Map<Long, MovieTotals> aggregate(long now) {
+        return aggregate(now, true);
+    }
+
+    /**
+     * 合并窗口内所有桶，得到每部电影的评分次数和评分总和
+     *
+     * @param withRaters 是否同时合并评分用户的HyperLogLog；只按评分次数排序时传false，
+     *                   上榜电影再用estimateDistinctRaters单独估计
+     */
+    public Map<Long, MovieTotals> aggregate(long now, boolean withRaters) {
+        Map<Long, MovieTotals> totals = new HashMap<>();
+        long windowStart = now - windowSizeMs;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket == null || bucket.start + bucketSizeMs <= windowStart) {
+                continue;
+            }
+            for (Map.Entry<Long, MovieAggregate> entry : bucket.movies.entrySet()) {
+                MovieTotals movie = totals.computeIfAbsent(entry.getKey(), k -> new MovieTotals());
+                movie.count += entry.getValue().count.sum();
+                movie.ratingSum += entry.getValue().ratingSum.sum();
+                if (withRaters && entry.getValue().raters != null) {
+                    if (movie.raters == null) {
+                        movie.raters = new HyperLogLog(raterPrecision);
+                    }
+                    movie.raters.merge(entry.getValue().raters);
+                }
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * 单部电影在窗口内不同评分用户数的估计，只合并这部电影在各桶中的HyperLogLog
+     *
+     * @return 未开启去重计数或窗口内没有该电影时返回null
+     */
+    public Long estimateDistinctRaters(long movieId, long now) {
+        if (raterPrecision <= 0) {
+            return null;
+        }
+        HyperLogLog raters = null;
+        long windowStart = now - windowSizeMs;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket == null || bucket.start + bucketSizeMs <= windowStart) {
+                continue;
+            }
+            MovieAggregate aggregate = bucket.movies.get(movieId);
+            if (aggregate != null && aggregate.raters != null) {
+                if (raters == null) {
+                    raters = new HyperLogLog(raterPrecision);
+                }
+                raters.merge(aggregate.raters);
+            }
+        }
+        return raters != null ? raters.estimate() : null;
+    }
+
+    /**
+     * 取窗口内评分次数最多的k部电影，按次数降序
+     *
+     * @param totals aggregate的结果
+     */
+    public static List<Map.Entry<Long, MovieTotals>> topK(Map<Long, MovieTotals> totals, int k) {
+        // 小顶堆，堆顶是当前Top-K中次数最少的一条
+        PriorityQueue<Map.Entry<Long, MovieTotals>> heap = new PriorityQueue<>(k + 1,
+                (a, b) -> Long.compare(a.getValue().count, b.getValue().count));
+        for (Map.Entry<Long, MovieTotals> entry : totals.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (entry.getValue().count > heap.peek().getValue().count) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        List<Map.Entry<Long, MovieTotals>> top = new ArrayList<>(heap);
+        top.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+        return top;
+    }
+
+    /**
+     * 清空窗口
+     */
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    /**
+     * 写出窗口内各桶的聚合结果（检查点，含去重计数），调用方需保证期间没有并发写入
+     */
+    public void writeTo(DataOutputStream out, long now) throws IOException {
+        long windowStart = now - windowSizeMs;
+        int live = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.start + bucketSizeMs > windowStart) {
+                live++;
+            }
+        }
+
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeLong(windowSizeMs);
+        out.writeLong(bucketSizeMs);
+        out.writeInt(live);
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket == null || bucket.start + bucketSizeMs <= windowStart) {
+                continue;
+            }
+            out.writeLong(bucket.start);
+            out.writeInt(bucket.movies.size());
+            for (Map.Entry<Long, MovieAggregate> entry : bucket.movies.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue().count.sum());
+                out.writeDouble(entry.getValue().ratingSum.sum());
+                HyperLogLog raters = entry.getValue().raters;
+                out.writeBoolean(raters != null);
+                if (raters != null) {
+                    raters.writeTo(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从检查点恢复，已经过期的桶直接跳过
+     * 旧格式（HMW1）或精度与当前配置不同的检查点只恢复评分次数，去重计数从空开始
+     */
+    public void readFrom(DataInputStream in, long now) throws IOException {
+        int magic = in.readInt();
+        if (magic != CHECKPOINT_MAGIC && magic != CHECKPOINT_MAGIC_V1) {
+            throw new IOException("不是有效的热门电影窗口检查点");
+        }
+        long savedWindowSize = in.readLong();
+        long savedBucketSize = in.readLong();
+        if (savedWindowSize != windowSizeMs || savedBucketSize != bucketSizeMs) {
+            throw new IOException("检查点的窗口配置与当前不一致: " + savedWindowSize + "/" + savedBucketSize);
+        }
+        boolean hasRaters = magic == CHECKPOINT_MAGIC;
+
+        clear();
+        long windowStart = now - windowSizeMs;
+        int bucketCount = in.readInt();
+        for (int b = 0; b < bucketCount; b++) {
+            long start = in.readLong();
+            int movieCount = in.readInt();
+            Bucket bucket = start + bucketSizeMs > windowStart ? new Bucket(start) : null;
+            for (int m = 0; m < movieCount; m++) {
+                long movieId = in.readLong();
+                long count = in.readLong();
+                double ratingSum = in.readDouble();
+                HyperLogLog savedRaters = hasRaters && in.readBoolean() ? HyperLogLog.readFrom(in) : null;
+                if (bucket != null) {
+                    MovieAggregate aggregate = new MovieAggregate(raterPrecision);
+                    aggregate.count.add(count);
+                    aggregate.ratingSum.add(ratingSum);
+                    if (aggregate.raters != null && savedRaters != null
+                            && savedRaters.getPrecision() == raterPrecision) {
+                        aggregate.raters.merge(savedRaters);
+                    }
+                    bucket.movies.put(movieId, aggregate);
+                }
+            }
+            if (bucket != null) {
+                buckets.set(slotOf(start), bucket);
+            }
+        }
+    }
+
+    private Bucket bucketFor(long timestamp) {
+        long start = timestamp - Math.floorMod(timestamp, bucketSizeMs);
+        int slot = slotOf(start);
+        while (true) {
+            Bucket current = buckets.get(slot);
+            if (current != null && current.start == start) {
+                return current;
+            }
+            if (current != null && current.start > start) {
+                // 该槽位已被更新的时间段占用，事件已超出窗口
+                return null;
+            }
+            Bucket created = new Bucket(start);
+            if (buckets.compareAndSet(slot, current, created)) {
+                return created;
+            }
+        }
+    }
+
+    private int slotOf(long bucketStart) {
+        return (int) Math.floorMod(bucketStart / bucketSizeMs, (long) buckets.length());
+    }
+}
@@ -0,0 +1,254 @@
+package com.abc.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog基数估计（去重计数）
+ *
+ * 2^precision个寄存器，标准误差约1.04/sqrt(2^precision)，precision=10时约3.3%。
+ * 基数较小时使用稀疏表示（按寄存器下标有序的int数组，每项为 下标<<6 | 值），
+ * 非零寄存器超过 2^precision/4 个时转为每个寄存器一个字节的稠密表示，
+ * 因此单个实例占用的内存不超过 2^precision 字节。
+ * 同精度的实例可以合并（按寄存器取最大值），合并结果等于对两者输入的并集做估计。
+ * 方法均加锁，可被多个写线程同时更新。
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private static final int SPARSE_INITIAL_CAPACITY = 4;
+    private static final byte FORMAT_SPARSE = 0;
+    private static final byte FORMAT_DENSE = 1;
+
+    private final int precision;
+    private final int registerCount;
+
+    // 稀疏表示，转为稠密后为null
+    private int[] sparse;
+    private int sparseSize;
+
+    // 稠密表示，稀疏阶段为null
+    private byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog精度必须在" + MIN_PRECISION + "~" + MAX_PRECISION + "之间: " + precision);
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.sparse = new int[SPARSE_INITIAL_CAPACITY];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * 加入一个元素
+     */
+    public synchronized void offer(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - precision));
+        // 低位补一个1，保证前导零个数有上界
+        long remaining = (hash << precision) | (1L << (precision - 1));
+        int rank = Long.numberOfLeadingZeros(remaining) + 1;
+        update(index, rank);
+    }
+
+    /**
+     * 合并另一个同精度的实例
+     */
+    public void merge(HyperLogLog other) {
+        if (other == this) {
+            return;
+        }
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("只能合并相同精度的HyperLogLog: " + precision + "/" + other.precision);
+        }
+        int[] otherSparse;
+        int otherSparseSize;
+        byte[] otherRegisters;
+        synchronized (other) {
+            otherSparse = other.sparse != null ? Arrays.copyOf(other.sparse, other.sparseSize) : null;
+            otherSparseSize = other.sparseSize;
+            otherRegisters = other.registers != null ? other.registers.clone() : null;
+        }
+        synchronized (this) {
+            if (otherRegisters != null) {
+                toDense();
+                for (int i = 0; i < registerCount; i++) {
+                    if (otherRegisters[i] > registers[i]) {
+                        registers[i] = otherRegisters[i];
+                    }
+                }
+            } else {
+                for (int i = 0; i < otherSparseSize; i++) {
+                    update(otherSparse[i] >>> 6, otherSparse[i] & 0x3F);
+                }
+            }
+        }
+    }
+
+    /**
+     * 估计不同元素的个数
+     */
+    public synchronized long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        if (registers != null) {
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+        } else {
+            zeros = registerCount - sparseSize;
+            sum = zeros;
+            for (int i = 0; i < sparseSize; i++) {
+                sum += 1.0 / (1L << (sparse[i] & 0x3F));
+            }
+        }
+        double estimate = alpha() * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            // 小基数时原始估计偏差大，改用线性计数
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 当前占用的字节数（不含对象头）
+     */
+    public synchronized int getMemoryBytes() {
+        return registers != null ? registers.length : sparse.length * 4;
+    }
+
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(precision);
+        if (registers != null) {
+            out.writeByte(FORMAT_DENSE);
+            out.write(registers);
+        } else {
+            out.writeByte(FORMAT_SPARSE);
+            out.writeInt(sparseSize);
+            for (int i = 0; i < sparseSize; i++) {
+                out.writeInt(sparse[i]);
+            }
+        }
+    }
+
+    public static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        int precision = in.readUnsignedByte();
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IOException("无效的HyperLogLog精度: " + precision);
+        }
+        HyperLogLog sketch = new HyperLogLog(precision);
+        byte format = in.readByte();
+        if (format == FORMAT_DENSE) {
+            sketch.sparse = null;
+            sketch.registers = new byte[sketch.registerCount];
+            in.readFully(sketch.registers);
+        } else if (format == FORMAT_SPARSE) {
+            int size = in.readInt();
+            if (size < 0 || size > sketch.registerCount) {
+                throw new IOException("无效的HyperLogLog稀疏长度: " + size);
+            }
+            sketch.sparse = new int[Math.max(SPARSE_INITIAL_CAPACITY, size)];
+            for (int i = 0; i < size; i++) {
+                sketch.sparse[i] = in.readInt();
+            }
+            sketch.sparseSize = size;
+        } else {
+            throw new IOException("无效的HyperLogLog格式: " + format);
+        }
+        return sketch;
+    }
+
+    private void update(int index, int rank) {
+        if (registers != null) {
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+            return;
+        }
+        int position = findSparse(index);
+        if (position >= 0) {
+            if (rank > (sparse[position] & 0x3F)) {
+                sparse[position] = (index << 6) | rank;
+            }
+            return;
+        }
+        if (sparseSize + 1 > registerCount / 4) {
+            toDense();
+            registers[index] = (byte) Math.max(registers[index], rank);
+            return;
+        }
+        int insertAt = -position - 1;
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.min(registerCount / 4, sparse.length * 2));
+        }
+        System.arraycopy(sparse, insertAt, sparse, insertAt + 1, sparseSize - insertAt);
+        sparse[insertAt] = (index << 6) | rank;
+        sparseSize++;
+    }
+
+    /**
+     * 在稀疏数组中按寄存器下标二分查找，找不到时返回 -(插入位置) - 1
+     */
+    private int findSparse(int index) {
+        int low = 0;
+        int high = sparseSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midIndex = sparse[mid] >>> 6;
+            if (midIndex < index) {
+                low = mid + 1;
+            } else if (midIndex > index) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void toDense() {
+        if (registers != null) {
+            return;
+        }
+        registers = new byte[registerCount];
+        for (int i = 0; i < sparseSize; i++) {
+            registers[sparse[i] >>> 6] = (byte) (sparse[i] & 0x3F);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private double alpha() {
+        switch (registerCount) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+    /**
+     * 64位混合函数（SplitMix64的终结步骤），使连续的用户ID也均匀分布到各寄存器
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
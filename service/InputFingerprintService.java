@@ -0,0 +1,315 @@
+package com.abc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 评分批处理的输入指纹和结果缓存
+ *
+ * 指纹由输入文件的绝对路径、大小、修改时间、抽样内容哈希以及作业参数（排行榜参数、结果存储、电影元数据文件）组成。
+ * 抽样哈希对文件中均匀分布的若干块做SHA-256，几十MB到几GB的文件都只读约1MB，文件被原地改写但大小和修改时间不变时也能识别。
+ * 每个结果存储只记录最近一次成功完成的作业的指纹：作业开始时先清除记录（失败或中途的结果不可复用），
+ * 完成时若期间没有其他作业在同一存储上开始过才写入记录。因此命中时结果存储中的内容一定来自同样的输入和参数，
+ * 先处理A、再处理B、再处理A时第三次不会命中。
+ * 记录保存在一个JSON文件中，重启后仍然有效。
+ */
+@Service
+public class InputFingerprintService {
+
+    // 抽样块数和每块大小，文件不超过 SAMPLE_COUNT*SAMPLE_BLOCK_SIZE 时对整个文件求哈希
+    private static final int SAMPLE_COUNT = 16;
+    private static final int SAMPLE_BLOCK_SIZE = 64 * 1024;
+
+    @Value("${result-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${result-cache.file:data/result-fingerprints.json}")
+    private String stateFile;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 结果存储名称 -> 最近一次成功完成的作业
+    private final Map<String, CompletedRun> completedRuns = new HashMap<>();
+
+    // 结果存储名称 -> 已开始的作业数，用于判断完成前是否有其他作业写过同一存储
+    private final Map<String, Long> generations = new HashMap<>();
+
+    /**
+     * 输入指纹
+     */
+    public static class InputFingerprint {
+        private final String key;
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String sampleHash;
+        private final String resultStore;
+        private final Map<String, Object> parameters;
+
+        InputFingerprint(String key, String path, long size, long lastModified, String sampleHash,
+                         String resultStore, Map<String, Object> parameters) {
+            this.key = key;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sampleHash = sampleHash;
+            this.resultStore = resultStore;
+            this.parameters = parameters;
+        }
+
+        // Getters
+        public String getKey() { return key; }
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+        public String getSampleHash() { return sampleHash; }
+        public String getResultStore() { return resultStore; }
+        public Map<String, Object> getParameters() { return parameters; }
+    }
+
+    /**
+     * 已完成作业的记录
+     */
+    public static class CompletedRun {
+        private String fingerprint;
+        private String jobId;
+        private String path;
+        private long totalRecords;
+        private long completedAt;
+
+        public CompletedRun() {}
+
+        public CompletedRun(String fingerprint, String jobId, String path, long totalRecords, long completedAt) {
+            this.fingerprint = fingerprint;
+            this.jobId = jobId;
+            this.path = path;
+            this.totalRecords = totalRecords;
+            this.completedAt = completedAt;
+        }
+
+        // Getters and Setters
+        public String getFingerprint() { return fingerprint; }
+        public void setFingerprint(String fingerprint) { this.fingerprint = fingerprint; }
+        public String getJobId() { return jobId; }
+        public void setJobId(String jobId) { this.jobId = jobId; }
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+        public long getTotalRecords() { return totalRecords; }
+        public void setTotalRecords(long totalRecords) { this.totalRecords = totalRecords; }
+        public long getCompletedAt() { return completedAt; }
+        public void setCompletedAt(long completedAt) { this.completedAt = completedAt; }
+    }
+
+    /**
+     * 启动时读取已完成作业的记录
+     */
+    @PostConstruct
+    public synchronized void load() {
+        Path path = Paths.get(stateFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Map<?, ?> state = objectMapper.readValue(path.toFile(), Map.class);
+            for (Map.Entry<?, ?> entry : state.entrySet()) {
+                completedRuns.put((String) entry.getKey(), objectMapper.convertValue(entry.getValue(), CompletedRun.class));
+            }
+            System.out.println("读取结果缓存记录: " + completedRuns.size() + " 个结果存储");
+        } catch (Exception e) {
+            System.err.println("读取结果缓存记录失败，忽略已有记录: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算输入指纹；缓存未开启或输入不是本地文件时返回null
+     *
+     * @param parameters 影响结果的作业参数
+     */
+    public InputFingerprint fingerprint(String csvFilePath, String resultStore, Map<String, Object> parameters)
+            throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        Path file = Paths.get(csvFilePath).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        String sampleHash = sampleHash(file, size);
+
+        // 富化写入的标题/类型来自电影元数据，文件变化时结果也不同
+        Map<String, Object> allParameters = new TreeMap<>(parameters);
+        allParameters.put("catalog", catalogSignature());
+
+        MessageDigest digest = sha256();
+        update(digest, file.toString());
+        update(digest, Long.toString(size));
+        update(digest, Long.toString(lastModified));
+        update(digest, sampleHash);
+        update(digest, resultStore);
+        update(digest, allParameters.toString());
+        return new InputFingerprint(toHex(digest.digest()), file.toString(), size, lastModified, sampleHash,
+                resultStore, allParameters);
+    }
+
+    /**
+     * 结果存储中现有结果对应的作业，指纹不一致时返回null
+     */
+    public synchronized CompletedRun findCompleted(InputFingerprint fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        CompletedRun run = completedRuns.get(fingerprint.getResultStore());
+        return run != null && run.getFingerprint().equals(fingerprint.getKey()) ? run : null;
+    }
+
+    /**
+     * 作业开始写入结果存储前调用：清除该存储的记录，返回本次作业的序号供完成时校验
+     */
+    public synchronized long beginRun(String resultStore) {
+        long generation = generations.getOrDefault(resultStore, 0L) + 1;
+        generations.put(resultStore, generation);
+        if (completedRuns.remove(resultStore) != null) {
+            save();
+        }
+        return generation;
+    }
+
+    /**
+     * 作业成功完成后记录指纹；期间同一存储上又开始过其他作业时不记录
+     */
+    public synchronized void recordCompleted(InputFingerprint fingerprint, long generation, String jobId, long totalRecords) {
+        if (fingerprint == null) {
+            return;
+        }
+        String resultStore = fingerprint.getResultStore();
+        if (generations.getOrDefault(resultStore, 0L) != generation) {
+            System.out.println("作业 " + jobId + " 完成前已有其他作业写入 " + resultStore + "，不记录结果缓存");
+            return;
+        }
+        completedRuns.put(resultStore, new CompletedRun(fingerprint.getKey(), jobId, fingerprint.getPath(),
+                totalRecords, System.currentTimeMillis()));
+        save();
+    }
+
+    /**
+     * 各结果存储当前记录的作业
+     */
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("stateFile", stateFile);
+        status.put("completedRuns", new LinkedHashMap<>(completedRuns));
+        return status;
+    }
+
+    /**
+     * 先写临时文件再原子替换
+     */
+    private void save() {
+        Path path = Paths.get(stateFile);
+        Path tmp = Paths.get(stateFile + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            objectMapper.writeValue(tmp.toFile(), completedRuns);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("保存结果缓存记录失败: " + e.getMessage());
+        }
+    }
+
+    private String catalogSignature() {
+        StringBuilder signature = new StringBuilder();
+        for (String catalogPath : Arrays.asList(movieCatalogService.getMoviesPath(), movieCatalogService.getLinksPath())) {
+            Path path = Paths.get(catalogPath);
+            signature.append(catalogPath).append(':');
+            try {
+                if (Files.exists(path)) {
+                    signature.append(Files.size(path)).append('@').append(Files.getLastModifiedTime(path).toMillis());
+                }
+            } catch (IOException e) {
+                signature.append('?');
+            }
+            signature.append(';');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * 对文件中均匀分布的SAMPLE_COUNT块（含首块和尾块）求SHA-256，小文件对全部内容求哈希
+     */
+    static String sampleHash(Path file, long size) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size <= (long) SAMPLE_COUNT * SAMPLE_BLOCK_SIZE) {
+                readBlock(channel, 0, size, buffer, digest);
+            } else {
+                long step = (size - SAMPLE_BLOCK_SIZE) / (SAMPLE_COUNT - 1);
+                for (int i = 0; i < SAMPLE_COUNT; i++) {
+                    readBlock(channel, i * step, SAMPLE_BLOCK_SIZE, buffer, digest);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void readBlock(FileChannel channel, long position, long length, ByteBuffer buffer,
+                                  MessageDigest digest) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
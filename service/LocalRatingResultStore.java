@@ -0,0 +1,360 @@
+package com.abc.service;
+
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple6;
+import org.apache.flink.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单机内嵌的评分结果存储，不依赖HBase/ZooKeeper，用于本地跑通完整流程和压测
+ *
+ * 平均评分存放在一个按movieId直接寻址的内存映射文件中：第movieId条记录位于 movieId * 16 字节处，
+ * 依次为平均分(double)和评分次数(long)，次数为0表示该电影没有结果。各并行子任务写入互不重叠的位置，
+ * 读取方共享同一个只读映射，查询不经过任何系统调用。
+ * 排行榜每种类型一个文本文件，由并行度为1的输出在作业结束时整体写入并原子替换。
+ * 带过滤条件的作业写入 scopes/<结果集标识>/ 子目录，文件布局相同。
+ */
+@Component
+@ConditionalOnProperty(name = "result-store.type", havingValue = "local")
+public class LocalRatingResultStore implements RatingResultStore {
+
+    @Value("${result-store.local.dir:data/result-store}")
+    private String storeDir;
+
+    // 映射文件可容纳的最大movieId（ml-latest的movieId不超过30万）
+    @Value("${result-store.local.max-movie-id:1000000}")
+    private long maxMovieId;
+
+    static final String RATINGS_FILE = "ratings.dat";
+    static final String RANKING_FILE_SUFFIX = ".ranking";
+    static final int RECORD_SIZE = 16;
+    static final String SCOPES_DIR = "scopes";
+
+    // 同一JVM内多个子任务同时初始化映射文件时串行化
+    private static final Object FILE_INIT_LOCK = new Object();
+
+    private volatile MappedByteBuffer readBuffer;
+
+    // 已解析的排行榜，按文件修改时间判断是否需要重新加载
+    private final Map<String, LoadedRanking> rankingCache = new ConcurrentHashMap<>();
+
+    // 过滤作业的结果集，按标识复用实例以共享读取映射
+    private final Map<String, LocalRatingResultStore> scopedStores = new ConcurrentHashMap<>();
+
+    public LocalRatingResultStore() {
+    }
+
+    private LocalRatingResultStore(String storeDir, long maxMovieId) {
+        this.storeDir = storeDir;
+        this.maxMovieId = maxMovieId;
+    }
+
+    private static class LoadedRanking {
+        final long lastModified;
+        final List<MovieRatingQueryService.RankingEntry> entries;
+
+        LoadedRanking(long lastModified, List<MovieRatingQueryService.RankingEntry> entries) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "local(" + storeDir + ")";
+    }
+
+    /**
+     * 把评分文件清零：每次作业只写入本次输入中出现的电影，不清零时上一次作业独有的电影会一直留在文件里
+     * 不截断文件，读取方持有的映射保持有效，清零后到作业写入前查询不到任何电影
+     */
+    @Override
+    public void beginRun() throws IOException {
+        Path file = Paths.get(storeDir, RATINGS_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+        synchronized (FILE_INIT_LOCK) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                long length = channel.size();
+                long position = 0;
+                while (position < length) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), length - position));
+                    position += channel.write(zeros, position);
+                }
+                channel.force(false);
+            }
+        }
+        System.out.println("本地存储评分文件已清零: " + file);
+    }
+
+    @Override
+    public RatingResultStore scoped(String scope) {
+        RatingResultStore.checkScope(scope);
+        return scopedStores.computeIfAbsent(scope,
+                s -> new LocalRatingResultStore(Paths.get(storeDir, SCOPES_DIR, s).toString(), maxMovieId));
+    }
+
+    @Override
+    public OutputFormat<Tuple3<Long, Double, Long>> createRatingSink() {
+        return new MappedRatingSink(storeDir, maxMovieId);
+    }
+
+    @Override
+    public OutputFormat<Tuple6<String, Integer, Long, Double, Long, Double>> createRankingSink() {
+        return new RankingFileSink(storeDir);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, MovieRatingQueryService.MovieRating>> getMovieRatings(List<Long> movieIds) {
+        Map<Long, MovieRatingQueryService.MovieRating> loaded = new HashMap<>();
+        try {
+            MappedByteBuffer buffer = getReadBuffer();
+            if (buffer != null) {
+                for (Long movieId : movieIds) {
+                    if (movieId == null || movieId < 0 || movieId >= maxMovieId) {
+                        continue;
+                    }
+                    int offset = (int) (movieId * RECORD_SIZE);
+                    long count = buffer.getLong(offset + 8);
+                    if (count > 0) {
+                        loaded.put(movieId, new MovieRatingQueryService.MovieRating(movieId, buffer.getDouble(offset), count));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            CompletableFuture<Map<Long, MovieRatingQueryService.MovieRating>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return CompletableFuture.completedFuture(loaded);
+    }
+
+    @Override
+    public CompletableFuture<MovieRatingQueryService.RankingPage> getRankingPage(String rankingType, int page, int size) {
+        Path file = Paths.get(storeDir, rankingType + RANKING_FILE_SUFFIX);
+        try {
+            if (!Files.exists(file)) {
+                return CompletableFuture.completedFuture(
+                        new MovieRatingQueryService.RankingPage(rankingType, page, size, 0, null, new ArrayList<>()));
+            }
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            LoadedRanking ranking = rankingCache.get(rankingType);
+            if (ranking == null || ranking.lastModified != lastModified) {
+                ranking = new LoadedRanking(lastModified, readRanking(file));
+                rankingCache.put(rankingType, ranking);
+            }
+
+            int total = ranking.entries.size();
+            int from = (int) Math.min(total, (long) page * size);
+            int to = Math.min(total, from + size);
+            return CompletableFuture.completedFuture(new MovieRatingQueryService.RankingPage(
+                    rankingType, page, size, total, lastModified, new ArrayList<>(ranking.entries.subList(from, to))));
+        } catch (IOException e) {
+            CompletableFuture<MovieRatingQueryService.RankingPage> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void exportRatings(RatingExportService.ExportRequest request, RatingExportService.RatingConsumer consumer)
+            throws IOException {
+        MappedByteBuffer buffer = getReadBuffer();
+        if (buffer == null) {
+            return;
+        }
+        long from = request.getMinMovieId() != null ? Math.max(0, request.getMinMovieId()) : 0;
+        long to = request.getMaxMovieId() != null ? Math.min(maxMovieId - 1, request.getMaxMovieId()) : maxMovieId - 1;
+        // 按movieId顺序遍历映射文件，跳过没有结果的位置
+        for (long movieId = from; movieId <= to; movieId++) {
+            int offset = (int) (movieId * RECORD_SIZE);
+            long count = buffer.getLong(offset + 8);
+            if (count > 0 && !consumer.accept(new MovieRatingQueryService.MovieRating(movieId, buffer.getDouble(offset), count))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 懒加载只读映射；文件尚不存在（还没跑过作业）时返回null
+     */
+    private MappedByteBuffer getReadBuffer() throws IOException {
+        MappedByteBuffer buffer = readBuffer;
+        if (buffer != null) {
+            return buffer;
+        }
+        Path file = Paths.get(storeDir, RATINGS_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        synchronized (this) {
+            if (readBuffer == null) {
+                readBuffer = mapRatingsFile(storeDir, maxMovieId, FileChannel.MapMode.READ_ONLY);
+            }
+            return readBuffer;
+        }
+    }
+
+    private static List<MovieRatingQueryService.RankingEntry> readRanking(Path file) throws IOException {
+        List<MovieRatingQueryService.RankingEntry> entries = new ArrayList<>();
+        int rank = 1;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            entries.add(new MovieRatingQueryService.RankingEntry(rank++,
+                    Long.parseLong(fields[0]),
+                    Double.parseDouble(fields[1]),
+                    Long.parseLong(fields[2]),
+                    Double.parseDouble(fields[3])));
+        }
+        return entries;
+    }
+
+    /**
+     * 映射评分文件，不存在或长度不足时先扩展到固定大小
+     */
+    static MappedByteBuffer mapRatingsFile(String storeDir, long maxMovieId, FileChannel.MapMode mode) throws IOException {
+        long length = maxMovieId * RECORD_SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("result-store.local.max-movie-id too large: " + maxMovieId);
+        }
+        Path file = Paths.get(storeDir, RATINGS_FILE);
+        synchronized (FILE_INIT_LOCK) {
+            Files.createDirectories(file.getParent());
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                if (raf.length() < length) {
+                    raf.setLength(length);
+                }
+                // 映射在通道关闭后依然有效
+                return raf.getChannel().map(mode, 0, length);
+            }
+        }
+    }
+
+    // 内存映射评分输出，各子任务按movieId直接写入各自的记录位置
+    public static class MappedRatingSink implements OutputFormat<Tuple3<Long, Double, Long>>, Flushable {
+        private final String storeDir;
+        private final long maxMovieId;
+
+        private transient MappedByteBuffer buffer;
+        private transient long openedAt;
+        private transient long writtenCount;
+
+        public MappedRatingSink(String storeDir, long maxMovieId) {
+            this.storeDir = storeDir;
+            this.maxMovieId = maxMovieId;
+        }
+
+        @Override
+        public void configure(Configuration parameters) {
+            // 配置方法，可以为空
+        }
+
+        @Override
+        public void open(int taskNumber, int numTasks) throws IOException {
+            buffer = mapRatingsFile(storeDir, maxMovieId, FileChannel.MapMode.READ_WRITE);
+            openedAt = System.currentTimeMillis();
+            writtenCount = 0;
+        }
+
+        @Override
+        public void writeRecord(Tuple3<Long, Double, Long> value) throws IOException {
+            if (value.f0 < 0 || value.f0 >= maxMovieId) {
+                throw new IOException("movieId " + value.f0 + " exceeds result-store.local.max-movie-id " + maxMovieId);
+            }
+            int offset = (int) (value.f0 * RECORD_SIZE);
+            buffer.putDouble(offset, value.f1);
+            buffer.putLong(offset + 8, value.f2);
+            writtenCount++;
+        }
+
+        @Override
+        public void flush() {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                buffer.force();
+                buffer = null;
+                System.out.println("本地存储写入 " + writtenCount + " 部电影评分，耗时 "
+                        + (System.currentTimeMillis() - openedAt) + " ms");
+            }
+        }
+    }
+
+    // 排行榜文件输出，以并行度1运行，关闭时每种类型写一个临时文件再原子替换
+    public static class RankingFileSink implements OutputFormat<Tuple6<String, Integer, Long, Double, Long, Double>> {
+        private final String storeDir;
+        private transient Map<String, List<Tuple6<String, Integer, Long, Double, Long, Double>>> rankings;
+
+        public RankingFileSink(String storeDir) {
+            this.storeDir = storeDir;
+        }
+
+        @Override
+        public void configure(Configuration parameters) {
+            // 配置方法，可以为空
+        }
+
+        @Override
+        public void open(int taskNumber, int numTasks) {
+            rankings = new HashMap<>();
+        }
+
+        @Override
+        public void writeRecord(Tuple6<String, Integer, Long, Double, Long, Double> value) {
+            rankings.computeIfAbsent(value.f0, k -> new ArrayList<>()).add(value.copy());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rankings == null) {
+                return;
+            }
+            Path dir = Paths.get(storeDir);
+            Files.createDirectories(dir);
+            for (String rankingType : MovieRatingFlinkService.RANKING_TYPES) {
+                List<Tuple6<String, Integer, Long, Double, Long, Double>> entries =
+                        rankings.getOrDefault(rankingType, Collections.emptyList());
+                entries.sort(Comparator.comparing(t -> t.f1));
+
+                Path target = dir.resolve(rankingType + RANKING_FILE_SUFFIX);
+                Path tmp = dir.resolve(rankingType + RANKING_FILE_SUFFIX + ".tmp");
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (Tuple6<String, Integer, Long, Double, Long, Double> entry : entries) {
+                        writer.write(entry.f2 + "," + entry.f3 + "," + entry.f4 + "," + entry.f5);
+                        writer.newLine();
+                    }
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                System.out.println("排行榜 " + rankingType + " 已写入 " + entries.size() + " 条记录");
+            }
+            rankings = null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.abc.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 电影元数据目录
+ *
+ * 持有当前的MovieDictionary，热门电影计算和查询接口用它补充标题和类型。
+ * 字典按文件路径在进程内共享：批处理作业的输出在同一JVM的子任务中通过shared获取同一份字典，不重复加载。
+ * 重新加载时先在旁边构建新字典，再一次性替换引用，读取方始终看到完整的旧字典或新字典，不需要加锁。
+ */
+@Service
+public class MovieCatalogService {
+
+    @Value("${movie-catalog.movies-path:data/ml-latest/movies.csv}")
+    private String moviesPath;
+
+    @Value("${movie-catalog.links-path:data/ml-latest/links.csv}")
+    private String linksPath;
+
+    // 进程内共享的字典，键为 movies.csv路径|links.csv路径
+    private static final Map<String, SharedDictionary> SHARED = new ConcurrentHashMap<>();
+
+    private static class SharedDictionary {
+        final MovieDictionary dictionary;
+        final long moviesModified;
+        final long linksModified;
+
+        SharedDictionary(MovieDictionary dictionary, long moviesModified, long linksModified) {
+            this.dictionary = dictionary;
+            this.moviesModified = moviesModified;
+            this.linksModified = linksModified;
+        }
+    }
+
+    private volatile MovieDictionary dictionary = MovieDictionary.empty();
+
+    /**
+     * 启动时加载字典；文件不存在时使用空字典，排行榜只是缺少标题和类型
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            reload();
+        } catch (IOException e) {
+            System.err.println("加载电影元数据失败，使用空字典: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 当前字典，调用方应在一次处理中只取一次，保证前后看到的是同一份数据
+     */
+    public MovieDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public String getMoviesPath() {
+        return moviesPath;
+    }
+
+    public String getLinksPath() {
+        return linksPath;
+    }
+
+    /**
+     * 重新读取movies.csv和links.csv并替换当前字典，同一进程中的批处理作业随后也会用到新字典
+     */
+    public synchronized Map<String, Object> reload() throws IOException {
+        long startTime = System.currentTimeMillis();
+        dictionary = load(moviesPath, linksPath, true);
+        System.out.printf("电影元数据已加载: %d部电影, %d个类型, 约%dKB, 耗时%dms%n",
+                dictionary.size(), dictionary.getGenreNames().size(), dictionary.getMemoryBytes() / 1024,
+                System.currentTimeMillis() - startTime);
+        return getStatus();
+    }
+
+    /**
+     * 字典状态
+     */
+    public Map<String, Object> getStatus() {
+        MovieDictionary current = dictionary;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("moviesPath", moviesPath);
+        status.put("linksPath", linksPath);
+        status.put("movieCount", current.size());
+        status.put("genres", current.getGenreNames());
+        status.put("memoryBytes", current.getMemoryBytes());
+        status.put("loadedAt", current.getLoadedAt());
+        return status;
+    }
+
+    /**
+     * 获取进程内共享的字典，文件自上次加载后有修改时重新加载；供批处理作业的子任务在open时调用
+     */
+    public static MovieDictionary shared(String moviesPath, String linksPath) throws IOException {
+        return load(moviesPath, linksPath, false);
+    }
+
+    private static MovieDictionary load(String moviesPath, String linksPath, boolean force) throws IOException {
+        Path movies = Paths.get(moviesPath);
+        Path links = linksPath != null && !linksPath.isEmpty() ? Paths.get(linksPath) : null;
+        if (!Files.exists(movies)) {
+            System.err.println("电影元数据文件不存在: " + movies.toAbsolutePath());
+            return MovieDictionary.empty();
+        }
+        long moviesModified = Files.getLastModifiedTime(movies).toMillis();
+        long linksModified = links != null && Files.exists(links) ? Files.getLastModifiedTime(links).toMillis() : 0L;
+
+        String key = moviesPath + "|" + linksPath;
+        synchronized (SHARED) {
+            SharedDictionary cached = SHARED.get(key);
+            if (!force && cached != null && cached.moviesModified == moviesModified
+                    && cached.linksModified == linksModified) {
+                return cached.dictionary;
+            }
+            MovieDictionary loaded = MovieDictionary.load(movies, links);
+            SHARED.put(key, new SharedDictionary(loaded, moviesModified, linksModified));
+            return loaded;
+        }
+    }
+}
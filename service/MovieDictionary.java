@@ -0,0 +1,437 @@
+package com.abc.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 电影元数据字典（只读）
+ *
+ * 由 ml-latest 的 movies.csv（movieId,title,genres）和 links.csv（movieId,imdbId,tmdbId）构建，按列紧凑存放：
+ *   movieIds        升序的int数组，查询时二分查找得到下标
+ *   titleBytes      所有标题的UTF-8字节依次拼接，titleOffsets[i]~titleOffsets[i+1]为第i部电影的标题
+ *   genreMasks      每部电影一个long位图，第b位对应genreNames[b]；类型名只保存一份
+ *   imdbIds/tmdbIds links.csv中的外部ID，0表示没有
+ * 约6万部电影时总共只占几MB，没有逐部电影的对象，也不产生GC压力。
+ * 构建后不再修改，可在任意线程间共享；重新加载时构建新实例整体替换。
+ */
+public final class MovieDictionary {
+
+    // 类型位图的位数，超出的类型忽略
+    public static final int MAX_GENRES = 64;
+
+    private static final String NO_GENRES = "(no genres listed)";
+
+    private final int[] movieIds;
+    private final int[] titleOffsets;
+    private final byte[] titleBytes;
+    private final long[] genreMasks;
+    private final int[] imdbIds;
+    private final int[] tmdbIds;
+    private final String[] genreNames;
+    private final Map<String, Integer> genreIndex;
+    private final long loadedAt;
+
+    private MovieDictionary(int[] movieIds, int[] titleOffsets, byte[] titleBytes, long[] genreMasks,
+                            int[] imdbIds, int[] tmdbIds, String[] genreNames, long loadedAt) {
+        this.movieIds = movieIds;
+        this.titleOffsets = titleOffsets;
+        this.titleBytes = titleBytes;
+        this.genreMasks = genreMasks;
+        this.imdbIds = imdbIds;
+        this.tmdbIds = tmdbIds;
+        this.genreNames = genreNames;
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < genreNames.length; i++) {
+            index.put(genreNames[i], i);
+        }
+        this.genreIndex = Collections.unmodifiableMap(index);
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * 空字典，文件不存在时使用
+     */
+    public static MovieDictionary empty() {
+        return new MovieDictionary(new int[0], new int[1], new byte[0], new long[0], new int[0], new int[0],
+                new String[0], System.currentTimeMillis());
+    }
+
+    /**
+     * 读取movies.csv和links.csv构建字典
+     *
+     * @param linksCsv 为null或文件不存在时不加载外部ID
+     */
+    public static MovieDictionary load(Path moviesCsv, Path linksCsv) throws IOException {
+        IntList ids = new IntList();
+        IntList offsets = new IntList();
+        LongList masks = new LongList();
+        ByteList titles = new ByteList();
+        List<String> genres = new ArrayList<>();
+        Map<String, Integer> genreBits = new HashMap<>();
+        // 电影ID不是整数的行跳过，只记录条数和第一行
+        long skippedMovies = 0;
+        String firstSkippedMovie = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(moviesCsv, StandardCharsets.UTF_8)) {
+            String line;
+            boolean header = true;
+            while ((line = reader.readLine()) != null) {
+                if (header) {
+                    header = false;
+                    if (line.startsWith("movieId")) {
+                        continue;
+                    }
+                }
+                List<String> fields = parseCsvLine(line);
+                if (fields.size() < 3 || fields.get(0).isEmpty()) {
+                    continue;
+                }
+                int movieId;
+                try {
+                    movieId = Integer.parseInt(fields.get(0).trim());
+                } catch (NumberFormatException e) {
+                    if (skippedMovies++ == 0) {
+                        firstSkippedMovie = line;
+                    }
+                    continue;
+                }
+                ids.add(movieId);
+                offsets.add(titles.size());
+                titles.append(fields.get(1).getBytes(StandardCharsets.UTF_8));
+
+                long mask = 0;
+                String genreField = fields.get(2);
+                if (!genreField.isEmpty() && !NO_GENRES.equals(genreField)) {
+                    for (String genre : genreField.split("\\|")) {
+                        Integer bit = genreBits.get(genre);
+                        if (bit == null) {
+                            if (genres.size() >= MAX_GENRES) {
+                                continue;
+                            }
+                            bit = genres.size();
+                            genres.add(genre);
+                            genreBits.put(genre, bit);
+                        }
+                        mask |= 1L << bit;
+                    }
+                }
+                masks.add(mask);
+            }
+        }
+
+        int[] order = sortedOrder(ids);
+        int count = order.length;
+        int[] movieIds = new int[count];
+        int[] titleOffsets = new int[count + 1];
+        long[] genreMasks = new long[count];
+        ByteList sortedTitles = new ByteList();
+        for (int i = 0; i < count; i++) {
+            int row = order[i];
+            movieIds[i] = ids.get(row);
+            genreMasks[i] = masks.get(row);
+            titleOffsets[i] = sortedTitles.size();
+            int end = row + 1 < ids.size() ? offsets.get(row + 1) : titles.size();
+            sortedTitles.append(titles.array(), offsets.get(row), end - offsets.get(row));
+        }
+        titleOffsets[count] = sortedTitles.size();
+
+        int[] imdbIds = new int[count];
+        int[] tmdbIds = new int[count];
+        long skippedLinks = 0;
+        String firstSkippedLink = null;
+        if (linksCsv != null && Files.exists(linksCsv)) {
+            try (BufferedReader reader = Files.newBufferedReader(linksCsv, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("movieId")) {
+                        continue;
+                    }
+                    String[] fields = line.split(",", -1);
+                    if (fields.length < 3 || fields[0].isEmpty()) {
+                        continue;
+                    }
+                    int index;
+                    try {
+                        index = Arrays.binarySearch(movieIds, Integer.parseInt(fields[0].trim()));
+                    } catch (NumberFormatException e) {
+                        if (skippedLinks++ == 0) {
+                            firstSkippedLink = line;
+                        }
+                        continue;
+                    }
+                    if (index < 0) {
+                        continue;
+                    }
+                    imdbIds[index] = parseIntOrZero(fields[1]);
+                    tmdbIds[index] = parseIntOrZero(fields[2]);
+                }
+            }
+        }
+
+        if (skippedMovies > 0) {
+            System.err.printf("%s中有%d行电影ID无效，已跳过，第一行: %s%n", moviesCsv, skippedMovies, firstSkippedMovie);
+        }
+        if (skippedLinks > 0) {
+            System.err.printf("%s中有%d行电影ID无效，已跳过，第一行: %s%n", linksCsv, skippedLinks, firstSkippedLink);
+        }
+
+        return new MovieDictionary(movieIds, titleOffsets, sortedTitles.toArray(), genreMasks, imdbIds, tmdbIds,
+                genres.toArray(new String[0]), System.currentTimeMillis());
+    }
+
+    public int size() {
+        return movieIds.length;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public boolean contains(long movieId) {
+        return indexOf(movieId) >= 0;
+    }
+
+    /**
+     * 电影标题，不存在时返回null
+     */
+    public String getTitle(long movieId) {
+        int index = indexOf(movieId);
+        if (index < 0) {
+            return null;
+        }
+        return new String(titleBytes, titleOffsets[index], titleOffsets[index + 1] - titleOffsets[index],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 电影类型位图，第b位对应getGenreNames().get(b)；不存在的电影返回0
+     */
+    public long getGenreMask(long movieId) {
+        int index = indexOf(movieId);
+        return index >= 0 ? genreMasks[index] : 0L;
+    }
+
+    /**
+     * 电影类型名称列表，不存在的电影返回空列表
+     */
+    public List<String> getGenres(long movieId) {
+        return genresOf(getGenreMask(movieId));
+    }
+
+    /**
+     * 把类型位图还原为类型名称列表
+     */
+    public List<String> genresOf(long mask) {
+        if (mask == 0) {
+            return Collections.emptyList();
+        }
+        List<String> genres = new ArrayList<>(Long.bitCount(mask));
+        while (mask != 0) {
+            int bit = Long.numberOfTrailingZeros(mask);
+            genres.add(genreNames[bit]);
+            mask &= mask - 1;
+        }
+        return genres;
+    }
+
+    /**
+     * 类型名称对应的位，不存在时返回-1（大小写不敏感）
+     */
+    public int genreBit(String genre) {
+        Integer bit = genreIndex.get(genre);
+        if (bit != null) {
+            return bit;
+        }
+        for (int i = 0; i < genreNames.length; i++) {
+            if (genreNames[i].equalsIgnoreCase(genre)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public List<String> getGenreNames() {
+        return Collections.unmodifiableList(Arrays.asList(genreNames));
+    }
+
+    /**
+     * IMDb编号（links.csv中去掉"tt"前缀的数字），没有时返回null
+     */
+    public Integer getImdbId(long movieId) {
+        int index = indexOf(movieId);
+        return index >= 0 && imdbIds[index] != 0 ? imdbIds[index] : null;
+    }
+
+    /**
+     * TMDb编号，没有时返回null
+     */
+    public Integer getTmdbId(long movieId) {
+        int index = indexOf(movieId);
+        return index >= 0 && tmdbIds[index] != 0 ? tmdbIds[index] : null;
+    }
+
+    /**
+     * 各数组占用的字节数（近似）
+     */
+    public long getMemoryBytes() {
+        return movieIds.length * 4L + titleOffsets.length * 4L + titleBytes.length
+                + genreMasks.length * 8L + imdbIds.length * 4L + tmdbIds.length * 4L;
+    }
+
+    private int indexOf(long movieId) {
+        if (movieId < Integer.MIN_VALUE || movieId > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return Arrays.binarySearch(movieIds, (int) movieId);
+    }
+
+    private static int parseIntOrZero(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(trimmed);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 按movieId升序排列的行号；movies.csv本身按movieId排好序时直接返回原顺序
+     */
+    private static int[] sortedOrder(IntList ids) {
+        int count = ids.size();
+        int[] order = new int[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            if (i > 0 && ids.get(i) <= ids.get(i - 1)) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return order;
+        }
+        // 高32位为movieId、低32位为行号，排序后即得到行号顺序；重复的movieId保留最后一行
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) ids.get(i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        IntList unique = new IntList();
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && (keys[i + 1] >> 32) == (keys[i] >> 32)) {
+                continue;
+            }
+            unique.add((int) keys[i]);
+        }
+        return unique.toArray();
+    }
+
+    /**
+     * 解析一行CSV，支持双引号包裹的字段和字段内成对的双引号（如 "American President, The (1995)"）
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static final class IntList {
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+    }
+
+    private static final class ByteList {
+        private byte[] values = new byte[64 * 1024];
+        private int size;
+
+        void append(byte[] bytes) {
+            append(bytes, 0, bytes.length);
+        }
+
+        void append(byte[] bytes, int offset, int length) {
+            if (size + length > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + length));
+            }
+            System.arraycopy(bytes, offset, values, size, length);
+            size += length;
+        }
+
+        byte[] array() {
+            return values;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -1,7 +1,21 @@
 package com.abc.service;
 
+import com.abc.config.FlinkSessionCluster;
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.api.common.RuntimeExecutionMode;
+import org.apache.flink.api.common.accumulators.LongCounter;
+import org.apache.flink.api.common.eventtime.WatermarkStrategy;
 import org.apache.flink.api.common.functions.AggregateFunction;
+import org.apache.flink.api.common.functions.GroupCombineFunction;
+import org.apache.flink.api.common.functions.GroupReduceFunction;
 import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.functions.ReduceFunction;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.typeinfo.Types;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.ExecutionEnvironment;
 import org.apache.flink.api.java.operators.AggregateOperator;
@@ -9,33 +23,52 @@ import org.apache.flink.api.java.aggregation.Aggregations;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.api.java.tuple.Tuple4;
-import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.java.tuple.Tuple6;
 import org.apache.flink.configuration.Configuration;
-import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.TableName;
-import org.apache.hadoop.hbase.client.*;
-import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.flink.connector.file.src.FileSource;
+import org.apache.flink.core.execution.JobClient;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.util.Collector;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import com.abc.service.ProgressTrackingService;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class MovieRatingFlinkService {
 
-    @Value("${hbase.zookeeper.quorum}")
-    private String hbaseZookeeperQuorum;
+    @Autowired
+    private RatingResultStore resultStore;
+
+    // 常驻的本地会话集群；为null（如基准测试中直接构造）时每个作业使用独立的本地环境
+    @Autowired(required = false)
+    private FlinkSessionCluster sessionCluster;
 
-    @Value("${hbase.zookeeper.port}")
-    private String hbaseZookeeperPort;
+    // 近似预览；为null（如基准测试中直接构造）时不生成预览
+    @Autowired(required = false)
+    private RatingPreviewService previewService;
 
-    @Value("${hbase.table.name}")
-    private String tableName;
+    @Value("${ranking.top-n:100}")
+    private int rankingTopN;
 
-    @Value("${hbase.table.column-family}")
-    private String columnFamily;
+    @Value("${ranking.min-count:50}")
+    private long rankingMinCount;
+
+    @Value("${ranking.bayesian-prior-count:100}")
+    private long bayesianPriorCount;
 
     @Value("${flink.parallelism:4}")
     private int flinkParallelism;
@@ -43,45 +76,344 @@ public class MovieRatingFlinkService {
     @Value("${data.progress-interval:10000}")
     private int progressInterval;
 
+    // 作业实现：datastream（默认）或 dataset（旧实现，保留用于对比）
+    @Value("${flink.api:datastream}")
+    private String flinkApi;
+
+    // DataStream作业的执行模式：batch（默认）或 streaming
+    @Value("${flink.execution-mode:batch}")
+    private String executionMode;
+
+    // 聚合前检测热门movieId并加盐分散到多个子任务（只用于DataStream的BATCH模式）
+    @Value("${skew.enabled:true}")
+    private boolean skewEnabled;
+
+    // 检测热门键的抽样行数
+    @Value("${skew.sample-size:100000}")
+    private int skewSampleSize;
+
+    // 样本占比达到单个子任务平均负载的该比例时视为热门键
+    @Value("${skew.heavy-key-fraction:0.1}")
+    private double heavyKeyFraction;
+
+    @Value("${skew.max-heavy-keys:1000}")
+    private int maxHeavyKeys;
+
+    // 估计总行数时读取的文件开头字节数
+    private static final int ESTIMATE_SAMPLE_BYTES = 1024 * 1024;
+
+    // 解析函数的已处理记录数累加器，及作业运行期间读取它的间隔
+    static final String PROCESSED_RECORDS_ACCUMULATOR = "processed-records";
+    private static final long PROGRESS_POLL_INTERVAL_MS = 2000;
+
+    // 排行榜类型
+    public static final String RANKING_BY_COUNT = "count";
+    public static final String RANKING_BY_MEAN = "mean";
+    public static final String RANKING_BY_BAYESIAN = "bayesian";
+    public static final List<String> RANKING_TYPES = Arrays.asList(RANKING_BY_COUNT, RANKING_BY_MEAN, RANKING_BY_BAYESIAN);
+
+    /**
+     * 影响作业结果的参数，用于结果缓存的指纹；并行度和作业实现不影响结果，不计入
+     */
+    public Map<String, Object> getJobParameters() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("rankingTopN", rankingTopN);
+        parameters.put("rankingMinCount", rankingMinCount);
+        parameters.put("bayesianPriorCount", bayesianPriorCount);
+        return parameters;
+    }
+
+    public String getResultStoreName() {
+        return resultStore.getName();
+    }
+
+    /**
+     * 作业写入的结果存储：没有过滤条件时为全量结果，有过滤条件时为按条件划分的独立结果集，
+     * 过滤作业只覆盖部分电影，不能写入全量结果
+     */
+    public RatingResultStore resultStoreFor(RatingFilter filter) {
+        return filter == null || filter.isEmpty() ? resultStore : resultStore.scoped(filter.cacheKey());
+    }
+
+    public String getResultStoreName(RatingFilter filter) {
+        return resultStoreFor(filter).getName();
+    }
+
     public void processMovieRatings(String csvFilePath) throws Exception {
         processMovieRatings(csvFilePath, null, null);
     }
 
     public void processMovieRatings(String csvFilePath, String jobId, ProgressTrackingService progressTrackingService) throws Exception {
-        // 创建Flink执行环境
-        ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
+        processMovieRatings(csvFilePath, RatingFilter.none(), jobId, progressTrackingService);
+    }
 
-        // 设置并行度
-        env.setParallelism(flinkParallelism);
+    public void processMovieRatings(String csvFilePath, RatingFilter filter, String jobId,
+                                    ProgressTrackingService progressTrackingService) throws Exception {
+        processMovieRatings(csvFilePath, filter, false, jobId, progressTrackingService);
+    }
 
-        System.out.println("开始读取CSV文件: " + csvFilePath);
+    /**
+     * 只统计满足过滤条件的评分
+     * 条件下推到解析函数，逐字段判断、尽早丢弃；DataStream实现还会用块索引跳过不可能有匹配行的整块输入
+     * preview为true时在作业运行期间同时生成近似预览（随机抽样输入块，逐步收窄置信区间），作业结束后由精确结果替换
+     */
+    public void processMovieRatings(String csvFilePath, RatingFilter filter, boolean preview, String jobId,
+                                    ProgressTrackingService progressTrackingService) throws Exception {
+        boolean dataSetApi = "dataset".equalsIgnoreCase(flinkApi);
+        List<RatingBlockIndex.Block> blocks = dataSetApi ? null : selectBlocks(csvFilePath, filter);
 
-        // 读取CSV文件
-        DataSet<String> csvData = env.readTextFile(csvFilePath);
-
-        // 如果有进度跟踪服务，先计算总记录数
         if (progressTrackingService != null && jobId != null) {
             try {
-                long totalRecords = csvData.count();
-                progressTrackingService.updateTotalRecords(jobId, totalRecords - 1); // 减1是因为要跳过标题行
-            } catch (Exception e) {
+                long totalRecords = 0;
+                if (blocks != null) {
+                    for (RatingBlockIndex.Block block : blocks) {
+                        totalRecords += block.getRows();
+                    }
+                } else {
+                    totalRecords = estimateRecordCount(csvFilePath);
+                }
+                progressTrackingService.updateTotalRecords(jobId, totalRecords);
+            } catch (IOException e) {
                 System.err.println("计算总记录数失败: " + e.getMessage());
             }
         }
 
-        // 跳过标题行并解析数据
-        DataSet<Tuple4<Long, Long, Double, Long>> ratings = csvData
-            .filter(line -> !line.startsWith("userId")) // 跳过标题行
-            .map(new ParseRatingFunction(progressInterval));
+        RatingResultStore store = resultStoreFor(filter);
+        boolean previewStarted = preview && previewService != null && jobId != null
+                && previewService.start(jobId, csvFilePath, filter, store.getName());
+        boolean success = false;
+        try {
+            if (previewService != null) {
+                // 之前写入该存储的作业的精确预览即将失效
+                previewService.resultStoreRewriting(store.getName(), jobId);
+            }
+            store.beginRun();
+            if (blocks != null && blocks.isEmpty()) {
+                // 没有可能匹配的块，不提交作业；评分已在beginRun中清除，排行榜写为空榜，不保留上一次的结果
+                writeEmptyRankings(store);
+            } else if (dataSetApi) {
+                runDataSetJob(csvFilePath, filter, jobId, progressTrackingService);
+            } else {
+                RatingSkewSampler.SkewPlan skewPlan = planSkew(csvFilePath, blocks, filter);
+                JobExecutionResult result = runDataStreamJob(csvFilePath, filter, blocks, skewPlan, jobId,
+                        progressTrackingService);
+                reportAggregationBalance(result, skewPlan, jobId, progressTrackingService);
+            }
+            success = true;
+        } finally {
+            if (previewStarted) {
+                previewService.finish(jobId, success);
+            }
+        }
+    }
+
+    /**
+     * 直接打开并关闭排行榜输出：两种存储的排行榜输出关闭时都会为每种类型写入完整榜单，没有记录即为空榜
+     */
+    private static void writeEmptyRankings(RatingResultStore store) throws IOException {
+        OutputFormat<Tuple6<String, Integer, Long, Double, Long, Double>> sink = store.createRankingSink();
+        sink.configure(new Configuration());
+        sink.open(new OutputFormat.InitializationContext() {
+            @Override
+            public int getNumTasks() {
+                return 1;
+            }
+
+            @Override
+            public int getTaskNumber() {
+                return 0;
+            }
 
-        // 转换为(movieId, rating, 1)格式用于聚合
-        DataSet<Tuple3<Long, Double, Long>> ratingData = ratings
-                .map(new MapFunction<Tuple4<Long, Long, Double, Long>, Tuple3<Long, Double, Long>>() {
-                    @Override
-                    public Tuple3<Long, Double, Long> map(Tuple4<Long, Long, Double, Long> value) throws Exception {
-                        return new Tuple3<>(value.f1, value.f2, 1L); // movieId, rating, count=1
-                    }
-                });
+            @Override
+            public int getAttemptNumber() {
+                return 0;
+            }
+        });
+        sink.close();
+        System.out.println("过滤条件没有匹配的输入块，结果为空: " + store.getName());
+    }
+
+    /**
+     * 用块索引选出可能有匹配行的块；没有可用于跳块的条件、不是本地文件或索引不可用时返回null（读取整个文件）
+     */
+    private List<RatingBlockIndex.Block> selectBlocks(String csvFilePath, RatingFilter filter) {
+        if (!filter.isPrunable() || !Files.isRegularFile(Paths.get(csvFilePath))) {
+            return null;
+        }
+        try {
+            RatingBlockIndex index = RatingBlockIndex.forFile(Paths.get(csvFilePath));
+            List<RatingBlockIndex.Block> selected = index.select(filter);
+            System.out.printf("块索引过滤: 读取%d/%d块, 过滤条件: %s%n", selected.size(), index.getBlocks().size(), filter);
+            return selected;
+        } catch (IOException e) {
+            System.err.println("块索引不可用，读取整个文件: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 抽样检测热门movieId；STREAMING模式下第一阶段的归约逐条输出累计值，第二阶段合并会重复计算，不加盐
+     */
+    private RatingSkewSampler.SkewPlan planSkew(String csvFilePath, List<RatingBlockIndex.Block> blocks,
+                                                RatingFilter filter) {
+        if (!skewEnabled || "streaming".equalsIgnoreCase(executionMode)) {
+            return RatingSkewSampler.SkewPlan.none();
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            RatingSkewSampler.SkewPlan plan = RatingSkewSampler.plan(csvFilePath, blocks, filter, skewSampleSize,
+                    flinkParallelism, heavyKeyFraction, maxHeavyKeys);
+            System.out.printf("热门键检测: 抽样%d条, 热门电影%d部%s, 耗时%dms%n", plan.getSampledRecords(),
+                    plan.getSalts().size(), plan.isEmpty() ? "" : " " + plan.getSalts(),
+                    System.currentTimeMillis() - startTime);
+            return plan;
+        } catch (IOException e) {
+            System.err.println("热门键检测失败，不做倾斜处理: " + e.getMessage());
+            return RatingSkewSampler.SkewPlan.none();
+        }
+    }
+
+    /**
+     * 从累加器中取出各聚合子任务接收的记录数，输出最大值与平均值之比并写入作业进度
+     */
+    private void reportAggregationBalance(JobExecutionResult result, RatingSkewSampler.SkewPlan skewPlan,
+                                          String jobId, ProgressTrackingService progressTrackingService) {
+        long[] subtaskRecords = new long[flinkParallelism];
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < flinkParallelism; i++) {
+            Object value = result.getAllAccumulatorResults().get(SaltRatingFunction.ACCUMULATOR_PREFIX + i);
+            subtaskRecords[i] = value instanceof Number ? ((Number) value).longValue() : 0;
+            total += subtaskRecords[i];
+            max = Math.max(max, subtaskRecords[i]);
+        }
+        double imbalance = total > 0 ? (double) max * flinkParallelism / total : 1.0;
+        System.out.printf("聚合子任务记录数: %s, 最大/平均 = %.2f, 加盐电影%d部%n", Arrays.toString(subtaskRecords),
+                imbalance, skewPlan.getSalts().size());
+        if (progressTrackingService != null && jobId != null) {
+            progressTrackingService.updateAggregationBalance(jobId, subtaskRecords, skewPlan.getSalts().size());
+        }
+    }
+
+    /**
+     * DataStream实现：有界的FileSource按文件切片并行读取，BATCH模式下按movieId排序分组后归约，
+     * 每部电影只输出一次最终结果；排行榜在并行度1的算子中于输入结束时一次性计算。
+     * 同一份代码在STREAMING模式下也能运行，此时归约逐条输出累计值，评分输出按movieId覆盖写入。
+     * 按键归约没有预聚合，热门电影的全部评分都进入同一个子任务；skewPlan中的热门电影按(movieId, 盐值)分散后先部分归约，
+     * 再按movieId合并，每部热门电影在第二阶段只有不超过盐值个数条记录。
+     */
+    JobExecutionResult runDataStreamJob(String csvFilePath, RatingFilter filter, List<RatingBlockIndex.Block> blocks,
+                                        RatingSkewSampler.SkewPlan skewPlan, String jobId,
+                                        ProgressTrackingService progressTrackingService) throws Exception {
+        StreamExecutionEnvironment env = sessionCluster != null
+                ? sessionCluster.streamEnvironment() : StreamExecutionEnvironment.getExecutionEnvironment();
+        String submitMode = currentSubmitMode();
+        env.setParallelism(flinkParallelism);
+        env.setRuntimeMode("streaming".equalsIgnoreCase(executionMode)
+                ? RuntimeExecutionMode.STREAMING : RuntimeExecutionMode.BATCH);
+
+        RatingResultStore store = resultStoreFor(filter);
+        System.out.println("开始读取CSV文件: " + csvFilePath + "（DataStream, " + executionMode + "）");
+
+        // 可切分的行输入，各并行子任务同时读取；blocks不为null时只读取这些块
+        FileSource<String> source = RatingCsvSource.forBlocks(csvFilePath, blocks);
+        DataStream<String> lines = env.fromSource(source, WatermarkStrategy.noWatermarks(), "ratings-csv")
+                .filter(line -> !line.startsWith("userId"));
+
+        // 解析为(movieId, rating, 1)，有过滤条件时在解析中逐字段过滤
+        DataStream<Tuple3<Long, Double, Long>> ratingData;
+        if (filter.isEmpty()) {
+            ratingData = lines
+                    .map(new ParseRatingFunction(progressInterval))
+                    .map(new MapFunction<Tuple4<Long, Long, Double, Long>, Tuple3<Long, Double, Long>>() {
+                        @Override
+                        public Tuple3<Long, Double, Long> map(Tuple4<Long, Long, Double, Long> value) throws Exception {
+                            return new Tuple3<>(value.f1, value.f2, 1L); // movieId, rating, count=1
+                        }
+                    });
+        } else {
+            ratingData = lines.flatMap(new FilteringParseFunction(filter, progressInterval));
+        }
+
+        // 附加盐值(movieId, 盐值, 评分, 1)，同时统计每个聚合子任务将接收的记录数
+        DataStream<Tuple4<Long, Integer, Double, Long>> saltedData = ratingData
+                .map(new SaltRatingFunction(skewPlan, flinkParallelism))
+                .name("salt-ratings");
+
+        // 按movieId归约得到(movieId, 评分总和, 次数)；有热门电影时分两阶段
+        DataStream<Tuple3<Long, Double, Long>> movieTotals;
+        if (skewPlan.isEmpty()) {
+            movieTotals = saltedData
+                    .keyBy(value -> value.f0, Types.LONG)
+                    .reduce(new SumSaltedRatingFunction())
+                    .map(new DropSaltFunction());
+        } else {
+            movieTotals = saltedData
+                    .keyBy(value -> Tuple2.of(value.f0, value.f1), Types.TUPLE(Types.LONG, Types.INT))
+                    .reduce(new SumSaltedRatingFunction())
+                    .name("partial-aggregate")
+                    .map(new DropSaltFunction())
+                    .keyBy(value -> value.f0, Types.LONG)
+                    .reduce(new SumRatingFunction())
+                    .name("merge-aggregate");
+        }
+
+        movieTotals
+                .map(new CalculateAverageFunction())
+                .sinkTo(store.createRatingStreamSink())
+                .name("movie-ratings");
+
+        // 所有电影汇总到同一个键上计算三种排行榜
+        movieTotals
+                .keyBy(value -> 0, Types.INT)
+                .process(new RankingProcessFunction(rankingTopN, rankingMinCount, bayesianPriorCount))
+                .setParallelism(1)
+                .sinkTo(store.createRankingStreamSink())
+                .setParallelism(1)
+                .name("movie-rankings");
+
+        System.out.println("开始执行Flink作业，结果存储: " + store.getName());
+        long submitStart = System.currentTimeMillis();
+        JobClient jobClient = env.executeAsync("Movie Rating Calculation Job");
+        return awaitJob(jobClient, submitMode, submitStart, jobId, progressTrackingService);
+    }
+
+    /**
+     * 旧的DataSet实现，flink.api=dataset时使用，也用于与DataStream实现做性能对比
+     */
+    JobExecutionResult runDataSetJob(String csvFilePath, RatingFilter filter, String jobId,
+                                     ProgressTrackingService progressTrackingService) throws Exception {
+        // 创建Flink执行环境
+        ExecutionEnvironment env = sessionCluster != null
+                ? sessionCluster.batchEnvironment() : ExecutionEnvironment.getExecutionEnvironment();
+        String submitMode = currentSubmitMode();
+
+        // 设置并行度
+        env.setParallelism(flinkParallelism);
+
+        RatingResultStore store = resultStoreFor(filter);
+        System.out.println("开始读取CSV文件: " + csvFilePath + "（DataSet）");
+
+        // 读取CSV文件
+        DataSet<String> csvData = env.readTextFile(csvFilePath);
+
+        // 跳过标题行
+        DataSet<String> dataLines = csvData.filter(line -> !line.startsWith("userId"));
+
+        // 解析并转换为(movieId, rating, 1)格式用于聚合；有过滤条件时在解析中逐字段过滤
+        DataSet<Tuple3<Long, Double, Long>> ratingData;
+        if (filter.isEmpty()) {
+            ratingData = dataLines
+                    .map(new ParseRatingFunction(progressInterval))
+                    .map(new MapFunction<Tuple4<Long, Long, Double, Long>, Tuple3<Long, Double, Long>>() {
+                        @Override
+                        public Tuple3<Long, Double, Long> map(Tuple4<Long, Long, Double, Long> value) throws Exception {
+                            return new Tuple3<>(value.f1, value.f2, 1L); // movieId, rating, count=1
+                        }
+                    });
+        } else {
+            ratingData = dataLines.flatMap(new FilteringParseFunction(filter, progressInterval));
+        }
 
         // 按movieId分组并计算平均评分
         DataSet<Tuple3<Long, Double, Long>> movieRatings = ratingData
@@ -90,23 +422,151 @@ public class MovieRatingFlinkService {
                 .aggregate(Aggregations.SUM, 2)
                 .map(new CalculateAverageFunction());
 
-        // 输出到HBase
-        movieRatings.output(new HBaseSinkFunction(hbaseZookeeperQuorum, hbaseZookeeperPort, tableName, columnFamily));
+        // 输出到结果存储（HBase或本地内嵌存储）
+        movieRatings.output(store.createRatingSink());
+
+        // 全局评分总和与总次数，用于贝叶斯加权平均的先验均值
+        DataSet<Tuple3<Long, Double, Long>> globalTotals = ratingData
+                .aggregate(Aggregations.SUM, 1)
+                .and(Aggregations.SUM, 2);
+
+        // 在同一个作业中计算三种Top-N排行榜，单独写入排行榜存储
+        DataSet<Tuple6<String, Integer, Long, Double, Long, Double>> rankings =
+                buildRanking(movieRatings, globalTotals, RANKING_BY_COUNT, 0)
+                .union(buildRanking(movieRatings, globalTotals, RANKING_BY_MEAN, rankingMinCount))
+                .union(buildRanking(movieRatings, globalTotals, RANKING_BY_BAYESIAN, 0));
 
-        System.out.println("开始执行Flink作业...");
-        env.execute("Movie Rating Calculation Job");
-        System.out.println("作业执行完成！");
+        rankings.output(store.createRankingSink())
+                .setParallelism(1);
+
+        System.out.println("开始执行Flink作业，结果存储: " + store.getName());
+        long submitStart = System.currentTimeMillis();
+        JobClient jobClient = env.executeAsync("Movie Rating Calculation Job");
+        return awaitJob(jobClient, submitMode, submitStart, jobId, progressTrackingService);
+    }
+
+    private String currentSubmitMode() {
+        return sessionCluster != null ? sessionCluster.currentMode() : FlinkSessionCluster.MODE_LOCAL;
+    }
+
+    /**
+     * 记录提交耗时（executeAsync返回即作业已被接受；本地模式下包含启动MiniCluster的时间），然后等待作业结束
+     * 等待期间定期读取解析函数的已处理记录数累加器写入作业进度；运行中的累加器随TaskManager心跳上报，进度按心跳间隔更新
+     */
+    private JobExecutionResult awaitJob(JobClient jobClient, String submitMode, long submitStart, String jobId,
+                                        ProgressTrackingService progressTrackingService) throws Exception {
+        long submitMillis = System.currentTimeMillis() - submitStart;
+        if (sessionCluster != null) {
+            sessionCluster.recordSubmission(submitMode, submitMillis);
+        }
+        System.out.println("作业已提交(" + submitMode + "): " + jobClient.getJobID() + "，提交耗时 " + submitMillis + "ms");
+        boolean trackProgress = progressTrackingService != null && jobId != null;
+        CompletableFuture<JobExecutionResult> resultFuture = jobClient.getJobExecutionResult();
+        try {
+            JobExecutionResult result = null;
+            while (result == null) {
+                try {
+                    result = trackProgress
+                            ? resultFuture.get(PROGRESS_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS) : resultFuture.get();
+                } catch (TimeoutException e) {
+                    pollProcessedRecords(jobClient, jobId, progressTrackingService);
+                }
+            }
+            System.out.println("作业执行完成！耗时 " + result.getNetRuntime() + "ms");
+            if (trackProgress) {
+                Object processed = result.getAllAccumulatorResults().get(PROCESSED_RECORDS_ACCUMULATOR);
+                if (processed instanceof Number) {
+                    progressTrackingService.updateProgress(jobId, ((Number) processed).longValue(),
+                            "已处理 " + processed + " 条数据记录");
+                }
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * 读取运行中作业的已处理记录数；作业刚启动或正在结束时可能读不到，下次再试
+     */
+    private void pollProcessedRecords(JobClient jobClient, String jobId, ProgressTrackingService progressTrackingService) {
+        try {
+            Object processed = jobClient.getAccumulators()
+                    .get(PROGRESS_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS).get(PROCESSED_RECORDS_ACCUMULATOR);
+            if (processed instanceof Number) {
+                progressTrackingService.updateProgress(jobId, ((Number) processed).longValue(),
+                        "已处理 " + processed + " 条数据记录");
+            }
+        } catch (Exception e) {
+            System.err.println("读取作业累加器失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按文件大小和开头若干行的平均长度估计数据行数（不含标题行），避免为计数单独把整个文件读一遍；
+     * 不是本地文件时返回0
+     */
+    static long estimateRecordCount(String csvFilePath) throws IOException {
+        java.nio.file.Path path = Paths.get(csvFilePath);
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+        long fileSize = Files.size(path);
+        long sampledBytes = 0;
+        long sampledLines = 0;
+        boolean header = true;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while (sampledBytes < ESTIMATE_SAMPLE_BYTES && (line = reader.readLine()) != null) {
+                // 数据行只有ASCII字符，字符数即字节数；+1为换行符
+                sampledBytes += line.length() + 1;
+                if (header) {
+                    header = false;
+                    if (line.startsWith("userId")) {
+                        continue;
+                    }
+                }
+                sampledLines++;
+            }
+        }
+        if (sampledLines == 0) {
+            return 0;
+        }
+        if (sampledBytes >= fileSize) {
+            return sampledLines;
+        }
+        return Math.round((double) sampledLines * fileSize / sampledBytes);
     }
 
-    // 解析CSV行的函数
-    public static class ParseRatingFunction implements MapFunction<String, Tuple4<Long, Long, Double, Long>> {
-        private AtomicLong processedCount = new AtomicLong(0);
+    /**
+     * 构建单个类型的Top-N排行榜：先按类型计算得分，再在各分区内预先取Top-N，最后合并为全局Top-N
+     */
+    private DataSet<Tuple6<String, Integer, Long, Double, Long, Double>> buildRanking(
+            DataSet<Tuple3<Long, Double, Long>> movieRatings,
+            DataSet<Tuple3<Long, Double, Long>> globalTotals,
+            String rankingType, long minCount) {
+        return movieRatings
+                .filter(value -> value.f2 >= minCount)
+                .map(new RankingScoreFunction(rankingType, bayesianPriorCount))
+                .withBroadcastSet(globalTotals, RankingScoreFunction.GLOBAL_TOTALS)
+                .reduceGroup(new TopNFunction(rankingType, rankingTopN));
+    }
+
+    // 解析CSV行的函数，已处理记录数通过累加器汇总到作业进度
+    public static class ParseRatingFunction extends RichMapFunction<String, Tuple4<Long, Long, Double, Long>> {
+        private final LongCounter processedCount = new LongCounter();
         private final int progressInterval;
 
         public ParseRatingFunction(int progressInterval) {
             this.progressInterval = progressInterval;
         }
 
+        @Override
+        public void open(Configuration parameters) {
+            getRuntimeContext().addAccumulator(PROCESSED_RECORDS_ACCUMULATOR, processedCount);
+        }
+
         @Override
         public Tuple4<Long, Long, Double, Long> map(String line) {
             String[] fields = line.split(",");
@@ -114,7 +574,8 @@ public class MovieRatingFlinkService {
                 throw new IllegalArgumentException("Invalid CSV line: " + line);
             }
 
-            long count = processedCount.incrementAndGet();
+            processedCount.add(1L);
+            long count = processedCount.getLocalValuePrimitive();
             if (count % progressInterval == 0) {
                 System.out.println("已处理 " + count + " 条数据记录");
             }
@@ -128,6 +589,161 @@ public class MovieRatingFlinkService {
         }
     }
 
+    // 带过滤条件的解析函数，直接输出(movieId, rating, 1)
+    // 按userId、movieId、时间戳的顺序逐个定位并解析字段，不满足条件立即丢弃，评分值只对保留的行解析
+    public static class FilteringParseFunction extends RichFlatMapFunction<String, Tuple3<Long, Double, Long>> {
+        private final RatingFilter filter;
+        private final int progressInterval;
+        private final LongCounter processedRecords = new LongCounter();
+        private long processedCount;
+        private long acceptedCount;
+
+        public FilteringParseFunction(RatingFilter filter, int progressInterval) {
+            this.filter = filter;
+            this.progressInterval = progressInterval;
+        }
+
+        @Override
+        public void open(Configuration parameters) {
+            getRuntimeContext().addAccumulator(PROCESSED_RECORDS_ACCUMULATOR, processedRecords);
+        }
+
+        @Override
+        public void flatMap(String line, Collector<Tuple3<Long, Double, Long>> out) {
+            processedRecords.add(1L);
+            if (++processedCount % progressInterval == 0) {
+                System.out.println("已处理 " + processedCount + " 条数据记录，其中 " + acceptedCount + " 条满足过滤条件");
+            }
+            int userEnd = line.indexOf(',');
+            if (userEnd < 0) {
+                throw new IllegalArgumentException("Invalid CSV line: " + line);
+            }
+            if (filter.hasUserFilter() && !filter.acceptUser(parseLong(line, 0, userEnd))) {
+                return;
+            }
+            int movieEnd = line.indexOf(',', userEnd + 1);
+            if (movieEnd < 0) {
+                throw new IllegalArgumentException("Invalid CSV line: " + line);
+            }
+            long movieId = parseLong(line, userEnd + 1, movieEnd);
+            if (!filter.acceptMovie(movieId)) {
+                return;
+            }
+            int ratingEnd = line.indexOf(',', movieEnd + 1);
+            if (ratingEnd < 0 || line.indexOf(',', ratingEnd + 1) >= 0) {
+                throw new IllegalArgumentException("Invalid CSV line: " + line);
+            }
+            if (filter.hasTimestampFilter() && !filter.acceptTimestamp(parseLong(line, ratingEnd + 1, line.length()))) {
+                return;
+            }
+            acceptedCount++;
+            out.collect(new Tuple3<>(movieId, Double.parseDouble(line.substring(movieEnd + 1, ratingEnd)), 1L));
+        }
+
+        /**
+         * 就地解析[from, to)范围内的十进制整数，不创建子字符串
+         */
+        static long parseLong(String line, int from, int to) {
+            if (from >= to) {
+                throw new NumberFormatException("Empty field in: " + line);
+            }
+            boolean negative = line.charAt(from) == '-';
+            int i = negative ? from + 1 : from;
+            if (i >= to) {
+                throw new NumberFormatException("Invalid number in: " + line);
+            }
+            long value = 0;
+            for (; i < to; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    if (c == '\r' && i == to - 1) {
+                        break;
+                    }
+                    throw new NumberFormatException("Invalid number in: " + line);
+                }
+                value = value * 10 + (c - '0');
+            }
+            return negative ? -value : value;
+        }
+    }
+
+    // 累加同一部电影的评分总和与次数
+    public static class SumRatingFunction implements ReduceFunction<Tuple3<Long, Double, Long>> {
+        @Override
+        public Tuple3<Long, Double, Long> reduce(Tuple3<Long, Double, Long> a, Tuple3<Long, Double, Long> b) {
+            return new Tuple3<>(a.f0, a.f1 + b.f1, a.f2 + b.f2);
+        }
+    }
+
+    /**
+     * 为评分附加盐值：热门电影的评分在各盐值之间轮流分配，其他电影盐值为0。
+     * 同时按下游聚合的分区方式（与keyBy相同的键组分配）计算每条记录的目标子任务，
+     * 用累加器统计各子任务接收的记录数，作业结束后可看出负载是否均衡。
+     */
+    public static class SaltRatingFunction extends RichMapFunction<Tuple3<Long, Double, Long>, Tuple4<Long, Integer, Double, Long>> {
+        public static final String ACCUMULATOR_PREFIX = "aggregate-records-";
+
+        private final RatingSkewSampler.SkewPlan skewPlan;
+        private final int aggregateParallelism;
+        private transient LongCounter[] subtaskCounters;
+        private transient int maxParallelism;
+        private transient int nextSalt;
+
+        public SaltRatingFunction(RatingSkewSampler.SkewPlan skewPlan, int aggregateParallelism) {
+            this.skewPlan = skewPlan;
+            this.aggregateParallelism = aggregateParallelism;
+        }
+
+        @Override
+        public void open(Configuration parameters) {
+            maxParallelism = getRuntimeContext().getMaxNumberOfParallelSubtasks();
+            subtaskCounters = new LongCounter[aggregateParallelism];
+            for (int i = 0; i < aggregateParallelism; i++) {
+                subtaskCounters[i] = new LongCounter();
+                // 各并行实例的同名累加器在作业结束时合并
+                getRuntimeContext().addAccumulator(ACCUMULATOR_PREFIX + i, subtaskCounters[i]);
+            }
+            // 各并行实例从不同的盐值开始，避免都先写同一个分片
+            nextSalt = getRuntimeContext().getIndexOfThisSubtask();
+        }
+
+        @Override
+        public Tuple4<Long, Integer, Double, Long> map(Tuple3<Long, Double, Long> value) {
+            int salt = 0;
+            Object key = value.f0;
+            if (!skewPlan.isEmpty()) {
+                int saltCount = skewPlan.saltsFor(value.f0);
+                if (saltCount > 1) {
+                    salt = nextSalt++ % saltCount;
+                    if (nextSalt < 0) {
+                        nextSalt = 0;
+                    }
+                }
+                key = Tuple2.of(value.f0, salt);
+            }
+            subtaskCounters[KeyGroupRangeAssignment.assignKeyToParallelOperator(key, maxParallelism,
+                    aggregateParallelism)].add(1L);
+            return new Tuple4<>(value.f0, salt, value.f1, value.f2);
+        }
+    }
+
+    // 累加同一(movieId, 盐值)的评分总和与次数
+    public static class SumSaltedRatingFunction implements ReduceFunction<Tuple4<Long, Integer, Double, Long>> {
+        @Override
+        public Tuple4<Long, Integer, Double, Long> reduce(Tuple4<Long, Integer, Double, Long> a,
+                                                          Tuple4<Long, Integer, Double, Long> b) {
+            return new Tuple4<>(a.f0, a.f1, a.f2 + b.f2, a.f3 + b.f3);
+        }
+    }
+
+    // 去掉盐值，输出(movieId, 评分总和, 次数)
+    public static class DropSaltFunction implements MapFunction<Tuple4<Long, Integer, Double, Long>, Tuple3<Long, Double, Long>> {
+        @Override
+        public Tuple3<Long, Double, Long> map(Tuple4<Long, Integer, Double, Long> value) {
+            return new Tuple3<>(value.f0, value.f2, value.f3);
+        }
+    }
+
     // 计算平均评分的函数
     public static class CalculateAverageFunction implements MapFunction<Tuple3<Long, Double, Long>, Tuple3<Long, Double, Long>> {
         @Override
@@ -141,89 +757,164 @@ public class MovieRatingFlinkService {
         }
     }
 
-    // HBase输出函数
-    public static class HBaseSinkFunction implements OutputFormat<Tuple3<Long, Double, Long>> {
-        private Connection connection;
-        private Table table;
-        private AtomicLong savedCount = new AtomicLong(0);
+    // 计算排行榜得分的函数，输出(movieId, avgRating, count, score)
+    public static class RankingScoreFunction extends RichMapFunction<Tuple3<Long, Double, Long>, Tuple4<Long, Double, Long, Double>> {
+        public static final String GLOBAL_TOTALS = "globalTotals";
 
-        private final String hbaseZookeeperQuorum;
-        private final String hbaseZookeeperPort;
-        private final String tableName;
-        private final String columnFamily;
+        private final String rankingType;
+        private final long priorCount;
+        private double globalMean;
 
-        public HBaseSinkFunction(String hbaseZookeeperQuorum, String hbaseZookeeperPort, String tableName, String columnFamily) {
-            this.hbaseZookeeperQuorum = hbaseZookeeperQuorum;
-            this.hbaseZookeeperPort = hbaseZookeeperPort;
-            this.tableName = tableName;
-            this.columnFamily = columnFamily;
+        public RankingScoreFunction(String rankingType, long priorCount) {
+            this.rankingType = rankingType;
+            this.priorCount = priorCount;
         }
 
         @Override
-        public void configure(Configuration parameters) {
-            // 配置方法，可以为空
+        public void open(Configuration parameters) {
+            List<Tuple3<Long, Double, Long>> totals = getRuntimeContext().getBroadcastVariable(GLOBAL_TOTALS);
+            if (!totals.isEmpty() && totals.get(0).f2 > 0) {
+                globalMean = totals.get(0).f1 / totals.get(0).f2;
+            }
         }
 
         @Override
-        public void open(int taskNumber, int numTasks) throws IOException {
-            try {
-                // 配置HBase连接
-                org.apache.hadoop.conf.Configuration config = HBaseConfiguration.create();
-                config.set("hbase.zookeeper.quorum", hbaseZookeeperQuorum);
-                config.set("hbase.zookeeper.property.clientPort", hbaseZookeeperPort);
-
-                connection = ConnectionFactory.createConnection(config);
-
-                // 创建表（如果不存在）
-                Admin admin = connection.getAdmin();
-                TableName hbaseTableName = TableName.valueOf(tableName);
-
-                if (!admin.tableExists(hbaseTableName)) {
-                    try {
-                        TableDescriptorBuilder tableBuilder = TableDescriptorBuilder.newBuilder(hbaseTableName);
-                        ColumnFamilyDescriptorBuilder cfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(Bytes.toBytes(columnFamily));
-                        tableBuilder.setColumnFamily(cfBuilder.build());
-                        admin.createTable(tableBuilder.build());
-                        System.out.println("创建HBase表: " + tableName);
-                    } catch (org.apache.hadoop.hbase.TableExistsException e) {
-                        // 表已存在，忽略此异常（可能是并发创建导致的）
-                        System.out.println("HBase表已存在: " + tableName);
-                    }
-                }
+        public Tuple4<Long, Double, Long, Double> map(Tuple3<Long, Double, Long> value) {
+            return new Tuple4<>(value.f0, value.f1, value.f2,
+                    score(rankingType, value.f1, value.f2, globalMean, priorCount));
+        }
 
-                table = connection.getTable(hbaseTableName);
-                admin.close();
-            } catch (Exception e) {
-                throw new IOException("Failed to initialize HBase connection", e);
+        /**
+         * 按排行榜类型计算得分，DataSet和DataStream实现共用
+         */
+        static double score(String rankingType, double avgRating, long count, double globalMean, long priorCount) {
+            switch (rankingType) {
+                case RANKING_BY_COUNT:
+                    return count;
+                case RANKING_BY_BAYESIAN:
+                    // (m * C + n * avg) / (m + n)
+                    return (priorCount * globalMean + count * avgRating) / (priorCount + count);
+                default:
+                    return avgRating;
             }
         }
+    }
+
+    // DataStream实现的排行榜计算，输入为各电影的(movieId, 评分总和, 次数)，以并行度1在单个键上运行。
+    // 每部电影只保留最新的累计值，输入结束时（定时器在最大水位线到达时触发）计算全局均值和三种Top-N
+    public static class RankingProcessFunction extends
+            KeyedProcessFunction<Integer, Tuple3<Long, Double, Long>, Tuple6<String, Integer, Long, Double, Long, Double>> {
+
+        private final int topN;
+        private final long minCount;
+        private final long priorCount;
+        private transient MapState<Long, Tuple2<Double, Long>> movieTotals;
+
+        public RankingProcessFunction(int topN, long minCount, long priorCount) {
+            this.topN = topN;
+            this.minCount = minCount;
+            this.priorCount = priorCount;
+        }
 
         @Override
-        public void writeRecord(Tuple3<Long, Double, Long> value) throws IOException {
-            try {
-                Put put = new Put(Bytes.toBytes(value.f0.toString())); // movieId作为rowkey
-                put.addColumn(Bytes.toBytes(columnFamily), Bytes.toBytes("avg_rating"), Bytes.toBytes(value.f1.toString()));
-                put.addColumn(Bytes.toBytes(columnFamily), Bytes.toBytes("rating_count"), Bytes.toBytes(value.f2.toString()));
+        public void open(Configuration parameters) {
+            movieTotals = getRuntimeContext().getMapState(new MapStateDescriptor<>(
+                    "movieTotals", Types.LONG, Types.TUPLE(Types.DOUBLE, Types.LONG)));
+        }
 
-                table.put(put);
+        @Override
+        public void processElement(Tuple3<Long, Double, Long> value, Context ctx,
+                                   Collector<Tuple6<String, Integer, Long, Double, Long, Double>> out) throws Exception {
+            movieTotals.put(value.f0, new Tuple2<>(value.f1, value.f2));
+            ctx.timerService().registerEventTimeTimer(Long.MAX_VALUE);
+        }
 
-                long count = savedCount.incrementAndGet();
-                if (count % 1000 == 0) {
-                    System.out.println("已保存 " + count + " 部电影的评分数据到HBase");
+        @Override
+        public void onTimer(long timestamp, OnTimerContext ctx,
+                            Collector<Tuple6<String, Integer, Long, Double, Long, Double>> out) throws Exception {
+            double ratingSum = 0;
+            long ratingCount = 0;
+            List<Tuple3<Long, Double, Long>> movies = new ArrayList<>();
+            for (Map.Entry<Long, Tuple2<Double, Long>> entry : movieTotals.entries()) {
+                Tuple2<Double, Long> totals = entry.getValue();
+                ratingSum += totals.f0;
+                ratingCount += totals.f1;
+                double avgRating = totals.f1 > 0 ? totals.f0 / totals.f1 : 0.0;
+                movies.add(new Tuple3<>(entry.getKey(), avgRating, totals.f1));
+            }
+            double globalMean = ratingCount > 0 ? ratingSum / ratingCount : 0.0;
+
+            for (String rankingType : RANKING_TYPES) {
+                long requiredCount = RANKING_BY_MEAN.equals(rankingType) ? minCount : 0;
+                List<Tuple4<Long, Double, Long, Double>> scored = new ArrayList<>();
+                for (Tuple3<Long, Double, Long> movie : movies) {
+                    if (movie.f2 >= requiredCount) {
+                        scored.add(new Tuple4<>(movie.f0, movie.f1, movie.f2,
+                                RankingScoreFunction.score(rankingType, movie.f1, movie.f2, globalMean, priorCount)));
+                    }
+                }
+                List<Tuple4<Long, Double, Long, Double>> top = TopNFunction.selectTopN(scored, topN);
+                for (int i = 0; i < top.size(); i++) {
+                    Tuple4<Long, Double, Long, Double> value = top.get(i);
+                    out.collect(new Tuple6<>(rankingType, i + 1, value.f0, value.f1, value.f2, value.f3));
                 }
-            } catch (Exception e) {
-                throw new IOException("Failed to write record to HBase", e);
+            }
+            movieTotals.clear();
+        }
+    }
+
+    // 取Top-N的函数，combine阶段在各分区内只保留N条，reduce阶段合并并编号
+    public static class TopNFunction implements
+            GroupReduceFunction<Tuple4<Long, Double, Long, Double>, Tuple6<String, Integer, Long, Double, Long, Double>>,
+            GroupCombineFunction<Tuple4<Long, Double, Long, Double>, Tuple4<Long, Double, Long, Double>> {
+
+        // 得分降序，得分相同时movieId升序
+        private static final Comparator<Tuple4<Long, Double, Long, Double>> RANK_ORDER =
+                (a, b) -> {
+                    int cmp = Double.compare(b.f3, a.f3);
+                    return cmp != 0 ? cmp : Long.compare(a.f0, b.f0);
+                };
+
+        private final String rankingType;
+        private final int topN;
+
+        public TopNFunction(String rankingType, int topN) {
+            this.rankingType = rankingType;
+            this.topN = topN;
+        }
+
+        @Override
+        public void combine(Iterable<Tuple4<Long, Double, Long, Double>> values,
+                            Collector<Tuple4<Long, Double, Long, Double>> out) {
+            for (Tuple4<Long, Double, Long, Double> value : selectTopN(values, topN)) {
+                out.collect(value);
             }
         }
 
         @Override
-        public void close() throws IOException {
-            if (table != null) {
-                table.close();
+        public void reduce(Iterable<Tuple4<Long, Double, Long, Double>> values,
+                           Collector<Tuple6<String, Integer, Long, Double, Long, Double>> out) {
+            List<Tuple4<Long, Double, Long, Double>> top = selectTopN(values, topN);
+            for (int i = 0; i < top.size(); i++) {
+                Tuple4<Long, Double, Long, Double> value = top.get(i);
+                out.collect(new Tuple6<>(rankingType, i + 1, value.f0, value.f1, value.f2, value.f3));
             }
-            if (connection != null) {
-                connection.close();
+        }
+
+        static List<Tuple4<Long, Double, Long, Double>> selectTopN(Iterable<Tuple4<Long, Double, Long, Double>> values, int topN) {
+            // 小顶堆（按排名顺序的逆序），堆顶是当前Top-N中最靠后的一条
+            PriorityQueue<Tuple4<Long, Double, Long, Double>> heap = new PriorityQueue<>(topN + 1, RANK_ORDER.reversed());
+            for (Tuple4<Long, Double, Long, Double> value : values) {
+                if (heap.size() < topN) {
+                    heap.add(value.copy());
+                } else if (RANK_ORDER.compare(value, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(value.copy());
+                }
             }
+            List<Tuple4<Long, Double, Long, Double>> top = new ArrayList<>(heap);
+            top.sort(RANK_ORDER);
+            return top;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,355 @@
+package com.abc.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 电影评分查询服务
+ * 从结果存储读取批处理作业写入的平均评分，前面挡一层有界的进程内缓存（LRU淘汰 + TTL过期）
+ * 存储访问全部是异步的，调用方拿到CompletableFuture，不占用servlet线程等待IO
+ * 从存储读出的结果用电影元数据字典补充标题和类型后再缓存和返回
+ */
+@Service
+public class MovieRatingQueryService {
+
+    @Autowired
+    private RatingResultStore resultStore;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    @Value("${movie-rating.cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    @Value("${movie-rating.cache.ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    // 单次批量查询最多的电影数
+    public static final int MAX_BATCH_SIZE = 500;
+
+    // 访问顺序的LinkedHashMap实现LRU，所有访问都在cache自身的锁内完成
+    private final LinkedHashMap<Long, CacheEntry> cache = new LinkedHashMap<Long, CacheEntry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+            if (size() > cacheMaxSize) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong invalidationCount = new AtomicLong(0);
+
+    // 缓存代数，每次失效加一，受cache锁保护
+    // 未命中时先记下发起查询时的代数，存储读取完成后代数未变才写回缓存：
+    // 否则失效前发出、失效后才返回的旧读取会把刚清空的旧值重新放回缓存，直到TTL过期前一直返回旧结果
+    private long cacheGeneration = 0;
+
+    /**
+     * 电影评分结果
+     */
+    public static class MovieRating {
+        private Long movieId;
+        private String title;
+        private List<String> genres;
+        private Double avgRating;
+        private Long ratingCount;
+
+        public MovieRating() {}
+
+        public MovieRating(Long movieId, Double avgRating, Long ratingCount) {
+            this.movieId = movieId;
+            this.avgRating = avgRating;
+            this.ratingCount = ratingCount;
+        }
+
+        // Getters and Setters
+        public Long getMovieId() { return movieId; }
+        public void setMovieId(Long movieId) { this.movieId = movieId; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        public List<String> getGenres() { return genres; }
+        public void setGenres(List<String> genres) { this.genres = genres; }
+        public Double getAvgRating() { return avgRating; }
+        public void setAvgRating(Double avgRating) { this.avgRating = avgRating; }
+        public Long getRatingCount() { return ratingCount; }
+        public void setRatingCount(Long ratingCount) { this.ratingCount = ratingCount; }
+    }
+
+    /**
+     * 排行榜条目
+     */
+    public static class RankingEntry {
+        private Integer rank;
+        private Long movieId;
+        private String title;
+        private List<String> genres;
+        private Double avgRating;
+        private Long ratingCount;
+        private Double score;
+
+        public RankingEntry() {}
+
+        public RankingEntry(Integer rank, Long movieId, Double avgRating, Long ratingCount, Double score) {
+            this.rank = rank;
+            this.movieId = movieId;
+            this.avgRating = avgRating;
+            this.ratingCount = ratingCount;
+            this.score = score;
+        }
+
+        // Getters and Setters
+        public Integer getRank() { return rank; }
+        public void setRank(Integer rank) { this.rank = rank; }
+        public Long getMovieId() { return movieId; }
+        public void setMovieId(Long movieId) { this.movieId = movieId; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        public List<String> getGenres() { return genres; }
+        public void setGenres(List<String> genres) { this.genres = genres; }
+        public Double getAvgRating() { return avgRating; }
+        public void setAvgRating(Double avgRating) { this.avgRating = avgRating; }
+        public Long getRatingCount() { return ratingCount; }
+        public void setRatingCount(Long ratingCount) { this.ratingCount = ratingCount; }
+        public Double getScore() { return score; }
+        public void setScore(Double score) { this.score = score; }
+    }
+
+    /**
+     * 排行榜分页结果
+     */
+    public static class RankingPage {
+        private String rankingType;
+        private int page;
+        private int size;
+        private int total;
+        private Long generatedAt;
+        private List<RankingEntry> entries;
+
+        public RankingPage() {}
+
+        public RankingPage(String rankingType, int page, int size, int total, Long generatedAt, List<RankingEntry> entries) {
+            this.rankingType = rankingType;
+            this.page = page;
+            this.size = size;
+            this.total = total;
+            this.generatedAt = generatedAt;
+            this.entries = entries;
+        }
+
+        // Getters and Setters
+        public String getRankingType() { return rankingType; }
+        public void setRankingType(String rankingType) { this.rankingType = rankingType; }
+        public int getPage() { return page; }
+        public void setPage(int page) { this.page = page; }
+        public int getSize() { return size; }
+        public void setSize(int size) { this.size = size; }
+        public int getTotal() { return total; }
+        public void setTotal(int total) { this.total = total; }
+        public Long getGeneratedAt() { return generatedAt; }
+        public void setGeneratedAt(Long generatedAt) { this.generatedAt = generatedAt; }
+        public List<RankingEntry> getEntries() { return entries; }
+        public void setEntries(List<RankingEntry> entries) { this.entries = entries; }
+    }
+
+    /**
+     * 缓存项，rating为null表示存储中不存在该电影（负缓存，避免反复访问存储）
+     */
+    private static class CacheEntry {
+        final MovieRating rating;
+        final long expireAt;
+
+        CacheEntry(MovieRating rating, long expireAt) {
+            this.rating = rating;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 查询单部电影的评分
+     *
+     * @param movieId 电影ID
+     * @return 评分结果，不存在时为null
+     */
+    public CompletableFuture<MovieRating> getMovieRating(Long movieId) {
+        return getMovieRatings(Collections.singletonList(movieId)).thenApply(ratings -> ratings.get(movieId));
+    }
+
+    /**
+     * 批量查询电影评分，未命中缓存的部分合并为一次存储批量读取
+     * 全部命中缓存时直接返回已完成的Future，不访问存储
+     *
+     * @param movieIds 电影ID列表
+     * @return movieId -> 评分结果，不存在的电影不出现在结果中
+     */
+    public CompletableFuture<Map<Long, MovieRating>> getMovieRatings(Collection<Long> movieIds) {
+        if (movieIds.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("单次最多查询 " + MAX_BATCH_SIZE + " 部电影");
+        }
+
+        Map<Long, MovieRating> result = new LinkedHashMap<>();
+        List<Long> missed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long generation;
+
+        synchronized (cache) {
+            generation = cacheGeneration;
+            for (Long movieId : movieIds) {
+                if (result.containsKey(movieId) || missed.contains(movieId)) {
+                    continue;
+                }
+                CacheEntry entry = cache.get(movieId);
+                if (entry != null && entry.expireAt > now) {
+                    hitCount.incrementAndGet();
+                    if (entry.rating != null) {
+                        result.put(movieId, entry.rating);
+                    }
+                } else {
+                    missCount.incrementAndGet();
+                    missed.add(movieId);
+                }
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return resultStore.getMovieRatings(missed).thenApply(loaded -> {
+            MovieDictionary dictionary = movieCatalogService.getDictionary();
+            for (MovieRating rating : loaded.values()) {
+                rating.setTitle(dictionary.getTitle(rating.getMovieId()));
+                rating.setGenres(dictionary.getGenres(rating.getMovieId()));
+            }
+            long expireAt = System.currentTimeMillis() + cacheTtlSeconds * 1000;
+            synchronized (cache) {
+                for (Long movieId : missed) {
+                    MovieRating rating = loaded.get(movieId);
+                    // 查询期间缓存被失效过，则本次结果可能来自旧数据，不写回缓存
+                    if (generation == cacheGeneration) {
+                        cache.put(movieId, new CacheEntry(rating, expireAt));
+                    }
+                    if (rating != null) {
+                        result.put(movieId, rating);
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 查询单部电影的评分
+     *
+     * @param scope 过滤作业的结果集标识，为null时读取全量结果
+     */
+    public CompletableFuture<MovieRating> getMovieRating(String scope, Long movieId) {
+        return getMovieRatings(scope, Collections.singletonList(movieId)).thenApply(ratings -> ratings.get(movieId));
+    }
+
+    /**
+     * 批量查询过滤作业结果集中的电影评分，不经过缓存（缓存只对应全量结果）
+     *
+     * @param scope 结果集标识，为null时等同于getMovieRatings(movieIds)
+     */
+    public CompletableFuture<Map<Long, MovieRating>> getMovieRatings(String scope, Collection<Long> movieIds) {
+        if (scope == null) {
+            return getMovieRatings(movieIds);
+        }
+        if (movieIds.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("单次最多查询 " + MAX_BATCH_SIZE + " 部电影");
+        }
+        RatingResultStore store = resultStore.scoped(scope);
+        return store.getMovieRatings(new ArrayList<>(new LinkedHashSet<>(movieIds))).thenApply(loaded -> {
+            MovieDictionary dictionary = movieCatalogService.getDictionary();
+            Map<Long, MovieRating> result = new LinkedHashMap<>();
+            for (Long movieId : movieIds) {
+                MovieRating rating = loaded.get(movieId);
+                if (rating != null && !result.containsKey(movieId)) {
+                    rating.setTitle(dictionary.getTitle(movieId));
+                    rating.setGenres(dictionary.getGenres(movieId));
+                    result.put(movieId, rating);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 分页读取批处理作业预先计算好的排行榜，每页只读取榜单中连续的一小段
+     *
+     * @param rankingType 排行榜类型（count/mean/bayesian）
+     * @param page        页码，从0开始
+     * @param size        每页条数
+     * @return 排行榜分页结果
+     */
+    public CompletableFuture<RankingPage> getRankingPage(String rankingType, int page, int size) {
+        return getRankingPage(null, rankingType, page, size);
+    }
+
+    /**
+     * 分页读取排行榜
+     *
+     * @param scope 过滤作业的结果集标识，为null时读取全量结果的排行榜
+     */
+    public CompletableFuture<RankingPage> getRankingPage(String scope, String rankingType, int page, int size) {
+        if (!MovieRatingFlinkService.RANKING_TYPES.contains(rankingType)) {
+            throw new IllegalArgumentException("不支持的排行榜类型: " + rankingType + "，可选值: " + MovieRatingFlinkService.RANKING_TYPES);
+        }
+        if (page < 0 || size <= 0 || size > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("分页参数无效: page=" + page + ", size=" + size);
+        }
+
+        RatingResultStore store = scope != null ? resultStore.scoped(scope) : resultStore;
+        return store.getRankingPage(rankingType, page, size).thenApply(rankingPage -> {
+            MovieDictionary dictionary = movieCatalogService.getDictionary();
+            for (RankingEntry entry : rankingPage.getEntries()) {
+                entry.setTitle(dictionary.getTitle(entry.getMovieId()));
+                entry.setGenres(dictionary.getGenres(entry.getMovieId()));
+            }
+            return rankingPage;
+        });
+    }
+
+    /**
+     * 清空缓存（批处理作业完成后调用，保证读到最新结果）
+     * 同时推进缓存代数，使失效前已发出、尚未返回的存储读取不再写回缓存
+     */
+    public void invalidateCache() {
+        synchronized (cache) {
+            cache.clear();
+            cacheGeneration++;
+        }
+        invalidationCount.incrementAndGet();
+        System.out.println("电影评分查询缓存已失效");
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (cache) {
+            stats.put("size", cache.size());
+        }
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        stats.put("maxSize", cacheMaxSize);
+        stats.put("ttlSeconds", cacheTtlSeconds);
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        stats.put("evictionCount", evictionCount.get());
+        stats.put("invalidationCount", invalidationCount.get());
+        return stats;
+    }
+}
@@ -0,0 +1,74 @@
+package com.abc.service;
+
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.connector.sink2.Sink;
+import org.apache.flink.api.connector.sink2.SinkWriter;
+import org.apache.flink.configuration.Configuration;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * 把结果存储的OutputFormat包装为DataStream作业使用的Sink
+ * 每个并行子任务一个写入器，依次调用OutputFormat的configure/open/writeRecord/close，
+ * 因此HBase和本地存储的写入逻辑（异步写入、在途限制、排行榜元信息行等）只有一份。
+ * OutputFormat实现了Flushable时，流模式下检查点前和输入结束时的flush会转给它。
+ */
+public class OutputFormatSink<T> implements Sink<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OutputFormat<T> format;
+
+    public OutputFormatSink(OutputFormat<T> format) {
+        this.format = format;
+    }
+
+    @Override
+    public SinkWriter<T> createWriter(InitContext context) throws IOException {
+        // Sink随作业下发到每个子任务时各自反序列化一份，这里的format属于当前子任务
+        format.configure(new Configuration());
+        format.open(new OutputFormat.InitializationContext() {
+            @Override
+            public int getNumTasks() {
+                return context.getNumberOfParallelSubtasks();
+            }
+
+            @Override
+            public int getTaskNumber() {
+                return context.getSubtaskId();
+            }
+
+            @Override
+            public int getAttemptNumber() {
+                return context.getAttemptNumber();
+            }
+        });
+        return new FormatWriter<>(format);
+    }
+
+    private static class FormatWriter<T> implements SinkWriter<T> {
+        private final OutputFormat<T> format;
+
+        FormatWriter(OutputFormat<T> format) {
+            this.format = format;
+        }
+
+        @Override
+        public void write(T element, Context context) throws IOException {
+            format.writeRecord(element);
+        }
+
+        @Override
+        public void flush(boolean endOfInput) throws IOException {
+            if (format instanceof Flushable) {
+                ((Flushable) format).flush();
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            format.close();
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package com.abc.service;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Service
@@ -15,6 +27,67 @@ public class ProgressTrackingService {
     // 存储不同作业的进度信息
     private final ConcurrentHashMap<String, JobProgress> jobProgressMap = new ConcurrentHashMap<>();
 
+    // 已结束作业的ID，按结束顺序排列，用于淘汰最早结束的作业
+    private final Deque<String> finishedJobIds = new ConcurrentLinkedDeque<>();
+
+    // 按开始时间倒序排列的作业列表快照，只在作业创建/结束/淘汰时重建，列表查询直接读取不复制Map
+    private volatile List<JobProgress> jobSnapshot = Collections.emptyList();
+
+    @Value("${progress.history.max-finished-jobs:200}")
+    private int maxFinishedJobs;
+
+    @Value("${progress.history.ttl-hours:72}")
+    private long finishedJobTtlHours;
+
+    @Value("${progress.history.file:data/job-history.log}")
+    private String historyFile;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Object historyFileLock = new Object();
+
+    /**
+     * 启动时从历史文件恢复已结束作业，并在文件明显大于保留量时压缩
+     */
+    @PostConstruct
+    public void loadHistory() {
+        Path path = Paths.get(historyFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<JobProgress> restored = new ArrayList<>();
+        int lineCount = 0;
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                lineCount++;
+                try {
+                    restored.add(fromHistoryRecord(objectMapper.readValue(line, Map.class)));
+                } catch (Exception e) {
+                    log.warn("跳过无法解析的作业历史记录: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取作业历史文件失败: {}", e.getMessage());
+            return;
+        }
+
+        restored.sort(Comparator.comparing((JobProgress p) -> p.endTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+        for (JobProgress progress : restored) {
+            jobProgressMap.put(progress.jobId, progress);
+            finishedJobIds.remove(progress.jobId);
+            finishedJobIds.addLast(progress.jobId);
+        }
+        evictFinishedJobs();
+        rebuildSnapshot();
+        log.info("从历史文件恢复 {} 个已结束作业", finishedJobIds.size());
+
+        if (lineCount > maxFinishedJobs * 2) {
+            compactHistory();
+        }
+    }
+
     /**
      * 创建新的作业进度跟踪
      *
@@ -32,6 +105,7 @@ public class ProgressTrackingService {
         progress.lastUpdateTime = LocalDateTime.now();
 
         jobProgressMap.put(jobId, progress);
+        rebuildSnapshot();
     }
 
     /**
@@ -45,6 +119,7 @@ public class ProgressTrackingService {
         JobProgress progress = jobProgressMap.get(jobId);
         if (progress != null) {
             progress.processedRecords.set(processedRecords);
+            progress.throughputHistory.record(System.currentTimeMillis(), processedRecords);
             progress.lastMessage = message;
             progress.lastUpdateTime = LocalDateTime.now();
 
@@ -95,13 +170,79 @@ public class ProgressTrackingService {
     public void completeJob(String jobId, boolean success, String message) {
         JobProgress progress = jobProgressMap.get(jobId);
         if (progress != null) {
-            progress.status = success ? JobStatus.COMPLETED : JobStatus.FAILED;
-            progress.endTime = LocalDateTime.now();
-            progress.lastMessage = message;
-            progress.lastUpdateTime = LocalDateTime.now();
+            // 只有运行中的作业可以结束，重复调用不会在淘汰队列中留下多个条目或重复写历史
+            synchronized (progress) {
+                if (progress.status != JobStatus.RUNNING) {
+                    log.warn("作业 {} 已结束({})，忽略重复的完成通知", jobId, progress.status);
+                    return;
+                }
+                progress.status = success ? JobStatus.COMPLETED : JobStatus.FAILED;
+                progress.endTime = LocalDateTime.now();
+                progress.lastMessage = message;
+                progress.lastUpdateTime = LocalDateTime.now();
+            }
+
+            finishedJobIds.addLast(jobId);
+            appendHistory(progress);
+            evictFinishedJobs();
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * 更新作业的近似预览摘要，估计值本身由RatingPreviewService保存
+     *
+     * @param jobId           作业ID
+     * @param previewState    预览状态描述
+     * @param sampledRecords  已抽样的记录数
+     * @param sampledFraction 已抽样的比例
+     * @param previewMovies   已有估计值的电影数
+     */
+    public void updatePreview(String jobId, String previewState, long sampledRecords, double sampledFraction,
+                              int previewMovies) {
+        JobProgress progress = jobProgressMap.get(jobId);
+        if (progress != null) {
+            progress.previewState = previewState;
+            progress.previewSampledRecords = sampledRecords;
+            progress.previewSampledFraction = sampledFraction;
+            progress.previewMovies = previewMovies;
         }
     }
 
+    /**
+     * 记录各聚合子任务接收的记录数，用于观察数据倾斜
+     *
+     * @param jobId          作业ID
+     * @param subtaskRecords 按子任务序号排列的记录数
+     * @param saltedMovies   加盐分散的热门电影数
+     */
+    public void updateAggregationBalance(String jobId, long[] subtaskRecords, int saltedMovies) {
+        JobProgress progress = jobProgressMap.get(jobId);
+        if (progress != null) {
+            progress.aggregateSubtaskRecords = subtaskRecords;
+            progress.saltedMovies = saltedMovies;
+        }
+    }
+
+    /**
+     * 输入与已完成的作业相同，直接复用结果存储中的结果，作业立即以成功结束
+     *
+     * @param jobId        作业ID
+     * @param sourceJobId  产生现有结果的作业ID
+     * @param totalRecords 该作业处理的记录数
+     */
+    public void completeFromCache(String jobId, String sourceJobId, long totalRecords) {
+        JobProgress progress = jobProgressMap.get(jobId);
+        if (progress != null) {
+            progress.cacheHit = true;
+            progress.cachedFromJobId = sourceJobId;
+            progress.totalRecords = totalRecords;
+            progress.processedRecords.set(totalRecords);
+            progress.progressPercentage = 100.0;
+        }
+        completeJob(jobId, true, "输入和参数与作业 " + sourceJobId + " 相同，直接复用已有结果");
+    }
+
     /**
      * 获取作业进度
      *
@@ -109,18 +250,44 @@ public class ProgressTrackingService {
      * @return 作业进度信息
      */
     public JobProgress getJobProgress(String jobId) {
+        evictExpiredOnRead();
         return jobProgressMap.get(jobId);
     }
 
     /**
      * 获取所有作业进度
      *
-     * @return 所有作业进度信息
+     * @return 所有作业进度信息（只读视图）
      */
-    public ConcurrentHashMap<String, JobProgress> getAllJobProgress() {
-        return new ConcurrentHashMap<>(jobProgressMap);
+    public Map<String, JobProgress> getAllJobProgress() {
+        return Collections.unmodifiableMap(jobProgressMap);
     }
 
+    /**
+     * 分页查询作业列表，按开始时间倒序
+     *
+     * @param status 状态过滤，为null时不过滤
+     * @param page   页码，从0开始
+     * @param size   每页条数
+     * @return 当前页作业及过滤后的总数
+     */
+    public JobPage listJobs(JobStatus status, int page, int size) {
+        evictExpiredOnRead();
+        List<JobProgress> snapshot = jobSnapshot;
+        List<JobProgress> jobs = new ArrayList<>(Math.min(size, snapshot.size()));
+        long from = (long) page * size;
+        int matched = 0;
+        for (JobProgress progress : snapshot) {
+            if (status != null && progress.status != status) {
+                continue;
+            }
+            if (matched >= from && jobs.size() < size) {
+                jobs.add(progress);
+            }
+            matched++;
+        }
+        return new JobPage(jobs, matched);
+    }
 
     /**
      * 清理已完成的作业（可选，用于内存管理）
@@ -130,6 +297,241 @@ public class ProgressTrackingService {
                 entry.getValue().status == JobStatus.COMPLETED ||
                         entry.getValue().status == JobStatus.FAILED
         );
+        finishedJobIds.clear();
+        rebuildSnapshot();
+    }
+
+    /**
+     * 查询时顺带淘汰超过保留时长的作业：没有新作业结束时也不会一直返回早已过期的作业
+     * 只检查最早结束的一个作业，未过期时开销为一次队首读取
+     */
+    private void evictExpiredOnRead() {
+        if (evictFinishedJobs()) {
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * 淘汰已结束作业：超过保留数量或超过保留时长的最早结束作业从内存中移除（历史文件中仍保留）
+     *
+     * @return 是否移除了作业
+     */
+    private boolean evictFinishedJobs() {
+        LocalDateTime expireBefore = LocalDateTime.now().minusHours(finishedJobTtlHours);
+        boolean evicted = false;
+        while (true) {
+            String oldest = finishedJobIds.peekFirst();
+            if (oldest == null) {
+                return evicted;
+            }
+            JobProgress progress = jobProgressMap.get(oldest);
+            boolean expired = progress == null || progress.endTime == null || progress.endTime.isBefore(expireBefore);
+            if (finishedJobIds.size() <= maxFinishedJobs && !expired) {
+                return evicted;
+            }
+            if (finishedJobIds.remove(oldest)) {
+                jobProgressMap.remove(oldest);
+                evicted = true;
+            }
+        }
+    }
+
+    private synchronized void rebuildSnapshot() {
+        List<JobProgress> jobs = new ArrayList<>(jobProgressMap.values());
+        jobs.sort(Comparator.comparing((JobProgress p) -> p.startTime, Comparator.nullsLast(Comparator.naturalOrder())).reversed());
+        jobSnapshot = Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * 追加一条已结束作业的记录到历史文件，每个作业一行JSON
+     */
+    private void appendHistory(JobProgress progress) {
+        synchronized (historyFileLock) {
+            try {
+                Path path = Paths.get(historyFile);
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(objectMapper.writeValueAsString(toHistoryRecord(progress)));
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                log.warn("写入作业历史失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 用内存中保留的已结束作业重写历史文件（先写临时文件再原子替换）
+     */
+    private void compactHistory() {
+        synchronized (historyFileLock) {
+            Path path = Paths.get(historyFile);
+            Path tmp = Paths.get(historyFile + ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (String jobId : finishedJobIds) {
+                        JobProgress progress = jobProgressMap.get(jobId);
+                        if (progress != null) {
+                            writer.write(objectMapper.writeValueAsString(toHistoryRecord(progress)));
+                            writer.newLine();
+                        }
+                    }
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("作业历史文件已压缩，保留 {} 条记录", finishedJobIds.size());
+            } catch (IOException e) {
+                log.warn("压缩作业历史文件失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, Object> toHistoryRecord(JobProgress progress) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("jobId", progress.jobId);
+        record.put("description", progress.description);
+        record.put("status", progress.status.name());
+        record.put("totalRecords", progress.totalRecords);
+        record.put("processedRecords", progress.processedRecords.get());
+        record.put("savedRecords", progress.savedRecords.get());
+        record.put("lastMessage", progress.lastMessage);
+        record.put("cacheHit", progress.cacheHit);
+        record.put("cachedFromJobId", progress.cachedFromJobId);
+        record.put("startTime", toEpochMillis(progress.startTime));
+        record.put("endTime", toEpochMillis(progress.endTime));
+        return record;
+    }
+
+    private static JobProgress fromHistoryRecord(Map<?, ?> record) {
+        JobProgress progress = new JobProgress();
+        progress.jobId = (String) record.get("jobId");
+        progress.description = (String) record.get("description");
+        progress.status = JobStatus.valueOf((String) record.get("status"));
+        progress.totalRecords = ((Number) record.get("totalRecords")).longValue();
+        progress.processedRecords.set(((Number) record.get("processedRecords")).longValue());
+        progress.savedRecords.set(((Number) record.get("savedRecords")).longValue());
+        progress.lastMessage = (String) record.get("lastMessage");
+        progress.cacheHit = Boolean.TRUE.equals(record.get("cacheHit"));
+        progress.cachedFromJobId = (String) record.get("cachedFromJobId");
+        progress.startTime = fromEpochMillis((Number) record.get("startTime"));
+        progress.endTime = fromEpochMillis((Number) record.get("endTime"));
+        progress.lastUpdateTime = progress.endTime;
+        if (progress.totalRecords > 0) {
+            progress.progressPercentage = (double) progress.processedRecords.get() / progress.totalRecords * 100;
+        }
+        return progress;
+    }
+
+    private static Long toEpochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : null;
+    }
+
+    private static LocalDateTime fromEpochMillis(Number millis) {
+        return millis != null ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis.longValue()), ZoneId.systemDefault()) : null;
+    }
+
+    /**
+     * 作业分页结果
+     */
+    public static class JobPage {
+        public final List<JobProgress> jobs;
+        public final int total;
+
+        public JobPage(List<JobProgress> jobs, int total) {
+            this.jobs = jobs;
+            this.total = total;
+        }
+    }
+
+    /**
+     * 吞吐采样环形缓冲区
+     * 保存固定数量的(时间戳, 已处理记录数)样本，间隔小于SAMPLE_INTERVAL_MS的更新合并到最后一个样本，
+     * 容量 × 采样间隔覆盖最近约一分钟，足够计算瞬时、10秒和60秒滑动速率
+     */
+    public static class ThroughputHistory {
+        private static final int CAPACITY = 128;
+        private static final long SAMPLE_INTERVAL_MS = 500;
+
+        private final long[] timestamps = new long[CAPACITY];
+        private final long[] values = new long[CAPACITY];
+        private int head = 0; // 下一个写入位置
+        private int size = 0;
+
+        public synchronized void record(long timestamp, long value) {
+            if (size > 1) {
+                int last = (head - 1 + CAPACITY) % CAPACITY;
+                int prev = (head - 2 + CAPACITY) % CAPACITY;
+                // 最后一个样本距前一个样本不足采样间隔时原地更新，避免高频更新把窗口挤短
+                if (timestamp - timestamps[prev] < SAMPLE_INTERVAL_MS) {
+                    timestamps[last] = timestamp;
+                    values[last] = value;
+                    return;
+                }
+            }
+            timestamps[head] = timestamp;
+            values[head] = value;
+            head = (head + 1) % CAPACITY;
+            if (size < CAPACITY) {
+                size++;
+            }
+        }
+
+        /**
+         * 最近两个样本之间的速率（记录/秒），最后一个样本已超过5秒未更新时视为停滞，返回0
+         */
+        public synchronized double instantRate(long now) {
+            if (size < 2) {
+                return 0.0;
+            }
+            int last = (head - 1 + CAPACITY) % CAPACITY;
+            int prev = (head - 2 + CAPACITY) % CAPACITY;
+            if (now - timestamps[last] > 5000) {
+                return 0.0;
+            }
+            long elapsed = timestamps[last] - timestamps[prev];
+            return elapsed > 0 ? (values[last] - values[prev]) * 1000.0 / elapsed : 0.0;
+        }
+
+        /**
+         * 最近windowMs毫秒内的平均速率（记录/秒）
+         * 以窗口起点前最后一个样本为基准，到now为止；期间没有新样本时速率自然下降，能反映作业停滞
+         */
+        public synchronized double windowRate(long now, long windowMs) {
+            if (size < 2) {
+                return 0.0;
+            }
+            long windowStart = now - windowMs;
+            int oldest = (head - size + CAPACITY) % CAPACITY;
+            int base = oldest;
+            for (int i = 0; i < size; i++) {
+                int index = (oldest + i) % CAPACITY;
+                if (timestamps[index] > windowStart) {
+                    break;
+                }
+                base = index;
+            }
+            int last = (head - 1 + CAPACITY) % CAPACITY;
+            long elapsed = now - timestamps[base];
+            return elapsed > 0 ? (values[last] - values[base]) * 1000.0 / elapsed : 0.0;
+        }
+
+        /**
+         * 按时间顺序导出全部样本，用于不同作业之间的吞吐曲线对比
+         */
+        public synchronized List<Map<String, Long>> snapshot() {
+            List<Map<String, Long>> samples = new ArrayList<>(size);
+            int oldest = (head - size + CAPACITY) % CAPACITY;
+            for (int i = 0; i < size; i++) {
+                int index = (oldest + i) % CAPACITY;
+                Map<String, Long> sample = new LinkedHashMap<>();
+                sample.put("timestamp", timestamps[index]);
+                sample.put("processedRecords", values[index]);
+                samples.add(sample);
+            }
+            return samples;
+        }
     }
 
     /**
@@ -144,9 +546,35 @@ public class ProgressTrackingService {
         public AtomicLong savedRecords = new AtomicLong(0);
         public double progressPercentage = 0.0;
         public String lastMessage = "";
+        // 是否命中结果缓存（未执行计算，复用cachedFromJobId的结果）
+        public boolean cacheHit;
+        public String cachedFromJobId;
+        // 近似预览摘要，未开启预览时previewState为null
+        public String previewState;
+        public long previewSampledRecords;
+        public double previewSampledFraction;
+        public int previewMovies;
+        // 各聚合子任务接收的记录数（作业结束后可用）和加盐的热门电影数
+        public long[] aggregateSubtaskRecords;
+        public int saltedMovies;
         public LocalDateTime startTime;
         public LocalDateTime endTime;
         public LocalDateTime lastUpdateTime;
+        private final ThroughputHistory throughputHistory = new ThroughputHistory();
+
+        // 聚合子任务的最大记录数与平均值之比，1表示完全均衡；没有统计时返回0
+        public double getAggregateImbalance() {
+            if (aggregateSubtaskRecords == null || aggregateSubtaskRecords.length == 0) {
+                return 0.0;
+            }
+            long total = 0;
+            long max = 0;
+            for (long records : aggregateSubtaskRecords) {
+                total += records;
+                max = Math.max(max, records);
+            }
+            return total > 0 ? (double) max * aggregateSubtaskRecords.length / total : 0.0;
+        }
 
         // 计算处理速度（记录/秒）
         public double getProcessingSpeed() {
@@ -168,7 +596,14 @@ public class ProgressTrackingService {
                 return -1; // 无法估算
             }
 
-            double speed = getProcessingSpeed();
+            // 优先使用最近的速率，作业变速时估算才跟得上；最近没有进展再退回到更长窗口和全程平均
+            double speed = getSpeed10s();
+            if (speed <= 0) {
+                speed = getSpeed60s();
+            }
+            if (speed <= 0) {
+                speed = getProcessingSpeed();
+            }
             if (speed <= 0) {
                 return -1;
             }
@@ -177,6 +612,35 @@ public class ProgressTrackingService {
             return (long) (remaining / speed);
         }
 
+        // 瞬时处理速度（记录/秒）
+        public double getInstantSpeed() {
+            return throughputHistory.instantRate(rateEndMillis());
+        }
+
+        // 最近10秒的处理速度（记录/秒）
+        public double getSpeed10s() {
+            return throughputHistory.windowRate(rateEndMillis(), 10_000);
+        }
+
+        // 最近60秒的处理速度（记录/秒）
+        public double getSpeed60s() {
+            return throughputHistory.windowRate(rateEndMillis(), 60_000);
+        }
+
+        // 吞吐采样历史，体积较大，不随作业列表一起序列化
+        @JsonIgnore
+        public List<Map<String, Long>> getThroughputSamples() {
+            return throughputHistory.snapshot();
+        }
+
+        // 已结束的作业以结束时间为准，速率定格在结束时刻
+        private long rateEndMillis() {
+            if (endTime != null) {
+                return endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return System.currentTimeMillis();
+        }
+
         // 获取运行时长（秒）
         public long getRunningSeconds() {
             if (startTime == null) {
@@ -0,0 +1,284 @@
+package com.abc.service;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ratings.csv的块统计索引（zone map）
+ *
+ * 把文件按约BLOCK_SIZE字节切成若干块，块边界对齐到行首，每块记录字节范围、行数以及userId/movieId/时间戳的最小值和最大值。
+ * 带过滤条件的作业先用它排除不可能有匹配行的块，只为剩下的块生成输入分片；块内的行仍由解析函数逐行过滤。
+ * 输入按某个字段有序（ml-latest按userId排序，按时间生成的数据按时间戳排序）时，该字段上的范围条件可以跳过绝大部分块。
+ * 索引在第一次需要时顺序扫描一遍文件构建，保存为同目录下的 <文件名>.blockindex，文件大小或修改时间变化后重新构建；
+ * 目录不可写时只保存在内存中。
+ */
+public final class RatingBlockIndex {
+
+    // 每块的目标大小
+    static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+    private static final int MAGIC = 0x52424931; // "RBI1"
+    private static final String SUFFIX = ".blockindex";
+
+    // 进程内缓存，键为文件的绝对路径
+    private static final Map<String, RatingBlockIndex> CACHE = new ConcurrentHashMap<>();
+
+    private final long fileSize;
+    private final long lastModified;
+    private final List<Block> blocks;
+
+    /**
+     * 一个块的统计信息
+     */
+    public static class Block {
+        private final long offset;
+        private final long length;
+        private final long rows;
+        private final long minUserId;
+        private final long maxUserId;
+        private final long minMovieId;
+        private final long maxMovieId;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+
+        Block(long offset, long length, long rows, long minUserId, long maxUserId, long minMovieId, long maxMovieId,
+              long minTimestamp, long maxTimestamp) {
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.minUserId = minUserId;
+            this.maxUserId = maxUserId;
+            this.minMovieId = minMovieId;
+            this.maxMovieId = maxMovieId;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+
+        // Getters
+        public long getOffset() { return offset; }
+        public long getLength() { return length; }
+        public long getRows() { return rows; }
+        public long getMinUserId() { return minUserId; }
+        public long getMaxUserId() { return maxUserId; }
+        public long getMinMovieId() { return minMovieId; }
+        public long getMaxMovieId() { return maxMovieId; }
+        public long getMinTimestamp() { return minTimestamp; }
+        public long getMaxTimestamp() { return maxTimestamp; }
+    }
+
+    private RatingBlockIndex(long fileSize, long lastModified, List<Block> blocks) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.blocks = Collections.unmodifiableList(blocks);
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public long getTotalRows() {
+        long rows = 0;
+        for (Block block : blocks) {
+            rows += block.rows;
+        }
+        return rows;
+    }
+
+    /**
+     * 满足过滤条件的块
+     */
+    public List<Block> select(RatingFilter filter) {
+        List<Block> selected = new ArrayList<>();
+        for (Block block : blocks) {
+            if (filter.mayMatch(block)) {
+                selected.add(block);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 获取文件的块索引：依次尝试内存缓存、索引文件，都没有或已过期时扫描构建
+     */
+    public static RatingBlockIndex forFile(Path csvFile) throws IOException {
+        Path file = csvFile.toAbsolutePath().normalize();
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        String key = file.toString();
+
+        RatingBlockIndex cached = CACHE.get(key);
+        if (cached != null && cached.fileSize == size && cached.lastModified == modified) {
+            return cached;
+        }
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+            if (cached != null && cached.fileSize == size && cached.lastModified == modified) {
+                return cached;
+            }
+            Path indexFile = Paths.get(key + SUFFIX);
+            RatingBlockIndex index = readIndex(indexFile, size, modified);
+            if (index == null) {
+                long startTime = System.currentTimeMillis();
+                index = build(file, size, modified);
+                System.out.printf("构建块索引: %s, %d块, %d行, 耗时%dms%n", file, index.blocks.size(),
+                        index.getTotalRows(), System.currentTimeMillis() - startTime);
+                writeIndex(indexFile, index);
+            }
+            CACHE.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * 顺序扫描文件，逐字节解析userId、movieId和时间戳，不创建字符串
+     */
+    static RatingBlockIndex build(Path file, long size, long modified) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        long[] min = new long[3];
+        long[] max = new long[3];
+        resetStats(min, max);
+        long position = 0;
+        long blockStart = 0;
+        long rows = 0;
+
+        // 当前行的解析状态：字段序号、当前字段的值、前四个字段的值、该行是否为合法数据行（表头含字母，不计入）
+        int field = 0;
+        long value = 0;
+        long[] values = new long[4];
+        boolean valid = true;
+
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (valid && field == 3) {
+                            values[3] = value;
+                            rows++;
+                            addRow(min, max, values);
+                        }
+                        field = 0;
+                        value = 0;
+                        valid = true;
+                        // 下一行的起始位置，块在行尾结束
+                        long lineEnd = position + i + 1;
+                        if (lineEnd - blockStart >= BLOCK_SIZE) {
+                            blocks.add(newBlock(blockStart, lineEnd - blockStart, rows, min, max));
+                            blockStart = lineEnd;
+                            rows = 0;
+                            resetStats(min, max);
+                        }
+                    } else if (b == ',') {
+                        if (field < 4) {
+                            values[field] = value;
+                        }
+                        field++;
+                        value = 0;
+                    } else if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                    } else if (b != '\r' && !(b == '.' && field == 2)) {
+                        valid = false;
+                    }
+                }
+                position += read;
+            }
+        }
+        // 文件末尾没有换行的最后一行
+        if (valid && field == 3) {
+            values[3] = value;
+            rows++;
+            addRow(min, max, values);
+        }
+        if (position > blockStart) {
+            blocks.add(newBlock(blockStart, position - blockStart, rows, min, max));
+        }
+        return new RatingBlockIndex(size, modified, blocks);
+    }
+
+    private static void addRow(long[] min, long[] max, long[] values) {
+        // values: userId, movieId, rating（不统计）, timestamp
+        update(min, max, 0, values[0]);
+        update(min, max, 1, values[1]);
+        update(min, max, 2, values[3]);
+    }
+
+    private static void resetStats(long[] min, long[] max) {
+        for (int i = 0; i < min.length; i++) {
+            min[i] = Long.MAX_VALUE;
+            max[i] = Long.MIN_VALUE;
+        }
+    }
+
+    private static void update(long[] min, long[] max, int index, long value) {
+        if (value < min[index]) {
+            min[index] = value;
+        }
+        if (value > max[index]) {
+            max[index] = value;
+        }
+    }
+
+    private static Block newBlock(long offset, long length, long rows, long[] min, long[] max) {
+        // 没有数据行的块（如只有表头）统计值保持为空区间，任何范围条件都会排除它
+        return new Block(offset, length, rows, min[0], max[0], min[1], max[1], min[2], max[2]);
+    }
+
+    private static RatingBlockIndex readIndex(Path indexFile, long size, long modified) {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readLong() != size || in.readLong() != modified
+                    || in.readInt() != BLOCK_SIZE) {
+                return null;
+            }
+            int count = in.readInt();
+            List<Block> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                blocks.add(new Block(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            return new RatingBlockIndex(size, modified, blocks);
+        } catch (IOException e) {
+            System.err.println("读取块索引失败，重新构建: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换；目录不可写时只保留内存中的索引
+     */
+    private static void writeIndex(Path indexFile, RatingBlockIndex index) {
+        Path tmp = Paths.get(indexFile + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(index.fileSize);
+                out.writeLong(index.lastModified);
+                out.writeInt(BLOCK_SIZE);
+                out.writeInt(index.blocks.size());
+                for (Block block : index.blocks) {
+                    out.writeLong(block.offset);
+                    out.writeLong(block.length);
+                    out.writeLong(block.rows);
+                    out.writeLong(block.minUserId);
+                    out.writeLong(block.maxUserId);
+                    out.writeLong(block.minMovieId);
+                    out.writeLong(block.maxMovieId);
+                    out.writeLong(block.minTimestamp);
+                    out.writeLong(block.maxTimestamp);
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("保存块索引失败，仅在内存中使用: " + e.getMessage());
+        }
+    }
+}
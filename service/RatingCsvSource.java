@@ -0,0 +1,239 @@
+package com.abc.service;
+
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.connector.file.src.FileSource;
+import org.apache.flink.connector.file.src.FileSourceSplit;
+import org.apache.flink.connector.file.src.enumerate.FileEnumerator;
+import org.apache.flink.connector.file.src.reader.StreamFormat;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 评分CSV文件的有界输入
+ *
+ * TextLineInputFormat不可切分，整个文件只由一个读取器顺序读取。这里的行格式可以切分：
+ * 每个分片负责起始位置落在[offset, offset+length)内的行，分片起点不在行首时跳过被上一个分片读取的半行。
+ * 分片有两种来源：
+ *   不传块范围时按固定大小切分整个文件，各并行子任务同时读取；
+ *   传入块索引选出的块时只为这些块生成分片，被过滤条件排除的块完全不读取。
+ */
+public final class RatingCsvSource {
+
+    // 按固定大小切分时的最小分片大小
+    private static final long MIN_SPLIT_SIZE = 8L * 1024 * 1024;
+
+    // 期望每个并行子任务分到的分片数，分片多一些各子任务的负载更均衡
+    private static final int SPLITS_PER_SUBTASK = 4;
+
+    private RatingCsvSource() {}
+
+    /**
+     * 读取整个文件
+     */
+    public static FileSource<String> forFile(String csvFilePath) {
+        return build(csvFilePath, null);
+    }
+
+    /**
+     * 只读取给定的块，blocks为null时读取整个文件
+     */
+    public static FileSource<String> forBlocks(String csvFilePath, List<RatingBlockIndex.Block> blocks) {
+        long[] offsets = null;
+        long[] lengths = null;
+        if (blocks != null) {
+            offsets = new long[blocks.size()];
+            lengths = new long[blocks.size()];
+            for (int i = 0; i < blocks.size(); i++) {
+                offsets[i] = blocks.get(i).getOffset();
+                lengths[i] = blocks.get(i).getLength();
+            }
+        }
+        return build(csvFilePath, new long[][]{offsets, lengths});
+    }
+
+    private static FileSource<String> build(String csvFilePath, long[][] ranges) {
+        long[] offsets = ranges != null ? ranges[0] : null;
+        long[] lengths = ranges != null ? ranges[1] : null;
+        return FileSource.forRecordStreamFormat(new LineFormat(), new Path(csvFilePath))
+                .setFileEnumerator(() -> new RangeEnumerator(offsets, lengths))
+                .build();
+    }
+
+    /**
+     * 按块范围或固定大小生成分片
+     */
+    static class RangeEnumerator implements FileEnumerator {
+        private final long[] offsets;
+        private final long[] lengths;
+
+        RangeEnumerator(long[] offsets, long[] lengths) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public Collection<FileSourceSplit> enumerateSplits(Path[] paths, int minDesiredSplits) throws IOException {
+            List<FileSourceSplit> splits = new ArrayList<>();
+            for (Path path : paths) {
+                FileSystem fileSystem = path.getFileSystem();
+                FileStatus status = fileSystem.getFileStatus(path);
+                long fileSize = status.getLen();
+                long modified = status.getModificationTime();
+                if (offsets != null) {
+                    for (int i = 0; i < offsets.length; i++) {
+                        splits.add(new FileSourceSplit(path + "#" + i, path, offsets[i], lengths[i], modified, fileSize));
+                    }
+                    continue;
+                }
+                long splitSize = Math.max(MIN_SPLIT_SIZE,
+                        (fileSize + (long) minDesiredSplits * SPLITS_PER_SUBTASK - 1) / ((long) minDesiredSplits * SPLITS_PER_SUBTASK));
+                int index = 0;
+                for (long offset = 0; offset < fileSize; offset += splitSize) {
+                    splits.add(new FileSourceSplit(path + "#" + index++, path, offset,
+                            Math.min(splitSize, fileSize - offset), modified, fileSize));
+                }
+            }
+            return splits;
+        }
+    }
+
+    /**
+     * 可切分的按行读取格式，输出不含换行符的行
+     */
+    static class LineFormat implements StreamFormat<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Reader<String> createReader(Configuration config, FSDataInputStream stream, long fileLen, long splitEnd)
+                throws IOException {
+            return new LineReader(stream, splitEnd, false);
+        }
+
+        /**
+         * 框架只在读取器报告过检查点位置时调用这里，传入的流仍停在分片起点。
+         * LineReader不报告位置，恢复时框架改为调用createReader从分片起点读取并跳过已输出的记录；
+         * 这里仍按约定定位到restoredOffset，该位置总在行首，不再跳过半行
+         */
+        @Override
+        public Reader<String> restoreReader(Configuration config, FSDataInputStream stream, long restoredOffset,
+                                            long fileLen, long splitEnd) throws IOException {
+            stream.seek(restoredOffset);
+            return new LineReader(stream, splitEnd, true);
+        }
+
+        @Override
+        public boolean isSplittable() {
+            return true;
+        }
+
+        @Override
+        public TypeInformation<String> getProducedType() {
+            return Types.STRING;
+        }
+    }
+
+    /**
+     * 自带缓冲的行读取器，按字节查找换行符并记录文件位置，只输出起始位置在分片结束位置之前的行
+     */
+    static class LineReader implements StreamFormat.Reader<String> {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final FSDataInputStream stream;
+        private final long end;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int bufferPos;
+        private int bufferLimit;
+        // buffer[bufferPos]在文件中的位置
+        private long position;
+        // 跨越缓冲区边界的行
+        private byte[] pending = new byte[256];
+        private int pendingLength;
+
+        /**
+         * @param atLineStart 流的当前位置已知在行首（恢复的检查点位置），不需要跳过半行
+         */
+        LineReader(FSDataInputStream stream, long end, boolean atLineStart) throws IOException {
+            this.stream = stream;
+            this.end = end;
+            long start = stream.getPos();
+            position = start;
+            if (start > 0 && !atLineStart) {
+                // 从前一个字节开始跳到行尾：前一个字节是换行符时正好从start开始，否则跳过属于上一个分片的半行
+                stream.seek(start - 1);
+                position = start - 1;
+                readLine();
+            }
+        }
+
+        @Override
+        public String read() throws IOException {
+            if (position >= end) {
+                return null;
+            }
+            return readLine();
+        }
+
+        private String readLine() throws IOException {
+            pendingLength = 0;
+            while (true) {
+                if (bufferPos == bufferLimit) {
+                    int read = stream.read(buffer, 0, BUFFER_SIZE);
+                    if (read <= 0) {
+                        return pendingLength > 0 ? decode(pending, 0, pendingLength) : null;
+                    }
+                    bufferPos = 0;
+                    bufferLimit = read;
+                }
+                int lineStart = bufferPos;
+                while (bufferPos < bufferLimit && buffer[bufferPos] != '\n') {
+                    bufferPos++;
+                }
+                int length = bufferPos - lineStart;
+                position += length;
+                if (bufferPos < bufferLimit) {
+                    // 找到换行符
+                    bufferPos++;
+                    position++;
+                    if (pendingLength == 0) {
+                        return decode(buffer, lineStart, length);
+                    }
+                    appendPending(lineStart, length);
+                    return decode(pending, 0, pendingLength);
+                }
+                appendPending(lineStart, length);
+            }
+        }
+
+        private void appendPending(int from, int length) {
+            if (pendingLength + length > pending.length) {
+                byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + length)];
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+                pending = grown;
+            }
+            System.arraycopy(buffer, from, pending, pendingLength, length);
+            pendingLength += length;
+        }
+
+        private static String decode(byte[] bytes, int offset, int length) {
+            if (length > 0 && bytes[offset + length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package com.abc.service;
 
+import com.abc.config.ExecutorRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PreDestroy;
+import javax.annotation.PostConstruct;
 import java.util.*;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -15,6 +16,7 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * 评分数据生成器服务
  * 模拟实时用户评分数据并直接传递给热门电影计算服务
+ * 热门电影计算服务积压过多时按其写入压力降低实际发送速率（压力高时减半，回落后逐步恢复）
  */
 @Service
 public class RatingDataGeneratorService {
@@ -40,11 +42,29 @@ public class RatingDataGeneratorService {
     @Value("${data-generator.rating.max:5.0}")
     private double maxRating;
 
+    // 写入压力高于该值时降速，低于low-watermark时逐步恢复
+    @Value("${data-generator.backpressure.high-watermark:0.8}")
+    private double backpressureHighWatermark;
+
+    @Value("${data-generator.backpressure.low-watermark:0.3}")
+    private double backpressureLowWatermark;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
     private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> generationTask;
+    private ScheduledFuture<?> statisticsTask;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
     private final AtomicLong generatedCount = new AtomicLong(0);
+    // 因降速而跳过的次数和被计算服务拒绝的条数
+    private final AtomicLong throttledCount = new AtomicLong(0);
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+    // 实际发送比例（0~1]，按写入压力调整
+    private volatile double throttleFactor = 1.0;
+    private final AtomicLong lastThrottleAdjustTime = new AtomicLong();
     private final Random random = new Random();
-    private int generationRate = 10;
+    private volatile int generationRate = 10;
 
     // 热门电影ID列表（模拟某些电影更受欢迎）
     private final List<Long> hotMovieIds = Arrays.asList(
@@ -55,7 +75,10 @@ public class RatingDataGeneratorService {
     /**
      * 初始化数据生成器
      */
+    @PostConstruct
     public void init() {
+        generationRate = defaultGenerationRate;
+        scheduler = executorRegistry.newScheduler("rating-generator", 1);
         System.out.println("评分数据生成器服务初始化完成");
         System.out.printf("配置: 电影数=%d, 用户数=%d, 热门电影比例=%.1f%%, 评分范围=[%.1f-%.1f]%n", 
             movieCount, userCount, hotMovieRatio * 100, minRating, maxRating);
@@ -71,16 +94,15 @@ public class RatingDataGeneratorService {
         }
 
         try {
-            generationRate = defaultGenerationRate;
-            scheduler = Executors.newScheduledThreadPool(2);
             isRunning.set(true);
             generatedCount.set(0);
+            throttleFactor = 1.0;
 
             // 启动数据生成任务
-            scheduler.scheduleAtFixedRate(this::generateAndSendRating, 0, 1000 / generationRate, TimeUnit.MILLISECONDS);
+            scheduleGeneration();
 
             // 启动统计任务
-            scheduler.scheduleAtFixedRate(this::printStatistics, 10, 10, TimeUnit.SECONDS);
+            statisticsTask = scheduler.scheduleAtFixedRate(this::printStatistics, 10, 10, TimeUnit.SECONDS);
 
             System.out.println("实时评分数据生成器已启动，生成速率: " + generationRate + " 条/秒");
         } catch (Exception e) {
@@ -92,6 +114,7 @@ public class RatingDataGeneratorService {
 
     /**
      * 停止数据生成器
+     * 只取消定时任务，执行器由ExecutorRegistry统一管理，反复启停不会创建新的线程池
      */
     public synchronized void stopGenerator() {
         if (!isRunning.get()) {
@@ -101,27 +124,40 @@ public class RatingDataGeneratorService {
 
         isRunning.set(false);
 
-        if (scheduler != null) {
-            scheduler.shutdown();
-            try {
-                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                    scheduler.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                scheduler.shutdownNow();
-            }
+        if (generationTask != null) {
+            generationTask.cancel(false);
+            generationTask = null;
+        }
+        if (statisticsTask != null) {
+            statisticsTask.cancel(false);
+            statisticsTask = null;
         }
-
-
 
         System.out.println("实时评分数据生成器已停止，总共生成: " + generatedCount.get() + " 条数据");
     }
 
     /**
-     * 生成并发送评分数据
+     * 按当前速率排定生成任务
+     */
+    private void scheduleGeneration() {
+        if (generationTask != null) {
+            generationTask.cancel(false);
+        }
+        generationTask = scheduler.scheduleAtFixedRate(this::generateAndSendRating,
+                0, 1_000_000L / generationRate, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 生成并发送评分数据（包级可见，供基准测试直接调用）
      */
-    private void generateAndSendRating() {
+    void generateAndSendRating() {
         try {
+            adjustThrottle();
+            if (throttleFactor < 1.0 && random.nextDouble() >= throttleFactor) {
+                throttledCount.incrementAndGet();
+                return;
+            }
+            
             // 生成用户ID
             long userId = random.nextInt(userCount) + 1;
             
@@ -132,7 +168,10 @@ public class RatingDataGeneratorService {
             double rating = generateRating(movieId);
             
             // 直接添加到热门电影计算服务
-            hotMovieStreamService.addRatingData(userId, movieId, rating);
+            if (!hotMovieStreamService.addRatingData(userId, movieId, rating)) {
+                rejectedCount.incrementAndGet();
+                return;
+            }
             
             generatedCount.incrementAndGet();
             
@@ -146,6 +185,29 @@ public class RatingDataGeneratorService {
         }
     }
 
+    /**
+     * 每秒根据计算服务的写入压力调整一次发送比例
+     */
+    private void adjustThrottle() {
+        long now = System.currentTimeMillis();
+        long last = lastThrottleAdjustTime.get();
+        // 多个发送线程同时到期时只让CAS成功的一个线程调整
+        if (now - last < 1000 || !lastThrottleAdjustTime.compareAndSet(last, now)) {
+            return;
+        }
+        double level = hotMovieStreamService.getBackpressureLevel();
+        double previous = throttleFactor;
+        if (level >= backpressureHighWatermark) {
+            throttleFactor = Math.max(0.01, previous / 2);
+        } else if (level <= backpressureLowWatermark && previous < 1.0) {
+            throttleFactor = Math.min(1.0, previous + 0.1);
+        }
+        if (throttleFactor != previous) {
+            System.out.printf("计算服务写入压力%.2f，数据生成器实际速率调整为 %.1f 条/秒%n",
+                    level, generationRate * throttleFactor);
+        }
+    }
+
     /**
      * 生成电影ID（偏向热门电影）
      */
@@ -198,6 +260,11 @@ public class RatingDataGeneratorService {
         status.put("isRunning", isRunning.get());
         status.put("generatedCount", generatedCount.get());
         status.put("generationRate", generationRate);
+        status.put("throttleFactor", throttleFactor);
+        status.put("effectiveRate", generationRate * throttleFactor);
+        status.put("throttledCount", throttledCount.get());
+        status.put("rejectedCount", rejectedCount.get());
+        status.put("backpressureLevel", hotMovieStreamService.getBackpressureLevel());
         status.put("movieCount", movieCount);
         status.put("userCount", userCount);
         status.put("hotMovieRatio", hotMovieRatio);
@@ -207,17 +274,12 @@ public class RatingDataGeneratorService {
     /**
      * 设置生成速率
      */
-    public void setGenerationRate(int rate) {
+    public synchronized void setGenerationRate(int rate) {
         this.generationRate = Math.max(1, Math.min(1000, rate)); // 限制在1-1000之间
         if (isRunning.get()) {
-            // 重启生成器以应用新的速率
-            stopGenerator();
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            startGenerator();
+            // 按新速率重新排定生成任务，计数不清零
+            scheduleGeneration();
+            System.out.println("数据生成速率已调整为: " + generationRate + " 条/秒");
         }
     }
 
@@ -0,0 +1,505 @@
+package com.abc.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 评分事件的本地追加日志
+ *
+ * 生产者（数据生成器、批量写入接口）只负责追加，排行榜引擎作为消费者从自己的位置往后读，两边的速度不再互相牵制。
+ * 日志由若干固定大小的段文件组成，文件名为段内第一条记录的偏移量，段文件整体内存映射，追加和读取都不经过系统调用。
+ * 段文件以16字节的头开始：魔数(int) 格式版本(int) 记录长度(int) 保留(int)，打开已有的段时校验，
+ * 旧格式或其他文件不会被当作记录误读。
+ * 每条记录定长40字节：时间戳(long) 用户ID(long) 电影ID(long) 评分(double) 权重(int) CRC32(int)，
+ * 权重为抽样写入时一条记录代表的事件数，未抽样时为1；
+ * 先写时间戳之后的部分、最后写时间戳，时间戳为0或校验失败的位置即为日志末尾，因此进程崩溃后重新打开时能准确找到写到哪里。
+ * 刷盘按固定间隔批量进行（force），不逐条fsync。
+ *
+ * 每个消费者有一个内存中的读取位置和一个持久化的提交位置：
+ * 读取位置用于背压，最慢的消费者落后超过maxLag条时追加会等待或被拒绝；
+ * 提交位置用于重启后续读和清理，所有消费者都已提交越过的段在保留段数之外会被删除。
+ */
+public class RatingEventLog implements Closeable {
+
+    static final int RECORD_SIZE = 40;
+
+    // 段文件头："RELG"、格式版本、记录长度；版本1为不带权重的32字节记录，没有文件头
+    static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x52454C47;
+    static final int FORMAT_VERSION = 2;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("(\\d{20})\\.seg");
+    private static final String CONSUMER_DIR = "consumers";
+
+    private final Path dir;
+    private final int recordsPerSegment;
+    private final long maxLag;
+    private final int retainSegments;
+
+    // 按起始偏移量排序的段
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Consumer> consumers = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition consumerProgress = appendLock.newCondition();
+    private final Condition dataAppended = appendLock.newCondition();
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private volatile Segment activeSegment;
+    // 因背压正在等待的生产者数
+    private volatile int waitingProducers;
+    // 下一条记录的偏移量，写完整条记录后才更新，消费者读到这里为止
+    private volatile long endOffset;
+    private volatile long flushedOffset;
+    private volatile boolean closed;
+
+    /**
+     * 一条评分事件的处理回调
+     */
+    public interface RecordHandler {
+        void handle(long offset, long timestamp, long userId, long movieId, double rating, int weight);
+    }
+
+    private static class Segment {
+        final long baseOffset;
+        final Path path;
+        final MappedByteBuffer buffer;
+
+        Segment(long baseOffset, Path path, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * @param segmentBytes   每个段文件的大小
+     * @param maxLag         最慢消费者允许落后的最大记录数，超过时追加等待；0表示不限制
+     * @param retainSegments 至少保留的段数，便于从较早的位置重放
+     */
+    public RatingEventLog(String dir, long segmentBytes, long maxLag, int retainSegments) throws IOException {
+        this.dir = Paths.get(dir);
+        this.recordsPerSegment = (int) Math.min((Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE,
+                Math.max(1, (segmentBytes - HEADER_SIZE) / RECORD_SIZE));
+        this.maxLag = maxLag;
+        this.retainSegments = Math.max(1, retainSegments);
+        Files.createDirectories(this.dir.resolve(CONSUMER_DIR));
+        open();
+    }
+
+    private void open() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    long baseOffset = Long.parseLong(matcher.group(1));
+                    segments.put(baseOffset, mapSegment(baseOffset));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            activeSegment = mapSegment(0);
+            segments.put(0L, activeSegment);
+            endOffset = 0;
+        } else {
+            // 只有最后一个段可能没写满
+            activeSegment = segments.lastEntry().getValue();
+            int count = 0;
+            RecordReader reader = new RecordReader();
+            while (count < recordsPerSegment && reader.read(activeSegment, count, null, 0)) {
+                count++;
+            }
+            endOffset = activeSegment.baseOffset + count;
+        }
+        flushedOffset = endOffset;
+        System.out.printf("评分事件日志已打开: %s, 段数=%d, 偏移量范围=[%d, %d)%n",
+                dir, segments.size(), getStartOffset(), endOffset);
+    }
+
+    public long getStartOffset() {
+        return segments.firstKey();
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * 最慢的消费者落后的记录数
+     */
+    public long getBacklog() {
+        return endOffset - minConsumerPosition();
+    }
+
+    public long getFlushedOffset() {
+        return flushedOffset;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 追加一条事件；最慢的消费者落后超过maxLag时阻塞，直到消费者赶上
+     *
+     * @return 该事件的偏移量
+     */
+    public long append(long userId, long movieId, double rating, long timestamp) throws IOException, InterruptedException {
+        return append(userId, movieId, rating, 1, timestamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * 追加一条带权重的事件；最慢的消费者落后超过maxLag时最多等待maxWaitMs
+     *
+     * @return 该事件的偏移量，等待超时仍未追加时返回-1
+     */
+    public long append(long userId, long movieId, double rating, int weight, long timestamp, long maxWaitMs)
+            throws IOException, InterruptedException {
+        if (timestamp <= 0) {
+            throw new IllegalArgumentException("时间戳必须大于0: " + timestamp);
+        }
+        appendLock.lockInterruptibly();
+        try {
+            long deadline = maxWaitMs == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while (maxLag > 0 && !closed && endOffset - minConsumerPosition() >= maxLag) {
+                long remaining = deadline == Long.MAX_VALUE ? TimeUnit.MILLISECONDS.toNanos(100) : deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return -1;
+                }
+                waitingProducers++;
+                try {
+                    consumerProgress.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+                } finally {
+                    waitingProducers--;
+                }
+            }
+            if (closed) {
+                throw new IOException("评分事件日志已关闭");
+            }
+
+            long offset = endOffset;
+            int index = (int) (offset - activeSegment.baseOffset);
+            if (index >= recordsPerSegment) {
+                rollSegment(offset);
+                index = 0;
+            }
+
+            scratch.clear();
+            scratch.putLong(timestamp).putLong(userId).putLong(movieId).putDouble(rating).putInt(weight);
+            crc.reset();
+            crc.update(scratch.array(), 0, RECORD_SIZE - 4);
+            scratch.putInt((int) crc.getValue());
+
+            // 先写时间戳之后的部分，最后写时间戳，使记录整体可见；读取方只用绝对位置读，不受position影响
+            int position = positionOf(index);
+            MappedByteBuffer buffer = activeSegment.buffer;
+            buffer.position(position + 8);
+            buffer.put(scratch.array(), 8, RECORD_SIZE - 8);
+            buffer.putLong(position, timestamp);
+
+            endOffset = offset + 1;
+            dataAppended.signalAll();
+            return offset;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 把已追加的记录刷到磁盘，由调用方定期调用
+     */
+    public void flush() {
+        long end = endOffset;
+        if (end == flushedOffset) {
+            return;
+        }
+        Segment segment = activeSegment;
+        segment.buffer.force();
+        flushedOffset = Math.max(flushedOffset, Math.min(end, segment.baseOffset + recordsPerSegment));
+    }
+
+    /**
+     * 获取（或创建）指定名称的消费者，读取位置初始化为其上次提交的位置
+     */
+    public Consumer consumer(String name) throws IOException {
+        Consumer existing = consumers.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        Path file = dir.resolve(CONSUMER_DIR).resolve(name + ".offset");
+        long committed = getStartOffset();
+        if (Files.exists(file)) {
+            committed = Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        }
+        Consumer consumer = new Consumer(name, file, committed);
+        Consumer previous = consumers.putIfAbsent(name, consumer);
+        return previous != null ? previous : consumer;
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            consumerProgress.signalAll();
+            dataAppended.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        flushedOffset = endOffset;
+    }
+
+    /**
+     * 日志的一个消费者
+     */
+    public class Consumer {
+        private final String name;
+        private final Path offsetFile;
+        private final RecordReader reader = new RecordReader();
+        private volatile long position;
+        private volatile long committedOffset;
+
+        Consumer(String name, Path offsetFile, long committedOffset) {
+            this.name = name;
+            this.offsetFile = offsetFile;
+            this.committedOffset = committedOffset;
+            this.position = clamp(committedOffset);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getCommittedOffset() {
+            return committedOffset;
+        }
+
+        public long getLag() {
+            return endOffset - position;
+        }
+
+        /**
+         * 调整读取位置，超出日志范围时截到两端
+         */
+        public void seek(long offset) {
+            position = clamp(offset);
+            signalProgress();
+        }
+
+        /**
+         * 从当前位置读取最多maxRecords条记录，返回实际读取的条数
+         */
+        public int poll(int maxRecords, RecordHandler handler) {
+            long from = position;
+            long to = Math.min(endOffset, from + maxRecords);
+            if (from < getStartOffset()) {
+                // 该位置的段已被清理
+                from = getStartOffset();
+            }
+            long offset = from;
+            while (offset < to) {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+                if (entry == null) {
+                    offset = getStartOffset();
+                    continue;
+                }
+                Segment segment = entry.getValue();
+                long segmentEnd = Math.min(to, segment.baseOffset + recordsPerSegment);
+                for (; offset < segmentEnd; offset++) {
+                    if (!reader.read(segment, (int) (offset - segment.baseOffset), handler, offset)) {
+                        throw new IllegalStateException("评分事件日志在偏移量 " + offset + " 处损坏");
+                    }
+                }
+            }
+            position = offset;
+            if (offset > from) {
+                signalProgress();
+            }
+            return (int) (offset - from);
+        }
+
+        /**
+         * 没有新数据时最多等待timeoutMs
+         */
+        public void awaitData(long timeoutMs) throws InterruptedException {
+            appendLock.lockInterruptibly();
+            try {
+                if (position >= endOffset && !closed) {
+                    dataAppended.await(timeoutMs, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        }
+
+        /**
+         * 持久化提交位置（临时文件 + 原子替换），随后清理所有消费者都已越过的旧段
+         */
+        public void commit(long offset) throws IOException {
+            Path tmp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+            Files.write(tmp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committedOffset = offset;
+            deleteConsumedSegments();
+        }
+    }
+
+    private long clamp(long offset) {
+        return Math.max(getStartOffset(), Math.min(endOffset, offset));
+    }
+
+    private long minConsumerPosition() {
+        long min = Long.MAX_VALUE;
+        for (Consumer consumer : consumers.values()) {
+            min = Math.min(min, consumer.position);
+        }
+        return min == Long.MAX_VALUE ? endOffset : min;
+    }
+
+    private void signalProgress() {
+        if (waitingProducers == 0) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            consumerProgress.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void deleteConsumedSegments() throws IOException {
+        long minCommitted = Long.MAX_VALUE;
+        for (Consumer consumer : consumers.values()) {
+            minCommitted = Math.min(minCommitted, consumer.committedOffset);
+        }
+        while (segments.size() > retainSegments) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            if (first.getKey() + recordsPerSegment > minCommitted || first.getValue() == activeSegment) {
+                break;
+            }
+            segments.remove(first.getKey());
+            Files.deleteIfExists(first.getValue().path);
+        }
+    }
+
+    private void rollSegment(long baseOffset) throws IOException {
+        activeSegment.buffer.force();
+        flushedOffset = Math.max(flushedOffset, baseOffset);
+        Segment segment = mapSegment(baseOffset);
+        segments.put(baseOffset, segment);
+        activeSegment = segment;
+    }
+
+    private Segment mapSegment(long baseOffset) throws IOException {
+        Path path = dir.resolve(String.format("%020d", baseOffset) + SEGMENT_SUFFIX);
+        long length = HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            boolean created = raf.length() == 0 || !checkHeader(path, raf);
+            if (raf.length() < length) {
+                raf.setLength(length);
+            }
+            // 映射在通道关闭后依然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (created) {
+                buffer.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, RECORD_SIZE).putInt(12, 0);
+            }
+            return new Segment(baseOffset, path, buffer);
+        }
+    }
+
+    /**
+     * 校验已有段文件的文件头，格式不符时拒绝打开，由调用方决定是否改用其他目录或清空
+     *
+     * @return 文件头是否已写入；扩展文件后、写头之前崩溃留下的全零文件头返回false，按新段重新写入
+     */
+    private static boolean checkHeader(Path path, RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_SIZE) {
+            throw new IOException("评分事件日志段文件不完整: " + path);
+        }
+        raf.seek(0);
+        int magic = raf.readInt();
+        int version = raf.readInt();
+        int recordSize = raf.readInt();
+        if (magic == 0 && version == 0 && recordSize == 0) {
+            return false;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("评分事件日志段文件格式无法识别（可能是旧版本不带文件头的日志）: " + path);
+        }
+        if (version != FORMAT_VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException("评分事件日志段文件版本不受支持: " + path + "，版本" + version + "，记录长度" + recordSize
+                    + "，当前版本" + FORMAT_VERSION + "，记录长度" + RECORD_SIZE);
+        }
+        return true;
+    }
+
+    private static int positionOf(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /**
+     * 记录读取器，复用缓冲区和校验器，每个读取线程各用一个
+     */
+    private static class RecordReader {
+        private final byte[] bytes = new byte[RECORD_SIZE];
+        private final ByteBuffer view = ByteBuffer.wrap(bytes);
+        private final CRC32 crc = new CRC32();
+
+        /**
+         * 读取段内第index条记录并校验，handler为null时只校验
+         *
+         * @return 记录不存在（时间戳为0）或校验失败时返回false
+         */
+        boolean read(Segment segment, int index, RecordHandler handler, long offset) {
+            int position = positionOf(index);
+            if (segment.buffer.getLong(position) == 0) {
+                return false;
+            }
+            ByteBuffer source = segment.buffer.duplicate();
+            source.position(position);
+            source.get(bytes);
+
+            crc.reset();
+            crc.update(bytes, 0, RECORD_SIZE - 4);
+            if ((int) crc.getValue() != view.getInt(RECORD_SIZE - 4)) {
+                return false;
+            }
+            if (handler != null) {
+                handler.handle(offset, view.getLong(0), view.getLong(8), view.getLong(16), view.getDouble(24), view.getInt(32));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.abc.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 评分结果导出
+ *
+ * 结果存储逐条回调（HBase为调优过的Scan，本地存储为顺序遍历映射文件），这里逐条编码后写入输出流，
+ * 经过一个固定大小的缓冲区直接进入HTTP响应，不在内存中保存整张表；占用的内存只有扫描器的预取缓冲和输出缓冲，
+ * 与表的大小无关。客户端断开时写入抛出IOException，扫描随之终止。
+ * 导出在异步线程中执行，不占用请求线程，但会长时间占用一个扫描器，同时进行的导出数由信号量限制。
+ * 请求汇总行时，正常结束后在末尾追加一行（NDJSON为{"complete":true,"count":N}，CSV为"# complete,count=N"），
+ * 客户端没有读到这一行即说明导出中途中断，数据不完整。CSV的汇总行会被一般的CSV读取工具当作数据行，需要显式请求。
+ */
+@Service
+public class RatingExportService {
+
+    // 输出缓冲区大小，写满后作为一个分块发送
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private RatingResultStore resultStore;
+
+    @Autowired
+    private MovieCatalogService movieCatalogService;
+
+    @Value("${export.max-concurrent:2}")
+    private int maxConcurrentExports;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Semaphore exportPermits;
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * 解析格式参数（大小写不敏感），无法识别时返回null
+         */
+        public static Format parse(String value) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(value) || format.extension.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 导出条件
+     */
+    public static class ExportRequest {
+        // movieId范围（含两端），为null表示不限
+        private final Long minMovieId;
+        private final Long maxMovieId;
+        // 是否导出标题和类型
+        private final boolean includeMetadata;
+        // 最多导出的条数，0表示不限
+        private final long limit;
+        // 是否在末尾追加汇总行，默认不追加
+        private final boolean trailer;
+        // 过滤作业的结果集标识，为null时导出全量结果
+        private final String scope;
+
+        public ExportRequest(Long minMovieId, Long maxMovieId, boolean includeMetadata, long limit) {
+            this(minMovieId, maxMovieId, includeMetadata, limit, false, null);
+        }
+
+        public ExportRequest(Long minMovieId, Long maxMovieId, boolean includeMetadata, long limit, boolean trailer,
+                             String scope) {
+            this.minMovieId = minMovieId;
+            this.maxMovieId = maxMovieId;
+            this.includeMetadata = includeMetadata;
+            this.limit = limit;
+            this.trailer = trailer;
+            this.scope = scope;
+        }
+
+        // Getters
+        public Long getMinMovieId() { return minMovieId; }
+        public Long getMaxMovieId() { return maxMovieId; }
+        public boolean isIncludeMetadata() { return includeMetadata; }
+        public long getLimit() { return limit; }
+        public boolean isTrailer() { return trailer; }
+        public String getScope() { return scope; }
+
+        public boolean hasRange() {
+            return minMovieId != null || maxMovieId != null;
+        }
+
+        public boolean contains(long movieId) {
+            return (minMovieId == null || movieId >= minMovieId) && (maxMovieId == null || movieId <= maxMovieId);
+        }
+    }
+
+    /**
+     * 逐条接收导出的评分，返回false时停止导出
+     */
+    public interface RatingConsumer {
+        boolean accept(MovieRatingQueryService.MovieRating rating) throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        exportPermits = new Semaphore(maxConcurrentExports);
+    }
+
+    /**
+     * 按Accept-Encoding判断客户端是否接受gzip：gzip（或x-gzip）的q值大于0时接受，
+     * 未列出gzip时按"*"的q值；q=0表示明确拒绝
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return false;
+        }
+        Double gzipQ = null;
+        Double wildcardQ = null;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0.0;
+                    }
+                }
+            }
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                gzipQ = gzipQ == null ? q : Math.max(gzipQ, q);
+            } else if ("*".equals(coding)) {
+                wildcardQ = q;
+            }
+        }
+        if (gzipQ != null) {
+            return gzipQ > 0;
+        }
+        return wildcardQ != null && wildcardQ > 0;
+    }
+
+    /**
+     * 申请一个导出名额，已达上限时返回false
+     */
+    public boolean tryAcquire() {
+        return exportPermits.tryAcquire();
+    }
+
+    public void release() {
+        exportPermits.release();
+    }
+
+    /**
+     * 按条件把评分结果编码后写入输出流，返回导出的条数
+     *
+     * @param gzip 是否压缩；输出流由调用方关闭
+     */
+    public long export(ExportRequest request, Format format, boolean gzip, OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, OUTPUT_BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzipOut != null ? gzipOut : out,
+                StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        MovieDictionary dictionary = request.isIncludeMetadata() ? movieCatalogService.getDictionary() : null;
+        RowEncoder encoder = format == Format.CSV
+                ? new CsvEncoder(writer, request.isIncludeMetadata())
+                : new NdjsonEncoder(objectMapper.getFactory().createGenerator(writer), request.isIncludeMetadata());
+
+        long[] exported = new long[1];
+        RatingResultStore store = request.getScope() != null ? resultStore.scoped(request.getScope()) : resultStore;
+        store.exportRatings(request, rating -> {
+            if (!request.contains(rating.getMovieId())) {
+                return true;
+            }
+            if (dictionary != null && rating.getTitle() == null) {
+                rating.setTitle(dictionary.getTitle(rating.getMovieId()));
+                rating.setGenres(dictionary.getGenres(rating.getMovieId()));
+            }
+            encoder.write(rating);
+            exported[0]++;
+            return request.getLimit() <= 0 || exported[0] < request.getLimit();
+        });
+        encoder.finish(request.isTrailer() ? exported[0] : -1);
+        writer.flush();
+        if (gzipOut != null) {
+            gzipOut.finish();
+        }
+        out.flush();
+        System.out.printf("评分结果导出完成: %d条, 格式%s%s, 耗时%dms%n", exported[0], format.getExtension(),
+                gzip ? "(gzip)" : "", System.currentTimeMillis() - startTime);
+        return exported[0];
+    }
+
+    private interface RowEncoder {
+        void write(MovieRatingQueryService.MovieRating rating) throws IOException;
+
+        /**
+         * 写出缓冲的内容，count不小于0时先追加汇总行
+         */
+        void finish(long count) throws IOException;
+    }
+
+    /**
+     * 每行一个JSON对象
+     */
+    private static class NdjsonEncoder implements RowEncoder {
+        private final JsonGenerator generator;
+        private final boolean includeMetadata;
+
+        NdjsonEncoder(JsonGenerator generator, boolean includeMetadata) {
+            this.generator = generator;
+            this.includeMetadata = includeMetadata;
+            // 顶层对象之间以换行分隔
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(MovieRatingQueryService.MovieRating rating) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("movieId", rating.getMovieId());
+            generator.writeNumberField("avgRating", rating.getAvgRating());
+            generator.writeNumberField("ratingCount", rating.getRatingCount());
+            if (includeMetadata) {
+                generator.writeStringField("title", rating.getTitle());
+                generator.writeArrayFieldStart("genres");
+                List<String> genres = rating.getGenres();
+                if (genres != null) {
+                    for (String genre : genres) {
+                        generator.writeString(genre);
+                    }
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish(long count) throws IOException {
+            if (count >= 0) {
+                generator.writeStartObject();
+                generator.writeBooleanField("complete", true);
+                generator.writeNumberField("count", count);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+        }
+    }
+
+    /**
+     * 带表头的CSV，类型以"|"连接，与movies.csv一致
+     */
+    private static class CsvEncoder implements RowEncoder {
+        private final Writer writer;
+        private final boolean includeMetadata;
+
+        CsvEncoder(Writer writer, boolean includeMetadata) throws IOException {
+            this.writer = writer;
+            this.includeMetadata = includeMetadata;
+            writer.write(includeMetadata ? "movieId,avgRating,ratingCount,title,genres\n" : "movieId,avgRating,ratingCount\n");
+        }
+
+        @Override
+        public void write(MovieRatingQueryService.MovieRating rating) throws IOException {
+            writer.write(Long.toString(rating.getMovieId()));
+            writer.write(',');
+            writer.write(Double.toString(rating.getAvgRating()));
+            writer.write(',');
+            writer.write(Long.toString(rating.getRatingCount()));
+            if (includeMetadata) {
+                writer.write(',');
+                writeQuoted(rating.getTitle());
+                writer.write(',');
+                writeQuoted(rating.getGenres() != null ? String.join("|", rating.getGenres()) : null);
+            }
+            writer.write('\n');
+        }
+
+        private void writeQuoted(String value) throws IOException {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish(long count) throws IOException {
+            if (count >= 0) {
+                writer.write("# complete,count=" + count + "\n");
+            }
+        }
+    }
+}
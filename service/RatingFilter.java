@@ -0,0 +1,219 @@
+package com.abc.service;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 批处理作业的评分过滤条件
+ *
+ * 条件在解析阶段逐字段判断：先只解析userId判断用户范围和抽样，再解析movieId，最后解析时间戳，
+ * 任一字段不满足就丢弃该行，不再解析后面的字段；评分值只对保留的行解析。
+ * 能用块统计信息（RatingBlockIndex）判断的条件（时间范围、movieId集合/范围、userId范围）还用于整块跳过输入。
+ * 所有条件为空时等价于不过滤。
+ */
+public class RatingFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // 时间戳范围（秒，含两端）
+    private Long fromTimestamp;
+    private Long toTimestamp;
+
+    // movieId范围（含两端）
+    private Long minMovieId;
+    private Long maxMovieId;
+
+    // movieId集合，升序去重
+    private long[] movieIds;
+
+    // userId范围（含两端），ml-latest的ratings.csv按userId排序，适合按块跳过
+    private Long minUserId;
+    private Long maxUserId;
+
+    // 用户抽样比例(0, 1]：按userId的哈希确定性抽样，同一用户的评分要么全部保留要么全部丢弃
+    private double userSampleRate = 1.0;
+
+    public static RatingFilter none() {
+        return new RatingFilter();
+    }
+
+    public boolean isEmpty() {
+        return !hasTimestampFilter() && !hasMovieFilter() && !hasUserFilter();
+    }
+
+    /**
+     * 是否有可以用块统计信息跳过输入的条件
+     */
+    public boolean isPrunable() {
+        return hasTimestampFilter() || hasMovieFilter() || minUserId != null || maxUserId != null;
+    }
+
+    public boolean hasUserFilter() {
+        return minUserId != null || maxUserId != null || userSampleRate < 1.0;
+    }
+
+    public boolean hasMovieFilter() {
+        return minMovieId != null || maxMovieId != null || movieIds != null;
+    }
+
+    public boolean hasTimestampFilter() {
+        return fromTimestamp != null || toTimestamp != null;
+    }
+
+    public boolean acceptUser(long userId) {
+        if ((minUserId != null && userId < minUserId) || (maxUserId != null && userId > maxUserId)) {
+            return false;
+        }
+        if (userSampleRate < 1.0) {
+            // 取混合后哈希的高53位映射到[0, 1)
+            return (mix(userId) >>> 11) * 0x1.0p-53 < userSampleRate;
+        }
+        return true;
+    }
+
+    public boolean acceptMovie(long movieId) {
+        if ((minMovieId != null && movieId < minMovieId) || (maxMovieId != null && movieId > maxMovieId)) {
+            return false;
+        }
+        return movieIds == null || Arrays.binarySearch(movieIds, movieId) >= 0;
+    }
+
+    public boolean acceptTimestamp(long timestamp) {
+        return (fromTimestamp == null || timestamp >= fromTimestamp) && (toTimestamp == null || timestamp <= toTimestamp);
+    }
+
+    /**
+     * 块中是否可能有满足条件的行（按块内各字段的最小/最大值判断）
+     */
+    public boolean mayMatch(RatingBlockIndex.Block block) {
+        if (!overlaps(block.getMinTimestamp(), block.getMaxTimestamp(), fromTimestamp, toTimestamp)
+                || !overlaps(block.getMinUserId(), block.getMaxUserId(), minUserId, maxUserId)
+                || !overlaps(block.getMinMovieId(), block.getMaxMovieId(), minMovieId, maxMovieId)) {
+            return false;
+        }
+        if (movieIds != null) {
+            // 集合中第一个不小于块内最小movieId的值也不超过块内最大movieId
+            int index = Arrays.binarySearch(movieIds, block.getMinMovieId());
+            int insertion = index >= 0 ? index : -index - 1;
+            return insertion < movieIds.length && movieIds[insertion] <= block.getMaxMovieId();
+        }
+        return true;
+    }
+
+    private static boolean overlaps(long blockMin, long blockMax, Long from, Long to) {
+        return (from == null || blockMax >= from) && (to == null || blockMin <= to);
+    }
+
+    /**
+     * 条件的唯一标识，用于结果缓存指纹和过滤作业的结果集名称
+     * 对包含完整movieId集合的规范化描述取SHA-256（十六进制），不同条件不会因描述被截断或哈希碰撞而共用结果；
+     * 所有条件为空时返回"none"
+     */
+    public String cacheKey() {
+        if (isEmpty()) {
+            return "none";
+        }
+        StringBuilder canonical = new StringBuilder();
+        canonical.append("timestamp=").append(fromTimestamp).append(',').append(toTimestamp)
+                .append(";movieId=").append(minMovieId).append(',').append(maxMovieId)
+                .append(";movieIds=");
+        if (movieIds != null) {
+            for (int i = 0; i < movieIds.length; i++) {
+                if (i > 0) {
+                    canonical.append(',');
+                }
+                canonical.append(movieIds[i]);
+            }
+        }
+        canonical.append(";userId=").append(minUserId).append(',').append(maxUserId)
+                .append(";userSample=").append(userSampleRate);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 规范化的条件描述，相同条件得到相同的字符串，用于作业描述和日志；movieId集合较大时只给出个数，不能用作标识
+     */
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "none";
+        }
+        StringBuilder description = new StringBuilder();
+        if (hasTimestampFilter()) {
+            description.append("timestamp=[").append(fromTimestamp != null ? fromTimestamp : "")
+                    .append(',').append(toTimestamp != null ? toTimestamp : "").append("] ");
+        }
+        if (minMovieId != null || maxMovieId != null) {
+            description.append("movieId=[").append(minMovieId != null ? minMovieId : "")
+                    .append(',').append(maxMovieId != null ? maxMovieId : "").append("] ");
+        }
+        if (movieIds != null) {
+            description.append("movieIds=").append(movieIds.length <= 20 ? Arrays.toString(movieIds)
+                    : movieIds.length + "个(hash=" + Integer.toHexString(Arrays.hashCode(movieIds)) + ")").append(' ');
+        }
+        if (minUserId != null || maxUserId != null) {
+            description.append("userId=[").append(minUserId != null ? minUserId : "")
+                    .append(',').append(maxUserId != null ? maxUserId : "").append("] ");
+        }
+        if (userSampleRate < 1.0) {
+            description.append("userSample=").append(userSampleRate).append(' ');
+        }
+        return description.toString().trim();
+    }
+
+    /**
+     * 64位混合函数（SplitMix64的终结步骤），与HyperLogLog相同
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Getters and Setters
+    public Long getFromTimestamp() { return fromTimestamp; }
+    public void setFromTimestamp(Long fromTimestamp) { this.fromTimestamp = fromTimestamp; }
+    public Long getToTimestamp() { return toTimestamp; }
+    public void setToTimestamp(Long toTimestamp) { this.toTimestamp = toTimestamp; }
+    public Long getMinMovieId() { return minMovieId; }
+    public void setMinMovieId(Long minMovieId) { this.minMovieId = minMovieId; }
+    public Long getMaxMovieId() { return maxMovieId; }
+    public void setMaxMovieId(Long maxMovieId) { this.maxMovieId = maxMovieId; }
+    public long[] getMovieIds() { return movieIds; }
+    public Long getMinUserId() { return minUserId; }
+    public void setMinUserId(Long minUserId) { this.minUserId = minUserId; }
+    public Long getMaxUserId() { return maxUserId; }
+    public void setMaxUserId(Long maxUserId) { this.maxUserId = maxUserId; }
+    public double getUserSampleRate() { return userSampleRate; }
+
+    /**
+     * 设置movieId集合，null或空集合表示不限
+     */
+    public void setMovieIds(long[] movieIds) {
+        if (movieIds == null || movieIds.length == 0) {
+            this.movieIds = null;
+            return;
+        }
+        this.movieIds = Arrays.stream(movieIds).sorted().distinct().toArray();
+    }
+
+    public void setUserSampleRate(double userSampleRate) {
+        if (!(userSampleRate > 0 && userSampleRate <= 1.0)) {
+            throw new IllegalArgumentException("userSampleRate必须在(0, 1]之间: " + userSampleRate);
+        }
+        this.userSampleRate = userSampleRate;
+    }
+}
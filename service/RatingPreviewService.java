@@ -0,0 +1,597 @@
+package com.abc.service;
+
+import com.abc.config.ExecutorRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 批处理作业运行期间的近似预览结果
+ *
+ * 与Flink作业同时在后台线程中按随机顺序读取输入文件的块（RatingBlockIndex划分的块，已按过滤条件排除的块不读），
+ * 每读完一块更新各电影的评分累计，并按发布间隔生成一份快照：平均评分的点估计及95%置信区间、按抽样比例推算的评分次数。
+ * 随机顺序读取的前m块是所有块的不放回简单随机抽样，每块是一个整群（ratings.csv按userId排序，块内是一段连续用户），
+ * 平均评分按比率估计量计算，方差用块间残差估计并带有限总体校正，区间在块数较少时使用t分布分位数，
+ * 读完全部块时区间宽度为0。
+ * Flink作业成功结束后预览标记为精确结果已就绪并释放估计数据，客户端改为查询作业写入的结果存储（过滤作业为其独立结果集）；
+ * 之后另一个作业开始重写同一个结果存储时，预览记下该作业，精确结果不再由这次预览提供。作业失败时预览标记为取消。
+ * 预览只对本地文件可用，与作业竞争CPU和磁盘，由 preview.threads 限制同时运行的预览数。
+ */
+@Service
+public class RatingPreviewService {
+
+    // 95%置信水平下自由度1~30的t分布分位数，自由度更大时使用正态分位数
+    private static final double[] T_QUANTILES_95 = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+    private static final double Z_95 = 1.960;
+
+    public static final double CONFIDENCE_LEVEL = 0.95;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private ProgressTrackingService progressTrackingService;
+
+    @Value("${preview.threads:1}")
+    private int previewThreads;
+
+    @Value("${preview.queue-capacity:2}")
+    private int previewQueueCapacity;
+
+    // 两次发布快照的最小间隔
+    @Value("${preview.publish-interval-ms:1000}")
+    private long publishIntervalMs;
+
+    // 内存中保留的已结束预览数
+    @Value("${preview.max-retained:8}")
+    private int maxRetained;
+
+    private ExecutorService previewExecutor;
+
+    // 作业ID -> 预览，按开始顺序排列，超过保留数量时淘汰最早的已结束预览
+    private final Map<String, Preview> previews = new LinkedHashMap<>();
+
+    /**
+     * 预览状态
+     */
+    public enum PreviewState {
+        SAMPLING("抽样中"),
+        COMPLETE("已读完全部数据"),
+        EXACT("精确结果已就绪"),
+        CANCELLED("已取消"),
+        FAILED("失败");
+
+        private final String description;
+
+        PreviewState(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * 一次预览的快照，按movieId升序保存各电影的估计值，发布后不再修改
+     */
+    public static class PreviewSnapshot {
+        private final int sampledBlocks;
+        private final int totalBlocks;
+        private final long sampledRecords;
+        private final long totalRecords;
+        private final long updatedAt;
+        private final long[] movieIds;
+        private final long[] sampledCounts;
+        private final double[] means;
+        // 置信区间半宽，块数不足2时为NaN
+        private final double[] halfWidths;
+
+        PreviewSnapshot(int sampledBlocks, int totalBlocks, long sampledRecords, long totalRecords,
+                        long[] movieIds, long[] sampledCounts, double[] means, double[] halfWidths) {
+            this.sampledBlocks = sampledBlocks;
+            this.totalBlocks = totalBlocks;
+            this.sampledRecords = sampledRecords;
+            this.totalRecords = totalRecords;
+            this.updatedAt = System.currentTimeMillis();
+            this.movieIds = movieIds;
+            this.sampledCounts = sampledCounts;
+            this.means = means;
+            this.halfWidths = halfWidths;
+        }
+
+        // Getters
+        public int getSampledBlocks() { return sampledBlocks; }
+        public int getTotalBlocks() { return totalBlocks; }
+        public long getSampledRecords() { return sampledRecords; }
+        public long getTotalRecords() { return totalRecords; }
+        public long getUpdatedAt() { return updatedAt; }
+        public int getMovieCount() { return movieIds.length; }
+
+        /**
+         * 已读取的行数占候选块总行数的比例
+         */
+        public double getSampledFraction() {
+            return totalRecords > 0 ? (double) sampledRecords / totalRecords : 0.0;
+        }
+
+        MovieEstimate estimate(int index) {
+            double halfWidth = halfWidths[index];
+            Double lower = Double.isNaN(halfWidth) ? null : means[index] - halfWidth;
+            Double upper = Double.isNaN(halfWidth) ? null : means[index] + halfWidth;
+            // 按块抽样比例推算评分次数
+            long estimatedCount = sampledBlocks > 0
+                    ? Math.round((double) sampledCounts[index] * totalBlocks / sampledBlocks) : 0;
+            return new MovieEstimate(movieIds[index], means[index], lower, upper, sampledCounts[index], estimatedCount);
+        }
+
+        int indexOf(long movieId) {
+            return Arrays.binarySearch(movieIds, movieId);
+        }
+    }
+
+    /**
+     * 单部电影的估计结果
+     */
+    public static class MovieEstimate {
+        private final Long movieId;
+        private final Double avgRating;
+        private final Double lowerBound;
+        private final Double upperBound;
+        private final Long sampledCount;
+        private final Long estimatedRatingCount;
+
+        MovieEstimate(Long movieId, Double avgRating, Double lowerBound, Double upperBound, Long sampledCount,
+                      Long estimatedRatingCount) {
+            this.movieId = movieId;
+            this.avgRating = avgRating;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.sampledCount = sampledCount;
+            this.estimatedRatingCount = estimatedRatingCount;
+        }
+
+        // Getters
+        public Long getMovieId() { return movieId; }
+        public Double getAvgRating() { return avgRating; }
+        public Double getLowerBound() { return lowerBound; }
+        public Double getUpperBound() { return upperBound; }
+        public Long getSampledCount() { return sampledCount; }
+        public Long getEstimatedRatingCount() { return estimatedRatingCount; }
+    }
+
+    /**
+     * 一个作业的预览
+     */
+    public static class Preview {
+        private final String jobId;
+        private final String csvFilePath;
+        private final String filter;
+        // 作业写入的结果存储名称和过滤作业的结果集标识（全量结果为null）
+        private final String resultStore;
+        private final String resultScope;
+        private final long startTime = System.currentTimeMillis();
+        private volatile PreviewState state = PreviewState.SAMPLING;
+        private volatile PreviewSnapshot snapshot;
+        private volatile boolean stopRequested;
+        private volatile String message = "";
+        // 之后重写了同一结果存储的作业，为null表示结果存储中仍是本作业的结果
+        private volatile String overwrittenBy;
+
+        Preview(String jobId, String csvFilePath, String filter, String resultStore, String resultScope) {
+            this.jobId = jobId;
+            this.csvFilePath = csvFilePath;
+            this.filter = filter;
+            this.resultStore = resultStore;
+            this.resultScope = resultScope;
+        }
+
+        // Getters
+        public String getJobId() { return jobId; }
+        public String getCsvFilePath() { return csvFilePath; }
+        public String getFilter() { return filter; }
+        public long getStartTime() { return startTime; }
+        public PreviewState getState() { return state; }
+        public PreviewSnapshot getSnapshot() { return snapshot; }
+        public String getMessage() { return message; }
+        public String getResultStore() { return resultStore; }
+        public String getResultScope() { return resultScope; }
+        public String getOverwrittenBy() { return overwrittenBy; }
+
+        /**
+         * 按movieId查询估计值，没有抽到该电影时不包含在结果中
+         */
+        public List<MovieEstimate> getEstimates(Collection<Long> movieIds) {
+            PreviewSnapshot current = snapshot;
+            List<MovieEstimate> estimates = new ArrayList<>();
+            if (current == null) {
+                return estimates;
+            }
+            for (Long movieId : movieIds) {
+                int index = current.indexOf(movieId);
+                if (index >= 0) {
+                    estimates.add(current.estimate(index));
+                }
+            }
+            return estimates;
+        }
+
+        /**
+         * 抽样评分次数最多（byCount为true）或movieId最小的前limit部电影的估计值
+         */
+        public List<MovieEstimate> getTopEstimates(int limit, boolean byCount) {
+            PreviewSnapshot current = snapshot;
+            List<MovieEstimate> estimates = new ArrayList<>();
+            if (current == null) {
+                return estimates;
+            }
+            int count = current.movieIds.length;
+            if (!byCount) {
+                for (int i = 0; i < Math.min(limit, count); i++) {
+                    estimates.add(current.estimate(i));
+                }
+                return estimates;
+            }
+            // 按抽样次数维护大小为limit的小顶堆
+            PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, limit),
+                    Comparator.comparingLong((Integer i) -> current.sampledCounts[i]));
+            for (int i = 0; i < count; i++) {
+                if (heap.size() < limit) {
+                    heap.add(i);
+                } else if (limit > 0 && current.sampledCounts[i] > current.sampledCounts[heap.peek()]) {
+                    heap.poll();
+                    heap.add(i);
+                }
+            }
+            while (!heap.isEmpty()) {
+                estimates.add(current.estimate(heap.poll()));
+            }
+            Collections.reverse(estimates);
+            return estimates;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        previewExecutor = executorRegistry.newBoundedPool("rating-preview", previewThreads, previewQueueCapacity);
+    }
+
+    /**
+     * 为作业启动预览；不是本地文件或预览线程已满时返回false，作业照常执行
+     *
+     * @param resultStore 作业写入的结果存储名称，用于判断精确结果之后是否被其他作业覆盖
+     */
+    public boolean start(String jobId, String csvFilePath, RatingFilter filter, String resultStore) {
+        if (!Files.isRegularFile(Paths.get(csvFilePath))) {
+            System.out.println("输入不是本地文件，作业 " + jobId + " 不生成预览");
+            return false;
+        }
+        Preview preview = new Preview(jobId, csvFilePath, filter.toString(), resultStore,
+                filter.isEmpty() ? null : filter.cacheKey());
+        synchronized (previews) {
+            previews.put(jobId, preview);
+            evictFinished();
+        }
+        try {
+            previewExecutor.execute(() -> run(preview, filter));
+        } catch (RejectedExecutionException e) {
+            finish(preview, PreviewState.FAILED, "预览线程已满，未生成预览");
+            return false;
+        }
+        publishProgress(preview);
+        return true;
+    }
+
+    /**
+     * Flink作业结束时调用：成功时精确结果已写入结果存储，替换预览；失败时取消预览
+     */
+    public void finish(String jobId, boolean success) {
+        Preview preview = getPreview(jobId);
+        if (preview == null) {
+            return;
+        }
+        preview.stopRequested = true;
+        if (success) {
+            finish(preview, PreviewState.EXACT, "作业已完成，精确结果已写入结果存储");
+        } else {
+            finish(preview, PreviewState.CANCELLED, "作业失败，预览已取消");
+        }
+    }
+
+    /**
+     * 作业开始重写结果存储前调用：之前写入同一存储的作业的精确结果即将被覆盖，其预览不再指向结果存储
+     */
+    public void resultStoreRewriting(String resultStore, String jobId) {
+        List<Preview> affected = new ArrayList<>();
+        synchronized (previews) {
+            for (Preview preview : previews.values()) {
+                if (resultStore.equals(preview.resultStore) && !preview.jobId.equals(jobId)) {
+                    affected.add(preview);
+                }
+            }
+        }
+        for (Preview preview : affected) {
+            synchronized (preview) {
+                if (preview.overwrittenBy == null) {
+                    preview.overwrittenBy = jobId != null ? jobId : "unknown";
+                    if (preview.state == PreviewState.EXACT) {
+                        preview.message = "结果存储已被作业 " + preview.overwrittenBy + " 重写，本作业的精确结果不再可用";
+                    }
+                }
+            }
+        }
+    }
+
+    public Preview getPreview(String jobId) {
+        synchronized (previews) {
+            return previews.get(jobId);
+        }
+    }
+
+    private void finish(Preview preview, PreviewState state, String message) {
+        synchronized (preview) {
+            if (preview.state == PreviewState.EXACT || preview.state == PreviewState.CANCELLED
+                    || preview.state == PreviewState.FAILED) {
+                return;
+            }
+            preview.state = state;
+            preview.message = message;
+            if (state == PreviewState.EXACT || state == PreviewState.CANCELLED) {
+                // 估计值不再提供，释放内存
+                preview.snapshot = null;
+            }
+        }
+        publishProgress(preview);
+    }
+
+    private void evictFinished() {
+        int finished = 0;
+        for (Preview preview : previews.values()) {
+            if (preview.state != PreviewState.SAMPLING) {
+                finished++;
+            }
+        }
+        Iterator<Preview> iterator = previews.values().iterator();
+        while (finished > maxRetained && iterator.hasNext()) {
+            if (iterator.next().state != PreviewState.SAMPLING) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    private void publishProgress(Preview preview) {
+        PreviewSnapshot snapshot = preview.snapshot;
+        progressTrackingService.updatePreview(preview.jobId, preview.state.getDescription(),
+                snapshot != null ? snapshot.sampledRecords : 0,
+                snapshot != null ? snapshot.getSampledFraction() : 0.0,
+                snapshot != null ? snapshot.getMovieCount() : 0);
+    }
+
+    /**
+     * 按随机顺序读取候选块并定期发布快照，直到读完或作业结束
+     */
+    private void run(Preview preview, RatingFilter filter) {
+        try {
+            Path file = Paths.get(preview.csvFilePath);
+            RatingBlockIndex index = RatingBlockIndex.forFile(file);
+            List<RatingBlockIndex.Block> blocks = new ArrayList<>(index.select(filter));
+            Collections.shuffle(blocks);
+            long totalRecords = 0;
+            int maxLength = 0;
+            for (RatingBlockIndex.Block block : blocks) {
+                totalRecords += block.getRows();
+                maxLength = (int) Math.max(maxLength, block.getLength());
+            }
+
+            Estimator estimator = new Estimator(filter);
+            ByteBuffer buffer = ByteBuffer.allocate(maxLength);
+            long lastPublish = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (RatingBlockIndex.Block block : blocks) {
+                    if (preview.stopRequested) {
+                        return;
+                    }
+                    buffer.clear();
+                    buffer.limit((int) block.getLength());
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, block.getOffset() + buffer.position()) < 0) {
+                            break;
+                        }
+                    }
+                    estimator.addBlock(buffer.array(), buffer.position(), block.getRows());
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastPublish >= publishIntervalMs || estimator.sampledBlocks == blocks.size()) {
+                        lastPublish = now;
+                        PreviewSnapshot snapshot = estimator.snapshot(blocks.size(), totalRecords);
+                        synchronized (preview) {
+                            if (preview.state != PreviewState.SAMPLING) {
+                                return;
+                            }
+                            preview.snapshot = snapshot;
+                            preview.message = String.format("已抽样%d/%d块，%d条评分，%d部电影",
+                                    snapshot.sampledBlocks, snapshot.totalBlocks, snapshot.sampledRecords,
+                                    snapshot.getMovieCount());
+                        }
+                        publishProgress(preview);
+                    }
+                }
+            }
+            if (blocks.isEmpty()) {
+                // 过滤条件排除了所有块，预览为空
+                preview.snapshot = estimator.snapshot(0, 0);
+            }
+            finish(preview, PreviewState.COMPLETE, "已读完全部" + blocks.size() + "块，估计值等于精确值，等待作业写入结果存储");
+            System.out.printf("作业 %s 的预览已读完全部数据，耗时%dms%n", preview.jobId,
+                    System.currentTimeMillis() - preview.startTime);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("作业 " + preview.jobId + " 的预览失败: " + e.getMessage());
+            finish(preview, PreviewState.FAILED, "预览失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 整群抽样下的平均评分比率估计
+     *
+     * 对每部电影，y_b和n_b为第b个已读块中它的评分总和与次数，r = Σy_b / Σn_b，
+     * Var(r) ≈ (1 - m/M) / (m · n̄²) · Σ(y_b - r·n_b)² / (m - 1)，n̄ = Σn_b / m，
+     * 其中m为已读块数（包括没有该电影评分的块），M为候选块总数。
+     * 残差平方和展开为 Σy_b² - 2rΣy_b·n_b + r²Σn_b²，只需在每块结束时累加三个量。
+     */
+    static class Estimator {
+        private final RatingFilter filter;
+        private final Map<Long, MovieStats> stats = new HashMap<>();
+        // 当前块中出现过的电影
+        private final List<MovieStats> touched = new ArrayList<>();
+        int sampledBlocks;
+        long sampledRecords;
+
+        Estimator(RatingFilter filter) {
+            this.filter = filter;
+        }
+
+        static class MovieStats {
+            long count;
+            double sum;
+            // 当前块内的累计
+            long blockCount;
+            double blockSum;
+            // 各块累计量的平方和与交叉积
+            double sumBlockSumSq;
+            double sumBlockSumCount;
+            double sumBlockCountSq;
+        }
+
+        /**
+         * 逐字节解析一块数据，按过滤条件累计评分；无法解析的行（如表头）跳过
+         */
+        void addBlock(byte[] data, int length, long blockRows) {
+            int field = 0;
+            long value = 0;
+            long userId = 0;
+            long movieId = 0;
+            // 评分按“整数部分.小数部分”解析
+            long ratingDigits = 0;
+            long ratingScale = 1;
+            boolean fraction = false;
+            boolean valid = true;
+            for (int i = 0; i <= length; i++) {
+                byte b = i < length ? data[i] : (byte) '\n';
+                if (b == '\n') {
+                    if (valid && field == 3) {
+                        accept(userId, movieId, (double) ratingDigits / ratingScale, value);
+                    }
+                    field = 0;
+                    value = 0;
+                    ratingDigits = 0;
+                    ratingScale = 1;
+                    fraction = false;
+                    valid = true;
+                } else if (b == ',') {
+                    if (field == 0) {
+                        userId = value;
+                    } else if (field == 1) {
+                        movieId = value;
+                    }
+                    field++;
+                    value = 0;
+                } else if (b >= '0' && b <= '9') {
+                    if (field == 2) {
+                        ratingDigits = ratingDigits * 10 + (b - '0');
+                        if (fraction) {
+                            ratingScale *= 10;
+                        }
+                    } else {
+                        value = value * 10 + (b - '0');
+                    }
+                } else if (b == '.' && field == 2 && !fraction) {
+                    fraction = true;
+                } else if (b != '\r') {
+                    valid = false;
+                }
+            }
+            sampledBlocks++;
+            sampledRecords += blockRows;
+            for (MovieStats movie : touched) {
+                movie.sumBlockSumSq += movie.blockSum * movie.blockSum;
+                movie.sumBlockSumCount += movie.blockSum * movie.blockCount;
+                movie.sumBlockCountSq += (double) movie.blockCount * movie.blockCount;
+                movie.blockSum = 0;
+                movie.blockCount = 0;
+            }
+            touched.clear();
+        }
+
+        private void accept(long userId, long movieId, double rating, long timestamp) {
+            if (!filter.acceptUser(userId) || !filter.acceptMovie(movieId) || !filter.acceptTimestamp(timestamp)) {
+                return;
+            }
+            MovieStats movie = stats.get(movieId);
+            if (movie == null) {
+                movie = new MovieStats();
+                stats.put(movieId, movie);
+            }
+            if (movie.blockCount == 0) {
+                touched.add(movie);
+            }
+            movie.count++;
+            movie.sum += rating;
+            movie.blockCount++;
+            movie.blockSum += rating;
+        }
+
+        PreviewSnapshot snapshot(int totalBlocks, long totalRecords) {
+            int size = stats.size();
+            long[] movieIds = new long[size];
+            int i = 0;
+            for (Long movieId : stats.keySet()) {
+                movieIds[i++] = movieId;
+            }
+            Arrays.sort(movieIds);
+
+            int m = sampledBlocks;
+            double finiteCorrection = totalBlocks > 0 ? Math.max(0.0, 1.0 - (double) m / totalBlocks) : 0.0;
+            double quantile = m >= 2 ? tQuantile95(m - 1) : Double.NaN;
+
+            long[] counts = new long[size];
+            double[] means = new double[size];
+            double[] halfWidths = new double[size];
+            for (i = 0; i < size; i++) {
+                MovieStats movie = stats.get(movieIds[i]);
+                double mean = movie.sum / movie.count;
+                counts[i] = movie.count;
+                means[i] = mean;
+                if (m < 2) {
+                    halfWidths[i] = Double.NaN;
+                    continue;
+                }
+                double residual = movie.sumBlockSumSq - 2 * mean * movie.sumBlockSumCount
+                        + mean * mean * movie.sumBlockCountSq;
+                double meanCount = (double) movie.count / m;
+                double variance = finiteCorrection * Math.max(0.0, residual) / (m - 1) / (m * meanCount * meanCount);
+                halfWidths[i] = quantile * Math.sqrt(variance);
+            }
+            return new PreviewSnapshot(m, totalBlocks, sampledRecords, totalRecords, movieIds, counts, means, halfWidths);
+        }
+    }
+
+    static double tQuantile95(int degreesOfFreedom) {
+        return degreesOfFreedom <= T_QUANTILES_95.length ? T_QUANTILES_95[degreesOfFreedom - 1] : Z_95;
+    }
+}
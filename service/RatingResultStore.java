@@ -0,0 +1,101 @@
+package com.abc.service;
+
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.connector.sink2.Sink;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple6;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 评分结果存储
+ * 批处理作业通过它创建输出（每部电影的平均评分、Top-N排行榜），查询服务通过它读取结果。
+ * DataSet作业使用OutputFormat，DataStream作业使用由同一OutputFormat包装成的Sink。
+ * 由配置项 result-store.type 选择实现：hbase（默认）或 local（单机内嵌，不依赖HBase/ZooKeeper）
+ */
+public interface RatingResultStore {
+
+    /**
+     * 存储类型名称，用于日志和接口展示
+     */
+    String getName();
+
+    /**
+     * 作业开始写入前调用，清除上一次作业留下的、本次不一定会覆盖的结果
+     * 两种实现都清空每部电影的评分（上一次作业独有、本次输入中没有的电影随之消失），到作业写入前查询不到任何电影；
+     * 排行榜由作业整体替换
+     */
+    default void beginRun() throws IOException {
+    }
+
+    /**
+     * 带过滤条件的作业使用的独立结果集：评分和排行榜与全量结果分开存放，互不覆盖
+     * 同一scope多次调用返回同一个实例
+     *
+     * @param scope 结果集标识，即RatingFilter.cacheKey()（64位十六进制）
+     */
+    RatingResultStore scoped(String scope);
+
+    /**
+     * 校验结果集标识，只接受64位小写十六进制，标识会用于目录名和表名
+     */
+    static String checkScope(String scope) {
+        if (scope == null || !scope.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("结果集标识无效: " + scope);
+        }
+        return scope;
+    }
+
+    /**
+     * 创建每部电影平均评分的输出，记录格式为(movieId, avgRating, count)
+     */
+    OutputFormat<Tuple3<Long, Double, Long>> createRatingSink();
+
+    /**
+     * 创建排行榜输出，记录格式为(rankingType, rank, movieId, avgRating, count, score)，以并行度1运行
+     */
+    OutputFormat<Tuple6<String, Integer, Long, Double, Long, Double>> createRankingSink();
+
+    /**
+     * DataStream作业的每部电影平均评分输出；流模式下同一部电影会多次写入，以最后一次为准
+     */
+    default Sink<Tuple3<Long, Double, Long>> createRatingStreamSink() {
+        return new OutputFormatSink<>(createRatingSink());
+    }
+
+    /**
+     * DataStream作业的排行榜输出，以并行度1运行
+     */
+    default Sink<Tuple6<String, Integer, Long, Double, Long, Double>> createRankingStreamSink() {
+        return new OutputFormatSink<>(createRankingSink());
+    }
+
+    /**
+     * 批量读取电影评分
+     *
+     * @param movieIds 电影ID列表（已去重）
+     * @return movieId -> 评分结果，不存在的电影不出现在结果中
+     */
+    CompletableFuture<Map<Long, MovieRatingQueryService.MovieRating>> getMovieRatings(List<Long> movieIds);
+
+    /**
+     * 分页读取排行榜
+     *
+     * @param rankingType 排行榜类型
+     * @param page        页码，从0开始
+     * @param size        每页条数
+     */
+    CompletableFuture<MovieRatingQueryService.RankingPage> getRankingPage(String rankingType, int page, int size);
+
+    /**
+     * 按条件逐条导出电影评分，不把结果整体读入内存；在调用线程上阻塞执行直到导出结束、consumer返回false或抛出异常
+     *
+     * @param request  movieId范围、是否包含标题和类型、条数上限
+     * @param consumer 接收每条评分；存储中没有元数据时title为null
+     */
+    void exportRatings(RatingExportService.ExportRequest request, RatingExportService.RatingConsumer consumer)
+            throws IOException;
+}
@@ -0,0 +1,189 @@
+package com.abc.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 按movieId聚合前的热门键检测
+ *
+ * 评分数据高度倾斜：少数电影有数万条评分，大多数只有几条。按movieId哈希分区后，热门电影所在的子任务处理的记录远多于其他子任务，
+ * 作业要等这几个子任务结束。这里从作业将要读取的输入中均匀抽取一部分行（按作业的过滤条件过滤），
+ * 估计每部电影的记录占比；占比超过单个子任务平均负载的一定比例的电影视为热门键，
+ * 为它们分配若干个盐值，聚合时按(movieId, 盐值)先部分聚合、再按movieId合并。
+ */
+public final class RatingSkewSampler {
+
+    // 抽样位置数：样本分散在文件各处，避免只抽到按userId排序的某一段用户
+    private static final int SAMPLE_POSITIONS = 64;
+
+    // 样本中出现次数少于该值的电影不视为热门键，占比估计不可靠
+    private static final int MIN_SAMPLE_COUNT = 20;
+
+    private RatingSkewSampler() {}
+
+    /**
+     * 热门键及其盐值个数
+     */
+    public static class SkewPlan implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<Long, Integer> salts;
+        private final long sampledRecords;
+
+        SkewPlan(HashMap<Long, Integer> salts, long sampledRecords) {
+            this.salts = salts;
+            this.sampledRecords = sampledRecords;
+        }
+
+        public static SkewPlan none() {
+            return new SkewPlan(new HashMap<>(), 0);
+        }
+
+        public boolean isEmpty() {
+            return salts.isEmpty();
+        }
+
+        /**
+         * 电影的盐值个数，非热门键为1
+         */
+        public int saltsFor(long movieId) {
+            Integer count = salts.get(movieId);
+            return count != null ? count : 1;
+        }
+
+        // Getters
+        public Map<Long, Integer> getSalts() { return Collections.unmodifiableMap(salts); }
+        public long getSampledRecords() { return sampledRecords; }
+    }
+
+    /**
+     * 抽样并确定热门键
+     *
+     * @param blocks           作业将读取的块，为null时在整个文件中抽样
+     * @param sampleSize       抽样行数
+     * @param parallelism      聚合算子的并行度
+     * @param heavyKeyFraction 占比达到 heavyKeyFraction/parallelism（单个子任务平均负载的该比例）时视为热门键；
+     *                         盐值个数取占比与该阈值之比（向上取整，至少2，至多parallelism），使每个分片不超过阈值
+     * @param maxHeavyKeys     热门键个数上限，按样本中出现次数取前若干个
+     */
+    public static SkewPlan plan(String csvFilePath, List<RatingBlockIndex.Block> blocks, RatingFilter filter,
+                                int sampleSize, int parallelism, double heavyKeyFraction, int maxHeavyKeys)
+            throws IOException {
+        Path file = Paths.get(csvFilePath);
+        if (parallelism <= 1 || sampleSize <= 0 || !Files.isRegularFile(file)) {
+            return SkewPlan.none();
+        }
+
+        // 抽样范围：选中的块或整个文件
+        List<long[]> ranges = new ArrayList<>();
+        if (blocks != null) {
+            for (RatingBlockIndex.Block block : blocks) {
+                ranges.add(new long[]{block.getOffset(), block.getLength()});
+            }
+        } else {
+            ranges.add(new long[]{0, Files.size(file)});
+        }
+        long totalBytes = 0;
+        for (long[] range : ranges) {
+            totalBytes += range[1];
+        }
+        if (totalBytes == 0) {
+            return SkewPlan.none();
+        }
+
+        Map<Long, Long> counts = new HashMap<>();
+        long sampled = 0;
+        int linesPerPosition = Math.max(1, sampleSize / SAMPLE_POSITIONS);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < SAMPLE_POSITIONS; i++) {
+                // 第i个抽样点在所有范围拼接后的字节位置，映射回所在范围
+                long target = (long) ((i + 0.5) * totalBytes / SAMPLE_POSITIONS);
+                long rangeStart = 0;
+                long rangeEnd = 0;
+                for (long[] range : ranges) {
+                    if (target < range[1]) {
+                        rangeStart = range[0];
+                        rangeEnd = range[0] + range[1];
+                        target += range[0];
+                        break;
+                    }
+                    target -= range[1];
+                }
+                sampled += sampleAt(channel, target, rangeStart, rangeEnd, linesPerPosition, filter, counts);
+            }
+        }
+        if (sampled == 0) {
+            return SkewPlan.none();
+        }
+
+        // 占比阈值：单个子任务平均负载(1/parallelism)的heavyKeyFraction倍
+        double threshold = heavyKeyFraction / parallelism;
+        List<Map.Entry<Long, Long>> candidates = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            if (entry.getValue() >= MIN_SAMPLE_COUNT && (double) entry.getValue() / sampled >= threshold) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        HashMap<Long, Integer> salts = new HashMap<>();
+        for (Map.Entry<Long, Long> entry : candidates.subList(0, Math.min(maxHeavyKeys, candidates.size()))) {
+            double share = (double) entry.getValue() / sampled;
+            int saltCount = (int) Math.min(parallelism, Math.max(2, Math.ceil(share / threshold)));
+            salts.put(entry.getKey(), saltCount);
+        }
+        return new SkewPlan(salts, sampled);
+    }
+
+    /**
+     * 从position开始读取至多maxLines行（不超过范围末尾），position不在范围起点时先跳过不完整的行
+     */
+    private static long sampleAt(FileChannel channel, long position, long rangeStart, long rangeEnd, int maxLines,
+                                 RatingFilter filter, Map<Long, Long> counts) throws IOException {
+        channel.position(position);
+        // 不关闭读取器，关闭会连同channel一起关闭
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                StandardCharsets.UTF_8), 64 * 1024);
+        long consumed = 0;
+        String line;
+        if (position > rangeStart) {
+            line = reader.readLine();
+            if (line == null) {
+                return 0;
+            }
+            consumed += line.length() + 1;
+        }
+        long sampled = 0;
+        int lines = 0;
+        while (lines < maxLines && position + consumed < rangeEnd && (line = reader.readLine()) != null) {
+            consumed += line.length() + 1;
+            lines++;
+            String[] fields = line.split(",");
+            if (fields.length != 4 || fields[0].startsWith("userId")) {
+                continue;
+            }
+            try {
+                long userId = Long.parseLong(fields[0]);
+                long movieId = Long.parseLong(fields[1]);
+                long timestamp = Long.parseLong(fields[3].trim());
+                if (filter.acceptUser(userId) && filter.acceptMovie(movieId) && filter.acceptTimestamp(timestamp)) {
+                    counts.merge(movieId, 1L, Long::sum);
+                    sampled++;
+                }
+            } catch (NumberFormatException e) {
+                // 无法解析的行不计入样本
+            }
+        }
+        return sampled;
+    }
+}
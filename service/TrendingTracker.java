@@ -0,0 +1,229 @@
+package com.abc.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上升趋势（评分速率变化）跟踪
+ *
+ * 每部电影维护两个指数衰减计数：短半衰期反映最近的评分速率，长半衰期作为基线。
+ * 计数只在写入或读取时按距上次更新的时间补做衰减（惰性衰减），每条事件O(1)，不保存也不扫描原始事件。
+ * 半衰期为h的衰减计数在速率r稳定时收敛到 r*h/ln2，据此换算成每分钟评分数。
+ *
+ * 排名依据z分数：假设评分按基线速率服从泊松过程，短半衰期计数的期望为 基线速率*h/ln2、方差为其一半，
+ * z = (短期计数 - 期望) / 标准差，衡量最近的评分比基线多出多少个标准差。
+ * 基线速率设有下限，避免刚出现的电影因基线接近0而得到极大的z分数；短期计数不足下限的电影不参与排名。
+ * 跟踪开始后不足几个半衰期时，衰减计数还没有收敛，按已运行时长 t 除以 1-2^(-t/h) 修正，
+ * 否则重启后的第一个小时里所有电影的基线都偏低、都像在上升；在跟踪开始之后才出现的电影不做这种修正。
+ */
+public class TrendingTracker {
+
+    private static final double LN2 = Math.log(2);
+    private static final double MS_PER_MINUTE = 60_000.0;
+
+    // 两个计数都衰减到该值以下的电影在排名时移除
+    private static final double EVICT_THRESHOLD = 0.01;
+
+    private final long shortHalfLifeMs;
+    private final long longHalfLifeMs;
+    private final double shortLambda;
+    private final double longLambda;
+    private final double minBaselinePerMinute;
+    private final double minRecentEvents;
+
+    private final ConcurrentHashMap<Long, DecayedCounts> movies = new ConcurrentHashMap<>();
+
+    // 最早一条事件的时间，用于修正刚开始跟踪时未收敛的计数
+    private final AtomicLong startedAt = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * 上升趋势排行榜中的一部电影
+     */
+    public static class TrendingMovie {
+        private Long movieId;
+        private String title;
+        private List<String> genres;
+        private Double recentRatePerMinute;
+        private Double baselineRatePerMinute;
+        // 最近速率减去基线速率（每分钟评分数）
+        private Double acceleration;
+        // z分数
+        private Double trendScore;
+        private Long timestamp;
+
+        public TrendingMovie() {}
+
+        public TrendingMovie(Long movieId, Double recentRatePerMinute, Double baselineRatePerMinute,
+                             Double acceleration, Double trendScore, Long timestamp) {
+            this.movieId = movieId;
+            this.recentRatePerMinute = recentRatePerMinute;
+            this.baselineRatePerMinute = baselineRatePerMinute;
+            this.acceleration = acceleration;
+            this.trendScore = trendScore;
+            this.timestamp = timestamp;
+        }
+
+        // Getters and Setters
+        public Long getMovieId() { return movieId; }
+        public void setMovieId(Long movieId) { this.movieId = movieId; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        public List<String> getGenres() { return genres; }
+        public void setGenres(List<String> genres) { this.genres = genres; }
+        public Double getRecentRatePerMinute() { return recentRatePerMinute; }
+        public void setRecentRatePerMinute(Double recentRatePerMinute) { this.recentRatePerMinute = recentRatePerMinute; }
+        public Double getBaselineRatePerMinute() { return baselineRatePerMinute; }
+        public void setBaselineRatePerMinute(Double baselineRatePerMinute) { this.baselineRatePerMinute = baselineRatePerMinute; }
+        public Double getAcceleration() { return acceleration; }
+        public void setAcceleration(Double acceleration) { this.acceleration = acceleration; }
+        public Double getTrendScore() { return trendScore; }
+        public void setTrendScore(Double trendScore) { this.trendScore = trendScore; }
+        public Long getTimestamp() { return timestamp; }
+        public void setTimestamp(Long timestamp) { this.timestamp = timestamp; }
+    }
+
+    /**
+     * 单部电影的两个衰减计数，值对应lastUpdate时刻
+     */
+    private static class DecayedCounts {
+        double shortCount;
+        double longCount;
+        long lastUpdate;
+        // 已从表中移除，写入方需重新取表中的对象
+        boolean evicted;
+
+        DecayedCounts(long lastUpdate) {
+            this.lastUpdate = lastUpdate;
+        }
+    }
+
+    /**
+     * @param minBaselinePerMinute 计算z分数时基线速率的下限（每分钟评分数）
+     * @param minRecentEvents      参与排名所需的最少短期计数
+     */
+    public TrendingTracker(long shortHalfLifeMs, long longHalfLifeMs, double minBaselinePerMinute, double minRecentEvents) {
+        if (shortHalfLifeMs <= 0 || longHalfLifeMs <= shortHalfLifeMs) {
+            throw new IllegalArgumentException("长半衰期必须大于短半衰期: " + shortHalfLifeMs + "/" + longHalfLifeMs);
+        }
+        this.shortHalfLifeMs = shortHalfLifeMs;
+        this.longHalfLifeMs = longHalfLifeMs;
+        this.shortLambda = LN2 / shortHalfLifeMs;
+        this.longLambda = LN2 / longHalfLifeMs;
+        this.minBaselinePerMinute = minBaselinePerMinute;
+        this.minRecentEvents = minRecentEvents;
+    }
+
+    public long getShortHalfLifeMs() {
+        return shortHalfLifeMs;
+    }
+
+    public long getLongHalfLifeMs() {
+        return longHalfLifeMs;
+    }
+
+    /**
+     * 累加weight次评分；早于上次更新时间的事件按其时间折算后计入，不回拨时钟
+     */
+    public void add(long movieId, int weight, long timestamp) {
+        if (timestamp < startedAt.get()) {
+            startedAt.accumulateAndGet(timestamp, Math::min);
+        }
+        while (true) {
+            DecayedCounts counts = movies.computeIfAbsent(movieId, k -> new DecayedCounts(timestamp));
+            synchronized (counts) {
+                if (counts.evicted) {
+                    continue;
+                }
+                long elapsed = timestamp - counts.lastUpdate;
+                if (elapsed >= 0) {
+                    decay(counts, elapsed);
+                    counts.lastUpdate = timestamp;
+                    counts.shortCount += weight;
+                    counts.longCount += weight;
+                } else {
+                    counts.shortCount += weight * Math.exp(shortLambda * elapsed);
+                    counts.longCount += weight * Math.exp(longLambda * elapsed);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按z分数取当前上升最快的k部电影；只遍历各电影的计数，顺带移除已衰减殆尽的电影
+     */
+    public List<TrendingMovie> topTrending(int k, long now) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0: " + k);
+        }
+        long age = now - startedAt.get();
+        double shortWarmup = age > 0 ? -Math.expm1(-shortLambda * age) : 1.0;
+        double longWarmup = age > 0 ? -Math.expm1(-longLambda * age) : 1.0;
+
+        // 小顶堆，堆顶是当前Top-K中z分数最低的一条
+        PriorityQueue<TrendingMovie> heap = new PriorityQueue<>(k + 1,
+                (a, b) -> Double.compare(a.getTrendScore(), b.getTrendScore()));
+        for (Map.Entry<Long, DecayedCounts> entry : movies.entrySet()) {
+            double shortCount;
+            double longCount;
+            DecayedCounts counts = entry.getValue();
+            synchronized (counts) {
+                if (counts.evicted) {
+                    continue;
+                }
+                // 读取时只在本地折算到now，不改写计数，避免与乱序写入互相影响
+                long elapsed = Math.max(0, now - counts.lastUpdate);
+                shortCount = counts.shortCount * Math.exp(-shortLambda * elapsed);
+                longCount = counts.longCount * Math.exp(-longLambda * elapsed);
+                if (shortCount < EVICT_THRESHOLD && longCount < EVICT_THRESHOLD) {
+                    counts.evicted = true;
+                    movies.remove(entry.getKey(), counts);
+                    continue;
+                }
+            }
+            if (shortCount < minRecentEvents) {
+                continue;
+            }
+
+            double recentRate = shortCount * shortLambda * MS_PER_MINUTE / shortWarmup;
+            double baselineRate = longCount * longLambda * MS_PER_MINUTE / longWarmup;
+            double baseline = Math.max(baselineRate, minBaselinePerMinute) / MS_PER_MINUTE;
+            double expected = baseline / shortLambda * shortWarmup;
+            double trendScore = (shortCount - expected) / Math.sqrt(expected / 2);
+            if (heap.size() < k) {
+                heap.add(new TrendingMovie(entry.getKey(), recentRate, baselineRate,
+                        recentRate - baselineRate, trendScore, now));
+            } else if (trendScore > heap.peek().getTrendScore()) {
+                heap.poll();
+                heap.add(new TrendingMovie(entry.getKey(), recentRate, baselineRate,
+                        recentRate - baselineRate, trendScore, now));
+            }
+        }
+        List<TrendingMovie> top = new ArrayList<>(heap);
+        top.sort((a, b) -> Double.compare(b.getTrendScore(), a.getTrendScore()));
+        return top;
+    }
+
+    /**
+     * 当前跟踪的电影数
+     */
+    public int getTrackedMovieCount() {
+        return movies.size();
+    }
+
+    public void clear() {
+        movies.clear();
+        startedAt.set(Long.MAX_VALUE);
+    }
+
+    private void decay(DecayedCounts counts, long elapsed) {
+        if (elapsed > 0) {
+            counts.shortCount *= Math.exp(-shortLambda * elapsed);
+            counts.longCount *= Math.exp(-longLambda * elapsed);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.abc.controller;
+
+import com.abc.service.LocalRatingResultStore;
+import com.abc.service.RatingExportService;
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.configuration.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * 通过Spring MVC的完整处理链调用 /export：返回值由StreamingResponseBody处理器异步写出，导出名额在结束后归还
+ */
+class MovieRatingControllerExportTest {
+
+    private static final String CSV = "movieId,avgRating,ratingCount\n1,3.5,10\n7,4.25,3\n";
+
+    @TempDir
+    Path storeDir;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LocalRatingResultStore store = new LocalRatingResultStore();
+        setField(store, "storeDir", storeDir.toString());
+        setField(store, "maxMovieId", 100L);
+        OutputFormat<Tuple3<Long, Double, Long>> sink = store.createRatingSink();
+        sink.configure(new Configuration());
+        sink.open(new OutputFormat.InitializationContext() {
+            @Override
+            public int getNumTasks() {
+                return 1;
+            }
+
+            @Override
+            public int getTaskNumber() {
+                return 0;
+            }
+
+            @Override
+            public int getAttemptNumber() {
+                return 0;
+            }
+        });
+        sink.writeRecord(Tuple3.of(1L, 3.5, 10L));
+        sink.writeRecord(Tuple3.of(7L, 4.25, 3L));
+        sink.close();
+
+        RatingExportService exportService = new RatingExportService();
+        setField(exportService, "resultStore", store);
+        setField(exportService, "maxConcurrentExports", 2);
+        exportService.init();
+
+        MovieRatingController controller = new MovieRatingController();
+        setField(controller, "ratingExportService", exportService);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void csvExportStreamsAndReleasesItsPermit() throws Exception {
+        // 名额上限为2，连续导出多次都成功说明每次结束后名额都已归还
+        for (int i = 0; i < 4; i++) {
+            MvcResult started = mockMvc.perform(get("/api/movie-rating/export")
+                            .param("format", "csv").param("metadata", "false"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            awaitExport(started);
+            mockMvc.perform(asyncDispatch(started))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Content-Type", "text/csv;charset=UTF-8"))
+                    .andExpect(header().string("Vary", "Accept-Encoding"))
+                    .andExpect(header().doesNotExist("Content-Encoding"))
+                    .andExpect(content().bytes(CSV.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    void ndjsonExportIsGzippedWhenAccepted() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/movie-rating/export")
+                        .param("metadata", "false").header("Accept-Encoding", "br, gzip;q=0.8"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitExport(started);
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            assertEquals("{\"movieId\":1,\"avgRating\":3.5,\"ratingCount\":10}\n"
+                            + "{\"movieId\":7,\"avgRating\":4.25,\"ratingCount\":3}\n"
+                            + "{\"complete\":true,\"count\":2}\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void rejectedExportsReturnJsonAndKeepPermits() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            MvcResult rejected = mockMvc.perform(get("/api/movie-rating/export").param("format", "xml").header("Accept", "text/csv"))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isBadRequest())
+                    .andExpect(content().contentTypeCompatibleWith("application/json"))
+                    .andReturn();
+            assertTrue(rejected.getResponse().getContentAsString(StandardCharsets.UTF_8).contains("\"status\":\"error\""));
+            mockMvc.perform(get("/api/movie-rating/export").param("scope", "../x"))
+                    .andExpect(status().isBadRequest());
+        }
+        MvcResult started = mockMvc.perform(get("/api/movie-rating/export").param("format", "csv").param("metadata", "false"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitExport(started);
+        mockMvc.perform(asyncDispatch(started)).andExpect(content().string(CSV));
+    }
+
+    /**
+     * 导出的异步超时为0（不限），MockMvc默认按该超时等待结果，这里改为最多等5秒
+     */
+    private static void awaitExport(MvcResult started) {
+        started.getAsyncResult(5000);
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,59 @@
+package com.abc.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecorderTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void percentilesUseNearestRank() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        // 乱序写入1..100毫秒
+        for (int i = 100; i >= 1; i--) {
+            recorder.record(i * MILLIS);
+        }
+        recorder.sort();
+        assertEquals(100, recorder.getCount());
+        assertEquals(50.0, recorder.percentileMillis(50));
+        assertEquals(95.0, recorder.percentileMillis(95));
+        assertEquals(99.0, recorder.percentileMillis(99));
+        // 样本不足1000个时p999取最大值
+        assertEquals(100.0, recorder.percentileMillis(99.9));
+        assertEquals(100.0, recorder.maxMillis());
+        assertEquals(1.0, recorder.percentileMillis(0));
+    }
+
+    @Test
+    void emptyRecorderReportsZero() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.sort();
+        assertEquals(0.0, recorder.percentileMillis(99));
+        assertEquals(0.0, recorder.maxMillis());
+    }
+
+    @Test
+    void mergeKeepsAllSamplesAndErrors() {
+        LatencyRecorder a = new LatencyRecorder();
+        LatencyRecorder b = new LatencyRecorder();
+        // 超过初始容量，覆盖扩容
+        for (int i = 0; i < 3000; i++) {
+            a.record(MILLIS);
+        }
+        for (int i = 0; i < 1000; i++) {
+            b.record(10 * MILLIS);
+        }
+        a.recordError();
+        b.recordError();
+        b.recordError();
+
+        a.merge(b);
+        a.sort();
+        assertEquals(4000, a.getCount());
+        assertEquals(3, a.getErrorCount());
+        assertEquals(1.0, a.percentileMillis(75));
+        assertEquals(10.0, a.percentileMillis(75.1));
+    }
+}
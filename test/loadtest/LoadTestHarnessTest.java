@@ -0,0 +1,62 @@
+package com.abc.loadtest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadTestHarnessTest {
+
+    static {
+        // 关闭Nagle算法，否则小响应每次都要等约40毫秒的延迟确认，请求间隔无法做到20毫秒
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Test
+    void stallIsChargedToRequestsQueuedBehindIt() throws Exception {
+        // 单线程服务端，第20个请求停顿600毫秒，模拟一次GC停顿
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (requests.incrementAndGet() == 20) {
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            String baseUrl = "http://localhost:" + server.getAddress().getPort();
+            // 1个线程、目标50 QPS，请求间隔20毫秒，持续3秒
+            Map<String, LatencyRecorder> results = LoadTestHarness.runReadLoad(baseUrl, "job", 1, 50, 3);
+
+            LatencyRecorder merged = new LatencyRecorder();
+            for (LatencyRecorder recorder : results.values()) {
+                merged.merge(recorder);
+            }
+            merged.sort();
+            assertEquals(0, merged.getErrorCount());
+            assertTrue(merged.getCount() >= 140, "请求数: " + merged.getCount());
+            assertTrue(merged.maxMillis() >= 550, "停顿本身应被记录: " + merged.maxMillis());
+            // 停顿期间计划发出的约30个请求都从计划时间起算，延迟超过100毫秒的超过10%；
+            // 闭环测量只会记录停顿的那一个请求
+            assertTrue(merged.percentileMillis(90) >= 100,
+                    "排队等待未计入延迟，p90=" + merged.percentileMillis(90));
+            assertTrue(merged.percentileMillis(50) < 100, "p50=" + merged.percentileMillis(50));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotMovieWindowTest {
+
+    private static final long WINDOW_MS = 60_000L;
+    private static final long BUCKET_MS = 10_000L;
+
+    @Test
+    void farFutureEventDoesNotEvictLiveBucket() {
+        HotMovieWindow window = new HotMovieWindow(WINDOW_MS, BUCKET_MS);
+        long now = System.currentTimeMillis();
+        assertTrue(window.add(1, 4.0, now));
+        // 与当前桶落在同一槽位的未来时间段
+        long sameSlotInFuture = now + 100 * WINDOW_MS;
+        assertFalse(window.add(2, 4.0, sameSlotInFuture));
+
+        Map<Long, HotMovieWindow.MovieTotals> totals = window.aggregate(now);
+        assertEquals(1, totals.size());
+        assertTrue(totals.containsKey(1L));
+    }
+
+    @Test
+    void slightClockSkewIsAccepted() {
+        HotMovieWindow window = new HotMovieWindow(WINDOW_MS, BUCKET_MS);
+        long now = System.currentTimeMillis();
+        assertTrue(window.add(1, 4.0, now + BUCKET_MS / 2));
+    }
+
+    @Test
+    void countOnlyAggregateSkipsRatersButEstimateStillWorks() {
+        HotMovieWindow window = new HotMovieWindow(WINDOW_MS, BUCKET_MS, 12);
+        long now = System.currentTimeMillis();
+        for (long user = 1; user <= 100; user++) {
+            assertTrue(window.add(7L, user, 4.0, 1, now));
+            assertTrue(window.add(7L, user, 3.0, 1, now - BUCKET_MS));
+        }
+
+        HotMovieWindow.MovieTotals counts = window.aggregate(now, false).get(7L);
+        assertEquals(200, counts.count);
+        assertNull(counts.getDistinctRaters());
+
+        Long full = window.aggregate(now).get(7L).getDistinctRaters();
+        assertEquals(full, window.estimateDistinctRaters(7L, now));
+        assertEquals(100, full, 5);
+        assertNull(window.estimateDistinctRaters(8L, now));
+    }
+}
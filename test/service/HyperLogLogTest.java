@@ -0,0 +1,95 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTest {
+
+    @Test
+    void smallCardinalityIsNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog(10);
+        for (long i = 0; i < 50; i++) {
+            sketch.offer(i);
+            sketch.offer(i);
+        }
+        assertEquals(50, sketch.estimate(), 2);
+    }
+
+    @Test
+    void largeCardinalityWithinStandardError() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        int n = 200_000;
+        for (long i = 0; i < n; i++) {
+            sketch.offer(i);
+        }
+        // 标准误差约1.6%，取3倍
+        assertEquals(n, sketch.estimate(), n * 0.05);
+    }
+
+    @Test
+    void mergeEstimatesUnion() {
+        HyperLogLog a = new HyperLogLog(10);
+        HyperLogLog b = new HyperLogLog(10);
+        HyperLogLog union = new HyperLogLog(10);
+        for (long i = 0; i < 30_000; i++) {
+            a.offer(i);
+            union.offer(i);
+        }
+        for (long i = 20_000; i < 50_000; i++) {
+            b.offer(i);
+            union.offer(i);
+        }
+        a.merge(b);
+        assertEquals(union.estimate(), a.estimate());
+    }
+
+    @Test
+    void mergeSparseIntoSparseStaysSmall() {
+        HyperLogLog a = new HyperLogLog(14);
+        HyperLogLog b = new HyperLogLog(14);
+        a.offer(1);
+        b.offer(2);
+        a.merge(b);
+        assertEquals(2, a.estimate());
+        assertTrue(a.getMemoryBytes() < (1 << 14));
+    }
+
+    @Test
+    void mergeRejectsDifferentPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(10).merge(new HyperLogLog(11)));
+    }
+
+    @Test
+    void rejectsInvalidPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MIN_PRECISION - 1));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    @Test
+    void serializationRoundTripsSparseAndDense() throws IOException {
+        for (int n : new int[]{10, 10_000}) {
+            HyperLogLog sketch = new HyperLogLog(10);
+            for (long i = 0; i < n; i++) {
+                sketch.offer(i * 7919);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            sketch.writeTo(new DataOutputStream(bytes));
+            HyperLogLog copy = HyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(sketch.estimate(), copy.estimate());
+        }
+    }
+
+    @Test
+    void readRejectsCorruptHeader() {
+        byte[] corrupt = {(byte) 99, 0};
+        assertThrows(IOException.class,
+                () -> HyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(corrupt))));
+    }
+}
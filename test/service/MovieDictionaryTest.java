@@ -0,0 +1,40 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MovieDictionaryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void malformedMovieIdsAreSkipped() throws Exception {
+        Path movies = dir.resolve("movies.csv");
+        Files.write(movies, Arrays.asList(
+                "movieId,title,genres",
+                "1,Toy Story (1995),Adventure|Animation",
+                "abc,Broken Row,Drama",
+                "99999999999,Too Large,Drama",
+                "2,Jumanji (1995),Adventure"), StandardCharsets.UTF_8);
+        Path links = dir.resolve("links.csv");
+        Files.write(links, Arrays.asList(
+                "movieId,imdbId,tmdbId",
+                "x1,0114709,862",
+                "2,0113497,8844"), StandardCharsets.UTF_8);
+
+        MovieDictionary dictionary = MovieDictionary.load(movies, links);
+
+        assertEquals(2, dictionary.size());
+        assertEquals("Toy Story (1995)", dictionary.getTitle(1));
+        assertEquals("Jumanji (1995)", dictionary.getTitle(2));
+        assertEquals(Arrays.asList("Adventure"), dictionary.getGenres(2));
+    }
+}
@@ -0,0 +1,106 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingBlockIndexTest {
+
+    private static Path csv;
+    private static long rows;
+
+    /**
+     * 按userId排序的评分文件，约3个块
+     */
+    @BeforeAll
+    static void writeRatings() throws IOException {
+        csv = Files.createTempFile("rating-block-index", ".csv");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write("userId,movieId,rating,timestamp\n");
+            long bytes = 0;
+            for (long userId = 1; bytes < 2L * RatingBlockIndex.BLOCK_SIZE + 1_000_000; userId++) {
+                for (int i = 0; i < 20; i++) {
+                    String line = userId + "," + (1 + random.nextInt(50_000)) + "," + (1 + random.nextInt(10)) / 2.0
+                            + "," + (1_000_000_000L + random.nextInt(500_000_000)) + "\n";
+                    writer.write(line);
+                    bytes += line.length();
+                    rows++;
+                }
+            }
+        }
+    }
+
+    @AfterAll
+    static void deleteRatings() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Test
+    void blocksCoverFileAndEndOnLineBoundaries() throws IOException {
+        RatingBlockIndex index = RatingBlockIndex.build(csv, Files.size(csv), 0);
+        List<RatingBlockIndex.Block> blocks = index.getBlocks();
+        assertEquals(3, blocks.size());
+        long expectedOffset = 0;
+        byte[] data = Files.readAllBytes(csv);
+        for (RatingBlockIndex.Block block : blocks) {
+            assertEquals(expectedOffset, block.getOffset());
+            assertEquals('\n', data[(int) (block.getOffset() + block.getLength() - 1)]);
+            expectedOffset += block.getLength();
+        }
+        assertEquals(Files.size(csv), expectedOffset);
+        // 表头不计入行数
+        assertEquals(rows, index.getTotalRows());
+    }
+
+    @Test
+    void userRangeSkipsBlocksWithoutMatchingRows() throws IOException {
+        RatingBlockIndex index = RatingBlockIndex.build(csv, Files.size(csv), 0);
+        RatingBlockIndex.Block first = index.getBlocks().get(0);
+        RatingFilter filter = new RatingFilter();
+        filter.setMaxUserId(first.getMinUserId());
+        assertEquals(1, index.select(filter).size());
+
+        filter.setMinUserId(Long.MAX_VALUE - 1);
+        filter.setMaxUserId(Long.MAX_VALUE);
+        assertTrue(index.select(filter).isEmpty());
+    }
+
+    @Test
+    void selectedBlocksContainEveryMatchingRow() throws IOException {
+        RatingBlockIndex index = RatingBlockIndex.build(csv, Files.size(csv), 0);
+        RatingFilter filter = new RatingFilter();
+        filter.setMovieIds(new long[]{7, 4_242, 49_999});
+        filter.setFromTimestamp(1_200_000_000L);
+
+        List<RatingBlockIndex.Block> selected = index.select(filter);
+        byte[] data = Files.readAllBytes(csv);
+        for (RatingBlockIndex.Block block : index.getBlocks()) {
+            String text = new String(data, (int) block.getOffset(), (int) block.getLength(), StandardCharsets.UTF_8);
+            boolean hasMatch = false;
+            for (String line : text.split("\n")) {
+                String[] fields = line.split(",");
+                if (fields[0].startsWith("userId")) {
+                    continue;
+                }
+                if (filter.acceptMovie(Long.parseLong(fields[1])) && filter.acceptTimestamp(Long.parseLong(fields[3]))) {
+                    hasMatch = true;
+                    break;
+                }
+            }
+            if (hasMatch) {
+                assertTrue(selected.contains(block), "有匹配行的块被跳过: offset=" + block.getOffset());
+            }
+        }
+    }
+}
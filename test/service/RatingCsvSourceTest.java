@@ -0,0 +1,81 @@
+package com.abc.service;
+
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.connector.file.src.reader.StreamFormat;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.Path;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingCsvSourceTest {
+
+    // 各行起始位置: 0, 2, 5, 9
+    private static final String CONTENT = "a\nbb\nccc\ndddd\n";
+
+    private static java.nio.file.Path csv;
+
+    @BeforeAll
+    static void writeFile() throws IOException {
+        csv = Files.createTempFile("rating-csv-source", ".csv");
+        Files.write(csv, CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterAll
+    static void deleteFile() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Test
+    void splitStartingMidLineSkipsPartialLine() throws IOException {
+        FSDataInputStream stream = open();
+        stream.seek(3);
+        StreamFormat.Reader<String> reader = new RatingCsvSource.LineFormat()
+                .createReader(new Configuration(), stream, CONTENT.length(), 9);
+        assertEquals(List.of("ccc"), readAll(reader));
+    }
+
+    @Test
+    void splitStartingAtLineStartKeepsFirstLine() throws IOException {
+        FSDataInputStream stream = open();
+        stream.seek(2);
+        StreamFormat.Reader<String> reader = new RatingCsvSource.LineFormat()
+                .createReader(new Configuration(), stream, CONTENT.length(), 9);
+        assertEquals(List.of("bb", "ccc"), readAll(reader));
+    }
+
+    @Test
+    void restoreReaderSeeksToRestoredOffset() throws IOException {
+        // 框架传入的流停在分片起点，恢复位置是行首
+        FSDataInputStream stream = open();
+        StreamFormat.Reader<String> reader = new RatingCsvSource.LineFormat()
+                .restoreReader(new Configuration(), stream, 5, CONTENT.length(), CONTENT.length());
+        assertEquals(List.of("ccc", "dddd"), readAll(reader));
+    }
+
+    private static FSDataInputStream open() throws IOException {
+        Path path = new Path(csv.toUri());
+        return path.getFileSystem().open(path);
+    }
+
+    private static List<String> readAll(StreamFormat.Reader<String> reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try {
+            String line;
+            while ((line = reader.read()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,153 @@
+package com.abc.service;
+
+import org.apache.flink.api.common.io.OutputFormat;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.configuration.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingExportServiceTest {
+
+    @TempDir
+    Path storeDir;
+
+    @Test
+    void gzipAcceptedWhenListedWithPositiveQuality() {
+        assertTrue(RatingExportService.acceptsGzip("gzip"));
+        assertTrue(RatingExportService.acceptsGzip("deflate, gzip;q=0.5"));
+        assertTrue(RatingExportService.acceptsGzip("br;q=1.0, x-gzip"));
+        assertTrue(RatingExportService.acceptsGzip("*"));
+    }
+
+    @Test
+    void gzipRejectedWhenQualityIsZeroOrMissing() {
+        assertFalse(RatingExportService.acceptsGzip(null));
+        assertFalse(RatingExportService.acceptsGzip(""));
+        assertFalse(RatingExportService.acceptsGzip("identity"));
+        assertFalse(RatingExportService.acceptsGzip("gzip;q=0"));
+        assertFalse(RatingExportService.acceptsGzip("gzip; q=0.000, deflate"));
+        // 明确拒绝gzip时不因通配符而压缩
+        assertFalse(RatingExportService.acceptsGzip("gzip;q=0, *"));
+        assertFalse(RatingExportService.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    void csvExportHasNoTrailerByDefault() throws Exception {
+        RatingExportService service = exportService();
+        RatingExportService.ExportRequest request = new RatingExportService.ExportRequest(null, null, false, 0);
+
+        assertEquals("movieId,avgRating,ratingCount\n1,3.5,10\n7,4.25,3\n42,2.0,1\n",
+                export(service, request, RatingExportService.Format.CSV, false));
+        // 压缩后的内容解压与不压缩时逐字节相同
+        assertEquals(export(service, request, RatingExportService.Format.CSV, false),
+                export(service, request, RatingExportService.Format.CSV, true));
+    }
+
+    @Test
+    void csvTrailerIsOptIn() throws Exception {
+        RatingExportService service = exportService();
+        RatingExportService.ExportRequest request =
+                new RatingExportService.ExportRequest(2L, null, false, 0, true, null);
+
+        assertEquals("movieId,avgRating,ratingCount\n7,4.25,3\n42,2.0,1\n# complete,count=2\n",
+                export(service, request, RatingExportService.Format.CSV, false));
+    }
+
+    @Test
+    void ndjsonExportWithAndWithoutTrailer() throws Exception {
+        RatingExportService service = exportService();
+        String rows = "{\"movieId\":1,\"avgRating\":3.5,\"ratingCount\":10}\n"
+                + "{\"movieId\":7,\"avgRating\":4.25,\"ratingCount\":3}\n";
+        RatingExportService.ExportRequest plain = new RatingExportService.ExportRequest(null, 10L, false, 0);
+        RatingExportService.ExportRequest withTrailer =
+                new RatingExportService.ExportRequest(null, 10L, false, 0, true, null);
+
+        assertEquals(rows, export(service, plain, RatingExportService.Format.NDJSON, false));
+        String expected = rows + "{\"complete\":true,\"count\":2}\n";
+        assertEquals(expected, export(service, withTrailer, RatingExportService.Format.NDJSON, false));
+        assertEquals(expected, export(service, withTrailer, RatingExportService.Format.NDJSON, true));
+    }
+
+    @Test
+    void limitStopsExportAndTrailerCountsRowsWritten() throws Exception {
+        RatingExportService service = exportService();
+        RatingExportService.ExportRequest request =
+                new RatingExportService.ExportRequest(null, null, false, 1, true, null);
+
+        assertEquals("{\"movieId\":1,\"avgRating\":3.5,\"ratingCount\":10}\n{\"complete\":true,\"count\":1}\n",
+                export(service, request, RatingExportService.Format.NDJSON, false));
+    }
+
+    /**
+     * 在临时目录的本地结果存储中写入3部电影，返回读取该存储的导出服务
+     */
+    private RatingExportService exportService() throws Exception {
+        LocalRatingResultStore store = new LocalRatingResultStore();
+        setField(store, "storeDir", storeDir.toString());
+        setField(store, "maxMovieId", 100L);
+
+        OutputFormat<Tuple3<Long, Double, Long>> sink = store.createRatingSink();
+        sink.configure(new Configuration());
+        sink.open(new OutputFormat.InitializationContext() {
+            @Override
+            public int getNumTasks() {
+                return 1;
+            }
+
+            @Override
+            public int getTaskNumber() {
+                return 0;
+            }
+
+            @Override
+            public int getAttemptNumber() {
+                return 0;
+            }
+        });
+        sink.writeRecord(Tuple3.of(42L, 2.0, 1L));
+        sink.writeRecord(Tuple3.of(1L, 3.5, 10L));
+        sink.writeRecord(Tuple3.of(7L, 4.25, 3L));
+        sink.close();
+
+        RatingExportService service = new RatingExportService();
+        setField(service, "resultStore", store);
+        setField(service, "maxConcurrentExports", 2);
+        service.init();
+        return service;
+    }
+
+    /**
+     * 导出并返回输出内容；压缩时先校验gzip魔数再解压
+     */
+    private static String export(RatingExportService service, RatingExportService.ExportRequest request,
+                                 RatingExportService.Format format, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(request, format, gzip, out);
+        byte[] bytes = out.toByteArray();
+        if (!gzip) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        assertEquals((byte) 0x1f, bytes[0]);
+        assertEquals((byte) 0x8b, bytes[1]);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,107 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingFilterTest {
+
+    @Test
+    void emptyFilterAcceptsEverything() {
+        RatingFilter filter = RatingFilter.none();
+        assertTrue(filter.isEmpty());
+        assertFalse(filter.isPrunable());
+        assertTrue(filter.acceptUser(1) && filter.acceptMovie(1) && filter.acceptTimestamp(1));
+        assertEquals("none", filter.toString());
+    }
+
+    @Test
+    void rangesAreInclusive() {
+        RatingFilter filter = new RatingFilter();
+        filter.setFromTimestamp(100L);
+        filter.setToTimestamp(200L);
+        filter.setMinMovieId(10L);
+        filter.setMaxMovieId(20L);
+        filter.setMinUserId(5L);
+        filter.setMaxUserId(5L);
+        assertTrue(filter.acceptTimestamp(100) && filter.acceptTimestamp(200));
+        assertFalse(filter.acceptTimestamp(99) || filter.acceptTimestamp(201));
+        assertTrue(filter.acceptMovie(10) && filter.acceptMovie(20));
+        assertFalse(filter.acceptMovie(9) || filter.acceptMovie(21));
+        assertTrue(filter.acceptUser(5));
+        assertFalse(filter.acceptUser(4) || filter.acceptUser(6));
+    }
+
+    @Test
+    void movieIdSetIsSortedAndDeduplicated() {
+        RatingFilter filter = new RatingFilter();
+        filter.setMovieIds(new long[]{30, 10, 30, 20});
+        assertArrayEquals(new long[]{10, 20, 30}, filter.getMovieIds());
+        assertTrue(filter.acceptMovie(20));
+        assertFalse(filter.acceptMovie(25));
+        filter.setMovieIds(new long[0]);
+        assertNull(filter.getMovieIds());
+    }
+
+    @Test
+    void equivalentFiltersDescribeTheSame() {
+        RatingFilter a = new RatingFilter();
+        a.setMovieIds(new long[]{3, 1, 2});
+        a.setToTimestamp(50L);
+        RatingFilter b = new RatingFilter();
+        b.setToTimestamp(50L);
+        b.setMovieIds(new long[]{1, 2, 3, 3});
+        assertEquals(a.toString(), b.toString());
+    }
+
+    @Test
+    void userSamplingIsDeterministicAndProportional() {
+        RatingFilter filter = new RatingFilter();
+        filter.setUserSampleRate(0.25);
+        int accepted = 0;
+        for (long userId = 0; userId < 100_000; userId++) {
+            boolean first = filter.acceptUser(userId);
+            assertEquals(first, filter.acceptUser(userId));
+            if (first) {
+                accepted++;
+            }
+        }
+        assertEquals(25_000, accepted, 1_000);
+        assertThrows(IllegalArgumentException.class, () -> filter.setUserSampleRate(0));
+        assertThrows(IllegalArgumentException.class, () -> filter.setUserSampleRate(1.5));
+    }
+
+    @Test
+    void cacheKeyCoversTheFullMovieIdSet() {
+        long[] ids = new long[50];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        RatingFilter first = new RatingFilter();
+        first.setMovieIds(ids);
+        long[] changed = ids.clone();
+        changed[25] = 1000;
+        RatingFilter second = new RatingFilter();
+        second.setMovieIds(changed);
+        RatingFilter reordered = new RatingFilter();
+        long[] reversed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            reversed[i] = ids[ids.length - 1 - i];
+        }
+        reordered.setMovieIds(reversed);
+
+        assertNotEquals(first.cacheKey(), second.cacheKey());
+        assertEquals(first.cacheKey(), reordered.cacheKey());
+        assertTrue(first.cacheKey().matches("[0-9a-f]{64}"));
+        assertEquals("none", RatingFilter.none().cacheKey());
+    }
+
+    @Test
+    void cacheKeyDistinguishesOpenAndClosedRanges() {
+        RatingFilter from = new RatingFilter();
+        from.setMinMovieId(10L);
+        RatingFilter to = new RatingFilter();
+        to.setMaxMovieId(10L);
+        assertNotEquals(from.cacheKey(), to.cacheKey());
+    }
+}
@@ -0,0 +1,119 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingPreviewEstimatorTest {
+
+    private static void addBlock(RatingPreviewService.Estimator estimator, String csv) {
+        byte[] data = csv.getBytes(StandardCharsets.UTF_8);
+        estimator.addBlock(data, data.length, csv.split("\n").length);
+    }
+
+    @Test
+    void ratioEstimatorMatchesHandComputedInterval() {
+        RatingPreviewService.Estimator estimator = new RatingPreviewService.Estimator(RatingFilter.none());
+        addBlock(estimator, "userId,movieId,rating,timestamp\n1,1,4.0,10\n2,1,2.0,10\n");
+        addBlock(estimator, "3,1,5.0,10\n");
+        addBlock(estimator, "4,1,3.0,10\n5,1,3.0,10\n6,1,3.0,10");
+
+        RatingPreviewService.PreviewSnapshot snapshot = estimator.snapshot(6, 12);
+        assertEquals(3, snapshot.getSampledBlocks());
+        RatingPreviewService.MovieEstimate estimate = snapshot.estimate(snapshot.indexOf(1));
+
+        // 各块(评分和, 评分数) = (6,2), (5,1), (9,3)，比率估计 R = 20/6
+        double mean = 20.0 / 6;
+        double residualSq = Math.pow(6 - 2 * mean, 2) + Math.pow(5 - mean, 2) + Math.pow(9 - 3 * mean, 2);
+        double meanCount = 2.0;
+        double variance = (1 - 3.0 / 6) * residualSq / (3 - 1) / (3 * meanCount * meanCount);
+        double halfWidth = RatingPreviewService.tQuantile95(2) * Math.sqrt(variance);
+
+        assertEquals(mean, estimate.getAvgRating(), 1e-12);
+        assertEquals(mean - halfWidth, estimate.getLowerBound(), 1e-12);
+        assertEquals(mean + halfWidth, estimate.getUpperBound(), 1e-12);
+        assertEquals(6L, estimate.getSampledCount());
+        assertEquals(12L, estimate.getEstimatedRatingCount());
+    }
+
+    @Test
+    void singleBlockHasNoInterval() {
+        RatingPreviewService.Estimator estimator = new RatingPreviewService.Estimator(RatingFilter.none());
+        addBlock(estimator, "1,1,4.5,10\n2,1,3.5,10\n");
+        RatingPreviewService.MovieEstimate estimate = estimator.snapshot(10, 20).estimate(0);
+        assertEquals(4.0, estimate.getAvgRating(), 1e-12);
+        assertNull(estimate.getLowerBound());
+        assertNull(estimate.getUpperBound());
+    }
+
+    @Test
+    void readingEveryBlockCollapsesTheInterval() {
+        RatingPreviewService.Estimator estimator = new RatingPreviewService.Estimator(RatingFilter.none());
+        addBlock(estimator, "1,1,1.0,10\n");
+        addBlock(estimator, "2,1,5.0,10\n");
+        RatingPreviewService.MovieEstimate estimate = estimator.snapshot(2, 2).estimate(0);
+        assertEquals(3.0, estimate.getAvgRating(), 1e-12);
+        assertEquals(3.0, estimate.getLowerBound(), 1e-12);
+        assertEquals(3.0, estimate.getUpperBound(), 1e-12);
+    }
+
+    @Test
+    void filterAndMalformedRowsAreExcluded() {
+        RatingFilter filter = new RatingFilter();
+        filter.setMovieIds(new long[]{2});
+        RatingPreviewService.Estimator estimator = new RatingPreviewService.Estimator(filter);
+        addBlock(estimator, "userId,movieId,rating,timestamp\n1,1,4.0,10\n1,2,2.5,10\n1,2,x,10\n1,2,3.5\n");
+        RatingPreviewService.PreviewSnapshot snapshot = estimator.snapshot(1, 4);
+        assertEquals(1, snapshot.getMovieCount());
+        assertEquals(2.5, snapshot.estimate(snapshot.indexOf(2)).getAvgRating(), 1e-12);
+        assertTrue(snapshot.indexOf(1) < 0);
+    }
+
+    @Test
+    void intervalsCoverTrueMeanAtNominalRate() {
+        // 200块、每块评分数和均值不同；每次随机抽20块，统计置信区间覆盖真实均值的比例
+        int totalBlocks = 200;
+        Random random = new Random(7);
+        StringBuilder[] blocks = new StringBuilder[totalBlocks];
+        double totalSum = 0;
+        long totalCount = 0;
+        for (int b = 0; b < totalBlocks; b++) {
+            blocks[b] = new StringBuilder();
+            int count = 1 + random.nextInt(30);
+            double blockBias = random.nextGaussian() * 0.5;
+            for (int i = 0; i < count; i++) {
+                double rating = Math.max(0.5, Math.min(5.0, Math.round((3.5 + blockBias + random.nextGaussian()) * 2) / 2.0));
+                blocks[b].append(b).append(",1,").append(rating).append(",10\n");
+                totalSum += rating;
+                totalCount++;
+            }
+        }
+        double trueMean = totalSum / totalCount;
+
+        int trials = 2000;
+        int covered = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            RatingPreviewService.Estimator estimator = new RatingPreviewService.Estimator(RatingFilter.none());
+            int[] order = random.ints(0, totalBlocks).distinct().limit(20).toArray();
+            for (int b : order) {
+                addBlock(estimator, blocks[b].toString());
+            }
+            RatingPreviewService.MovieEstimate estimate = estimator.snapshot(totalBlocks, totalCount).estimate(0);
+            if (estimate.getLowerBound() <= trueMean && trueMean <= estimate.getUpperBound()) {
+                covered++;
+            }
+        }
+        double coverage = (double) covered / trials;
+        assertTrue(coverage > 0.92 && coverage < 0.98, "95%置信区间的覆盖率: " + coverage);
+    }
+
+    @Test
+    void tQuantilesApproachNormal() {
+        assertEquals(12.706, RatingPreviewService.tQuantile95(1), 1e-3);
+        assertTrue(RatingPreviewService.tQuantile95(5) > RatingPreviewService.tQuantile95(20));
+        assertEquals(1.960, RatingPreviewService.tQuantile95(10_000), 1e-3);
+    }
+}
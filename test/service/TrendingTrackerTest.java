@@ -0,0 +1,62 @@
+package com.abc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrendingTrackerTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    void burstRanksAboveSteadyMovie() {
+        TrendingTracker tracker = new TrendingTracker(5 * MINUTE, 60 * MINUTE, 0.1, 3);
+        long start = 0;
+        // 两部电影在前两小时都是每分钟1条
+        for (long t = start; t < start + 120 * MINUTE; t += MINUTE) {
+            tracker.add(1, 1, t);
+            tracker.add(2, 1, t);
+        }
+        long now = start + 120 * MINUTE;
+        // 电影2最近5分钟每分钟10条
+        for (long t = now - 5 * MINUTE; t < now; t += MINUTE / 10) {
+            tracker.add(2, 1, t);
+        }
+
+        List<TrendingTracker.TrendingMovie> top = tracker.topTrending(2, now);
+        assertEquals(2, top.size());
+        assertEquals(2L, top.get(0).getMovieId());
+        assertTrue(top.get(0).getTrendScore() > 5, "突增电影的z分数应明显为正: " + top.get(0).getTrendScore());
+        // 稳定电影的近期速率与基线一致，z分数接近0
+        assertEquals(0.0, top.get(1).getTrendScore(), 1.5);
+        assertTrue(top.get(0).getAcceleration() > 0);
+    }
+
+    @Test
+    void moviesBelowMinRecentEventsAreSkipped() {
+        TrendingTracker tracker = new TrendingTracker(5 * MINUTE, 60 * MINUTE, 0.1, 3);
+        tracker.add(1, 1, 0);
+        assertTrue(tracker.topTrending(10, MINUTE).isEmpty());
+        tracker.add(1, 5, MINUTE);
+        assertEquals(1, tracker.topTrending(10, MINUTE).size());
+    }
+
+    @Test
+    void decayedMoviesAreEvicted() {
+        TrendingTracker tracker = new TrendingTracker(MINUTE, 10 * MINUTE, 0.1, 1);
+        tracker.add(1, 1, 0);
+        assertEquals(1, tracker.getTrackedMovieCount());
+        tracker.topTrending(1, 1000 * MINUTE);
+        assertEquals(0, tracker.getTrackedMovieCount());
+    }
+
+    @Test
+    void rejectsInvalidHalfLives() {
+        assertThrows(IllegalArgumentException.class, () -> new TrendingTracker(MINUTE, MINUTE, 0.1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TrendingTracker(0, MINUTE, 0.1, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new TrendingTracker(MINUTE, 10 * MINUTE, 0.1, 1).topTrending(0, 0));
+    }
+}